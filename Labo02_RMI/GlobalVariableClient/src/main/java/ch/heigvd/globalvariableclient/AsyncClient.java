@@ -0,0 +1,379 @@
+package ch.heigvd.globalvariableclient;
+
+import ch.heigvd.interfacesrmi.IGlobalVariable;
+import java.net.MalformedURLException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Client asynchrone de variable globale. Chaque opération retourne
+ * immédiatement un CompletableFuture, plusieurs opérations pouvant être en
+ * cours en même temps. Un thread applicatif n'est ainsi plus bloqué pendant
+ * toute l'attente de la section critique.
+ *
+ * Les opérations sur une même variable sont envoyées dans l'ordre de leur
+ * appel, chacune après la fin de la précédente : une lecture voit toujours
+ * les écritures demandées avant elle. Les opérations sur des variables
+ * différentes sont envoyées en parallèle.
+ *
+ * Le nombre d'opérations en cours est borné par une fenêtre : lorsqu'elle est
+ * pleine, l'appelant est bloqué jusqu'à ce qu'une opération se termine. Les
+ * futurs sont complétés sur l'Executor fourni par l'appelant, les callbacks
+ * (thenAccept, ...) s'y exécutent donc aussi.
+ *
+ * Si le regroupement des écritures est activé, une écriture sur une variable
+ * dont une écriture précédente attend encore son envoi remplace simplement la
+ * valeur de celle-ci : seule la dernière valeur est écrite, et
+ * les deux écritures partagent le même futur. Une écriture n'est regroupée
+ * qu'avec les écritures demandées après toute autre opération sur la même
+ * variable : set(k, 1), get(k), set(k, 2) écrit bien 1 avant la lecture. Les
+ * opérations addAndGet et compareAndSet ne sont jamais regroupées.
+ *
+ * RMI étant bloquant, les appels sont faits par un thread d'envoi par place
+ * de la fenêtre.
+ *
+ * A la fermeture, les futurs des opérations pas encore terminées sont
+ * complétés par une IllegalStateException, de même que ceux des opérations
+ * demandées ensuite.
+ *
+ * @author Miguel Pombo Dias
+ * @author Rémi Jacquemard
+ */
+public class AsyncClient implements AutoCloseable {
+
+	/**
+	 * Un appel au serveur distant
+	 */
+	@FunctionalInterface
+	private interface Call<T> {
+
+		T on(IGlobalVariable server) throws RemoteException;
+	}
+
+	/**
+	 * Une écriture en attente d'envoi, pouvant encore être regroupée avec les
+	 * suivantes
+	 */
+	private static class PendingWrite {
+
+		private int value;
+		private CompletableFuture<Void> future;
+
+		PendingWrite(int value) {
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Le client synchrone utilisé par les threads d'envoi
+	 */
+	private final Client client;
+
+	/**
+	 * Limite le nombre d'opérations en cours
+	 */
+	private final Semaphore window;
+
+	/**
+	 * Les threads d'envoi, un par place de la fenêtre
+	 */
+	private final ExecutorService senders;
+
+	/**
+	 * L'Executor sur lequel les futurs sont complétés
+	 */
+	private final Executor callbackExecutor;
+
+	/**
+	 * Indique si les écritures sur une même variable sont regroupées
+	 */
+	private final boolean coalesceWrites;
+
+	/**
+	 * Les écritures pas encore envoyées, par clé. Protégé par son propre
+	 * moniteur
+	 */
+	private final Map<String, PendingWrite> pendingWrites = new HashMap<>();
+
+	/**
+	 * La dernière opération demandée sur chaque variable, après laquelle la
+	 * suivante doit être envoyée. Protégé par son propre moniteur
+	 */
+	private final Map<String, CompletableFuture<Void>> lastOperations = new HashMap<>();
+
+	/**
+	 * Les futurs des opérations pas encore terminées, complétés en erreur à la
+	 * fermeture. Protégé par son propre moniteur, comme closed
+	 */
+	private final Set<CompletableFuture<?>> outstanding = new HashSet<>();
+
+	/**
+	 * Le nombre d'opérations de outstanding dont l'appel a commencé, qui
+	 * rendront elles-mêmes leur place de la fenêtre. Protégé par le moniteur
+	 * de outstanding
+	 */
+	private int running = 0;
+
+	private boolean closed = false;
+
+	/**
+	 * Permet de créer un client asynchrone se connectant au serveur passé en
+	 * paramètre
+	 *
+	 * @param site le site sur lequel se connecter, de la forme "10.2.3.4:2002"
+	 * @param maxInFlight le nombre maximal d'opérations en cours
+	 * @param callbackExecutor l'Executor sur lequel compléter les futurs
+	 * @param coalesceWrites vrai pour regrouper les écritures non envoyées
+	 * @throws MalformedURLException Si l'url n'est pas bon
+	 * @throws RemoteException Si il y a un problème avec la connexion du site
+	 * @throws NotBoundException si il y a un problème avec le binding
+	 */
+	public AsyncClient(String site, int maxInFlight, Executor callbackExecutor, boolean coalesceWrites)
+			throws MalformedURLException, RemoteException, NotBoundException {
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException("maxInFlight must be at least 1");
+		}
+
+		this.client = new Client(site);
+		this.window = new Semaphore(maxInFlight);
+		this.callbackExecutor = callbackExecutor;
+		this.coalesceWrites = coalesceWrites;
+		this.senders = Executors.newFixedThreadPool(maxInFlight, (r) -> {
+			Thread t = new Thread(r);
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * @return la valeur de la variable globale
+	 * @throws InterruptedException si l'attente d'une place dans la fenêtre
+	 * est interrompue
+	 */
+	public CompletableFuture<Integer> getGlobalVariable() throws InterruptedException {
+		return getGlobalVariable(IGlobalVariable.DEFAULT_KEY);
+	}
+
+	/**
+	 * @param key le nom de la variable
+	 * @return la valeur de la variable globale nommée
+	 * @throws InterruptedException si l'attente d'une place dans la fenêtre
+	 * est interrompue
+	 */
+	public CompletableFuture<Integer> getGlobalVariable(String key) throws InterruptedException {
+		return submit(key, (server) -> server.getVariable(key));
+	}
+
+	/**
+	 * @param value la nouvelle valeur de la variable globale
+	 * @return un futur complété une fois la valeur écrite sur tous les sites
+	 * @throws InterruptedException si l'attente d'une place dans la fenêtre
+	 * est interrompue
+	 */
+	public CompletableFuture<Void> setGlobalValue(int value) throws InterruptedException {
+		return setGlobalValue(IGlobalVariable.DEFAULT_KEY, value);
+	}
+
+	/**
+	 * @param key le nom de la variable
+	 * @param value la nouvelle valeur de la variable globale nommée
+	 * @return un futur complété une fois la valeur (ou une valeur écrite après
+	 * elle, en cas de regroupement) écrite sur tous les sites
+	 * @throws InterruptedException si l'attente d'une place dans la fenêtre
+	 * est interrompue
+	 */
+	public CompletableFuture<Void> setGlobalValue(String key, int value) throws InterruptedException {
+		if (!coalesceWrites) {
+			return submit(key, (server) -> {
+				server.setVariable(key, value);
+				return null;
+			});
+		}
+
+		synchronized (pendingWrites) {
+			PendingWrite write = pendingWrites.get(key);
+			if (write != null) {
+				// L'écriture précédente n'est pas encore partie : on la remplace
+				write.value = value;
+				return write.future;
+			}
+		}
+
+		window.acquire();
+		synchronized (pendingWrites) {
+			PendingWrite write = pendingWrites.get(key);
+			if (write != null) {
+				// Regroupée pendant l'attente d'une place dans la fenêtre
+				window.release();
+				write.value = value;
+				return write.future;
+			}
+
+			final PendingWrite pending = new PendingWrite(value);
+			pending.future = enqueue(key, (server) -> {
+				int toWrite;
+				synchronized (pendingWrites) {
+					// A partir d'ici, les écritures suivantes ne sont plus regroupées
+					pendingWrites.remove(key, pending);
+					toWrite = pending.value;
+				}
+				server.setVariable(key, toWrite);
+				return null;
+			});
+			pendingWrites.put(key, pending);
+			return pending.future;
+		}
+	}
+
+	/**
+	 * @param key le nom de la variable
+	 * @param delta la valeur à ajouter atomiquement
+	 * @return la nouvelle valeur de la variable
+	 * @throws InterruptedException si l'attente d'une place dans la fenêtre
+	 * est interrompue
+	 */
+	public CompletableFuture<Integer> addAndGet(String key, int delta) throws InterruptedException {
+		return submit(key, (server) -> server.addAndGet(key, delta));
+	}
+
+	/**
+	 * @param key le nom de la variable
+	 * @param expected la valeur attendue
+	 * @param value la nouvelle valeur
+	 * @return vrai si la variable a été modifiée
+	 * @throws InterruptedException si l'attente d'une place dans la fenêtre
+	 * est interrompue
+	 */
+	public CompletableFuture<Boolean> compareAndSet(String key, int expected, int value) throws InterruptedException {
+		return submit(key, (server) -> server.compareAndSet(key, expected, value));
+	}
+
+	/**
+	 * Arrête les threads d'envoi. Les opérations pas encore terminées sont
+	 * abandonnées, leurs futurs complétés par une IllegalStateException
+	 */
+	@Override
+	public void close() {
+		List<CompletableFuture<?>> abandoned;
+		int notStarted;
+		synchronized (outstanding) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			abandoned = new ArrayList<>(outstanding);
+			notStarted = outstanding.size() - running;
+			outstanding.clear();
+		}
+		synchronized (pendingWrites) {
+			pendingWrites.clear();
+		}
+		senders.shutdownNow();
+
+		for (CompletableFuture<?> future : abandoned) {
+			fail(future, new IllegalStateException("AsyncClient closed"));
+		}
+		// Les appelants attendant une place dans la fenêtre ne doivent pas
+		// attendre des opérations qui ne commenceront pas. Celles en cours
+		// rendent leur place à la fin de leur appel
+		window.release(notStarted);
+	}
+
+	/**
+	 * Réserve une place dans la fenêtre puis met l'appel en file
+	 */
+	private <T> CompletableFuture<T> submit(String key, Call<T> call) throws InterruptedException {
+		synchronized (outstanding) {
+			if (closed) {
+				return closedFuture();
+			}
+		}
+		window.acquire();
+		return enqueue(key, call);
+	}
+
+	/**
+	 * Envoie l'appel depuis un thread d'envoi, une fois la dernière opération
+	 * sur la même variable terminée. Une place de la fenêtre doit avoir été
+	 * réservée, elle est rendue à la fin de l'appel, ou par close() si l'appel
+	 * n'a pas commencé avant la fermeture.
+	 */
+	private <T> CompletableFuture<T> enqueue(String key, Call<T> call) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		CompletableFuture<Void> done = new CompletableFuture<>();
+		synchronized (outstanding) {
+			if (closed) {
+				window.release();
+				return closedFuture();
+			}
+			outstanding.add(future);
+		}
+
+		CompletableFuture<Void> previous;
+		synchronized (pendingWrites) {
+			// Les écritures suivantes sur la variable ne doivent pas être
+			// regroupées avec une écriture envoyée avant cette opération
+			pendingWrites.remove(key);
+			synchronized (lastOperations) {
+				previous = lastOperations.getOrDefault(key, CompletableFuture.completedFuture(null));
+				lastOperations.put(key, done);
+			}
+		}
+
+		previous.thenRunAsync(() -> {
+			boolean abandoned;
+			synchronized (outstanding) {
+				abandoned = !outstanding.contains(future);
+				if (!abandoned) {
+					running++;
+				}
+			}
+			if (abandoned) {
+				// Abandonnée par close(), qui a déjà rendu sa place
+				done.complete(null);
+				return;
+			}
+			try {
+				complete(future, call.on(client.server()));
+			} catch (RemoteException | RuntimeException ex) {
+				fail(future, ex);
+			} finally {
+				window.release();
+				synchronized (outstanding) {
+					running--;
+					outstanding.remove(future);
+				}
+				synchronized (lastOperations) {
+					lastOperations.remove(key, done);
+				}
+				done.complete(null);
+			}
+		}, senders);
+		return future;
+	}
+
+	private <T> CompletableFuture<T> closedFuture() {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		future.completeExceptionally(new IllegalStateException("AsyncClient closed"));
+		return future;
+	}
+
+	private <T> void complete(CompletableFuture<T> future, T value) {
+		callbackExecutor.execute(() -> future.complete(value));
+	}
+
+	private void fail(CompletableFuture<?> future, Throwable ex) {
+		callbackExecutor.execute(() -> future.completeExceptionally(ex));
+	}
+}
@@ -5,9 +5,19 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.MalformedURLException;
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
 import java.rmi.Naming;
+import java.rmi.NoSuchObjectException;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
+import java.rmi.UnknownHostException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -17,15 +27,107 @@ import java.util.logging.Logger;
  * une application en tant que librairie, ce qui permettrait facilement d'avoir
  * une variable globale commune à plusieurs application
  *
+ * Le client peut aussi recevoir la liste de plusieurs sites de la grappe. Il
+ * garde alors une connexion vers chacun d'eux, et les sonde périodiquement
+ * afin de connaître leur latence et leur charge (le nombre d'écritures en
+ * cours annoncé par le site). Chaque lecture est envoyée au moins chargé de
+ * deux sites tirés au hasard, pondéré par sa latence : les lectures se
+ * répartissent sur toute la grappe, en évitant les sites lents ou chargés.
+ *
+ * Les écritures sont envoyées à un site principal. S'il ne répond plus, le
+ * client passe au site suivant et réessaie : setGlobalValue dans tous les
+ * cas, addAndGet et compareAndSet seulement si l'appel n'a pas pu atteindre
+ * le site, afin de ne jamais appliquer deux fois la même opération. Un site
+ * injoignable est à nouveau sondé, et réutilisé dès qu'il répond.
+ *
  * @author Miguel Pombo Dias
  * @author Rémi Jacquemard
  */
-public class Client {
+public class Client implements AutoCloseable {
 
 	/**
-	 * Le serveur distant RMI
+	 * Un appel au serveur d'un site
 	 */
-	private IGlobalVariable server;
+	@FunctionalInterface
+	private interface Call<T> {
+
+		T on(IGlobalVariable server) throws RemoteException;
+	}
+
+	/**
+	 * Un site de la grappe, tel que vu par le client
+	 */
+	private static class Site {
+
+		private final String address;
+
+		/**
+		 * Le serveur distant RMI, null tant que le site est injoignable
+		 */
+		private volatile IGlobalVariable server;
+
+		/**
+		 * La charge annoncée lors de la dernière sonde
+		 */
+		private volatile int load;
+
+		/**
+		 * Moyenne mobile de la durée d'un appel, en microsecondes
+		 */
+		private volatile double latencyMicros = 1000;
+
+		/**
+		 * Le nombre d'appels de ce client en cours vers le site, plus récent
+		 * que la charge annoncée
+		 */
+		private final AtomicInteger inFlight = new AtomicInteger();
+
+		/**
+		 * Le nombre de lectures envoyées au site
+		 */
+		private final AtomicLong reads = new AtomicLong();
+
+		Site(String address) {
+			this.address = address;
+		}
+
+		/**
+		 * @return le coût estimé d'un appel : sa latence, multipliée par le
+		 * nombre d'appels qui le précéderaient
+		 */
+		double score() {
+			return latencyMicros * (1 + load + inFlight.get());
+		}
+
+		void measured(long nanos) {
+			latencyMicros = latencyMicros * (1 - LATENCY_WEIGHT) + nanos / 1e3 * LATENCY_WEIGHT;
+		}
+	}
+
+	/**
+	 * Intervalle entre deux sondes des sites, en millisecondes
+	 */
+	public static final long PROBE_INTERVAL_MILLIS = 500;
+
+	/**
+	 * Le poids d'une nouvelle mesure dans la moyenne mobile des latences
+	 */
+	private static final double LATENCY_WEIGHT = 0.2;
+
+	/**
+	 * Les sites connus, dans l'ordre donné au constructeur
+	 */
+	private final Site[] sites;
+
+	/**
+	 * L'index du site principal, auquel sont envoyées les écritures
+	 */
+	private volatile int primary;
+
+	/**
+	 * Sonde les sites périodiquement. null avec un seul site
+	 */
+	private final ScheduledExecutorService prober;
 
 	/**
 	 * Permet de créer un client qui se connecte à un serveur gérant des
@@ -37,12 +139,53 @@ public class Client {
 	 * @throws NotBoundException si il y a un problème avec le binding
 	 */
 	public Client(String site) throws MalformedURLException, RemoteException, NotBoundException {
-		// Rechercher une reference au serveur
-		try {
-			server = (IGlobalVariable) Naming.lookup("//" + site + "/" + IGlobalVariable.RMI_NAME);
-		} catch (MalformedURLException | NotBoundException | RemoteException e) {
+		this(new String[]{site});
+	}
+
+	/**
+	 * Permet de créer un client connaissant plusieurs sites de la grappe,
+	 * entre lesquels il répartit ses lectures. Le premier site joignable est
+	 * le site principal des écritures
+	 *
+	 * @param sites les sites de la grappe, de la forme "10.2.3.4:2002"
+	 * @throws MalformedURLException Si une url n'est pas bonne
+	 * @throws RemoteException Si aucun site n'est joignable
+	 * @throws NotBoundException si aucun site n'a de serveur lié
+	 */
+	public Client(String... sites) throws MalformedURLException, RemoteException, NotBoundException {
+		this.sites = new Site[sites.length];
+		int first = -1;
+		Exception error = null;
+		for (int i = 0; i < sites.length; i++) {
+			this.sites[i] = new Site(sites[i]);
+			// Rechercher une reference au serveur
+			try {
+				connect(this.sites[i]);
+				if (first < 0) {
+					first = i;
+				}
+			} catch (NotBoundException | RemoteException e) {
+				error = e;
+			}
+		}
+		if (first < 0) {
 			System.err.println("Erreur avec la reference du serveur");
-			throw e;
+			if (error instanceof NotBoundException) {
+				throw (NotBoundException) error;
+			}
+			throw (RemoteException) error;
+		}
+		this.primary = first;
+
+		if (sites.length > 1) {
+			prober = Executors.newSingleThreadScheduledExecutor((r) -> {
+				Thread t = new Thread(r, "client-prober");
+				t.setDaemon(true);
+				return t;
+			});
+			prober.scheduleWithFixedDelay(this::probe, 0, PROBE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+		} else {
+			prober = null;
 		}
 	}
 
@@ -54,7 +197,7 @@ public class Client {
 	 * la variable
 	 */
 	public int getGlobalVariable() throws RemoteException {
-		return server.getVariable();
+		return read((server) -> server.getVariable());
 	}
 
 	/**
@@ -66,7 +209,306 @@ public class Client {
 	 * la variable
 	 */
 	public void setGlobalValue(int value) throws RemoteException {
-		server.setVariable(value);
+		write((server) -> {
+			server.setVariable(value);
+			return null;
+		}, true);
+	}
+
+	/**
+	 * Permet de récupérer une variable globale nommée à partir du serveur
+	 *
+	 * @param key le nom de la variable
+	 * @return la valeur de la variable, 0 si elle n'a jamais été écrite
+	 * @throws RemoteException s'il y a eu une erreur lors de la récupèration de
+	 * la variable
+	 */
+	public int getGlobalVariable(String key) throws RemoteException {
+		return read((server) -> server.getVariable(key));
+	}
+
+	/**
+	 * Permet de récupérer une variable globale nommée, reflétant toute
+	 * écriture terminée depuis plus de 'maxStalenessMillis'. Servie
+	 * localement par le site s'il peut le garantir, en section critique sinon
+	 *
+	 * @param key le nom de la variable
+	 * @param maxStalenessMillis l'ancienneté maximale tolérée, en
+	 * millisecondes
+	 * @return la valeur de la variable, 0 si elle n'a jamais été écrite
+	 * @throws RemoteException s'il y a eu une erreur lors de la récupèration de
+	 * la variable
+	 */
+	public int getGlobalVariable(String key, long maxStalenessMillis) throws RemoteException {
+		return read((server) -> server.getVariable(key, maxStalenessMillis));
+	}
+
+	/**
+	 * Permet de modifier une variable globale nommée. Seuls les écrivains de
+	 * la même variable sont en concurrence. Est bloquant (attente de la SC)
+	 *
+	 * @param key le nom de la variable
+	 * @param value la nouvelle valeur de la variable
+	 * @throws RemoteException s'il y a eu une erreur lors de la modification de
+	 * la variable
+	 */
+	public void setGlobalValue(String key, int value) throws RemoteException {
+		write((server) -> {
+			server.setVariable(key, value);
+			return null;
+		}, true);
+	}
+
+	/**
+	 * Ajoute atomiquement une valeur à la variable globale, en une seule
+	 * section critique. Est bloquant (attente de la SC)
+	 *
+	 * @param delta la valeur à ajouter
+	 * @return la nouvelle valeur de la variable
+	 * @throws RemoteException s'il y a eu une erreur lors de la modification de
+	 * la variable
+	 */
+	public int addAndGet(int delta) throws RemoteException {
+		return write((server) -> server.addAndGet(delta), false);
+	}
+
+	/**
+	 * Ajoute atomiquement une valeur à une variable globale nommée
+	 *
+	 * @param key le nom de la variable
+	 * @param delta la valeur à ajouter
+	 * @return la nouvelle valeur de la variable
+	 * @throws RemoteException s'il y a eu une erreur lors de la modification de
+	 * la variable
+	 */
+	public int addAndGet(String key, int delta) throws RemoteException {
+		return write((server) -> server.addAndGet(key, delta), false);
+	}
+
+	/**
+	 * Remplace atomiquement la variable globale si elle vaut la valeur
+	 * attendue. Est bloquant (attente de la SC)
+	 *
+	 * @param expected la valeur attendue
+	 * @param value la nouvelle valeur
+	 * @return vrai si la variable a été modifiée
+	 * @throws RemoteException s'il y a eu une erreur lors de la modification de
+	 * la variable
+	 */
+	public boolean compareAndSet(int expected, int value) throws RemoteException {
+		return write((server) -> server.compareAndSet(expected, value), false);
+	}
+
+	/**
+	 * Remplace atomiquement une variable globale nommée si elle vaut la
+	 * valeur attendue
+	 *
+	 * @param key le nom de la variable
+	 * @param expected la valeur attendue
+	 * @param value la nouvelle valeur
+	 * @return vrai si la variable a été modifiée
+	 * @throws RemoteException s'il y a eu une erreur lors de la modification de
+	 * la variable
+	 */
+	public boolean compareAndSet(String key, int expected, int value) throws RemoteException {
+		return write((server) -> server.compareAndSet(key, expected, value), false);
+	}
+
+	/**
+	 * Permet de récupérer le contenu binaire d'une variable globale nommée
+	 *
+	 * @param key le nom de la variable
+	 * @return le contenu de la variable, vide s'il n'a jamais été écrit
+	 * @throws RemoteException s'il y a eu une erreur lors de la récupèration du
+	 * contenu, ou si le serveur ne supporte pas les contenus binaires
+	 */
+	public byte[] getGlobalPayload(String key) throws RemoteException {
+		return read((server) -> server.getPayload(key));
+	}
+
+	/**
+	 * Permet de modifier le contenu binaire d'une variable globale nommée.
+	 * Seuls les octets modifiés sont transmis entre les sites. Est bloquant
+	 * (attente de la SC)
+	 *
+	 * @param key le nom de la variable
+	 * @param value le nouveau contenu
+	 * @throws RemoteException s'il y a eu une erreur lors de la modification du
+	 * contenu, ou si le serveur ne supporte pas les contenus binaires
+	 */
+	public void setGlobalPayload(String key, byte[] value) throws RemoteException {
+		write((server) -> {
+			server.setPayload(key, value);
+			return null;
+		}, true);
+	}
+
+	/**
+	 * @return le nombre de lectures envoyées à chaque site, dans l'ordre des
+	 * sites donnés au constructeur
+	 */
+	public long[] getReadsPerSite() {
+		long[] reads = new long[sites.length];
+		for (int i = 0; i < sites.length; i++) {
+			reads[i] = sites[i].reads.get();
+		}
+		return reads;
+	}
+
+	/**
+	 * @return l'adresse du site principal, auquel sont envoyées les écritures
+	 */
+	public String getPrimarySite() {
+		return sites[primary].address;
+	}
+
+	/**
+	 * Arrête les sondes des sites
+	 */
+	@Override
+	public void close() {
+		if (prober != null) {
+			prober.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return le serveur distant du site principal, utilisé par AsyncClient
+	 */
+	IGlobalVariable server() {
+		IGlobalVariable server = sites[primary].server;
+		return server != null ? server : firstConnected().server;
+	}
+
+	// ------------- REPARTITION ET BASCULE -----------
+	/**
+	 * Envoie une lecture au moins coûteux de deux sites joignables tirés au
+	 * hasard, puis aux suivants en cas d'échec
+	 */
+	private <T> T read(Call<T> call) throws RemoteException {
+		RemoteException last = null;
+		for (int attempt = 0; attempt < sites.length; attempt++) {
+			Site site = choose();
+			if (site == null) {
+				break;
+			}
+			site.inFlight.incrementAndGet();
+			long start = System.nanoTime();
+			try {
+				T result = call.on(site.server);
+				site.measured(System.nanoTime() - start);
+				site.reads.incrementAndGet();
+				return result;
+			} catch (RemoteException ex) {
+				last = ex;
+				disconnect(site, ex);
+			} finally {
+				site.inFlight.decrementAndGet();
+			}
+		}
+		throw last != null ? last : new ConnectException("No reachable site");
+	}
+
+	/**
+	 * Envoie une écriture au site principal. En cas d'échec, passe au site
+	 * joignable suivant et réessaie si l'opération peut être répétée sans
+	 * risque : toujours si elle est idempotente, sinon seulement si l'appel
+	 * n'a pas atteint le site
+	 */
+	private <T> T write(Call<T> call, boolean idempotent) throws RemoteException {
+		for (int attempt = 0;; attempt++) {
+			Site site = sites[primary];
+			IGlobalVariable server = site.server;
+			if (server == null) {
+				site = firstConnected();
+				if (site == null) {
+					throw new ConnectException("No reachable site");
+				}
+				server = site.server;
+			}
+			try {
+				return call.on(server);
+			} catch (RemoteException ex) {
+				disconnect(site, ex);
+				if (attempt + 1 >= sites.length || (!idempotent && !notDelivered(ex))) {
+					throw ex;
+				}
+				Logger.getLogger(Client.class.getName()).log(Level.WARNING,
+						"Write to {0} failed, failing over", site.address);
+			}
+		}
+	}
+
+	/**
+	 * @return vrai si l'appel n'a pas pu être exécuté par le site
+	 */
+	private static boolean notDelivered(RemoteException ex) {
+		return ex instanceof ConnectException || ex instanceof ConnectIOException
+				|| ex instanceof UnknownHostException || ex instanceof NoSuchObjectException;
+	}
+
+	/**
+	 * @return le moins coûteux de deux sites joignables tirés au hasard, null
+	 * si aucun site n'est joignable
+	 */
+	private Site choose() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		Site a = sites[random.nextInt(sites.length)];
+		Site b = sites[random.nextInt(sites.length)];
+		if (a.server == null) {
+			a = b.server != null ? b : firstConnected();
+		} else if (b.server != null && b.score() < a.score()) {
+			a = b;
+		}
+		return a;
+	}
+
+	/**
+	 * @return le premier site joignable après le site principal, qui devient
+	 * le nouveau site principal. null si aucun site n'est joignable
+	 */
+	private Site firstConnected() {
+		int from = primary;
+		for (int i = 0; i < sites.length; i++) {
+			int index = (from + i) % sites.length;
+			if (sites[index].server != null) {
+				primary = index;
+				return sites[index];
+			}
+		}
+		return null;
+	}
+
+	private static void connect(Site site) throws MalformedURLException, NotBoundException, RemoteException {
+		site.server = (IGlobalVariable) Naming.lookup("//" + site.address + "/" + IGlobalVariable.RMI_NAME);
+	}
+
+	private void disconnect(Site site, RemoteException ex) {
+		if (site.server != null && sites.length > 1) {
+			Logger.getLogger(Client.class.getName()).log(Level.WARNING, "Site " + site.address + " unreachable", ex);
+			site.server = null;
+		}
+	}
+
+	/**
+	 * Sonde chaque site : mesure sa latence et obtient sa charge, ou tente de
+	 * se reconnecter à un site injoignable
+	 */
+	private void probe() {
+		for (Site site : sites) {
+			try {
+				if (site.server == null) {
+					connect(site);
+				}
+				long start = System.nanoTime();
+				site.load = site.server.getLoad();
+				site.measured(System.nanoTime() - start);
+			} catch (RemoteException ex) {
+				disconnect(site, ex);
+			} catch (MalformedURLException | NotBoundException ex) {
+				// Toujours injoignable
+			}
+		}
 	}
 
 	// ------------- ENTRY POINT -----------
@@ -75,6 +517,8 @@ public class Client {
 	 * standalone Il doit y avoir au minimum 2 arguments:
     * 1: le host (adresse IP ou hostName), sous la forme "10.0.0.5"
     * 2: le port RMI utilisé, tel que 2000
+    * puis éventuellement d'autres sites de la grappe, sous la forme
+    * "10.0.0.6:2002", entre lesquels les lectures sont réparties
 	 *
     * il est ensuite possible en console de lire ou écrire la variable
     * partagée en suivant les instructions affichées.
@@ -86,7 +530,11 @@ public class Client {
 			String host = args[0];
 			String port = args[1];
 
-			Client application = new Client(host + ":" + port);
+			String[] sites = new String[args.length - 1];
+			sites[0] = host + ":" + port;
+			System.arraycopy(args, 2, sites, 1, args.length - 2);
+
+			Client application = new Client(sites);
 			System.out.println("Connected to " + host + ":" + port);
 			
 			BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
@@ -94,6 +542,7 @@ public class Client {
 			do {
 				System.out.println("1 : show current value");
 				System.out.println("2 : set current value");
+				System.out.println("3 : add to current value");
 				System.out.println("q : quit");
 				System.out.print("> ");
 				
@@ -108,6 +557,12 @@ public class Client {
 						application.setGlobalValue(value);
 						System.out.println("new value is : " + application.getGlobalVariable());
 						break;
+					case "3":
+						System.out.print("Enter value to add : ");
+						int delta = Integer.parseInt(r.readLine());
+						System.out.println("waiting access to critical section for new value");
+						System.out.println("new value is : " + application.addAndGet(delta));
+						break;
 					case "q":
 						cont = false;
                   break;
@@ -120,7 +575,7 @@ public class Client {
 			} while (cont);
          
 		} catch (IndexOutOfBoundsException e) {
-			System.err.println("Usage: <hostName> <port> [<value to set>]");
+			System.err.println("Usage: <hostName> <port> [<host:port> ...]");
          System.exit(1);
 		} catch (NotBoundException | IOException ex) {
 			Logger.getLogger(Client.class.getName()).log(Level.SEVERE, null, ex);
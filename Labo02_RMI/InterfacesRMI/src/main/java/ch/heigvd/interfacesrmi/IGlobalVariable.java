@@ -8,6 +8,10 @@ import java.rmi.RemoteException;
  * un site. Permet d'obtenir et mettre à jour une variable partagée
  * entre les sites via le serveur implémentant Lamport.
  *
+ * Plusieurs variables peuvent être partagées, chacune identifiée par une
+ * clé. Les écritures sur des clés différentes ne sont pas en concurrence.
+ * Les méthodes sans clé travaillent sur la variable DEFAULT_KEY.
+ *
  * @author Miguel Pombo Dias
  * @author Rémi Jacquemard
  */
@@ -32,6 +36,126 @@ public interface IGlobalVariable extends Remote{
     */
    public void setVariable(int value)  throws RemoteException;
    
+   /**
+    * Permet de récupérer la valeur d'une variable partagée nommée.
+    * Une variable jamais écrite vaut 0.
+    * 
+    * @param key     Le nom de la variable
+    * @return  La valeur de la variable partagée
+    * @throws RemoteException En cas d'erreut de communication distante
+    */
+   public int getVariable(String key) throws RemoteException;
+   
+   /**
+    * Permet de récupérer la valeur d'une variable partagée nommée, en
+    * garantissant qu'elle reflète toute écriture terminée depuis plus de
+    * 'maxStalenessMillis'. Si le serveur peut le garantir localement, cette
+    * méthode n'est pas bloquante ; sinon, elle attend la section critique de
+    * la variable afin d'en lire la dernière valeur.
+    * 
+    * @param key                 Le nom de la variable
+    * @param maxStalenessMillis  L'ancienneté maximale tolérée, en millisecondes
+    * @return  La valeur de la variable partagée
+    * @throws RemoteException En cas d'erreut de communication distante
+    */
+   public int getVariable(String key, long maxStalenessMillis) throws RemoteException;
+   
+   /**
+    * Permet de modifier la valeur d'une variable partagée nommée.
+    * Cette méthode est bloquante en attendant que le serveur obtienne
+    * le droit d'entrer en section critique pour cette variable.
+    * 
+    * @param key     Le nom de la variable
+    * @param value   La valeur à donner dans la variable partagée
+    * @throws RemoteException En cas d'erreut de communication distante
+    */
+   public void setVariable(String key, int value) throws RemoteException;
+   
+   /**
+    * Ajoute atomiquement 'delta' à la variable partagée. La lecture et
+    * l'écriture se font dans une seule section critique : aucune mise à jour
+    * concurrente ne peut être perdue.
+    * 
+    * @param delta   La valeur à ajouter
+    * @return  La nouvelle valeur de la variable partagée
+    * @throws RemoteException En cas d'erreut de communication distante
+    */
+   public int addAndGet(int delta) throws RemoteException;
+   
+   /**
+    * Ajoute atomiquement 'delta' à une variable partagée nommée.
+    * 
+    * @param key     Le nom de la variable
+    * @param delta   La valeur à ajouter
+    * @return  La nouvelle valeur de la variable partagée
+    * @throws RemoteException En cas d'erreut de communication distante
+    */
+   public int addAndGet(String key, int delta) throws RemoteException;
+   
+   /**
+    * Remplace atomiquement la valeur de la variable partagée par 'value' si
+    * elle vaut actuellement 'expected'. La comparaison et l'écriture se font
+    * dans une seule section critique.
+    * 
+    * @param expected   La valeur attendue
+    * @param value      La nouvelle valeur
+    * @return  vrai si la variable valait 'expected' et a été modifiée
+    * @throws RemoteException En cas d'erreut de communication distante
+    */
+   public boolean compareAndSet(int expected, int value) throws RemoteException;
+   
+   /**
+    * Remplace atomiquement la valeur d'une variable partagée nommée par
+    * 'value' si elle vaut actuellement 'expected'.
+    * 
+    * @param key        Le nom de la variable
+    * @param expected   La valeur attendue
+    * @param value      La nouvelle valeur
+    * @return  vrai si la variable valait 'expected' et a été modifiée
+    * @throws RemoteException En cas d'erreut de communication distante
+    */
+   public boolean compareAndSet(String key, int expected, int value) throws RemoteException;
+   
+   /**
+    * Permet de connaître la charge du site : le nombre d'écritures de
+    * clients en cours, en attente de la section critique ou en section
+    * critique. Utilisé par les clients pour répartir leurs lectures.
+    * 
+    * @return  Le nombre d'écritures en cours sur ce site
+    * @throws RemoteException En cas d'erreut de communication distante
+    */
+   public int getLoad() throws RemoteException;
+   
+   /**
+    * Permet de récupérer le contenu binaire d'une variable partagée nommée
+    * (tableau d'octets, enregistrement sérialisé...). Cette méthode n'est
+    * pas bloquante. Le contenu d'une variable est indépendant de sa valeur
+    * entière, mais leurs écritures sont en concurrence.
+    * 
+    * @param key     Le nom de la variable
+    * @return  Le contenu de la variable, vide si elle n'a jamais été écrite
+    * @throws RemoteException En cas d'erreut de communication distante, ou
+    * si le serveur ne supporte pas les contenus binaires
+    */
+   public byte[] getPayload(String key) throws RemoteException;
+   
+   /**
+    * Permet de modifier le contenu binaire d'une variable partagée nommée.
+    * Cette méthode est bloquante en attendant que le serveur obtienne
+    * le droit d'entrer en section critique pour cette variable.
+    * 
+    * @param key     Le nom de la variable
+    * @param value   Le nouveau contenu
+    * @throws RemoteException En cas d'erreut de communication distante, ou
+    * si le serveur ne supporte pas les contenus binaires
+    */
+   public void setPayload(String key, byte[] value) throws RemoteException;
+   
+   /**
+    * Nom de la variable utilisée par les méthodes sans clé
+    */
+   public static final String DEFAULT_KEY = "default";
+   
     /**
     * Nom utilisé pour le nommage du registre RMI
     */
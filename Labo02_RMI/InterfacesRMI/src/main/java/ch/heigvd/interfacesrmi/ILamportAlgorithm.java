@@ -4,9 +4,14 @@ import java.rmi.Remote;
 import java.rmi.RemoteException;
 
 /**
- * Interface pour la communication RMI entre les serveurs. Ces deux méthodes
- * permettent d'implémenter l'algorithme de Lamport en remplacement des
- * messages.
+ * Interface pour la communication RMI entre les serveurs. Les méthodes
+ * request et free permettent d'implémenter l'algorithme de Lamport en
+ * remplacement des messages, heartbeat sert à la détection des pannes,
+ * catchUp, state et statePayload au rattrapage d'un site qui (re)joint la
+ * grappe, et admit et membership à l'ajout et au retrait de sites.
+ *
+ * Chaque variable partagée (clé) possède sa propre file de Lamport : les
+ * messages portent donc la clé de la variable concernée.
  *
  * @author Miguel Pombo Dias
  * @author Rémi Jacquemard
@@ -18,12 +23,13 @@ public interface ILamportAlgorithm extends Remote{
     * (équivalent du message REQUETE) et attend en retour un timestamp
     * qui remplace le message QUITTANCE.
     * 
+    * @param key              Clé de la variable concernée
     * @param localTimeStamp   Temps logique de l'appelant lors de l'envoi
     * @param hostIndex        Identifiant de l'appelant
     * @return                 Temps logique de l'appelé avec la quittance
     * @throws RemoteException En cas d'erreut de communication distante
     */
-   public long request(long localTimeStamp, int hostIndex) throws RemoteException;
+   public long request(String key, long localTimeStamp, int hostIndex) throws RemoteException;
    
    /**
     * Cette méthode permet d'indiquer à un site distant lorsque l'appelant
@@ -31,12 +37,120 @@ public interface ILamportAlgorithm extends Remote{
     * son identifiant. On profite de ce message pour envoyer la valeur de la
     * variable partagée pour la mettre à jour dans l'appelé
     * 
+    * @param key              Clé de la variable concernée
     * @param localTimeStamp   Temps logique de l'appelant
     * @param value            Valeur de la variable partagée
+    * @param version          Version de cette valeur, incrémentée à chaque
+    * écriture de la variable
+    * @param hostIndex        Identifiant de l'appelant
+    * @throws RemoteException En cas d'erreur de communication
+    */
+   public void free(String key, long localTimeStamp, int value, long version, int hostIndex) throws RemoteException;
+
+   /**
+    * Même libération, transmettant en plus le nouveau contenu binaire de la
+    * variable (voir IGlobalVariable.setPayload). Le contenu est envoyé comme
+    * un delta par rapport à la version 'payloadBase' : si l'appelé ne
+    * possède pas cette version, il ignore le message, sans libérer la
+    * section critique, et retourne faux ; l'appelant renvoie alors la
+    * libération avec une copie complète.
+    * 
+    * @param key              Clé de la variable concernée
+    * @param localTimeStamp   Temps logique de l'appelant
+    * @param value            Valeur de la variable partagée
+    * @param version          Version de cette valeur
+    * @param payload          Delta ou copie complète (éventuellement
+    * compressée) du contenu
+    * @param payloadBase      Version du contenu à partir duquel le delta a été
+    * calculé, -1 pour une copie complète
+    * @param payloadVersion   Version du nouveau contenu
+    * @param hostIndex        Identifiant de l'appelant
+    * @return                 faux si le delta n'a pas pu être appliqué, la
+    * section critique n'étant alors pas libérée
+    * @throws RemoteException En cas d'erreur de communication
+    */
+   public boolean free(String key, long localTimeStamp, int value, long version, byte[] payload, long payloadBase, long payloadVersion, int hostIndex) throws RemoteException;
+
+   /**
+    * Battement de coeur du détecteur de pannes : permet à l'appelé de savoir
+    * que l'appelant est en vie, et à l'appelant de savoir que l'appelé
+    * répond
+    * 
+    * @param hostIndex        Identifiant de l'appelant
+    * @throws RemoteException En cas d'erreur de communication
+    */
+   public void heartbeat(int hostIndex) throws RemoteException;
+
+   /**
+    * Demande de rattrapage d'un site qui rejoint la grappe, par exemple après
+    * un redémarrage. L'appelé réintègre l'appelant : il lui renvoie ses
+    * requêtes en cours, puis lui transmet toutes ses variables via state()
+    * et leurs contenus binaires via statePayload() avant de rendre la main. Ses écritures suivantes sont transmises à
+    * l'appelant par free(), comme à tout autre site
+    * 
+    * @param hostIndex        Identifiant de l'appelant
+    * @return                 Temps logique de l'appelé
+    * @throws RemoteException En cas d'erreur de communication, ou si
+    * l'appelant n'a pas pu être réintégré, par exemple s'il n'est pas membre
+    * de la grappe
+    */
+   public long catchUp(int hostIndex) throws RemoteException;
+
+   /**
+    * Transmet à un site qui rejoint la grappe les variables connues de
+    * l'appelant. Chaque valeur n'est appliquée que si elle est plus récente
+    * que la valeur locale
+    * 
+    * @param keys             Clés des variables
+    * @param values           Valeurs des variables, dans l'ordre des clés
+    * @param versions         Versions de ces valeurs
+    * @param hostIndex        Identifiant de l'appelant
+    * @throws RemoteException En cas d'erreur de communication
+    */
+   public void state(String[] keys, int[] values, long[] versions, int hostIndex) throws RemoteException;
+
+   /**
+    * Transmet à un site qui rejoint la grappe le contenu binaire d'une
+    * variable connu de l'appelant, après state(). Le contenu n'est appliqué
+    * que s'il est plus récent que le contenu local : les libérations
+    * suivantes peuvent ensuite n'en transmettre que les octets modifiés
+    * 
+    * @param key              Clé de la variable
+    * @param snapshot         Copie complète (éventuellement compressée) du
+    * contenu, comme pour free()
+    * @param version          Version de ce contenu
+    * @param hostIndex        Identifiant de l'appelant
+    * @throws RemoteException En cas d'erreur de communication, ou si la
+    * copie est invalide
+    */
+   public void statePayload(String key, byte[] snapshot, long version, int hostIndex) throws RemoteException;
+
+   /**
+    * Demande d'admission d'un site dans la grappe. Si l'appelant n'en est pas
+    * déjà membre à cette adresse, l'appelé l'ajoute à la composition de la
+    * grappe en section critique, puis transmet dans tous les cas la
+    * composition courante à l'appelant via membership()
+    * 
+    * @param hostIndex        Emplacement demandé par l'appelant
+    * @param host             Adresse de l'appelant
+    * @param port             Port du registre RMI de l'appelant
+    * @throws RemoteException En cas d'erreur de communication, ou si
+    * l'appelé ne peut pas modifier la composition de la grappe
+    */
+   public void admit(int hostIndex, String host, String port) throws RemoteException;
+
+   /**
+    * Transmet une composition de la grappe, appliquée par l'appelé si elle
+    * est plus récente que la sienne
+    * 
+    * @param members          Pour chaque emplacement, "adresse port" du
+    * membre qui l'occupe, ou null s'il est libre
+    * @param version          Version de cette composition, incrémentée à
+    * chaque ajout ou retrait
     * @param hostIndex        Identifiant de l'appelant
     * @throws RemoteException En cas d'erreur de communication
     */
-   public void free(long localTimeStamp, int value, int hostIndex) throws RemoteException;
+   public void membership(String[] members, long version, int hostIndex) throws RemoteException;
    
    /**
     * Nom utilisé pour le nommage du registre RMI
@@ -0,0 +1,107 @@
+package ch.heigvd.interfacesrmi;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Interface pour la communication RMI entre les serveurs utilisant
+ * l'algorithme de Maekawa. Chaque site ne demande la permission qu'aux sites
+ * de son quorum ; deux quorums ayant toujours au moins un site en commun,
+ * deux sites ne peuvent pas obtenir la section critique en même temps.
+ *
+ * Les messages INQUIRE, FAILED et RELINQUISH permettent d'éviter les
+ * interblocages lorsque plusieurs sites obtiennent chacun une partie de leur
+ * quorum.
+ *
+ * Toutes les méthodes sont des messages à sens unique : elles ne bloquent pas
+ * l'appelant en attente d'une réponse.
+ *
+ * Les votes protègent toutes les variables partagées (clés) à la fois. Les
+ * messages portent cependant la clé écrite, afin que le vote transmette la
+ * valeur la plus récente de cette variable.
+ *
+ * @author Miguel Pombo Dias
+ * @author Rémi Jacquemard
+ */
+public interface IMaekawaAlgorithm extends Remote {
+
+   /**
+    * Message REQUEST : demande du vote de l'appelé
+    *
+    * @param timeStamp        Temps logique de la requête de l'appelant
+    * @param hostIndex        Identifiant de l'appelant
+    * @param key              Clé de la variable que l'appelant veut écrire
+    * @throws RemoteException En cas d'erreur de communication distante
+    */
+   public void request(long timeStamp, int hostIndex, String key) throws RemoteException;
+
+   /**
+    * Message LOCKED : l'appelant vote pour la requête de l'appelé. Le vote
+    * transporte la valeur la plus récente connue par le votant, ce qui
+    * garantit au nouvel occupant de la section critique de connaître la
+    * dernière valeur écrite.
+    *
+    * @param hostIndex        Identifiant du votant
+    * @param key              Clé de la variable demandée
+    * @param value            Valeur de la variable partagée chez le votant
+    * @param version          Version de cette valeur
+    * @throws RemoteException En cas d'erreur de communication distante
+    */
+   public void grant(int hostIndex, String key, int value, long version) throws RemoteException;
+
+   /**
+    * Message FAILED : le votant a déjà voté pour une requête plus prioritaire
+    *
+    * @param hostIndex        Identifiant du votant
+    * @throws RemoteException En cas d'erreur de communication distante
+    */
+   public void failed(int hostIndex) throws RemoteException;
+
+   /**
+    * Message INQUIRE : le votant demande s'il peut reprendre son vote, une
+    * requête plus prioritaire étant arrivée
+    *
+    * @param hostIndex        Identifiant du votant
+    * @param timeStamp        Temps logique de la requête pour laquelle il a
+    * voté
+    * @throws RemoteException En cas d'erreur de communication distante
+    */
+   public void inquire(int hostIndex, long timeStamp) throws RemoteException;
+
+   /**
+    * Message RELINQUISH : l'appelant rend le vote de l'appelé, n'ayant pas pu
+    * obtenir tout son quorum
+    *
+    * @param hostIndex        Identifiant de l'appelant
+    * @throws RemoteException En cas d'erreur de communication distante
+    */
+   public void relinquish(int hostIndex) throws RemoteException;
+
+   /**
+    * Message RELEASE : l'appelant a quitté la section critique et libère le
+    * vote de l'appelé. On en profite pour transmettre la nouvelle valeur
+    * de la variable partagée.
+    *
+    * @param hostIndex        Identifiant de l'appelant
+    * @param key              Clé de la variable écrite
+    * @param value            Valeur de la variable partagée
+    * @param version          Version de cette valeur
+    * @throws RemoteException En cas d'erreur de communication distante
+    */
+   public void release(int hostIndex, String key, int value, long version) throws RemoteException;
+
+   /**
+    * Propagation asynchrone de la variable partagée aux sites hors du quorum
+    *
+    * @param key              Clé de la variable partagée
+    * @param value            Valeur de la variable partagée
+    * @param version          Version de cette valeur
+    * @throws RemoteException En cas d'erreur de communication distante
+    */
+   public void update(String key, int value, long version) throws RemoteException;
+
+   /**
+    * Nom utilisé pour le nommage du registre RMI
+    */
+   public static final String RMI_NAME = "Maekawa";
+}
@@ -0,0 +1,104 @@
+package ch.heigvd.interfacesrmi;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Interface pour la communication RMI entre les serveurs utilisant un
+ * séquenceur : un site élu donne, variable par variable, le droit de l'écrire
+ * à un seul site à la fois. Un site écrivant ne contacte que le séquenceur,
+ * qui diffuse ensuite la nouvelle valeur aux autres sites ; une écriture
+ * coûte ainsi 2 messages à l'écrivain, quel que soit le nombre de sites.
+ *
+ * Chaque séquenceur élu travaille sous un mandat (epoch) plus grand que tous
+ * ceux que connaissent les sites joignables. Un site refuse un droit donné
+ * sous un mandat plus ancien que le dernier qu'il connaît, et présente le
+ * mandat de son droit en le libérant.
+ *
+ * @author Miguel Pombo Dias
+ * @author Rémi Jacquemard
+ */
+public interface ISequencerAlgorithm extends Remote {
+
+   /**
+    * Demande au séquenceur le droit d'écrire la variable 'key'. Bloquant
+    * jusqu'à ce que les écritures précédentes de cette variable soient
+    * terminées, dans leur ordre d'arrivée.
+    *
+    * @param key              Clé de la variable à écrire
+    * @param hostIndex        Identifiant de l'appelant
+    * @return                 {valeur, version, mandat} : la dernière valeur
+    * de la variable, que l'appelant remplacera, et le mandat du séquenceur
+    * @throws RemoteException En cas d'erreur de communication distante, ou si
+    * l'appelé n'est pas le séquenceur
+    */
+   public long[] acquire(String key, int hostIndex) throws RemoteException;
+
+   /**
+    * Termine l'écriture de la variable 'key' : le séquenceur enregistre la
+    * nouvelle valeur, la diffuse aux autres sites et donne le droit d'écrire
+    * à l'écriture suivante. Une libération répétée ne fait que réappliquer
+    * la valeur.
+    *
+    * @param key              Clé de la variable écrite
+    * @param value            La nouvelle valeur
+    * @param version          Version de cette valeur
+    * @param epoch            Mandat sous lequel l'appelant détient le droit
+    * @param hostIndex        Identifiant de l'appelant
+    * @throws RemoteException En cas d'erreur de communication distante, si
+    * l'appelé n'est pas le séquenceur ou si 'epoch' n'est pas son mandat
+    */
+   public void release(String key, int value, long version, long epoch, int hostIndex) throws RemoteException;
+
+   /**
+    * Diffusion d'une valeur par le séquenceur, ou transmission des valeurs
+    * d'un site à un nouveau séquenceur.
+    *
+    * @param key              Clé de la variable partagée
+    * @param value            Valeur de la variable partagée
+    * @param version          Version de cette valeur
+    * @throws RemoteException En cas d'erreur de communication distante
+    */
+   public void update(String key, int value, long version) throws RemoteException;
+
+   /**
+    * Demande de l'appelant, nouveau séquenceur, avant de donner le moindre
+    * droit d'écrire : l'appelé adopte son mandat, lui transmet toutes ses
+    * variables via update() et retourne les variables dont il détient le
+    * droit d'écrire. Le séquenceur part ainsi des valeurs les plus récentes
+    * des sites vivants, y compris celles que l'ancien séquenceur n'a pas
+    * diffusées, et ne donne pas un droit encore détenu.
+    *
+    * @param epoch            Mandat du nouveau séquenceur
+    * @param hostIndex        Identifiant de l'appelant
+    * @return                 Les clés des variables dont l'appelé détient le
+    * droit d'écrire
+    * @throws RemoteException En cas d'erreur de communication distante, ou si
+    * l'appelé connaît un mandat plus récent
+    */
+   public String[] handOver(long epoch, int hostIndex) throws RemoteException;
+
+   /**
+    * @return                 Le plus grand mandat de séquenceur connu de
+    * l'appelé
+    * @throws RemoteException En cas d'erreur de communication distante
+    */
+   public long epoch() throws RemoteException;
+
+   /**
+    * Permet au séquenceur de savoir si un droit d'écrire qui tarde à être
+    * libéré est toujours détenu.
+    *
+    * @param key              Clé de la variable
+    * @param epoch            Mandat du séquenceur
+    * @return                 Vrai si l'appelé détient le droit d'écrire 'key'
+    * sous ce mandat
+    * @throws RemoteException En cas d'erreur de communication distante
+    */
+   public boolean holds(String key, long epoch) throws RemoteException;
+
+   /**
+    * Nom utilisé pour le nommage du registre RMI
+    */
+   public static final String RMI_NAME = "Sequencer";
+}
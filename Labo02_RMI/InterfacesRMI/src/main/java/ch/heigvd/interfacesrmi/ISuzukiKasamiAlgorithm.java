@@ -0,0 +1,101 @@
+package ch.heigvd.interfacesrmi;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Interface pour la communication RMI entre les serveurs utilisant
+ * l'algorithme à jeton de Suzuki-Kasami. Un site qui possède le jeton peut
+ * entrer en section critique sans envoyer aucun message ; les requêtes ne
+ * sont diffusées que lorsque le jeton se trouve ailleurs.
+ *
+ * Un seul jeton protège toutes les variables partagées (clés).
+ *
+ * @author Miguel Pombo Dias
+ * @author Rémi Jacquemard
+ */
+public interface ISuzukiKasamiAlgorithm extends Remote {
+
+   /**
+    * Requête d'accès à la section critique (équivalent du message REQUETE).
+    * N'attend aucune réponse : le jeton sera envoyé plus tard par son
+    * détenteur.
+    *
+    * @param hostIndex        Identifiant de l'appelant
+    * @param requestNumber    Numéro de séquence de la requête de l'appelant
+    * @throws RemoteException En cas d'erreur de communication distante
+    */
+   public void request(int hostIndex, long requestNumber) throws RemoteException;
+
+   /**
+    * Transmission du jeton à l'appelé. Le jeton transporte aussi la dernière
+    * valeur de chaque variable partagée et sa version, le nouveau détenteur
+    * possède ainsi toujours les valeurs les plus récentes.
+    *
+    * L'appelé refuse un jeton d'une génération plus ancienne que la sienne,
+    * sans appliquer ses valeurs : l'appelant le garde alors, sous la
+    * génération retournée, et le retransmet.
+    *
+    * @param epoch            Génération du jeton, incrémentée à chaque
+    * régénération après la perte du détenteur
+    * @param lastRequests     Numéro de la dernière requête satisfaite de
+    * chaque site (tableau LN)
+    * @param queue            File des sites en attente du jeton
+    * @param keys             Clés des variables partagées
+    * @param values           Valeur de chacune de ces variables
+    * @param versions         Version de chacune de ces valeurs
+    * @return                 la génération de l'appelé : 'epoch' s'il a
+    * accepté le jeton, une génération plus récente s'il l'a refusé
+    * @throws RemoteException En cas d'erreur de communication distante
+    */
+   public long token(long epoch, long[] lastRequests, int[] queue, String[] keys, int[] values, long[] versions) throws RemoteException;
+
+   /**
+    * Propagation asynchrone de la variable partagée, afin que les lectures
+    * sur les sites ne possédant pas le jeton restent à jour.
+    *
+    * @param key              Clé de la variable partagée
+    * @param value            Valeur de la variable partagée
+    * @param version          Version de cette valeur
+    * @throws RemoteException En cas d'erreur de communication distante
+    */
+   public void update(String key, int value, long version) throws RemoteException;
+
+   /**
+    * Permet de connaître l'état du jeton sur l'appelé. Utilisé lorsqu'un site
+    * attend le jeton trop longtemps et soupçonne la panne de son détenteur.
+    *
+    * @return                 {génération, 1 si l'appelé possède le jeton
+    * ou est en train de le transmettre, sinon 0}
+    * @throws RemoteException En cas d'erreur de communication distante
+    */
+   public long[] probe() throws RemoteException;
+
+   /**
+    * Annonce à l'appelé la régénération d'un jeton de génération 'epoch'.
+    * S'il possède ou transmet le jeton, l'appelé garde sa génération, et la
+    * régénération est abandonnée. Sinon, il adopte la nouvelle génération :
+    * il refuse dès lors les jetons des générations précédentes, que leur
+    * expéditeur reprend. Il transmet aussi toutes ses variables à l'appelant
+    * via update() avant de rendre la main.
+    *
+    * Le jeton n'est recréé que si aucun site joignable ne le possède ni ne
+    * le transmet une fois tous ces sites passés à la nouvelle génération : un
+    * jeton en transit est alors soit arrivé chez l'un d'eux, soit refusé. Le
+    * nouveau jeton porte les valeurs de tous ces sites, seules les écritures
+    * du détenteur perdu qui ne leur ont pas été répliquées sont perdues.
+    *
+    * @param epoch            La nouvelle génération du jeton
+    * @param hostIndex        Identifiant de l'appelant, qui recréera le jeton
+    * @return                 false si l'appelé a adopté la génération sans
+    * posséder le jeton. true s'il possède ou transmet le jeton, ou connait déjà une
+    * génération au moins aussi récente : la régénération est abandonnée
+    * @throws RemoteException En cas d'erreur de communication distante
+    */
+   public boolean fence(long epoch, int hostIndex) throws RemoteException;
+
+   /**
+    * Nom utilisé pour le nommage du registre RMI
+    */
+   public static final String RMI_NAME = "SuzukiKasami";
+}
@@ -0,0 +1,309 @@
+package ch.heigvd.lamportmanager;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Détecteur de pannes à battements de coeur. Chaque site distant est sondé
+ * périodiquement ; un site dont on n'a pas eu de nouvelles depuis plus de
+ * 'timeoutMillis' est suspecté. Un message reçu d'un site compte comme un
+ * battement.
+ *
+ * Les sondes sont faites en parallèle, une au plus par site à la fois : un
+ * site qui ne répond plus ne retarde pas la détection des autres. Un site
+ * suspecté continue d'être sondé, et n'est à nouveau considéré vivant qu'une
+ * fois sa réintégration préparée par Listener.recovering().
+ *
+ * Chaque emplacement de site est dans l'un des états ALIVE, SUSPECTED ou
+ * ABSENT. Un emplacement ABSENT n'est occupé par aucun membre de la grappe :
+ * il n'est pas sondé, jusqu'à ce que add() y accueille un nouveau site, qui
+ * est alors suspecté jusqu'à sa réintégration.
+ *
+ * Les transitions (suspicion et réintégration) ne sont faites que par le
+ * détecteur, par suspect() ou par reintegrate() : les threads du serveur ne
+ * font sinon que noter l'heure des messages reçus. Les réintégrations d'un
+ * même détecteur sont faites l'une après l'autre.
+ *
+ * @author Miguel Pombo Dias
+ * @author Rémi Jacquemard
+ */
+class FailureDetector {
+
+	/**
+	 * Les actions du détecteur sur le site qui l'utilise
+	 */
+	interface Listener {
+
+		/**
+		 * Sonde un site. Bloquant, appelé par un thread propre au site
+		 *
+		 * @param site l'index du site
+		 * @return vrai si le site a répondu
+		 */
+		boolean probe(int site);
+
+		/**
+		 * Appelé lorsqu'un site devient suspect
+		 *
+		 * @param site l'index du site
+		 */
+		void suspected(int site);
+
+		/**
+		 * Prépare la réintégration d'un site suspecté qui répond à nouveau
+		 *
+		 * @param site l'index du site
+		 * @return faux si la réintégration n'a pas pu être préparée, le site
+		 * reste alors suspecté
+		 */
+		boolean recovering(int site);
+
+		/**
+		 * Appelé une fois un site réintégré
+		 *
+		 * @param site l'index du site
+		 */
+		void recovered(int site);
+	}
+
+	/**
+	 * Les états d'un emplacement de site
+	 */
+	static final int ALIVE = 0;
+	static final int SUSPECTED = 1;
+	static final int ABSENT = 2;
+
+	private final int hostIndex;
+
+	/**
+	 * La durée sans nouvelles après laquelle un site est suspecté
+	 */
+	private final long timeoutNanos;
+
+	/**
+	 * L'instant, selon System.nanoTime(), du dernier message ou de la dernière
+	 * sonde réussie de chaque site
+	 */
+	private final AtomicLongArray lastHeard;
+
+	/**
+	 * L'état de chaque emplacement : ALIVE, SUSPECTED ou ABSENT. Partagé avec
+	 * les files de Lamport, pour lesquelles seul un site ALIVE peut bloquer
+	 */
+	private final AtomicIntegerArray suspected;
+
+	/**
+	 * 1 pour chaque site dont une sonde est en cours
+	 */
+	private final AtomicIntegerArray probing;
+
+	private final Listener listener;
+
+	private final long heartbeatMillis;
+	private final AtomicBoolean started = new AtomicBoolean();
+	private final ScheduledExecutorService timer;
+	private final ExecutorService probes;
+
+	/**
+	 * @param nbSites le nombre de site total
+	 * @param hostIndex l'index de l'hôte courant
+	 * @param heartbeatMillis l'intervalle entre deux sondes d'un site
+	 * @param timeoutMillis la durée sans nouvelles après laquelle un site est
+	 * suspecté
+	 * @param listener les actions du détecteur sur le site
+	 */
+	FailureDetector(int nbSites, int hostIndex, long heartbeatMillis, long timeoutMillis, Listener listener) {
+		this.hostIndex = hostIndex;
+		this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		this.lastHeard = new AtomicLongArray(nbSites);
+		this.suspected = new AtomicIntegerArray(nbSites);
+		this.probing = new AtomicIntegerArray(nbSites);
+		this.listener = listener;
+		this.heartbeatMillis = heartbeatMillis;
+
+		this.timer = Executors.newSingleThreadScheduledExecutor((r) -> {
+			Thread t = new Thread(r, "failure-detector-" + hostIndex);
+			t.setDaemon(true);
+			return t;
+		});
+		this.probes = Executors.newCachedThreadPool((r) -> {
+			Thread t = new Thread(r);
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Lance les sondes, une fois connecté aux autres sites
+	 */
+	void start() {
+		if (!started.compareAndSet(false, true)) {
+			return;
+		}
+		long now = System.nanoTime();
+		for (int i = 0; i < lastHeard.length(); i++) {
+			lastHeard.set(i, now);
+		}
+		timer.scheduleWithFixedDelay(this::tick, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return l'état de chaque emplacement, partagé avec les files
+	 */
+	AtomicIntegerArray suspected() {
+		return suspected;
+	}
+
+	/**
+	 * @param site l'index d'un site
+	 * @return vrai si ce site est suspecté
+	 */
+	boolean isSuspected(int site) {
+		return suspected.get(site) == SUSPECTED;
+	}
+
+	/**
+	 * @param site l'index d'un site
+	 * @return vrai si ce site est membre de la grappe et n'est pas suspecté
+	 */
+	boolean isAlive(int site) {
+		return suspected.get(site) == ALIVE;
+	}
+
+	/**
+	 * @param site l'index d'un emplacement
+	 * @return vrai si un membre de la grappe occupe cet emplacement
+	 */
+	boolean isMember(int site) {
+		return suspected.get(site) != ABSENT;
+	}
+
+	/**
+	 * Accueille un nouveau membre dans un emplacement libre. Il reste suspecté
+	 * jusqu'à sa réintégration, par reintegrate() ou par les sondes
+	 *
+	 * @param site l'index de l'emplacement
+	 */
+	void add(int site) {
+		lastHeard.set(site, System.nanoTime());
+		suspected.compareAndSet(site, ABSENT, SUSPECTED);
+	}
+
+	/**
+	 * Libère l'emplacement d'un site ayant quitté la grappe : il n'est plus
+	 * sondé, et ne bloque plus l'entrée en section critique
+	 *
+	 * @param site l'index de l'emplacement
+	 */
+	void remove(int site) {
+		if (site != hostIndex && suspected.getAndSet(site, ABSENT) != ABSENT) {
+			if (started.get()) {
+				Logger.getLogger(FailureDetector.class.getName()).log(Level.INFO, "Site {0} left", site);
+			}
+			listener.suspected(site);
+		}
+	}
+
+	/**
+	 * Note qu'un message vient d'être reçu d'un site
+	 *
+	 * @param site l'index du site
+	 */
+	void heard(int site) {
+		lastHeard.set(site, System.nanoTime());
+	}
+
+	/**
+	 * Suspecte un site sans attendre l'échéance, par exemple lorsqu'un appel
+	 * vers lui a échoué ou dépassé son délai
+	 *
+	 * @param site l'index du site
+	 */
+	void suspect(int site) {
+		if (site != hostIndex && suspected.compareAndSet(site, ALIVE, SUSPECTED)) {
+			Logger.getLogger(FailureDetector.class.getName()).log(Level.WARNING, "Site {0} suspected", site);
+			listener.suspected(site);
+		}
+	}
+
+	/**
+	 * Réintègre sans attendre un site qui rejoint la grappe, qu'il soit
+	 * suspecté ou non : relancé avant d'avoir été suspecté, il a perdu les
+	 * requêtes qui lui avaient été envoyées, et doit lui aussi passer par
+	 * Listener.recovering()
+	 *
+	 * @param site l'index du site
+	 * @return faux si la réintégration n'a pas pu être préparée, ou si le
+	 * site n'est pas membre de la grappe
+	 */
+	synchronized boolean reintegrate(int site) {
+		if (!isMember(site)) {
+			return false;
+		}
+		heard(site);
+		if (!listener.recovering(site)) {
+			return false;
+		}
+		if (suspected.compareAndSet(site, SUSPECTED, ALIVE)) {
+			Logger.getLogger(FailureDetector.class.getName()).log(Level.INFO, "Site {0} rejoined", site);
+			listener.recovered(site);
+		}
+		return true;
+	}
+
+	/**
+	 * Arrête les sondes
+	 */
+	void close() {
+		timer.shutdownNow();
+		probes.shutdownNow();
+	}
+
+	/**
+	 * Lance une sonde vers chaque site n'en ayant pas déjà une en cours, puis
+	 * suspecte les sites silencieux depuis trop longtemps
+	 */
+	private void tick() {
+		long now = System.nanoTime();
+		for (int i = 0; i < suspected.length(); i++) {
+			if (i == hostIndex || !isMember(i)) {
+				continue;
+			}
+			if (probing.compareAndSet(i, 0, 1)) {
+				final int site = i;
+				probes.execute(() -> probe(site));
+			}
+			if (now - lastHeard.get(i) > timeoutNanos) {
+				suspect(i);
+			}
+		}
+	}
+
+	private void probe(int site) {
+		try {
+			if (!listener.probe(site)) {
+				return;
+			}
+			heard(site);
+			if (isSuspected(site)) {
+				recover(site);
+			}
+		} finally {
+			probing.set(site, 0);
+		}
+	}
+
+	private synchronized void recover(int site) {
+		if (isSuspected(site) && listener.recovering(site) && suspected.compareAndSet(site, SUSPECTED, ALIVE)) {
+			Logger.getLogger(FailureDetector.class.getName()).log(Level.INFO, "Site {0} recovered", site);
+			listener.recovered(site);
+		}
+	}
+}
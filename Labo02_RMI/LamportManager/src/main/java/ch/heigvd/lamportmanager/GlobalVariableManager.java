@@ -0,0 +1,905 @@
+package ch.heigvd.lamportmanager;
+
+import ch.heigvd.interfacesrmi.IGlobalVariable;
+import ch.heigvd.lamportmanager.transport.NioTransport;
+import ch.heigvd.lamportmanager.transport.RmiTransport;
+import ch.heigvd.lamportmanager.transport.Transport;
+import ch.heigvd.lamportmanager.wal.WriteAheadLog;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.rmi.ConnectException;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntUnaryOperator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Classe de base d'un serveur de variable globale répliquée entre plusieurs
+ * sites. Elle s'occupe de tout ce qui ne dépend pas de l'algorithme d'exclusion
+ * mutuelle utilisé : création du registre RMI, stockage des variables et
+ * exposition de l'interface IGlobalVariable aux clients.
+ *
+ * Plusieurs variables peuvent être partagées, chacune identifiée par une clé.
+ * Chaque algorithme décide de la granularité de son exclusion mutuelle :
+ * LamportManager gère une file par clé, les écritures sur des clés
+ * différentes se font donc en parallèle.
+ *
+ * Les sous-classes (LamportManager, SuzukiKasamiManager, ...) implémentent
+ * l'acquisition et la libération de la section critique ainsi que la
+ * connexion aux autres sites.
+ *
+ * Le format des hôtes est le même pour tous les algorithmes, soit un fichier
+ * hosts.txt, soit un String[][] de la forme {{"10.0.0.5", "2002"}, ...}. Voir
+ * la documentation de LamportManager.
+ *
+ * @author Miguel Pombo Dias
+ * @author Rémi Jacquemard
+ */
+public abstract class GlobalVariableManager {
+
+	/**
+	 * Les algorithmes d'exclusion mutuelle disponibles. On choisit
+	 * l'algorithme par configuration, par exemple en 2ème argument du main de
+	 * LamportManager
+	 */
+	public static enum Algorithm {
+		/**
+		 * Algorithme de Lamport, chaque écriture coûte 3(N-1) messages
+		 */
+		LAMPORT,
+		/**
+		 * Algorithme à jeton de Suzuki-Kasami, un site possédant le jeton écrit
+		 * sans aucun message
+		 */
+		TOKEN,
+		/**
+		 * Algorithme de Maekawa, chaque site ne contacte que son quorum de
+		 * taille environ 2√N
+		 */
+		MAEKAWA,
+		/**
+		 * Séquenceur élu, chaque écriture coûte 2 messages à l'écrivain
+		 */
+		SEQUENCER;
+
+		/**
+		 * Lit l'algorithme d'exclusion mutuelle passé en 2ème argument de
+		 * LamportManager.main()
+		 *
+		 * @param name "lamport", "token", "maekawa" ou "sequencer", en
+		 * majuscules ou minuscules
+		 * @return l'algorithme correspondant
+		 * @throws IllegalArgumentException si aucun algorithme n'a ce nom
+		 */
+		public static Algorithm parse(String name) {
+			return Algorithm.valueOf(name.trim().toUpperCase());
+		}
+	}
+
+	/**
+	 * Recherche le serveur distant d'un site, voir lookupAll()
+	 *
+	 * @param <T> l'interface distante de l'algorithme
+	 */
+	@FunctionalInterface
+	protected interface Lookup<T> {
+
+		T lookup(int site) throws RemoteException, NotBoundException, MalformedURLException;
+	}
+
+	/**
+	 * Délai par défaut, en millisecondes, au delà duquel la connexion aux
+	 * autres sites échoue
+	 */
+	public static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = 30_000;
+
+	/**
+	 * Délai, en millisecondes, avant de rechercher à nouveau un site
+	 * introuvable. Doublé à chaque échec, jusqu'à MAX_CONNECT_BACKOFF_MILLIS
+	 */
+	private static final long MIN_CONNECT_BACKOFF_MILLIS = 20;
+
+	private static final long MAX_CONNECT_BACKOFF_MILLIS = 1_000;
+
+	/**
+	 * Nombre maximal de recherches de sites simultanées
+	 */
+	private static final int MAX_CONNECT_THREADS = 16;
+
+	// --------------- VARIABLES ----------------
+	/**
+	 * Stock les variables globales et leur version, par clé. La version permet
+	 * aux algorithmes qui ne diffusent pas la valeur à chaque libération de
+	 * savoir laquelle de deux valeurs est la plus récente
+	 */
+	private final Map<String, VersionedValue> store = new ConcurrentHashMap<>();
+
+	/**
+	 * Objets sur lesquels on sérialise les écritures locales, par clé
+	 */
+	private final Map<String, Object> writeLocks = new ConcurrentHashMap<>();
+
+	/**
+	 * Le journal des écritures, null si les variables ne sont pas persistées
+	 */
+	private volatile WriteAheadLog log;
+
+	/**
+	 * Le nombre de site total
+	 */
+	protected final int nbSites;
+
+	/**
+	 * L'index de l'hôte courant, parmis le 'nbSites'
+	 */
+	protected final int hostIndex;
+
+	/**
+	 * La liste de tous les sites, sous la forme {{"10.0.0.5", "2002"},
+	 * {"10.0.1.3", "2003"}}, soit {ip, port}
+	 */
+	protected final String[][] remotes;
+
+	/**
+	 * Le registre RMI local, dans lequel sont liés le serveur de variable
+	 * globale et le serveur de l'algorithme
+	 */
+	protected Registry registry;
+
+	/**
+	 * Le transport utilisé par l'algorithme pour communiquer avec les autres
+	 * sites
+	 */
+	protected Transport transport;
+
+	/**
+	 * Les objets RMI exportés par ce site, libérés par close()
+	 */
+	private final List<Remote> exported = new ArrayList<>();
+
+	/**
+	 * Nombre de messages (appels distants) envoyés aux autres sites depuis le
+	 * lancement. Permet de comparer le coût des différents algorithmes
+	 */
+	protected final AtomicLong messagesSent = new AtomicLong();
+
+	/**
+	 * Nombre d'écritures de clients en cours sur ce site, annoncé aux clients
+	 * comme charge du site
+	 */
+	private final AtomicInteger writesInProgress = new AtomicInteger();
+
+	/**
+	 * Nombre de mises à jour envoyées par la réplication asynchrone, comptées
+	 * à part car elles ne participent pas à l'exclusion mutuelle
+	 */
+	protected final AtomicLong updatesSent = new AtomicLong();
+
+	/**
+	 * Les clés dont la nouvelle valeur doit être propagée aux autres sites par
+	 * le thread de réplication
+	 */
+	private Set<String> dirty = new HashSet<>();
+
+	/**
+	 * Protège 'dirty'. Le thread de réplication y attend de nouvelles clés
+	 */
+	private final Object dirtyLock = new Object();
+
+	/**
+	 * Thread propageant la variable partagée aux autres sites, pour les
+	 * algorithmes qui ne la transmettent pas à chaque libération
+	 */
+	private Thread replicator;
+
+	/**
+	 * Délai au delà duquel la connexion aux autres sites échoue
+	 */
+	private volatile long connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+
+	// --------------------- CONSTRUCTEURS ---------------------
+	/**
+	 * Crée le registre RMI à l'adresse et au port hosts[hostIndex]. Les
+	 * serveurs ne sont pas encore liés : c'est à la sous-classe d'appeler
+	 * bindServers() à la fin de sa construction.
+	 *
+	 * @param hosts La liste des serveurs disponibles
+	 * @param hostIndex L'index, à partir de 0, de l'hôte courant
+	 */
+	protected GlobalVariableManager(String[][] hosts, int hostIndex) {
+		this(hosts, hostIndex, Transport.Kind.RMI);
+	}
+
+	/**
+	 * Crée le registre RMI à l'adresse et au port hosts[hostIndex], ainsi que
+	 * le transport utilisé par l'algorithme. Le transport NIO écoute sur le
+	 * port hosts[hostIndex] + NioTransport.PORT_OFFSET.
+	 *
+	 * @param hosts La liste des serveurs disponibles
+	 * @param hostIndex L'index, à partir de 0, de l'hôte courant
+	 * @param transportKind le transport à utiliser entre les sites
+	 */
+	protected GlobalVariableManager(String[][] hosts, int hostIndex, Transport.Kind transportKind) {
+		this.hostIndex = hostIndex;
+
+		this.remotes = hosts;
+		this.nbSites = remotes.length;
+
+		try {
+			// Retreiving our port address
+			int portUsed = Integer.parseInt(remotes[hostIndex][1]);
+
+			// Creating local RMI servers
+			registry = LocateRegistry.createRegistry(portUsed);
+
+			if (transportKind == Transport.Kind.NIO) {
+				transport = new NioTransport(portUsed + NioTransport.PORT_OFFSET);
+			} else {
+				transport = new RmiTransport(registry);
+			}
+		} catch (IOException ex) {
+			Logger.getLogger(GlobalVariableManager.class.getName()).log(Level.SEVERE, null, ex);
+		}
+	}
+
+	/**
+	 * Permet d'instancier un serveur de variable globale de l'algorithme
+	 * choisi.
+	 *
+	 * @param algorithm l'algorithme d'exclusion mutuelle à utiliser
+	 * @param hosts La liste des serveurs disponibles
+	 * @param hostIndex L'index, à partir de 0, de l'hôte courant
+	 * @return le serveur instancié, pas encore connecté aux autres sites
+	 */
+	public static GlobalVariableManager create(Algorithm algorithm, String[][] hosts, int hostIndex) {
+		return create(algorithm, Transport.Kind.RMI, hosts, hostIndex);
+	}
+
+	/**
+	 * Permet d'instancier un serveur de variable globale de l'algorithme et
+	 * du transport choisis. Tous les sites doivent utiliser le même transport.
+	 *
+	 * @param algorithm l'algorithme d'exclusion mutuelle à utiliser
+	 * @param transportKind le transport à utiliser entre les sites
+	 * @param hosts La liste des serveurs disponibles
+	 * @param hostIndex L'index, à partir de 0, de l'hôte courant
+	 * @return le serveur instancié, pas encore connecté aux autres sites
+	 */
+	public static GlobalVariableManager create(Algorithm algorithm, Transport.Kind transportKind, String[][] hosts, int hostIndex) {
+		switch (algorithm) {
+			case TOKEN:
+				return new SuzukiKasamiManager(hosts, hostIndex, transportKind);
+			case MAEKAWA:
+				return new MaekawaManager(hosts, hostIndex, transportKind);
+			case SEQUENCER:
+				return new SequencerManager(hosts, hostIndex, transportKind);
+			case LAMPORT:
+			default:
+				return new LamportManager(hosts, hostIndex, transportKind);
+		}
+	}
+
+	/**
+	 * Permet de lire le fichier hosts.txt du dossier courant, de la forme :
+	 *    10.0.0.5 2002
+	 *    10.1.0.5 2002
+	 *
+	 * @return les hôtes sous la forme {{"10.0.0.5", "2002"}, ...}
+	 * @throws IOException Si le fichier hosts.txt n'est pas trouvé
+	 */
+	public static String[][] readHostsFile() throws IOException {
+		return Files.readAllLines(Paths.get("hosts.txt")).stream()
+				.map((s) -> s.split(" "))
+				.toArray(String[][]::new);
+	}
+
+	// --------------- METHODES PUBLIQUES -------------
+	/**
+	 * Permet de se connecter effectivement aux autres hôtes. Cette méthode est
+	 * différée par rapport à l'instanciation, les autres serveurs n'étant
+	 * probablement pas encore tous lancés.
+	 *
+	 * @throws NotBoundException S'il y a eu un problème lors de la connexion
+	 * aux hôtes
+	 * @throws MalformedURLException Si un nom d'hôte est mal formé
+	 * @throws RemoteException Si il y a eu un problème du côté d'un hôte
+	 * distant
+	 * @throws ConnectException Si l'hôte distant est introuvable. Peut être
+	 * n'est-il pas lancé ?
+	 */
+	public abstract void connectToRemotes() throws NotBoundException, MalformedURLException, RemoteException, ConnectException;
+
+	/**
+	 * Permet de rejoindre la grappe, au lancement ou après un redémarrage. Par
+	 * défaut, identique à connectToRemotes() : tous les sites doivent être
+	 * joignables. Les algorithmes sachant rattraper un site en retard la
+	 * redéfinissent pour ne dépendre que des sites en vie.
+	 *
+	 * @throws NotBoundException S'il y a eu un problème lors de la connexion
+	 * aux hôtes
+	 * @throws MalformedURLException Si un nom d'hôte est mal formé
+	 * @throws RemoteException Si il y a eu un problème du côté d'un hôte
+	 * distant
+	 * @throws ConnectException Si un hôte distant est introuvable
+	 */
+	public void join() throws NotBoundException, MalformedURLException, RemoteException, ConnectException {
+		connectToRemotes();
+	}
+
+	/**
+	 * Persiste les variables dans un journal des écritures, et reprend les
+	 * valeurs qui y ont été journalisées lors d'un lancement précédent. A
+	 * appeler avant connectToRemotes(), afin qu'un site relancé ne serve pas
+	 * la valeur initiale à ses clients.
+	 *
+	 * @param file le fichier du journal, créé s'il n'existe pas
+	 * @param sync la politique d'écriture sur disque du journal
+	 * @throws IOException si le journal ne peut pas être ouvert
+	 */
+	public void openLog(Path file, WriteAheadLog.Sync sync) throws IOException {
+		WriteAheadLog opened = new WriteAheadLog(file, sync);
+		opened.replay((key, value, version) -> store.merge(key, new VersionedValue(value, version), VersionedValue::newest));
+		log = opened;
+	}
+
+	/**
+	 * Modifie le délai pendant lequel connectToRemotes() et join() attendent
+	 * les autres sites, avant d'échouer
+	 *
+	 * @param millis le délai, en millisecondes
+	 */
+	public void setConnectTimeout(long millis) {
+		connectTimeoutMillis = millis;
+	}
+
+	/**
+	 * @return le nombre de messages envoyés aux autres sites depuis le
+	 * lancement
+	 */
+	public long getMessagesSent() {
+		return messagesSent.get();
+	}
+
+	/**
+	 * @return le nombre de mises à jour envoyées par la réplication asynchrone
+	 */
+	public long getUpdatesSent() {
+		return updatesSent.get();
+	}
+
+	/**
+	 * Arrête ce site : les objets RMI, le transport et le registre sont
+	 * fermés et le thread de réplication est arrêté. Utile afin de lancer plusieurs
+	 * grappes de sites successivement dans la même JVM.
+	 */
+	public void close() {
+		if (replicator != null) {
+			replicator.interrupt();
+		}
+		if (transport != null) {
+			transport.close();
+		}
+		try {
+			for (Remote remote : exported) {
+				UnicastRemoteObject.unexportObject(remote, true);
+			}
+			UnicastRemoteObject.unexportObject(registry, true);
+		} catch (RemoteException ex) {
+			Logger.getLogger(GlobalVariableManager.class.getName()).log(Level.WARNING, null, ex);
+		}
+		if (log != null) {
+			log.close();
+		}
+	}
+
+	// ------------ METHODES A IMPLEMENTER PAR L'ALGORITHME ------------
+	/**
+	 * Attend l'accès à la section critique en vue de modifier la variable
+	 * partagée 'key'. Bloquant.
+	 *
+	 * @param key la clé de la variable à modifier
+	 */
+	protected abstract void waitForCS(String key);
+
+	/**
+	 * Relâche la section critique. La variable 'key' contient à ce moment la
+	 * nouvelle valeur, qui doit être transmise aux autres sites.
+	 *
+	 * @param key la clé de la variable modifiée
+	 */
+	protected abstract void releaseCS(String key);
+
+	/**
+	 * Retourne l'objet sur lequel les écritures locales de la variable 'key'
+	 * sont sérialisées : un seul client par site demande la section critique
+	 * d'une clé à la fois. Par défaut un objet par clé ; les algorithmes dont
+	 * la section critique couvre toutes les clés retournent un objet unique.
+	 *
+	 * @param key la clé de la variable à modifier
+	 * @return l'objet à utiliser comme verrou
+	 */
+	protected Object writeLock(String key) {
+		return writeLocks.computeIfAbsent(key, (k) -> new Object());
+	}
+
+	/**
+	 * Calcule la version d'une nouvelle valeur, en section critique. Par
+	 * défaut, la version suivant directement celle de la valeur remplacée.
+	 *
+	 * @param old la valeur remplacée, la plus récente
+	 * @return la version de la nouvelle valeur, plus grande que old.version
+	 */
+	protected long nextVersion(VersionedValue old) {
+		return old.version + 1;
+	}
+
+	/**
+	 * Borne l'ancienneté de la valeur locale de la variable 'key' : toute
+	 * écriture terminée depuis plus longtemps y est reflétée. Par défaut
+	 * inconnue, les lectures bornées passent alors par la section critique.
+	 *
+	 * @param key la clé de la variable
+	 * @return l'ancienneté maximale en millisecondes, Long.MAX_VALUE si elle
+	 * ne peut pas être bornée
+	 */
+	protected long staleness(String key) {
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Lit le contenu binaire de la variable 'key'. Par défaut, les contenus
+	 * binaires ne sont pas supportés : seul LamportManager les réplique.
+	 *
+	 * @param key la clé de la variable
+	 * @return le contenu local de la variable, vide si elle n'a jamais été
+	 * écrite
+	 * @throws RemoteException si les contenus binaires ne sont pas supportés
+	 */
+	protected byte[] readPayload(String key) throws RemoteException {
+		throw new RemoteException(getClass().getSimpleName() + " does not support payloads");
+	}
+
+	/**
+	 * Écrit le contenu binaire de la variable 'key', en section critique
+	 *
+	 * @param key la clé de la variable
+	 * @param value le nouveau contenu
+	 * @throws RemoteException si les contenus binaires ne sont pas supportés
+	 */
+	protected void writePayload(String key, byte[] value) throws RemoteException {
+		throw new RemoteException(getClass().getSimpleName() + " does not support payloads");
+	}
+
+	// ------------ METHODES UTILITAIRES ------------
+	/**
+	 * Exporte le serveur de l'algorithme via le transport et lie le serveur de
+	 * variable globale au registre local. A appeler par les sous-classes une
+	 * fois construites, afin qu'aucun client n'accède à un objet à moitié
+	 * initialisé.
+	 *
+	 * @param <T> l'interface distante de l'algorithme
+	 * @param type l'interface distante de l'algorithme
+	 * @param algorithmServer le serveur de l'algorithme d'exclusion mutuelle
+	 * @param algorithmName le nom sous lequel exporter ce serveur
+	 */
+	protected final <T extends Remote> void bindServers(Class<T> type, T algorithmServer, String algorithmName) {
+		try {
+			transport.export(algorithmName, type, algorithmServer);
+
+			IGlobalVariable globalVariableServer = new GlobalVariableServer();
+			registry.rebind(IGlobalVariable.RMI_NAME, globalVariableServer);
+
+			exported.add(globalVariableServer);
+
+			System.out.println("RMI registry on " + remotes[hostIndex][1] + " with bindings:");
+			Arrays.stream(registry.list()).forEach(System.out::println);
+		} catch (RemoteException ex) {
+			Logger.getLogger(GlobalVariableManager.class.getName()).log(Level.SEVERE, null, ex);
+		}
+	}
+
+	/**
+	 * Recherche en parallèle les serveurs des sites donnés. Les sites
+	 * introuvables, probablement pas encore lancés, sont recherchés à nouveau
+	 * après un délai doublé à chaque échec, et tiré au hasard dans sa seconde
+	 * moitié afin que tous les sites ne réessaient pas en même temps. Les
+	 * serveurs trouvés sont conservés dans 'servers' au fur et à mesure.
+	 *
+	 * Retourne dès que chaque site a été recherché au moins une fois et qu'au
+	 * moins 'ready' d'entre eux ont été trouvés : les sites restants sont
+	 * alors abandonnés, laissés à null.
+	 *
+	 * @param <T> l'interface distante de l'algorithme
+	 * @param servers les serveurs des sites, par index de site
+	 * @param sites les index des sites à rechercher
+	 * @param ready le nombre de sites à trouver avant de retourner
+	 * @param lookup la recherche du serveur d'un site
+	 * @return le nombre de sites trouvés
+	 * @throws MalformedURLException Si un nom d'hôte est mal formé
+	 * @throws ConnectException Si moins de 'ready' sites ont été trouvés
+	 * avant le délai fixé par setConnectTimeout()
+	 */
+	protected final <T> int lookupAll(T[] servers, List<Integer> sites, int ready, Lookup<T> lookup) throws MalformedURLException, ConnectException {
+		if (sites.isEmpty()) {
+			return 0;
+		}
+		ScheduledExecutorService pool = Executors.newScheduledThreadPool(Math.min(sites.size(), MAX_CONNECT_THREADS), (r) -> {
+			Thread t = new Thread(r, "connect-" + hostIndex);
+			t.setDaemon(true);
+			return t;
+		});
+		Connection<T> connection = new Connection<>(servers, lookup, pool);
+		try {
+			for (int site : sites) {
+				pool.execute(() -> connection.attempt(site, MIN_CONNECT_BACKOFF_MILLIS));
+			}
+			return connection.await(sites.size(), Math.min(ready, sites.size()),
+					System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(connectTimeoutMillis));
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * @param key la clé de la variable
+	 * @return la valeur locale de la variable et sa version
+	 */
+	protected VersionedValue read(String key) {
+		return store.getOrDefault(key, VersionedValue.INITIAL);
+	}
+
+	/**
+	 * @return une copie de toutes les variables connues localement
+	 */
+	protected Map<String, VersionedValue> snapshot() {
+		return new HashMap<>(store);
+	}
+
+	/**
+	 * Applique une valeur reçue d'un site distant si elle est plus récente que
+	 * la valeur locale, et la journalise le cas échéant
+	 *
+	 * @param key la clé de la variable
+	 * @param value la valeur reçue
+	 * @param valueVersion la version de cette valeur
+	 */
+	protected void applyValue(String key, int value, long valueVersion) {
+		VersionedValue received = new VersionedValue(value, valueVersion);
+		if (store.merge(key, received, VersionedValue::newest) == received) {
+			journal(key, received);
+		}
+	}
+
+	/**
+	 * Ajoute une nouvelle valeur au journal des écritures, s'il y en a un. Un
+	 * échec n'empêche pas l'écriture : la valeur reste répliquée sur les
+	 * autres sites
+	 *
+	 * @param key la clé de la variable
+	 * @param value la nouvelle valeur et sa version
+	 */
+	private void journal(String key, VersionedValue value) {
+		WriteAheadLog current = log;
+		if (current == null) {
+			return;
+		}
+		try {
+			current.append(key, value.value, value.version);
+		} catch (IOException ex) {
+			Logger.getLogger(GlobalVariableManager.class.getName()).log(Level.SEVERE, null, ex);
+		}
+	}
+
+	/**
+	 * Envoie une valeur d'une variable partagée à un site distant. A redéfinir
+	 * par les algorithmes utilisant la réplication asynchrone, qui doivent
+	 * aussi compter les mises à jour envoyées dans updatesSent.
+	 *
+	 * @param site l'index du site destinataire
+	 * @param key la clé de la variable
+	 * @param value la valeur à envoyer
+	 * @param valueVersion la version de cette valeur
+	 * @throws RemoteException En cas d'erreur de communication distante
+	 */
+	protected void pushValue(int site, String key, int value, long valueVersion) throws RemoteException {
+	}
+
+	/**
+	 * Lance le thread de réplication asynchrone, si ce n'est pas déjà fait
+	 */
+	protected synchronized void startReplication() {
+		if (replicator == null) {
+			replicator = new Thread(this::replicate);
+			replicator.setDaemon(true);
+			replicator.start();
+		}
+	}
+
+	/**
+	 * Indique au thread de réplication qu'une nouvelle valeur a été écrite
+	 *
+	 * @param key la clé de la variable écrite
+	 */
+	protected void scheduleReplication(String key) {
+		synchronized (dirtyLock) {
+			dirty.add(key);
+			dirtyLock.notify();
+		}
+	}
+
+	/**
+	 * Boucle du thread de réplication : dès qu'une nouvelle valeur est écrite,
+	 * on envoie la valeur la plus récente de chaque clé modifiée à tous les
+	 * autres sites. Les écritures effectuées pendant un envoi sont regroupées
+	 * dans l'envoi suivant.
+	 */
+	private void replicate() {
+		try {
+			while (true) {
+				Set<String> keys;
+				synchronized (dirtyLock) {
+					while (dirty.isEmpty()) {
+						dirtyLock.wait();
+					}
+					keys = dirty;
+					dirty = new HashSet<>();
+				}
+
+				for (String key : keys) {
+					VersionedValue current = read(key);
+
+					for (int i = 0; i < nbSites; i++) {
+						if (i == hostIndex) {
+							continue;
+						}
+						try {
+							pushValue(i, key, current.value, current.version);
+						} catch (RemoteException ex) {
+							Logger.getLogger(GlobalVariableManager.class.getName()).log(Level.WARNING,
+									"Could not replicate value to site " + i, ex);
+						}
+					}
+				}
+			}
+		} catch (InterruptedException ex) {
+			// Arrêt demandé par close()
+		}
+	}
+
+	/**
+	 * L'état d'un appel à lookupAll()
+	 */
+	private static class Connection<T> {
+
+		private final T[] servers;
+		private final Lookup<T> lookup;
+		private final ScheduledExecutorService pool;
+
+		/**
+		 * Les sites recherchés au moins une fois, par index de site
+		 */
+		private final Set<Integer> tried = new HashSet<>();
+		private int found;
+		private MalformedURLException malformed;
+
+		/**
+		 * Vrai une fois que lookupAll() a retourné : 'servers' n'est plus
+		 * modifié
+		 */
+		private boolean done;
+
+		Connection(T[] servers, Lookup<T> lookup, ScheduledExecutorService pool) {
+			this.servers = servers;
+			this.lookup = lookup;
+			this.pool = pool;
+		}
+
+		/**
+		 * Recherche le serveur d'un site, et planifie une nouvelle tentative
+		 * en cas d'échec
+		 */
+		void attempt(int site, long backoffMillis) {
+			T server;
+			try {
+				server = lookup.lookup(site);
+			} catch (RemoteException | NotBoundException ex) {
+				synchronized (this) {
+					if (done) {
+						return;
+					}
+					tried.add(site);
+					notifyAll();
+				}
+				long next = Math.min(2 * backoffMillis, MAX_CONNECT_BACKOFF_MILLIS);
+				long delay = backoffMillis / 2 + ThreadLocalRandom.current().nextLong(backoffMillis / 2 + 1);
+				try {
+					pool.schedule(() -> attempt(site, next), delay, TimeUnit.MILLISECONDS);
+				} catch (RejectedExecutionException stopped) {
+					// lookupAll() a retourné entre temps
+				}
+				return;
+			} catch (MalformedURLException ex) {
+				synchronized (this) {
+					malformed = ex;
+					notifyAll();
+				}
+				return;
+			}
+			synchronized (this) {
+				if (!done) {
+					servers[site] = server;
+					tried.add(site);
+					found++;
+					notifyAll();
+				}
+			}
+		}
+
+		/**
+		 * Attend que tous les sites aient été recherchés et 'ready' d'entre
+		 * eux trouvés, ou que tous soient trouvés
+		 */
+		synchronized int await(int total, int ready, long deadline) throws MalformedURLException, ConnectException {
+			try {
+				while (found < total && (found < ready || tried.size() < total) && malformed == null) {
+					long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+					if (remaining <= 0) {
+						break;
+					}
+					wait(remaining);
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new ConnectException("Interrupted while connecting to remotes");
+			} finally {
+				done = true;
+			}
+			if (malformed != null) {
+				throw malformed;
+			}
+			if (found < ready) {
+				throw new ConnectException("Only " + found + " of " + ready + " remotes found");
+			}
+			return found;
+		}
+	}
+
+	// -------------------------- SERVEUR RMI --------------------------
+	private class GlobalVariableServer extends UnicastRemoteObject implements IGlobalVariable {
+
+		public GlobalVariableServer() throws RemoteException {
+			super();
+		}
+
+		@Override
+		public int getVariable() throws RemoteException {
+			return getVariable(DEFAULT_KEY);
+		}
+
+		@Override
+		public void setVariable(int value) throws RemoteException {
+			setVariable(DEFAULT_KEY, value);
+		}
+
+		@Override
+		public int getVariable(String key) throws RemoteException {
+			return read(key).value;
+		}
+
+		@Override
+		public int getVariable(String key, long maxStalenessMillis) throws RemoteException {
+			if (staleness(key) <= maxStalenessMillis) {
+				return read(key).value;
+			}
+			// Une écriture de la même valeur obtient la dernière valeur, sans
+			// la modifier
+			return modify(key, (old) -> old);
+		}
+
+		@Override
+		public void setVariable(String key, int value) throws RemoteException {
+			modify(key, (old) -> value);
+		}
+
+		@Override
+		public int addAndGet(int delta) throws RemoteException {
+			return addAndGet(DEFAULT_KEY, delta);
+		}
+
+		@Override
+		public int addAndGet(String key, int delta) throws RemoteException {
+			return modify(key, (old) -> old + delta) + delta;
+		}
+
+		@Override
+		public boolean compareAndSet(int expected, int value) throws RemoteException {
+			return compareAndSet(DEFAULT_KEY, expected, value);
+		}
+
+		@Override
+		public boolean compareAndSet(String key, int expected, int value) throws RemoteException {
+			return modify(key, (old) -> old == expected ? value : old) == expected;
+		}
+
+		@Override
+		public int getLoad() throws RemoteException {
+			return writesInProgress.get();
+		}
+
+		@Override
+		public byte[] getPayload(String key) throws RemoteException {
+			return readPayload(key);
+		}
+
+		@Override
+		public void setPayload(String key, byte[] value) throws RemoteException {
+			writesInProgress.incrementAndGet();
+			try {
+				writePayload(key, value);
+			} finally {
+				writesInProgress.decrementAndGet();
+			}
+		}
+
+		/**
+		 * Lit, modifie puis écrit la variable 'key' en une seule acquisition
+		 * de la section critique. La libération transmet la nouvelle valeur
+		 * aux autres sites comme pour une écriture simple.
+		 *
+		 * @param key la clé de la variable
+		 * @param function calcule la nouvelle valeur à partir de l'ancienne
+		 * @return l'ancienne valeur
+		 */
+		private int modify(String key, IntUnaryOperator function) {
+			writesInProgress.incrementAndGet();
+			try {
+				synchronized (writeLock(key)) {
+					// Demande de section critique
+					waitForCS(key);
+					// On est ici en section critique, la valeur locale est la plus
+					// récente : la nouvelle version la suit directement
+					VersionedValue old = read(key);
+					int value = function.applyAsInt(old.value);
+					if (value != old.value) {
+						// Journalisée avant d'être visible et transmise aux autres
+						// sites
+						VersionedValue written = new VersionedValue(value, nextVersion(old));
+						journal(key, written);
+						store.put(key, written);
+						System.out.println("\t[" + hostIndex + "] " + key + " : " + old.value + " -> " + value);
+					}
+
+					// Relachement de la section critique
+					releaseCS(key);
+					return old.value;
+				}
+			} finally {
+				writesInProgress.decrementAndGet();
+			}
+		}
+	}
+}
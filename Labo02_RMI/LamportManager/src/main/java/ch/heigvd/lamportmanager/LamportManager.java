@@ -1,22 +1,41 @@
 package ch.heigvd.lamportmanager;
 
-import ch.heigvd.interfacesrmi.IGlobalVariable;
 import ch.heigvd.interfacesrmi.ILamportAlgorithm;
+import ch.heigvd.lamportmanager.transport.Transport;
+import ch.heigvd.lamportmanager.LamportQueue.MESSAGE_TYPE;
+import ch.heigvd.lamportmanager.stats.LamportStats;
+import ch.heigvd.lamportmanager.stats.LamportStatsMXBean;
+import ch.heigvd.lamportmanager.wal.WriteAheadLog;
 
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.net.MalformedURLException;
-import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.rmi.ConnectException;
-import java.rmi.Naming;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
-import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
 
 /**
  * Classe gérant un serveur de variable global entre plusieurs serveurs
@@ -56,97 +75,234 @@ import java.util.logging.Logger;
  * classe créera donc un registre RMI, à l'adresse et au port indiqué dans le
  * fichier hosts, ou en paramètre.
  *
+ * D'autres algorithmes d'exclusion mutuelle peuvent être utilisés à la place
+ * de celui de Lamport (voir GlobalVariableManager.Algorithm). On les choisit
+ * en 2ème argument du main.
+ *
+ * Mode bail : si une durée de bail est donnée au constructeur, un site ayant
+ * obtenu la section critique d'une clé la garde après son écriture, pendant
+ * au plus cette durée ou jusqu'à ce qu'un autre site la demande. Les
+ * écritures locales suivantes sur cette clé se font alors sans aucun message,
+ * et la dernière valeur est transmise aux autres sites par une seule
+ * libération à la fin du bail. Pendant le bail, les autres sites lisent
+ * l'ancienne valeur.
+ *
+ * Les durées de chaque étape d'une écriture (quittances, attente dans la
+ * file, section critique, libérations) sont mesurées et publiées via JMX,
+ * voir LamportStats.
+ *
+ * Détection des pannes : les sites se sondent par battements de coeur, et un
+ * site silencieux depuis plus de 'failureTimeoutMillis', ou dont une requête
+ * dépasse ce délai, est suspecté. Il ne bloque alors plus l'entrée en section
+ * critique et ne reçoit plus de messages jusqu'à ce qu'il réponde à nouveau ;
+ * une panne d'un site ne bloque ainsi pas les écritures des autres. Le délai
+ * doit rester largement supérieur à la latence normale d'un appel : un site
+ * suspecté à tort pourrait entrer en section critique en même temps qu'un
+ * autre.
+ *
+ * Rattrapage : un site lancé en retard ou redémarré rejoint la grappe par
+ * join() plutôt que connectToRemotes(). Il se fait réintégrer par chaque site
+ * joignable, qui lui transmet ses variables et son horloge, avant de
+ * participer à l'exclusion mutuelle ; les sites absents sont suspectés.
+ * Les autres sites sont recherchés en parallèle, et ceux pas encore lancés
+ * à nouveau après un délai croissant : le site sert ses clients dès que
+ * setReadySites() sites sont joignables.
+ *
+ * Composition dynamique : la grappe possède un nombre fixe d'emplacements
+ * (sa capacité), dont certains peuvent être libres : une entrée null dans
+ * les hôtes, ou une ligne "-" dans hosts.txt. Un nouveau site, lancé avec
+ * son adresse dans un emplacement libre, est ajouté à la grappe par join() ;
+ * un membre la quitte par leave(). Chaque ajout ou retrait est fait en
+ * section critique de la clé MEMBERSHIP_KEY, puis transmis à tous les
+ * membres : les modifications de la composition sont ainsi ordonnées de la
+ * même façon sur tous les sites, et les écritures des autres clés continuent
+ * pendant ce temps. Tous les sites doivent avoir la même capacité.
+ *
+ * Contenus binaires : une variable peut aussi contenir un tableau d'octets
+ * (voir IGlobalVariable.setPayload), transmis par la libération. Plutôt que
+ * le contenu complet, la libération n'en transmet que les octets modifiés
+ * depuis la libération précédente (voir PayloadDelta). Un site qui rejoint
+ * la grappe reçoit une copie complète de chaque contenu lors de son
+ * rattrapage. Un site qui ne possède malgré tout pas le contenu précédent
+ * refuse le delta et reçoit une copie complète, compressée. Les contenus
+ * binaires ne sont pas journalisés.
+ *
  * @author Miguel Pombo Dias
  * @author Rémi Jacquemard
  */
-public class LamportManager {
+public class LamportManager extends GlobalVariableManager {
 
 	// --------------- VARIABLES ----------------
 	/**
-	 * Stock la variable globale
+	 * Stock l'estampille courant du serveur, partagée par toutes les clés. On
+	 * utilise le long plutôt qu'un int, afin d'éviter les problèmes d'overflow.
+	 * Hybride si setPhysicalClock() a été appelé
 	 */
-	private int globalVariable;
+	private final LogicalClock localTimeStamp = new LogicalClock();
 
 	/**
-	 * Le nombre de site total, soit le nombre de serveur Lamport tel que
-	 * celui-ci
+	 * La liste des serveurs Lamport RMI distant. C'est à ceux-ci qu'on se
+	 * connecte lorsqu'on souhaite demander une SC lors de la modification de la
+	 * variable globale
 	 */
-	private final int nbSites;
+	private volatile ILamportAlgorithm[] lamportServers;
 
 	/**
-	 * L'index de l'hôte courant, parmis le 'nbSites'
+	 * Les files de Lamport, une par variable partagée. Une file est créée à
+	 * la première requête concernant sa clé, locale ou distante
 	 */
-	private final int hostIndex;
+	private final Map<String, LamportQueue> queues = new ConcurrentHashMap<>();
 
 	/**
-	 * Stock l'estampille courant du serveur. On utilise le long plutôt qu'un
-	 * int, afin d'éviter les problèmes d'overflow
+	 * Les contenus binaires des variables partagées
 	 */
-	private long localTimeStamp = 0;
+	private final Map<String, VersionedPayload> payloads = new ConcurrentHashMap<>();
 
 	/**
-	 * La liste des serveurs Lamport RMI distant. C'est à ceux-ci qu'on se
-	 * connecte lorsqu'on souhaite demander une SC lors de la modification de la
-	 * variable globale
+	 * Le dernier contenu de chaque variable connu de tous les sites : reçu
+	 * d'un autre site, ou transmis par notre dernière libération. Nos deltas
+	 * sont calculés à partir de celui-ci
 	 */
-	private ILamportAlgorithm[] lamportServers;
+	private final Map<String, VersionedPayload> replicatedPayloads = new ConcurrentHashMap<>();
 
 	/**
-	 * La liste de tous les sites, sous la forme {{"10.0.0.5", "2002"},
-	 * {"10.0.1.3", "2003"}}, soit {ip, port}
+	 * Le nombre d'octets de contenus binaires envoyés par nos libérations
 	 */
-	private String[][] remotes;
+	private final AtomicLong payloadBytesSent = new AtomicLong();
 
 	/**
-	 * Cet objet sert pour lock les procédures lors d'attente au SC. On fait
-	 * attendre les demandes de modifications de variables globale si on a pas
-	 * la section critique en faisant un lock.wait(). On libère ce lock si la
-	 * section critique peut être acquise.
+	 * Le nombre d'octets qu'auraient coûté ces libérations en transmettant
+	 * chaque fois le contenu complet
 	 */
-	private final Object lock = new Object();
+	private final AtomicLong payloadBytesFull = new AtomicLong();
 
 	/**
-	 * Classe représentant les messages reçus par un site Lamport distant. Elle
-	 * est principalement utilisées afin de stocker les messages reçu dans la
-	 * "file", telle que décrite dans la spécification
+	 * Le bail d'une clé : la section critique obtenue est gardée après
+	 * l'écriture. Modifié en possédant le verrou d'écriture de la clé, sauf
+	 * 'revoked' qui est mis à jour à la réception d'une requête
 	 */
-	private static class Message {
+	private static class Lease {
 
 		/**
-		 * Les 3 types de messages possible de Lamport: Requête, Quittance,
-		 * Libération
+		 * Vrai tant que la section critique est gardée après une écriture
 		 */
-		public static enum MESSAGE_TYPE {
-			REQUEST, RESPONSE, LIBERATE
-		};
+		private volatile boolean held = false;
 
-		private final MESSAGE_TYPE messageType;
+		/**
+		 * Vrai si un autre site a demandé la section critique depuis notre
+		 * dernière requête : le bail doit alors se terminer au plus vite
+		 */
+		private volatile boolean revoked = false;
 
-		// Le temps est toujours envoyé / reçu de tous le monde
-		private final long time;
+		/**
+		 * La fin du bail, selon System.nanoTime()
+		 */
+		private long deadline;
 
-		public Message(MESSAGE_TYPE message_type, long time) {
-			this.messageType = message_type;
-			this.time = time;
-		}
+		/**
+		 * La tâche terminant le bail à son échéance
+		 */
+		private ScheduledFuture<?> expiry;
+	}
 
-		// -------- GETTERS --------
-		public MESSAGE_TYPE getMessageType() {
-			return messageType;
-		}
+	/**
+	 * La durée maximale d'un bail en millisecondes, 0 si le mode bail n'est
+	 * pas utilisé
+	 */
+	private final long leaseMillis;
 
-		public long getTime() {
-			return time;
-		}
+	/**
+	 * Les baux, un par variable partagée
+	 */
+	private final Map<String, Lease> leases = new ConcurrentHashMap<>();
 
+	/**
+	 * Termine les baux à leur échéance ou lorsqu'ils sont révoqués. null si
+	 * le mode bail n'est pas utilisé
+	 */
+	private final ScheduledExecutorService leaseTimer;
+
+	/**
+	 * Les mesures de l'exclusion mutuelle, publiées via JMX
+	 */
+	private final LamportStats stats;
+
+	/**
+	 * L'instant d'entrée en section critique du thread courant. Les écritures
+	 * d'une clé étant faites par un seul thread à la fois, de waitForCS() à
+	 * releaseCS(), une case par thread suffit
+	 */
+	private final ThreadLocal<long[]> csEnteredAt = ThreadLocal.withInitial(() -> new long[1]);
+
+	/**
+	 * Le délai de détection des pannes par défaut, en millisecondes
+	 */
+	public static final long DEFAULT_FAILURE_TIMEOUT_MILLIS = 3000;
+
+	/**
+	 * Le délai, en millisecondes, après lequel un site silencieux ou une
+	 * requête sans quittance rend le site distant suspect
+	 */
+	private final long failureTimeoutMillis;
+
+	/**
+	 * Le détecteur de pannes, sondant les autres sites
+	 */
+	private final FailureDetector detector;
+
+	/**
+	 * Un appel vers un site distant, borné par bounded()
+	 *
+	 * @param <T> le type retourné par l'appel
+	 */
+	@FunctionalInterface
+	private interface RemoteCall<T> {
+
+		T call() throws RemoteException;
 	}
 
 	/**
-	 * On y stocke les messages reçu des autres sites et du sien. Utile afin de
-	 * déterminer si on a le droit ou non d'entrer en section critique, tel que
-	 * l'algorithme de Lamport le défini
+	 * Exécute les libérations et les appels bornés par le délai de détection
+	 * des pannes : un appel RMI ne pouvant pas être interrompu, l'appelant
+	 * cesse simplement d'attendre
+	 */
+	private final ExecutorService remoteCalls = Executors.newCachedThreadPool((r) -> {
+		Thread t = new Thread(r);
+		t.setDaemon(true);
+		return t;
+	});
+
+	/**
+	 * Les variables transmises par Heartbeat.recovering() à chaque site en
+	 * cours de réintégration, afin que Heartbeat.recovered() ne retransmette
+	 * que celles modifiées depuis
+	 */
+	private final Map<Integer, Map<String, VersionedValue>> recoveryStates = new ConcurrentHashMap<>();
+
+	/**
+	 * La clé réservée dont la section critique ordonne les modifications de
+	 * la composition de la grappe
+	 */
+	public static final String MEMBERSHIP_KEY = "lamport.membership";
+
+	/**
+	 * La version de la composition de la grappe connue, incrémentée à chaque
+	 * ajout ou retrait. Protégée, comme les emplacements de 'remotes', par le
+	 * verrou de ce site
+	 */
+	private long membershipVersion = 0;
+
+	/**
+	 * Vrai une fois connecté aux autres sites : seul un site ayant rejoint la
+	 * grappe peut y admettre un nouveau membre
+	 */
+	private volatile boolean joined = false;
+
+	/**
+	 * Le nombre d'autres membres joignables attendus par join() avant de
+	 * servir, voir setReadySites()
 	 */
-	private Message[] messagesArray;
+	private volatile int readySites = 1;
 
 	// --------------------- CONSTRUCTEURS ---------------------
 	/**
@@ -166,42 +322,92 @@ public class LamportManager {
 	 * @param hostIndex L'index, à partir de 0, de l'hôte courant
 	 */
 	public LamportManager(String[][] hosts, int hostIndex) {
-		this.hostIndex = hostIndex;
-
-		this.globalVariable = 0;
-
-		this.remotes = hosts;
-		this.nbSites = remotes.length;
-
-		this.lamportServers = new ILamportAlgorithm[nbSites];
-
-		// On initialise les messages reçu à un temps 0 avec des liberates
-		this.messagesArray = new Message[nbSites];
-		for (int i = 0; i < messagesArray.length; i++) {
-			this.messagesArray[i] = new Message(Message.MESSAGE_TYPE.LIBERATE, 0);
-		}
+		this(hosts, hostIndex, Transport.Kind.RMI);
+	}
 
-		try {
+	/**
+	 * Même constructeur, en choisissant le transport utilisé entre les sites
+	 *
+	 * @param hosts La liste des serveurs RMI Lamport disponibles
+	 * @param hostIndex L'index, à partir de 0, de l'hôte courant
+	 * @param transportKind le transport à utiliser entre les sites
+	 */
+	public LamportManager(String[][] hosts, int hostIndex, Transport.Kind transportKind) {
+		this(hosts, hostIndex, transportKind, 0);
+	}
 
-			// Retreiving our port address
-			int portUsed = Integer.parseInt(remotes[hostIndex][1]);
+	/**
+	 * Même constructeur, en activant le mode bail
+	 *
+	 * @param hosts La liste des serveurs RMI Lamport disponibles
+	 * @param hostIndex L'index, à partir de 0, de l'hôte courant
+	 * @param transportKind le transport à utiliser entre les sites
+	 * @param leaseMillis la durée maximale pendant laquelle la section
+	 * critique est gardée après une écriture, 0 pour la relâcher
+	 * immédiatement
+	 */
+	public LamportManager(String[][] hosts, int hostIndex, Transport.Kind transportKind, long leaseMillis) {
+		this(hosts, hostIndex, transportKind, leaseMillis, DEFAULT_FAILURE_TIMEOUT_MILLIS);
+	}
 
-			// Creating local RMI servers
-			Registry registry = LocateRegistry.createRegistry(portUsed);
+	/**
+	 * Même constructeur, en choisissant le délai de détection des pannes
+	 *
+	 * @param hosts La liste des serveurs RMI Lamport disponibles
+	 * @param hostIndex L'index, à partir de 0, de l'hôte courant
+	 * @param transportKind le transport à utiliser entre les sites
+	 * @param leaseMillis la durée maximale pendant laquelle la section
+	 * critique est gardée après une écriture, 0 pour la relâcher
+	 * immédiatement
+	 * @param failureTimeoutMillis le délai après lequel un site silencieux,
+	 * ou une requête sans quittance, rend le site distant suspect. Les sites
+	 * sont sondés 4 fois par délai
+	 */
+	public LamportManager(String[][] hosts, int hostIndex, Transport.Kind transportKind, long leaseMillis, long failureTimeoutMillis) {
+		this(hosts, hostIndex, transportKind, leaseMillis, failureTimeoutMillis, hosts.length);
+	}
 
-			// On crées les serveurs RMI écoutant et on les lies au registre courant
-			IGlobalVariable globalVariableServer = new GlobalVariableServer();
-			registry.rebind(IGlobalVariable.RMI_NAME, globalVariableServer);
+	/**
+	 * Même constructeur, en réservant des emplacements libres pour des sites
+	 * ajoutés plus tard à la grappe
+	 *
+	 * @param hosts La liste des serveurs RMI Lamport disponibles. Une entrée
+	 * null est un emplacement libre
+	 * @param hostIndex L'index, à partir de 0, de l'hôte courant
+	 * @param transportKind le transport à utiliser entre les sites
+	 * @param leaseMillis la durée maximale pendant laquelle la section
+	 * critique est gardée après une écriture, 0 pour la relâcher
+	 * immédiatement
+	 * @param failureTimeoutMillis le délai après lequel un site silencieux,
+	 * ou une requête sans quittance, rend le site distant suspect
+	 * @param capacity le nombre total d'emplacements de la grappe, au moins
+	 * le nombre d'hôtes. Les emplacements au delà des hôtes sont libres
+	 */
+	public LamportManager(String[][] hosts, int hostIndex, Transport.Kind transportKind, long leaseMillis, long failureTimeoutMillis, int capacity) {
+		super(withCapacity(hosts, capacity), hostIndex, transportKind);
 
-			ILamportAlgorithm lamportAlgorithmServer = new LamportAlgorithmServer();
-			registry.rebind(ILamportAlgorithm.RMI_NAME, lamportAlgorithmServer);
+		this.lamportServers = new ILamportAlgorithm[nbSites];
+		this.leaseMillis = leaseMillis;
+		this.failureTimeoutMillis = failureTimeoutMillis;
+		this.detector = new FailureDetector(nbSites, hostIndex, Math.max(1, failureTimeoutMillis / 4),
+				failureTimeoutMillis, new Heartbeat());
+		transport.setCallTimeout(failureTimeoutMillis);
+		for (int i = 0; i < nbSites; i++) {
+			if (remotes[i] == null) {
+				detector.remove(i);
+			}
+		}
+		this.leaseTimer = leaseMillis > 0 ? Executors.newSingleThreadScheduledExecutor((r) -> {
+			Thread t = new Thread(r);
+			t.setDaemon(true);
+			return t;
+		}) : null;
 
-			System.out.println("RMI registry on " + portUsed + " with bindings:");
-			Arrays.stream(registry.list()).forEach(System.out::println);
+		this.stats = new LamportStats(nbSites);
+		stats.register(hostIndex, hosts[hostIndex][1]);
 
-		} catch (RemoteException ex) {
-			Logger.getLogger(LamportManager.class.getName()).log(Level.SEVERE, null, ex);
-		}
+		// On crées le serveur écoutant et on l'exporte via le transport
+		bindServers(ILamportAlgorithm.class, new LamportAlgorithmServer(), ILamportAlgorithm.RMI_NAME);
 	}
 
 	/**
@@ -224,9 +430,7 @@ public class LamportManager {
 	public LamportManager(int hostIndex) throws IOException {
       
 		// Retreiving the other hosts from the hosts.txt file;
-		this(Files.readAllLines(Paths.get("hosts.txt")).stream()
-				.map((s) -> s.split(" "))
-				.toArray(String[][]::new), hostIndex);
+		this(readHostsFile(), hostIndex);
 
 	}
 
@@ -249,77 +453,486 @@ public class LamportManager {
 	 * @throws ConnectException Si l'hôte distant est introuvable. Peut être
 	 * n'est-il pas lancé ?
 	 */
+	@Override
 	public void connectToRemotes() throws NotBoundException, MalformedURLException, RemoteException, ConnectException {
-		// Connecting to other hosts
+		// Connecting to other hosts, in parallel
+		ILamportAlgorithm[] servers = new ILamportAlgorithm[nbSites];
+		List<Integer> members = new ArrayList<>();
 		for (int i = 0; i < remotes.length; i++) {
-			String[] currentHost = remotes[i];
-
-			ILamportAlgorithm remoteServer = (ILamportAlgorithm) Naming.lookup("//" + currentHost[0] + ":" + currentHost[1] + "/" + ILamportAlgorithm.RMI_NAME);
-			lamportServers[i] = remoteServer;
+			if (detector.isMember(i)) {
+				members.add(i);
+			}
 		}
+		lookupAll(servers, members, members.size(), this::lookup);
+		lamportServers = servers;
+		joined = true;
 
 		System.out.println("Remotes connected !");
+
+		// Les sondes ne commencent qu'une fois tous les sites joignables
+		detector.start();
+	}
+
+	/**
+	 * Rejoint la grappe, au lancement ou après un redémarrage, sans attendre
+	 * que tous les sites soient joignables. Les sites injoignables sont
+	 * suspectés, et réintégrés par le détecteur de pannes lorsqu'ils
+	 * rejoignent à leur tour.
+	 *
+	 * Avant de participer à l'exclusion mutuelle, on demande en parallèle à
+	 * chaque site joignable de nous réintégrer et de nous transmettre ses
+	 * variables (voir ILamportAlgorithm.catchUp()) : on repart ainsi des
+	 * dernières valeurs et d'une horloge à jour, et on reçoit leurs requêtes
+	 * en cours. Les autres sites continuent d'écrire pendant ce temps ; une
+	 * écriture terminée après notre réintégration nous est transmise par sa
+	 * libération, une écriture antérieure figure dans les variables reçues.
+	 *
+	 * Un site ne réintègre l'appelant qu'après les écritures locales en cours
+	 * : le rattrapage dure au plus deux fois le délai de détection des pannes,
+	 * au delà duquel il échoue et peut être recommencé.
+	 *
+	 * On demande d'abord notre admission au premier membre joignable, qui
+	 * nous ajoute à la grappe si nécessaire et nous transmet sa composition.
+	 *
+	 * Les membres sont recherchés en parallèle, ceux pas encore lancés à
+	 * nouveau après un délai croissant, jusqu'à en trouver setReadySites().
+	 *
+	 * @throws NotBoundException si notre propre serveur n'est pas exporté
+	 * @throws MalformedURLException Si un nom d'hôte est mal formé
+	 * @throws RemoteException Si notre propre serveur est injoignable
+	 * @throws ConnectException Si trop peu d'autres sites sont joignables
+	 * avant le délai de connexion, ou si le rattrapage auprès de l'un d'eux a
+	 * échoué
+	 */
+	@Override
+	public void join() throws NotBoundException, MalformedURLException, RemoteException, ConnectException {
+		requestAdmission();
+
+		ILamportAlgorithm[] found = new ILamportAlgorithm[nbSites];
+		found[hostIndex] = lookup(hostIndex);
+		List<Integer> others = new ArrayList<>();
+		for (int i = 0; i < nbSites; i++) {
+			if (i != hostIndex && detector.isMember(i)) {
+				others.add(i);
+			}
+		}
+		lookupAll(found, others, readySites, this::lookup);
+		List<Integer> live = new ArrayList<>();
+		for (int i : others) {
+			if (found[i] != null) {
+				live.add(i);
+			}
+		}
+
+		final ILamportAlgorithm[] servers;
+		synchronized (this) {
+			// Un site qui nous a déjà réintégré a pu mettre à jour le serveur
+			// d'un site que nous n'avons pas trouvé
+			servers = lamportServers.clone();
+			for (int i = 0; i < nbSites; i++) {
+				if (found[i] != null) {
+					servers[i] = found[i];
+				}
+			}
+			lamportServers = servers;
+		}
+		for (int i = 0; i < nbSites; i++) {
+			if (found[i] == null && detector.isMember(i)) {
+				detector.suspect(i);
+			}
+		}
+
+		// Rattrapage auprès de chaque site joignable, en parallèle
+		final AtomicIntegerArray caughtUp = new AtomicIntegerArray(nbSites);
+		Thread[] catchUpThreads = new Thread[nbSites];
+		for (final int site : live) {
+			catchUpThreads[site] = new Thread(() -> {
+				try {
+					messagesSent.incrementAndGet();
+					increaseTime(servers[site].catchUp(hostIndex));
+					// Un membre que nous venons d'apprendre est suspecté
+					// jusqu'ici
+					if (detector.reintegrate(site)) {
+						caughtUp.set(site, 1);
+					}
+				} catch (RemoteException ex) {
+					Logger.getLogger(LamportManager.class.getName()).log(Level.WARNING, "Catch-up from site " + site + " failed", ex);
+				}
+			});
+			catchUpThreads[site].start();
+		}
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(2 * failureTimeoutMillis);
+		try {
+			for (int site : live) {
+				TimeUnit.NANOSECONDS.timedJoin(catchUpThreads[site], deadline - System.nanoTime());
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new ConnectException("Interrupted while catching up");
+		}
+		for (int site : live) {
+			if (caughtUp.get(site) == 0) {
+				throw new ConnectException("Catch-up from site " + site + " failed");
+			}
+		}
+
+		System.out.println("Joined, caught up from sites " + live);
+		joined = true;
+		detector.start();
+	}
+
+	/**
+	 * Modifie le nombre d'autres membres que join() doit trouver avant de
+	 * servir les clients, 1 par défaut. Les membres introuvables à ce moment
+	 * sont suspectés et rattrapent la grappe en la rejoignant à leur tour.
+	 * Avec 0, le premier site lancé sert seul ; une valeur supérieure évite
+	 * de servir depuis une petite partie de la grappe lors d'un lancement.
+	 *
+	 * @param readySites le nombre de membres, limité au nombre d'autres
+	 * membres
+	 */
+	public void setReadySites(int readySites) {
+		this.readySites = readySites;
+	}
+
+	/**
+	 * Rend l'horloge logique hybride : les estampilles des requêtes et les
+	 * versions des valeurs portent le temps physique donné, en plus de
+	 * respecter la causalité. L'ordre des écritures peut ainsi être comparé à
+	 * des événements extérieurs, et une lecture d'ancienneté bornée servie
+	 * localement (voir IGlobalVariable.getVariable(String, long)). Tous les
+	 * sites doivent utiliser des horloges synchronisées, par exemple par PTP
+	 * (voir ptpClock()) : l'ancienneté est garantie à leur écart près.
+	 *
+	 * @param millis le temps physique en millisecondes
+	 */
+	public void setPhysicalClock(LongSupplier millis) {
+		localTimeStamp.setPhysical(millis);
+	}
+
+	/**
+	 * Crée un esclave PTP (PTP.SlavePTP du laboratoire sur les horloges, à
+	 * ajouter au classpath), dont l'heure synchronisée sur le maitre sert de
+	 * temps physique à setPhysicalClock()
+	 *
+	 * @return le temps synchronisé de l'esclave, en millisecondes
+	 * @throws ReflectiveOperationException si PTP.SlavePTP n'est pas dans le
+	 * classpath, ou si l'esclave n'a pas pu être créé
+	 */
+	public static LongSupplier ptpClock() throws ReflectiveOperationException {
+		Class<?> slaveClass = Class.forName("PTP.SlavePTP");
+		Object slave = slaveClass.getConstructor().newInstance();
+		MethodHandle timeSynced = MethodHandles.publicLookup()
+				.findVirtual(slaveClass, "getTimeSynced", MethodType.methodType(long.class))
+				.bindTo(slave);
+		return () -> {
+			try {
+				return (long) timeSynced.invokeExact();
+			} catch (Throwable ex) {
+				throw new IllegalStateException(ex);
+			}
+		};
+	}
+
+	/**
+	 * Quitte la grappe, puis ferme ce site. Les écritures locales en cours se
+	 * terminent avant le retrait ; les clients doivent avoir cessé d'écrire
+	 * sur ce site. Le retrait est fait en section critique de MEMBERSHIP_KEY
+	 * et transmis à tous les membres, qui ne nous attendent alors plus.
+	 */
+	public void leave() {
+		for (String key : queues.keySet()) {
+			synchronized (writeLock(key)) {
+				// Attente de la fin de l'écriture en cours sur cette clé
+			}
+		}
+		changeMembership(hostIndex, null);
+		close();
+	}
+
+	/**
+	 * @param site l'index d'un emplacement
+	 * @return vrai si un membre de la grappe occupe cet emplacement
+	 */
+	public boolean isMember(int site) {
+		return detector.isMember(site);
+	}
+
+	/**
+	 * @return les mesures de l'exclusion mutuelle de ce site, aussi publiées
+	 * via JMX
+	 */
+	public LamportStatsMXBean getStats() {
+		return stats;
+	}
+
+	/**
+	 * @return le nombre d'octets de contenus binaires envoyés par nos
+	 * libérations, deltas et copies complètes
+	 */
+	public long getPayloadBytesSent() {
+		return payloadBytesSent.get();
+	}
+
+	/**
+	 * @return le nombre d'octets qu'auraient coûté nos libérations de
+	 * contenus binaires sans delta ni compression
+	 */
+	public long getPayloadBytesFull() {
+		return payloadBytesFull.get();
+	}
+
+	/**
+	 * @param site l'index d'un site
+	 * @return vrai si ce site est actuellement suspecté d'être en panne, et
+	 * donc exclu de l'exclusion mutuelle
+	 */
+	public boolean isSuspected(int site) {
+		return detector.isSuspected(site);
+	}
+
+	@Override
+	public void close() {
+		detector.close();
+		remoteCalls.shutdownNow();
+		stats.unregister();
+		if (leaseTimer != null) {
+			leaseTimer.shutdownNow();
+		}
+		super.close();
 	}
 
 	// -------------------------- SERVEURS RMI --------------------------
-	private class LamportAlgorithmServer extends UnicastRemoteObject implements ILamportAlgorithm {
+	private class LamportAlgorithmServer implements ILamportAlgorithm {
 
-		public LamportAlgorithmServer() throws RemoteException {
-			super();
+		@Override
+		public long request(String key, long remoteTimeStamp, int hostIndex) throws RemoteException {
+			detector.heard(hostIndex);
+
+			// On quittance en envoyant le temps courant, ou l'estampille de
+			// notre requête si elle est plus prioritaire
+			long response = queue(key).requestReceived(hostIndex, remoteTimeStamp);
+
+			// Si on garde la section critique, on la relâche au plus vite
+			if (leaseMillis > 0) {
+				Lease lease = lease(key);
+				lease.revoked = true;
+				if (lease.held) {
+					leaseTimer.execute(() -> expire(key, lease));
+				}
+			}
+			return response;
 		}
 
 		@Override
-		public synchronized long request(long remoteTimeStamp, int hostIndex) throws RemoteException {
+		public void free(String key, long remoteTimeStamp, int value, long version, int hostIndex) throws RemoteException {
+			detector.heard(hostIndex);
+			applyValue(key, value, version);
+
+			// On met à jour le temps local
 			increaseTime(remoteTimeStamp);
 
-			handleMessageReceived(hostIndex, new Message(Message.MESSAGE_TYPE.REQUEST, remoteTimeStamp));
+			// On met à jour les messages reçu, ce qui notifie si on souhaitait,
+			// par hasard, entrer en section critique
+			queue(key).handleMessageReceived(hostIndex, MESSAGE_TYPE.LIBERATE, remoteTimeStamp);
+		}
 
-			// On quittance en envoyant le temps courant
-			return localTimeStamp;
+		@Override
+		public boolean free(String key, long remoteTimeStamp, int value, long version, byte[] payload, long payloadBase, long payloadVersion, int hostIndex) throws RemoteException {
+			detector.heard(hostIndex);
+			// Le contenu doit être appliqué avant la libération, afin que
+			// notre prochaine écriture parte de ce contenu
+			if (!applyPayload(key, payload, payloadBase, payloadVersion)) {
+				return false;
+			}
+			free(key, remoteTimeStamp, value, version, hostIndex);
+			return true;
 		}
 
 		@Override
-		public void free(long remoteTimeStamp, int value, int hostIndex) throws RemoteException {
-			globalVariable = value;
+		public void heartbeat(int hostIndex) throws RemoteException {
+			detector.heard(hostIndex);
+		}
 
-			// On met à jour le temps local
-			increaseTime(remoteTimeStamp);
+		@Override
+		public long catchUp(int site) throws RemoteException {
+			// Relancé, le site a exporté un nouveau serveur. La réintégration
+			// lui transmet nos variables et nos contenus binaires, voir
+			// Heartbeat.recovering()
+			reconnect(site);
+			if (!detector.reintegrate(site)) {
+				throw new RemoteException("Could not reintegrate site " + site);
+			}
+			return localTimeStamp.get();
+		}
 
-			// On met à jour les messages reçu
-			handleMessageReceived(hostIndex, new Message(Message.MESSAGE_TYPE.LIBERATE, remoteTimeStamp));
+		@Override
+		public void state(String[] keys, int[] values, long[] versions, int site) throws RemoteException {
+			detector.heard(site);
+			for (int i = 0; i < keys.length; i++) {
+				applyValue(keys[i], values[i], versions[i]);
+			}
+		}
+
+		@Override
+		public void statePayload(String key, byte[] snapshot, long version, int site) throws RemoteException {
+			detector.heard(site);
+			applyPayload(key, snapshot, -1, version);
+		}
 
-			synchronized (lock) {
-				// On notifie si on souhaitait, par hasard, entrer en section critique
-				lock.notify();
+		@Override
+		public void admit(int site, String host, String port) throws RemoteException {
+			if (site < 0 || site >= nbSites || site == hostIndex) {
+				throw new RemoteException("Invalid slot " + site);
+			}
+			String[] address = {host, port};
+			boolean known;
+			synchronized (LamportManager.this) {
+				known = Arrays.equals(remotes[site], address);
+			}
+			if (!known) {
+				if (!joined) {
+					throw new RemoteException("Site " + hostIndex + " has not joined the cluster yet");
+				}
+				if (detector.isAlive(site)) {
+					throw new RemoteException("Slot " + site + " is used by a live site");
+				}
+				changeMembership(site, address);
+			}
+
+			String[] members;
+			long version;
+			synchronized (LamportManager.this) {
+				members = members();
+				version = membershipVersion;
 			}
+			messagesSent.incrementAndGet();
+			reconnect(site).membership(members, version, hostIndex);
+		}
+
+		@Override
+		public void membership(String[] members, long version, int site) throws RemoteException {
+			if (members.length != nbSites) {
+				throw new RemoteException("Capacity mismatch: " + members.length + " slots, " + nbSites + " expected");
+			}
+			adopt(members, version);
 		}
 
 	}
 
-	private class GlobalVariableServer extends UnicastRemoteObject implements IGlobalVariable {
+	// -------------------------- DETECTION DES PANNES --------------------------
+	private class Heartbeat implements FailureDetector.Listener {
 
-		public GlobalVariableServer() throws RemoteException {
-			super();
+		@Override
+		public boolean probe(int site) {
+			try {
+				ILamportAlgorithm server = lamportServers[site];
+				if (detector.isSuspected(site)) {
+					// Un site redémarré a exporté un nouveau serveur
+					server = reconnect(site);
+				}
+				server.heartbeat(hostIndex);
+				return true;
+			} catch (RemoteException ex) {
+				return false;
+			}
 		}
 
 		@Override
-		public synchronized int getVariable() throws RemoteException {
-			return globalVariable;
+		public void suspected(int site) {
+			for (LamportQueue queue : queues.values()) {
+				queue.siteChanged(site);
+			}
 		}
 
+		/**
+		 * Nos requêtes en cours n'ont pas été envoyées au site pendant qu'il
+		 * était suspecté : on les lui envoie avant qu'il puisse à nouveau
+		 * nous bloquer. Le verrou d'écriture de la clé garantit que la
+		 * requête n'est pas libérée pendant ce temps.
+		 *
+		 * Nos libérations ne lui ont pas non plus été envoyées : on lui
+		 * transmet nos variables et nos contenus binaires, comme au
+		 * rattrapage. Chaque appel est borné par le délai de détection des
+		 * pannes, un site qui ne répond pas restant suspecté
+		 */
 		@Override
-		public synchronized void setVariable(int value) throws RemoteException {
-			// Demande de section critique
-			waitForCS();
-			// On est ici en section critique
-         System.out.println("\t[" + hostIndex + "] Old value : " + globalVariable);
-			globalVariable = value;
-         System.out.println("\t[" + hostIndex + "] New value : " + globalVariable);
+		public boolean recovering(int site) {
+			ILamportAlgorithm server = lamportServers[site];
+			try {
+				// Le site a pu manquer des modifications de la composition
+				String[] members;
+				long version;
+				synchronized (LamportManager.this) {
+					members = members();
+					version = membershipVersion;
+				}
+				messagesSent.incrementAndGet();
+				bounded(() -> {
+					server.membership(members, version, hostIndex);
+					return null;
+				});
+
+				for (Map.Entry<String, LamportQueue> entry : queues.entrySet()) {
+					synchronized (writeLock(entry.getKey())) {
+						LamportQueue queue = entry.getValue();
+						long pending = queue.pendingRequest();
+						if (pending != LamportQueue.NO_REQUEST) {
+							messagesSent.incrementAndGet();
+							long remoteTime = bounded(() -> server.request(entry.getKey(), pending, hostIndex));
+							queue.handleMessageReceived(site, MESSAGE_TYPE.RESPONSE, remoteTime);
+						}
+					}
+				}
 
-			// Relachement de la section critique				
-			releaseCS();
+				Map<String, VersionedValue> values = snapshot();
+				sendState(server, values);
+				for (Map.Entry<String, VersionedPayload> entry : payloads.entrySet()) {
+					byte[] snapshot = PayloadDelta.snapshot(entry.getValue().value);
+					messagesSent.incrementAndGet();
+					payloadBytesSent.addAndGet(snapshot.length);
+					bounded(() -> {
+						server.statePayload(entry.getKey(), snapshot, entry.getValue().version, hostIndex);
+						return null;
+					});
+				}
+				recoveryStates.put(site, values);
+				return true;
+			} catch (RemoteException ex) {
+				return false;
+			}
 		}
 
+		/**
+		 * Une écriture libérée entre la copie transmise par recovering() et
+		 * la réintégration n'a pas été envoyée au site : sa valeur était déjà
+		 * dans nos variables lorsque le site a été vu suspecté, on transmet
+		 * donc les variables modifiées depuis la copie
+		 */
+		@Override
+		public void recovered(int site) {
+			for (LamportQueue queue : queues.values()) {
+				queue.siteChanged(site);
+			}
+
+			Map<String, VersionedValue> sent = recoveryStates.remove(site);
+			if (sent == null) {
+				return;
+			}
+			Map<String, VersionedValue> changed = snapshot();
+			changed.entrySet().removeIf((entry) -> sent.containsKey(entry.getKey())
+					&& sent.get(entry.getKey()).version == entry.getValue().version);
+			if (changed.isEmpty()) {
+				return;
+			}
+			try {
+				sendState(lamportServers[site], changed);
+			} catch (RemoteException ex) {
+				Logger.getLogger(LamportManager.class.getName()).log(Level.WARNING, "State to site " + site + " failed", ex);
+				detector.suspect(site);
+			}
+		}
 	}
 
 	// ------------ METHODES UTILITAIRES PRIVEES ------------
@@ -330,31 +943,54 @@ public class LamportManager {
     * d'envoyer les autres messages. On effectue ensuite une jointure sur
     * tous les threads pour les terminer proprement.
     * 
-    * @param localTimeStamp         Le temps logique à envoyer
+    * Les sites suspectés ne sont pas contactés, et un site dont la quittance
+    * n'est pas arrivée avant le délai de détection des pannes devient
+    * suspect : un site en panne ne bloque pas la requête.
+    * 
+    * @param key                   La clé de la variable concernée
     * @throws InterruptedException  En cas d'interruption de l'un des threads
     */
-	private void sendRequestsAndProcessResponse(final long localTimeStamp) throws InterruptedException {
+	private void sendRequestsAndProcessResponse(final String key) throws InterruptedException {
+		final LamportQueue queue = queue(key);
+
+		// Les requêtes reçues avant la nôtre passeront de toute façon avant
+		if (leaseMillis > 0) {
+			lease(key).revoked = false;
+		}
+
 		// On set notre message courant
-		messagesArray[hostIndex] = new Message(Message.MESSAGE_TYPE.REQUEST, localTimeStamp);
+		final long localTimeStamp = queue.request();
+
+		final ILamportAlgorithm[] servers = lamportServers;
+		Thread[] senderThreads = new Thread[servers.length];
 
-		Thread[] senderThreads = new Thread[lamportServers.length];
+		// La dernière quittance reçue mesure l'aller-retour de la requête
+		final long sentAt = System.nanoTime();
+		final AtomicInteger pending = new AtomicInteger();
 
 		// Création des threads d'envoi des requêtes
 		for (int i = 0; i < senderThreads.length; i++) {
-			if (i == hostIndex) { // On n'envoie pas à nous même
+			if (i == hostIndex || !detector.isAlive(i)) { // Ni à nous, ni aux sites suspectés ou absents
 				continue;
 			}
+			pending.incrementAndGet();
 
 			final int index = i;
 			senderThreads[i] = new Thread(() -> {
 				try {
 					// On envoie à tout le monde sauf à nous
-					long remoteTime = lamportServers[index].request(localTimeStamp, hostIndex);
+					messagesSent.incrementAndGet();
+					long remoteTime = servers[index].request(key, localTimeStamp, hostIndex);
 
 					// On set le message reçu
-					handleMessageReceived(index, new Message(Message.MESSAGE_TYPE.RESPONSE, remoteTime));
+					queue.handleMessageReceived(index, MESSAGE_TYPE.RESPONSE, remoteTime);
+
+					if (pending.decrementAndGet() == 0) {
+						stats.requestAcknowledged(index, System.nanoTime() - sentAt);
+					}
 				} catch (RemoteException ex) {
-					Logger.getLogger(LamportManager.class.getName()).log(Level.SEVERE, null, ex);
+					Logger.getLogger(LamportManager.class.getName()).log(Level.WARNING, "Request to site " + index + " failed", ex);
+					detector.suspect(index);
 				}
 			});
 		}
@@ -366,10 +1002,14 @@ public class LamportManager {
 			}
 		}
 
-		// Attente sur les threads (bloquant)
-		for (Thread senderThread : senderThreads) {
-			if (senderThread != null) {
-				senderThread.join();
+		// Attente sur les threads, au plus jusqu'au délai de détection
+		long deadline = sentAt + TimeUnit.MILLISECONDS.toNanos(failureTimeoutMillis);
+		for (int i = 0; i < senderThreads.length; i++) {
+			if (senderThreads[i] != null) {
+				TimeUnit.NANOSECONDS.timedJoin(senderThreads[i], deadline - System.nanoTime());
+				if (senderThreads[i].isAlive()) {
+					detector.suspect(i);
+				}
 			}
 		}
 
@@ -377,65 +1017,439 @@ public class LamportManager {
 
    /**
     * On envoie à tous les serveurs des sites distants un message de libération
-    * de la section critique précédement occupée par l'appelant.
+    * de la section critique précédement occupée par l'appelant. Les sites
+    * suspectés sont ignorés. Les libérations sont envoyées en parallèle, et
+    * un site injoignable, ou qui n'a pas répondu avant le délai de détection
+    * des pannes, devient suspect sans retarder l'envoi aux autres.
+    * @param key              La clé de la variable concernée
     * @param localTimeStamp   Le temps logique de l'appelant
     * @param value            La nouvelle valeur de la variable partagée
-    * @throws RemoteException En cas d'erreut de communication distante
     */
-	private synchronized void sendLiberates(long localTimeStamp, int value) throws RemoteException {
-		// la méthode free n'est pas bloquante
-		for (ILamportAlgorithm lamportServer : lamportServers) {
-			lamportServer.free(localTimeStamp, value, hostIndex);
+	private void sendLiberates(String key, long localTimeStamp, VersionedValue value) {
+		// les libérations sont envoyées en parallèle, au plus le délai de
+		// détection des pannes
+		long start = System.nanoTime();
+
+		// Contenu binaire écrit depuis la dernière libération : on n'en
+		// transmet que les octets modifiés, ou une copie complète compressée
+		// si elle est plus courte
+		VersionedPayload payload = payload(key);
+		VersionedPayload base = replicatedPayloads.getOrDefault(key, VersionedPayload.INITIAL);
+		byte[] delta = null;
+		long deltaBase = -1;
+		if (payload.version != base.version) {
+			delta = PayloadDelta.diff(base.value, payload.value);
+			deltaBase = base.version;
+			if (delta.length > payload.value.length / 2) {
+				byte[] snapshot = PayloadDelta.snapshot(payload.value);
+				if (snapshot.length <= delta.length) {
+					delta = snapshot;
+					deltaBase = -1;
+				}
+			}
+		}
+		final byte[] payloadDelta = delta;
+		final long payloadBase = deltaBase;
+
+		ILamportAlgorithm[] servers = lamportServers;
+		Future<?>[] sent = new Future<?>[servers.length];
+		for (int i = 0; i < servers.length; i++) {
+			if (i != hostIndex && !detector.isAlive(i)) {
+				continue;
+			}
+			final ILamportAlgorithm server = servers[i];
+			final boolean withPayload = payloadDelta != null && i != hostIndex;
+			sent[i] = remoteCalls.submit(() -> {
+				messagesSent.incrementAndGet();
+				if (!withPayload) {
+					server.free(key, localTimeStamp, value.value, value.version, hostIndex);
+					return null;
+				}
+
+				payloadBytesFull.addAndGet(payload.value.length);
+				payloadBytesSent.addAndGet(payloadDelta.length);
+				if (!server.free(key, localTimeStamp, value.value, value.version, payloadDelta, payloadBase, payload.version, hostIndex)) {
+					// Le site n'a pas le contenu précédent
+					byte[] snapshot = PayloadDelta.snapshot(payload.value);
+					messagesSent.incrementAndGet();
+					payloadBytesSent.addAndGet(snapshot.length);
+					server.free(key, localTimeStamp, value.value, value.version, snapshot, -1, payload.version, hostIndex);
+				}
+				return null;
+			});
+		}
+
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(failureTimeoutMillis);
+		for (int i = 0; i < sent.length; i++) {
+			if (sent[i] == null) {
+				continue;
+			}
+			try {
+				sent[i].get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+			} catch (ExecutionException | TimeoutException ex) {
+				Logger.getLogger(LamportManager.class.getName()).log(Level.WARNING, "Liberate to site " + i + " failed",
+						ex instanceof ExecutionException ? ex.getCause() : ex);
+				sent[i].cancel(true);
+				detector.suspect(i);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		if (delta != null) {
+			replicatedPayloads.put(key, payload);
+		}
+		stats.freeSent(System.nanoTime() - start);
+	}
+
+   /**
+    * Exécute un appel vers un site distant, en attendant sa réponse au plus
+    * le délai de détection des pannes
+    * 
+    * @param <T>   Le type retourné par l'appel
+    * @param call  L'appel
+    * @return la réponse du site
+    * @throws RemoteException si l'appel a échoué ou n'a pas répondu à temps
+    */
+	private <T> T bounded(RemoteCall<T> call) throws RemoteException {
+		Future<T> future = remoteCalls.submit(call::call);
+		try {
+			return future.get(failureTimeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof RemoteException) {
+				throw (RemoteException) ex.getCause();
+			}
+			throw new RemoteException("Remote call failed", ex.getCause());
+		} catch (TimeoutException ex) {
+			future.cancel(true);
+			throw new RemoteException("No reply within " + failureTimeoutMillis + " ms", ex);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new RemoteException("Interrupted while waiting for a reply", ex);
 		}
 	}
 
+   /**
+    * Transmet des variables à un site, qui applique celles plus récentes que
+    * les siennes
+    * 
+    * @param server  Le serveur du site
+    * @param values  Les variables à transmettre
+    * @throws RemoteException si le site n'a pas répondu à temps
+    */
+	private void sendState(ILamportAlgorithm server, Map<String, VersionedValue> values) throws RemoteException {
+		String[] keys = values.keySet().toArray(new String[0]);
+		int[] stateValues = new int[keys.length];
+		long[] stateVersions = new long[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			stateValues[i] = values.get(keys[i]).value;
+			stateVersions[i] = values.get(keys[i]).version;
+		}
+		messagesSent.incrementAndGet();
+		bounded(() -> {
+			server.state(keys, stateValues, stateVersions, hostIndex);
+			return null;
+		});
+	}
+
+   /**
+    * Applique un contenu binaire reçu avec une libération, s'il est plus
+    * récent que le contenu local
+    * 
+    * @param key              La clé de la variable concernée
+    * @param payload          Delta ou copie complète du contenu
+    * @param payloadBase      Version à partir de laquelle le delta a été
+    *                         calculé, -1 pour une copie complète
+    * @param payloadVersion   Version du contenu reçu
+    * @return faux si le delta ne peut pas être appliqué, le contenu local
+    * n'étant pas celui de version 'payloadBase'
+    * @throws RemoteException si la copie complète est invalide
+    */
+	private boolean applyPayload(String key, byte[] payload, long payloadBase, long payloadVersion) throws RemoteException {
+		VersionedPayload local = payload(key);
+		if (local.version >= payloadVersion) {
+			return true;
+		}
+
+		byte[] value;
+		if (payloadBase < 0) {
+			try {
+				value = PayloadDelta.restore(payload);
+			} catch (DataFormatException ex) {
+				throw new RemoteException("Invalid snapshot of " + key, ex);
+			}
+		} else if (local.version == payloadBase) {
+			value = PayloadDelta.patch(local.value, payload);
+		} else {
+			return false;
+		}
+
+		VersionedPayload received = new VersionedPayload(value, payloadVersion);
+		payloads.merge(key, received, VersionedPayload::newest);
+		replicatedPayloads.merge(key, received, VersionedPayload::newest);
+		return true;
+	}
+
+   /**
+    * @param key  La clé d'une variable partagée
+    * @return son contenu binaire local
+    */
+	private VersionedPayload payload(String key) {
+		return payloads.getOrDefault(key, VersionedPayload.INITIAL);
+	}
+
    /**
     * Méthode permettant l'incrémentation du temps logique local selon
     * l'algorithme de Lamport qui est le maximum entre le temps local et
     * le temps distant + 1
+    * Les appels RMI arrivant sur des threads différents, la mise à jour est
+    * atomique afin que l'horloge ne recule jamais. Une seule horloge est
+    * utilisée pour toutes les clés
+    * 
     * @param remoteTimeStamp temps logique du site distant
+    * @return le nouveau temps logique local
+    */
+	private long increaseTime(long remoteTimeStamp) {
+		return localTimeStamp.witness(remoteTimeStamp);
+	}
+
+   /**
+    * @param key  La clé d'une variable partagée
+    * @return la file de Lamport de cette variable, créée au besoin
+    */
+	private LamportQueue queue(String key) {
+		return queues.computeIfAbsent(key, (k) -> new LamportQueue(nbSites, hostIndex, localTimeStamp, detector.suspected()));
+	}
+
+   /**
+    * @param site  L'index d'un site
+    * @return le serveur Lamport de ce site, obtenu via le transport
     */
-	private void increaseTime(long remoteTimeStamp) {
-		localTimeStamp = Math.max(localTimeStamp, remoteTimeStamp) + 1;
+	private ILamportAlgorithm lookup(int site) throws RemoteException, NotBoundException, MalformedURLException {
+		String[] host;
+		synchronized (this) {
+			host = remotes[site];
+		}
+		if (host == null) {
+			throw new NotBoundException("No site in slot " + site);
+		}
+		return transport.lookup(host[0], Integer.parseInt(host[1]), ILamportAlgorithm.RMI_NAME, ILamportAlgorithm.class);
 	}
 
    /**
-    * Permet le traitement des messages que l'on souhaite ajouter à la file
-    * des messages. On ne remplace pas les messages de type requêtes par une
-    * quittance.
+    * Obtient à nouveau le serveur Lamport d'un site, qui a exporté un nouveau
+    * serveur s'il a redémarré, et le remplace dans la liste des serveurs
     * 
-    * @param hostIndex  site du message à ajouter
-    * @param message    contient le type de message ainsi que le temps
-    * logique associé au message.
+    * @param site  L'index d'un site
+    * @return le nouveau serveur Lamport de ce site
+    * @throws RemoteException si le site est injoignable
     */
-	private void handleMessageReceived(int hostIndex, Message message) {
-		// Si on reçoit une quittance et qu'il y a une requête dans la file, on
-      // ne remplace pas le message
-		if (message.messageType != Message.MESSAGE_TYPE.RESPONSE || messagesArray[hostIndex].messageType != Message.MESSAGE_TYPE.REQUEST) {
-			messagesArray[hostIndex] = message;
+	private ILamportAlgorithm reconnect(int site) throws RemoteException {
+		ILamportAlgorithm server;
+		try {
+			server = lookup(site);
+		} catch (NotBoundException | MalformedURLException ex) {
+			throw new RemoteException("Could not reconnect to site " + site, ex);
+		}
+		synchronized (this) {
+			ILamportAlgorithm[] servers = lamportServers.clone();
+			servers[site] = server;
+			lamportServers = servers;
+		}
+		return server;
+	}
+
+   /**
+    * Demande notre admission au premier autre membre joignable, qui nous
+    * transmet la composition de la grappe. Sans réponse, on garde la
+    * composition connue : le rattrapage échouera si nous n'en sommes pas
+    * membre
+    */
+	private void requestAdmission() {
+		String[] self = remotes[hostIndex];
+		for (int i = 0; i < nbSites; i++) {
+			if (i == hostIndex || !detector.isMember(i)) {
+				continue;
+			}
+			try {
+				messagesSent.incrementAndGet();
+				lookup(i).admit(hostIndex, self[0], self[1]);
+				return;
+			} catch (RemoteException | NotBoundException | MalformedURLException ex) {
+				Logger.getLogger(LamportManager.class.getName()).log(Level.FINE, "Admission by site " + i + " failed", ex);
+			}
+		}
+	}
+
+   /**
+    * Ajoute ou retire un membre de la grappe. La modification est faite en
+    * section critique de MEMBERSHIP_KEY et transmise à tous les membres en
+    * vie avant d'être libérée ; un membre suspecté la reçoit lors de sa
+    * réintégration
+    * 
+    * @param site     L'emplacement modifié
+    * @param address  {adresse, port} du nouveau membre, null pour un retrait
+    */
+	private void changeMembership(int site, String[] address) {
+		synchronized (writeLock(MEMBERSHIP_KEY)) {
+			waitForCS(MEMBERSHIP_KEY);
+			try {
+				String[] members;
+				long version;
+				synchronized (this) {
+					members = members();
+					members[site] = address == null ? null : address[0] + " " + address[1];
+					version = membershipVersion + 1;
+				}
+
+				ILamportAlgorithm[] servers = lamportServers;
+				for (int i = 0; i < nbSites; i++) {
+					if (i == hostIndex || i == site || !detector.isAlive(i)) {
+						continue;
+					}
+					try {
+						messagesSent.incrementAndGet();
+						servers[i].membership(members, version, hostIndex);
+					} catch (RemoteException ex) {
+						Logger.getLogger(LamportManager.class.getName()).log(Level.WARNING, "Membership to site " + i + " failed", ex);
+						detector.suspect(i);
+					}
+				}
+				adopt(members, version);
+				System.out.println("Membership version " + version + ": " + Arrays.toString(members));
+			} finally {
+				releaseCS(MEMBERSHIP_KEY);
+			}
 		}
 	}
 
+   /**
+    * Applique une composition de la grappe si elle est plus récente que la
+    * nôtre : les emplacements libérés ne bloquent plus l'exclusion mutuelle,
+    * et les nouveaux membres sont suspectés jusqu'à leur réintégration
+    * 
+    * @param members  Pour chaque emplacement, "adresse port" ou null
+    * @param version  La version de cette composition
+    */
+	private synchronized void adopt(String[] members, long version) {
+		if (version <= membershipVersion) {
+			return;
+		}
+		membershipVersion = version;
+		for (int i = 0; i < nbSites; i++) {
+			if (i == hostIndex) {
+				continue;
+			}
+			String[] address = members[i] == null ? null : members[i].split(" ");
+			if (Arrays.equals(remotes[i], address)) {
+				continue;
+			}
+			if (remotes[i] != null) {
+				detector.remove(i);
+			}
+			remotes[i] = address;
+			if (address != null) {
+				detector.add(i);
+			}
+		}
+	}
+
+   /**
+    * A appeler en possédant le verrou de ce site
+    * 
+    * @return pour chaque emplacement, "adresse port" de son membre ou null
+    */
+	private String[] members() {
+		String[] members = new String[nbSites];
+		for (int i = 0; i < nbSites; i++) {
+			members[i] = remotes[i] == null ? null : remotes[i][0] + " " + remotes[i][1];
+		}
+		return members;
+	}
+
+   /**
+    * @param hosts     Les hôtes donnés au constructeur
+    * @param capacity  Le nombre d'emplacements souhaité
+    * @return les hôtes, complétés par des emplacements libres jusqu'à la
+    * capacité. Les entrées incomplètes, telles que la ligne "-" de hosts.txt,
+    * sont aussi des emplacements libres
+    */
+	private static String[][] withCapacity(String[][] hosts, int capacity) {
+		String[][] slots = Arrays.copyOf(hosts, Math.max(capacity, hosts.length));
+		for (int i = 0; i < slots.length; i++) {
+			if (slots[i] != null && slots[i].length < 2) {
+				slots[i] = null;
+			}
+		}
+		return slots;
+	}
+
+   /**
+    * @param key  La clé d'une variable partagée
+    * @return le bail de cette variable, créé au besoin
+    */
+	private Lease lease(String key) {
+		return leases.computeIfAbsent(key, (k) -> new Lease());
+	}
+
+   /**
+    * Termine le bail d'une clé s'il est toujours en cours. Appelé par le
+    * timer, à l'échéance du bail ou lorsqu'un autre site demande la section
+    * critique
+    * 
+    * @param key    La clé de la variable concernée
+    * @param lease  Le bail de cette clé
+    */
+	private void expire(String key, Lease lease) {
+		synchronized (writeLock(key)) {
+			if (lease.held) {
+				endLease(key, lease);
+			}
+		}
+	}
+
+   /**
+    * Relâche la section critique gardée par un bail, en transmettant la
+    * dernière valeur écrite. Le verrou d'écriture de la clé doit être possédé
+    * 
+    * @param key    La clé de la variable concernée
+    * @param lease  Le bail de cette clé
+    */
+	private void endLease(String key, Lease lease) {
+		lease.held = false;
+		lease.expiry.cancel(false);
+		sendLiberates(key, queue(key).liberate(), read(key));
+	}
+
    /**
     * méthode permettant d'attendre l'accès à la section critique en vue de 
-    * modifier la variable partagée
+    * modifier la variable partagée 'key'. Seule la file de cette clé est
+    * concernée, les autres clés restent accessibles en parallèle
     */
-	private void waitForCS() {
+	@Override
+	protected void waitForCS(String key) {
+		if (leaseMillis > 0) {
+			Lease lease = lease(key);
+			if (lease.held) {
+				if (!lease.revoked && System.nanoTime() < lease.deadline) {
+					// On possède encore la section critique
+					csEnteredAt.get()[0] = System.nanoTime();
+					return;
+				}
+				endLease(key, lease);
+			}
+		}
+
 		try {
          // D'abord, on envoie une requête aux autres sites
-			sendRequestsAndProcessResponse(localTimeStamp);
+			sendRequestsAndProcessResponse(key);
          
-			/*
-			 * On calcule si on peut entrer en SC
-			 * On reste bloqué tant qu'on peut pas entrer en SC
-			 */
-			while (!canEnterCS()) {
-				synchronized (lock) {
-					// Attendre jusqu'à ce qu'on soit notifié
-               // lors de l'arrivée d'un message
-					lock.wait();
-				}
-			}
+			// On reste bloqué tant qu'on peut pas entrer en SC
+			long start = System.nanoTime();
+			queue(key).awaitCS();
+			long entered = System.nanoTime();
+			stats.queueWaited(entered - start);
+			csEnteredAt.get()[0] = entered;
 
 		} catch (InterruptedException ex) {
 			Logger.getLogger(LamportManager.class.getName()).log(Level.SEVERE, null, ex);
@@ -444,45 +1458,79 @@ public class LamportManager {
 
    /**
     * permet de relâcher la section critique en envoyant des messages de
-    * libération
+    * libération. En mode bail, la section critique est gardée jusqu'à la fin
+    * du bail, qui commence à la première écriture
     */
-	private synchronized void releaseCS() {
-		try {
-			sendLiberates(localTimeStamp, globalVariable);
-		} catch (RemoteException ex) {
-			Logger.getLogger(LamportManager.class.getName()).log(Level.SEVERE, null, ex);
+	@Override
+	protected void releaseCS(String key) {
+		stats.criticalSectionLeft(System.nanoTime() - csEnteredAt.get()[0]);
+
+		if (leaseMillis > 0) {
+			Lease lease = lease(key);
+			if (!lease.held) {
+				lease.held = true;
+				lease.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(leaseMillis);
+				lease.expiry = leaseTimer.schedule(() -> expire(key, lease), leaseMillis, TimeUnit.MILLISECONDS);
+			}
+			if (!lease.revoked) {
+				return;
+			}
+			endLease(key, lease);
+			return;
 		}
+
+		sendLiberates(key, queue(key).liberate(), read(key));
+	}
+
+	@Override
+	protected byte[] readPayload(String key) {
+		return payload(key).value.clone();
 	}
 
    /**
-    * méthode permettant de vérifier si l'accès à la section critique est
-    * permis selon l'algorithme de Lamport.
-    * 
-    * @return un booléen indiquant si l'accès est permis
+    * Écrit le contenu en section critique de la clé, comme une valeur
+    * entière : il est transmis aux autres sites par la libération
     */
-	private boolean canEnterCS() {
-		long minTime = Long.MAX_VALUE;
-		for (Message message : messagesArray) {
-			if (message.time < minTime) {
-				minTime = message.time;
-			}
-
+	@Override
+	protected void writePayload(String key, byte[] value) {
+		synchronized (writeLock(key)) {
+			waitForCS(key);
+			VersionedPayload old = payload(key);
+			payloads.put(key, new VersionedPayload(value.clone(), old.version + 1));
+			System.out.println("\t[" + hostIndex + "] " + key + " : " + old.value.length + " -> " + value.length + " bytes");
+			releaseCS(key);
 		}
+	}
 
-		/**
-		 * "Un processus Pi se donne le droit d'entrer en section critique
-		 * lorsque file(i).msgType = REQUETE et que son estampille est la plus
-		 * ancienne des messages contenus dans file(i)."
-		 */
-		boolean ok = true;
-		for (int j = 0; j < nbSites; j++) {
-			if (j != hostIndex) {
-				ok = ok && (messagesArray[hostIndex].time < messagesArray[j].time
-						|| (messagesArray[hostIndex].time == messagesArray[hostIndex].time && hostIndex < j));
-			}
+   /**
+    * Avec une horloge hybride, la version d'une écriture est son estampille,
+    * qui date l'écriture
+    */
+	@Override
+	protected long nextVersion(VersionedValue old) {
+		if (!localTimeStamp.isHybrid()) {
+			return super.nextVersion(old);
 		}
+		return Math.max(old.version + 1, localTimeStamp.tick());
+	}
 
-		return ok;
+   /**
+    * Avec une horloge hybride, la file de la clé indique jusqu'à quelle
+    * estampille toutes les libérations des autres sites ont été reçues, et
+    * donc depuis quand une écriture pourrait nous manquer. Une clé sans
+    * message récent d'un site ne peut pas être bornée ainsi : ses lectures
+    * bornées passent par la section critique
+    */
+	@Override
+	protected long staleness(String key) {
+		if (!localTimeStamp.isHybrid()) {
+			return super.staleness(key);
+		}
+		long settled = queue(key).settledTime();
+		if (settled == Long.MAX_VALUE) {
+			return 0;
+		}
+		return Math.max(0, localTimeStamp.physicalNow() - LogicalClock.physicalOf(settled));
 	}
 
 	// ---------------- ENTRY POINT --------------------
@@ -491,31 +1539,89 @@ public class LamportManager {
     * Il doit également y avoir un fichier hosts.txt comme décrit dans
     * le header de la classe
     * 
-    * @param args          Dois contenir un seul argument numérique entier
+    * Un 2ème argument optionnel permet de choisir l'algorithme d'exclusion
+    * mutuelle (lamport, token, maekawa ou sequencer), et un 3ème le
+    * transport utilisé entre les sites (rmi ou nio). Tous les sites doivent
+    * utiliser les mêmes.
+    * 
+    * Les écritures sont journalisées dans le fichier site-<numéro>.wal du
+    * dossier courant, et reprises au lancement suivant. Un 4ème argument
+    * choisit la politique d'écriture sur disque du journal (always, group ou
+    * async, group par défaut).
+    * 
+    * Avec l'algorithme de Lamport, un 5ème argument donne le nombre d'autres
+    * sites à attendre avant de servir les clients (1 par défaut, voir
+    * setReadySites()), et un 6ème l'horloge : logical (par défaut), hybrid
+    * sur l'heure locale, ou ptp sur l'heure d'un esclave PTP (voir
+    * setPhysicalClock()).
+    * 
+    * @param args          Le numéro du site, puis éventuellement l'algorithme,
+    *                      le transport, la politique du journal, le nombre
+    *                      de sites à attendre et l'horloge
     * @throws IOException  S'il y a un problème avec la lecture du fichier hosts.txt
+    *                      ou l'ouverture du journal
     */
 	public static void main(String... args) throws IOException {
-		if (args.length != 1) {
-			System.err.println("Usage: <index, starting at 0>. A hosts.txt file should be "
-					+ "in the same folder as this one");
-			System.exit(1);
+		if (args.length < 1 || args.length > 6) {
+			usage();
 		}
 		int hostIndex = Integer.parseInt(args[0]);
+		Algorithm algorithm = args.length > 1 ? Algorithm.parse(args[1]) : Algorithm.LAMPORT;
+		Transport.Kind transportKind = args.length > 2 ? Transport.Kind.parse(args[2]) : Transport.Kind.RMI;
+		WriteAheadLog.Sync sync = args.length > 3 ? WriteAheadLog.Sync.parse(args[3]) : WriteAheadLog.Sync.GROUP;
+		String clock = args.length > 5 ? args[5].trim().toLowerCase() : "logical";
+		if (!Arrays.asList("logical", "hybrid", "ptp").contains(clock)) {
+			// Une horloge inconnue ne doit pas être remplacée en silence
+			// par l'horloge de Lamport
+			usage();
+		}
 
 		// Creating 1 host and connecting to the others		
-		LamportManager lamportManager = new LamportManager(hostIndex);
+		GlobalVariableManager lamportManager = create(algorithm, transportKind, readHostsFile(), hostIndex);
+		if (args.length > 4 && lamportManager instanceof LamportManager) {
+			((LamportManager) lamportManager).setReadySites(Integer.parseInt(args[4]));
+		}
+		if (lamportManager instanceof LamportManager) {
+			switch (clock) {
+				case "hybrid":
+					((LamportManager) lamportManager).setPhysicalClock(System::currentTimeMillis);
+					break;
+				case "ptp":
+					try {
+						((LamportManager) lamportManager).setPhysicalClock(ptpClock());
+					} catch (ReflectiveOperationException ex) {
+						throw new IOException("Could not start the PTP slave", ex);
+					}
+					break;
+				case "logical":
+					break;
+			}
+		}
+
+		// Reprise des valeurs écrites avant un éventuel arrêt
+		lamportManager.openLog(Paths.get("site-" + hostIndex + ".wal"), sync);
 
-		// On essaie de se connecter non-stop, laisse le temps d'allumer les autres hosts
+		// On essaie de se connecter jusqu'à y parvenir : join() recherche les
+		// autres hosts avec un délai croissant, le temps de les allumer
 		boolean connected = false;
 		while (!connected) {
 			connected = true;
 			try {
-				// Connecting to remotes
-				lamportManager.connectToRemotes();
+				// Joining the other hosts, catching up with the live ones
+				lamportManager.join();
 			} catch (NotBoundException | MalformedURLException | RemoteException e) {
 				connected = false;
 				System.err.println("Error connecting to hosts, retrying...");
 			}
 		}
 	}
+
+	/**
+	 * Affiche l'usage du programme et le termine
+	 */
+	private static void usage() {
+		System.err.println("Usage: <index, starting at 0> [lamport|token|maekawa|sequencer] [rmi|nio] [always|group|async] [ready sites] [logical|hybrid|ptp]. "
+				+ "A hosts.txt file should be in the same folder as this one");
+		System.exit(1);
+	}
 }
@@ -0,0 +1,395 @@
+package ch.heigvd.lamportmanager;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * "File" de Lamport d'une variable partagée, telle que décrite dans la
+ * spécification : le dernier message reçu de chaque site, ainsi que le nôtre.
+ *
+ * LamportManager en possède une par clé, les écritures sur des clés
+ * différentes ne se bloquent ainsi pas entre elles.
+ *
+ * Plutôt que de comparer notre requête à toutes les cases de la file à chaque
+ * message reçu, la file tient à jour l'ensemble des sites qui la précèdent
+ * encore, ainsi que leur nombre. Un message ne met à jour que la case de son
+ * expéditeur, et le thread attendant la section critique n'est réveillé que
+ * lorsque ce nombre tombe à zéro : le coût d'un message ne dépend pas du
+ * nombre de sites.
+ *
+ * Chaque case contient le type et l'estampille de la dernière requête ou
+ * libération d'un site, codés dans un seul long, et le temps connu de chaque
+ * site n'est modifié que par des opérations atomiques. Seule la marque d'un
+ * site est mise à jour sous un verrou propre à ce site, afin qu'un calcul
+ * fait sur un état périmé ne puisse pas effacer une marque plus récente. Les
+ * messages de sites différents sont ainsi traités en parallèle, sans
+ * allocation.
+ *
+ * Les appels RMI n'offrent pas de canaux FIFO : une quittance peut arriver
+ * avant la requête que son expéditeur a émise juste avant, ou une libération
+ * après une quittance plus récente. Pour conserver les garanties de
+ * l'algorithme, nos requêtes et libérations sont publiées dans la file avant
+ * que leur estampille ne soit prise sur l'horloge, et la quittance d'un site
+ * ayant une requête plus prioritaire en cours porte l'estampille de cette
+ * requête.
+ *
+ * Les sites suspectés par le détecteur de pannes, et les emplacements libres
+ * de la grappe, ne bloquent pas l'entrée en section critique : un site en
+ * panne ne bloque ainsi pas les écritures de toute la grappe.
+ *
+ * @author Miguel Pombo Dias
+ * @author Rémi Jacquemard
+ */
+class LamportQueue {
+
+	/**
+	 * Les 3 types de messages possible de Lamport: Requête, Quittance,
+	 * Libération
+	 */
+	static enum MESSAGE_TYPE {
+		REQUEST, RESPONSE, LIBERATE
+	};
+
+	private static final MESSAGE_TYPE[] TYPES = MESSAGE_TYPE.values();
+
+	/**
+	 * L'index de l'hôte courant
+	 */
+	private final int hostIndex;
+
+	/**
+	 * La dernière requête ou libération de chaque site, le nôtre compris,
+	 * sous la forme (estampille << 2) | type. Utile afin de déterminer si on
+	 * a le droit ou non d'entrer en section critique, tel que l'algorithme de
+	 * Lamport le défini
+	 */
+	private final AtomicLongArray messages;
+
+	/**
+	 * La plus grande estampille de quittance ou libération reçue de chaque
+	 * site. Une quittance arrivant alors que la file contient une requête de
+	 * son expéditeur y est conservée, et un message arrivé en retard ne fait
+	 * ainsi jamais reculer le temps connu d'un site
+	 */
+	private final AtomicLongArray lastTimes;
+
+	/**
+	 * L'horloge logique du site, partagée par toutes les files
+	 */
+	private final LogicalClock clock;
+
+	/**
+	 * L'état de chaque site selon le détecteur de pannes, partagé par toutes
+	 * les files. Seul un site à 0 (FailureDetector.ALIVE) peut nous bloquer
+	 */
+	private final AtomicIntegerArray suspected;
+
+	static final long NO_REQUEST = -1;
+
+	/**
+	 * L'estampille de notre requête en cours, NO_REQUEST si on n'attend pas
+	 * et n'occupe pas la section critique
+	 */
+	private volatile long pendingRequest = NO_REQUEST;
+
+	/**
+	 * Vrai pour chaque site dont le message précède notre requête en cours,
+	 * et qui nous empêche donc d'entrer en section critique. La marque d'un
+	 * site n'est lue et modifiée qu'en possédant son verrou
+	 */
+	private final boolean[] blocking;
+
+	/**
+	 * Les verrous des marques, un par site
+	 */
+	private final Object[] blockingLocks;
+
+	/**
+	 * Le nombre de sites marqués, 0 signifie qu'aucun site ne nous précède
+	 */
+	private final AtomicInteger blockers = new AtomicInteger();
+
+	/**
+	 * Le thread attendant la section critique de cette clé. Les écritures
+	 * locales d'une clé étant sérialisées, il y en a au plus un
+	 */
+	private volatile Thread waiter;
+
+	/**
+	 * @param nbSites le nombre de site total
+	 * @param hostIndex l'index de l'hôte courant
+	 * @param clock l'horloge logique du site
+	 * @param suspected l'état de chaque site selon le détecteur de pannes
+	 */
+	LamportQueue(int nbSites, int hostIndex, LogicalClock clock, AtomicIntegerArray suspected) {
+		this.hostIndex = hostIndex;
+		this.clock = clock;
+		this.suspected = suspected;
+		this.lastTimes = new AtomicLongArray(nbSites);
+		this.blocking = new boolean[nbSites];
+		this.blockingLocks = new Object[nbSites];
+		for (int i = 0; i < nbSites; i++) {
+			this.blockingLocks[i] = new Object();
+		}
+
+		// On initialise les messages reçu à un temps 0 avec des liberates
+		this.messages = new AtomicLongArray(nbSites);
+		for (int i = 0; i < nbSites; i++) {
+			this.messages.set(i, pack(MESSAGE_TYPE.LIBERATE, 0));
+		}
+	}
+
+	/**
+	 * Estampille et enregistre notre propre requête
+	 *
+	 * @return l'estampille de la requête, à envoyer aux autres sites
+	 */
+	long request() {
+		long time = stamp(MESSAGE_TYPE.REQUEST);
+		pendingRequest = time;
+
+		// Seul passage sur tous les sites : les messages suivants ne mettent
+		// à jour que la case de leur expéditeur
+		refreshAll();
+		return time;
+	}
+
+	/**
+	 * Estampille et enregistre la libération de notre section critique
+	 *
+	 * @return l'estampille de la libération, à envoyer aux autres sites
+	 */
+	long liberate() {
+		long time = stamp(MESSAGE_TYPE.LIBERATE);
+		pendingRequest = NO_REQUEST;
+		refreshAll();
+		return time;
+	}
+
+	/**
+	 * Enregistre l'un de nos messages dans la file, puis avance l'horloge
+	 * jusqu'à son estampille. Le message est publié avant d'avancer
+	 * l'horloge : une requête distante traitée après que l'horloge a atteint
+	 * notre estampille voit donc forcément notre message, et une requête
+	 * traitée avant avance l'horloge au delà de son estampille à elle. Dans ce
+	 * cas, on recommence avec une estampille plus grande.
+	 *
+	 * Sans cela, une requête reçue juste avant notre libération recevrait
+	 * l'estampille de notre requête comme quittance, puis une libération plus
+	 * ancienne qu'elle, et attendrait indéfiniment.
+	 */
+	private long stamp(MESSAGE_TYPE type) {
+		while (true) {
+			long now = clock.get();
+			long next = clock.next(now);
+			messages.set(hostIndex, pack(type, next));
+			if (clock.advance(now, next)) {
+				return next;
+			}
+		}
+	}
+
+	/**
+	 * Traite la requête d'un site distant et calcule la quittance. Si on a
+	 * nous même une requête plus prioritaire en cours, la quittance porte son
+	 * estampille : le site distant attendra ainsi notre libération, même si
+	 * notre requête ne lui est pas encore parvenue.
+	 *
+	 * @param site            le site demandeur
+	 * @param remoteTimeStamp l'estampille de sa requête
+	 * @return l'estampille de la quittance
+	 */
+	long requestReceived(int site, long remoteTimeStamp) {
+		long time = clock.witness(remoteTimeStamp);
+		handleMessageReceived(site, MESSAGE_TYPE.REQUEST, remoteTimeStamp);
+
+		long own = messages.get(hostIndex);
+		if (typeOf(own) == MESSAGE_TYPE.REQUEST
+				&& (timeOf(own) < remoteTimeStamp || (timeOf(own) == remoteTimeStamp && hostIndex < site))) {
+			return timeOf(own);
+		}
+		return time;
+	}
+
+	/**
+	 * Permet le traitement des messages que l'on souhaite ajouter à la file
+	 * des messages. Une quittance ne fait qu'avancer le temps connu de son
+	 * expéditeur : elle ne remplace ainsi jamais une requête, et son
+	 * estampille sera prise en compte une fois la requête libérée.
+	 *
+	 * Les requêtes et libérations d'un même site étant envoyées l'une après
+	 * l'autre, seule une quittance peut leur être concurrente. Comme elle ne
+	 * touche pas à la case du site, aucune boucle de compare-and-set n'est
+	 * nécessaire.
+	 *
+	 * @param site     site du message à ajouter
+	 * @param type     le type de message
+	 * @param time     le temps logique associé au message
+	 */
+	void handleMessageReceived(int site, MESSAGE_TYPE type, long time) {
+		if (type == MESSAGE_TYPE.RESPONSE) {
+			// Comme tout message reçu, une quittance avance l'horloge : notre
+			// prochaine requête sera plus récente qu'elle. Sinon, cette
+			// quittance suffirait à nous faire passer devant une requête plus
+			// ancienne de son expéditeur, encore en route
+			clock.witness(time);
+		}
+		if (type != MESSAGE_TYPE.REQUEST) {
+			lastTimes.accumulateAndGet(site, time, Math::max);
+		}
+		if (type != MESSAGE_TYPE.RESPONSE) {
+			messages.set(site, pack(type, time));
+		}
+
+		if (site != hostIndex) {
+			refresh(site);
+		}
+	}
+
+	/**
+	 * Met à jour la marque d'un site selon son dernier message et notre
+	 * requête en cours. Appelé après chaque modification de l'un des deux :
+	 * le calcul étant fait sous le verrou du site, la dernière mise à jour de
+	 * la marque est toujours faite à partir de l'état le plus récent.
+	 *
+	 * @param site l'index du site
+	 */
+	private void refresh(int site) {
+		synchronized (blockingLocks[site]) {
+			long own = pendingRequest;
+			long message = messages.get(site);
+			long other = typeOf(message) == MESSAGE_TYPE.REQUEST ? timeOf(message) : lastTimes.get(site);
+			boolean blocks = own != NO_REQUEST && suspected.get(site) == 0
+					&& !(own < other || (own == other && hostIndex < site));
+
+			if (blocks && !blocking[site]) {
+				blocking[site] = true;
+				blockers.incrementAndGet();
+			} else if (!blocks && blocking[site]) {
+				blocking[site] = false;
+				unblock();
+			}
+		}
+	}
+
+	/**
+	 * Oublie la requête d'un site suspecté d'être en panne ou ayant quitté la
+	 * grappe, comme s'il avait libéré la section critique : redémarré, il ne
+	 * la libérerait jamais. Met ensuite à jour sa marque selon son état
+	 *
+	 * @param site l'index du site
+	 */
+	void siteChanged(int site) {
+		long message = messages.get(site);
+		if (suspected.get(site) != 0 && typeOf(message) == MESSAGE_TYPE.REQUEST) {
+			lastTimes.accumulateAndGet(site, timeOf(message), Math::max);
+			// Une libération arrivée entre temps a le même effet
+			messages.compareAndSet(site, message, pack(MESSAGE_TYPE.LIBERATE, timeOf(message)));
+		}
+		refresh(site);
+	}
+
+	/**
+	 * Calcule jusqu'où la file est connue avec certitude : toute libération
+	 * d'un autre site d'estampille inférieure au résultat a été reçue, et sa
+	 * valeur appliquée. C'est le test d'entrée en section critique de
+	 * Lamport, fait pour une estampille quelconque plutôt que notre requête :
+	 * un site bloque à l'estampille de sa requête en cours, sinon à la plus
+	 * grande estampille reçue de lui. Les sites suspectés ne comptent pas.
+	 *
+	 * @return l'estampille en dessous de laquelle la file est connue,
+	 * Long.MAX_VALUE si aucun autre site ne compte
+	 */
+	long settledTime() {
+		long settled = Long.MAX_VALUE;
+		for (int j = 0; j < messages.length(); j++) {
+			if (j != hostIndex && suspected.get(j) == 0) {
+				long message = messages.get(j);
+				long other = typeOf(message) == MESSAGE_TYPE.REQUEST ? timeOf(message) : lastTimes.get(j);
+				settled = Math.min(settled, other);
+			}
+		}
+		return settled;
+	}
+
+	/**
+	 * @return l'estampille de notre requête en cours, NO_REQUEST si on
+	 * n'attend pas et n'occupe pas la section critique
+	 */
+	long pendingRequest() {
+		return pendingRequest;
+	}
+
+	private void refreshAll() {
+		for (int j = 0; j < messages.length(); j++) {
+			if (j != hostIndex) {
+				refresh(j);
+			}
+		}
+	}
+
+	/**
+	 * Décrémente le nombre de sites bloquants, et réveille le thread
+	 * attendant la section critique si plus aucun site ne le précède
+	 */
+	private void unblock() {
+		if (blockers.decrementAndGet() == 0) {
+			Thread w = waiter;
+			if (w != null) {
+				LockSupport.unpark(w);
+			}
+		}
+	}
+
+	/**
+	 * Attend jusqu'à ce que l'accès à la section critique soit permis. Un
+	 * site débloqué entre le test et la mise en attente n'est pas manqué :
+	 * unpark() rend alors park() non bloquant
+	 *
+	 * @throws InterruptedException si l'attente est interrompue
+	 */
+	void awaitCS() throws InterruptedException {
+		waiter = Thread.currentThread();
+		try {
+			while (!canEnterCS()) {
+				// Attendre jusqu'à ce qu'on soit réveillé
+				// par le déblocage du dernier site
+				LockSupport.park(this);
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+			}
+		} finally {
+			waiter = null;
+		}
+	}
+
+	/**
+	 * méthode permettant de vérifier si l'accès à la section critique est
+	 * permis selon l'algorithme de Lamport.
+	 *
+	 * "Un processus Pi se donne le droit d'entrer en section critique lorsque
+	 * file(i).msgType = REQUETE et que son estampille est la plus ancienne
+	 * des messages contenus dans file(i)." : aucun site ne nous précède plus.
+	 *
+	 * @return un booléen indiquant si l'accès est permis
+	 */
+	boolean canEnterCS() {
+		return pendingRequest != NO_REQUEST && blockers.get() == 0;
+	}
+
+	// ------------ CODAGE DES MESSAGES ------------
+	private static long pack(MESSAGE_TYPE type, long time) {
+		return (time << 2) | type.ordinal();
+	}
+
+	private static MESSAGE_TYPE typeOf(long message) {
+		return TYPES[(int) (message & 3)];
+	}
+
+	private static long timeOf(long message) {
+		return message >>> 2;
+	}
+}
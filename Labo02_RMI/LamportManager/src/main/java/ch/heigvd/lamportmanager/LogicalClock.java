@@ -0,0 +1,113 @@
+package ch.heigvd.lamportmanager;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Horloge logique d'un site, partagée par toutes les files de Lamport.
+ *
+ * Par défaut, un simple compteur de Lamport. Une fois une source de temps
+ * physique fixée par setPhysical(), l'horloge devient hybride : une
+ * estampille vaut (millisecondes << LOGICAL_BITS) | compteur, et n'est
+ * jamais inférieure au temps physique courant. Les règles de Lamport
+ * restent les mêmes, on prend simplement le maximum avec le temps physique :
+ * l'ordre des estampilles est toujours celui de la causalité, et une
+ * estampille indique en plus, à l'écart entre les horloges près, quand
+ * l'événement a eu lieu.
+ *
+ * @author Miguel Pombo Dias
+ * @author Rémi Jacquemard
+ */
+final class LogicalClock {
+
+	/**
+	 * Le nombre de bits du compteur dans une estampille hybride
+	 */
+	static final int LOGICAL_BITS = 16;
+
+	private final AtomicLong time = new AtomicLong();
+
+	/**
+	 * Le temps physique en millisecondes, null pour une horloge de Lamport
+	 */
+	private volatile LongSupplier physical;
+
+	/**
+	 * Rend l'horloge hybride. Les estampilles suivantes sont toujours plus
+	 * grandes que les précédentes.
+	 *
+	 * @param millis le temps physique en millisecondes, par exemple celui
+	 * d'un esclave PTP
+	 */
+	void setPhysical(LongSupplier millis) {
+		physical = millis;
+	}
+
+	/**
+	 * @return vrai si l'horloge est hybride
+	 */
+	boolean isHybrid() {
+		return physical != null;
+	}
+
+	/**
+	 * @return le temps physique courant en millisecondes, 0 pour une horloge
+	 * de Lamport
+	 */
+	long physicalNow() {
+		LongSupplier millis = physical;
+		return millis == null ? 0 : millis.getAsLong();
+	}
+
+	/**
+	 * @param timestamp une estampille hybride
+	 * @return le temps physique de cette estampille, en millisecondes
+	 */
+	static long physicalOf(long timestamp) {
+		return timestamp >>> LOGICAL_BITS;
+	}
+
+	/**
+	 * @return l'estampille courante
+	 */
+	long get() {
+		return time.get();
+	}
+
+	/**
+	 * @param now l'estampille courante
+	 * @return l'estampille suivante, à publier avant d'appeler advance()
+	 */
+	long next(long now) {
+		return Math.max(now, physicalNow() << LOGICAL_BITS) + 1;
+	}
+
+	/**
+	 * Avance l'horloge de 'now' à 'next', si elle n'a pas changé entre temps
+	 *
+	 * @return vrai si l'horloge a été avancée
+	 */
+	boolean advance(long now, long next) {
+		return time.compareAndSet(now, next);
+	}
+
+	/**
+	 * Avance l'horloge pour un événement local
+	 *
+	 * @return la nouvelle estampille
+	 */
+	long tick() {
+		return witness(0);
+	}
+
+	/**
+	 * Avance l'horloge au delà d'une estampille reçue d'un autre site
+	 *
+	 * @param remote l'estampille reçue
+	 * @return la nouvelle estampille
+	 */
+	long witness(long remote) {
+		long floor = physicalNow() << LOGICAL_BITS;
+		return time.updateAndGet((t) -> Math.max(Math.max(t, remote), floor) + 1);
+	}
+}
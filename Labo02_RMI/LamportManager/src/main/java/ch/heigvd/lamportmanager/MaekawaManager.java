@@ -0,0 +1,514 @@
+package ch.heigvd.lamportmanager;
+
+import ch.heigvd.interfacesrmi.IMaekawaAlgorithm;
+import ch.heigvd.lamportmanager.transport.Transport;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.rmi.ConnectException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serveur de variable globale utilisant l'algorithme de Maekawa à la place de
+ * celui de Lamport.
+ *
+ * Au lieu de demander la permission à tous les sites, chaque site ne la
+ * demande qu'à son quorum. Les quorums sont construits automatiquement à
+ * partir de la liste des hôtes : les sites sont disposés ligne par ligne dans
+ * une grille de côté ⌈√N⌉, et le quorum d'un site est formé de sa ligne et de
+ * sa colonne. Deux quorums ont toujours au moins un site en commun (voir
+ * buildQuorum()), ce qui garantit l'exclusion mutuelle avec environ 2√N sites
+ * contactés au lieu de N.
+ *
+ * Chaque site vote pour une seule requête à la fois. Afin d'éviter les
+ * interblocages, on utilise les messages INQUIRE / FAILED / RELINQUISH : un
+ * votant ayant voté pour une requête moins prioritaire (estampille de Lamport,
+ * puis index) demande à son bénéficiaire de lui rendre son vote, ce que
+ * celui-ci fait s'il sait qu'il ne pourra pas obtenir tout son quorum.
+ *
+ * L'algorithme suppose des canaux FIFO : les messages vers un site sont donc
+ * envoyés par un unique thread dédié à ce site, dans l'ordre.
+ *
+ * Les votes protègent toutes les variables partagées à la fois. La valeur de
+ * la variable écrite voyage avec les votes et les libérations,
+ * l'intersection des quorums garantissant qu'un site entrant en section
+ * critique connait la dernière valeur écrite. Les sites hors du quorum sont
+ * mis à jour de manière asynchrone par le thread de réplication.
+ *
+ * @author Miguel Pombo Dias
+ * @author Rémi Jacquemard
+ */
+public class MaekawaManager extends GlobalVariableManager {
+
+	/**
+	 * Un message à envoyer à un site distant
+	 */
+	@FunctionalInterface
+	private interface Send {
+
+		void to(IMaekawaAlgorithm server) throws RemoteException;
+	}
+
+	// --------------- VARIABLES ----------------
+	/**
+	 * Les serveurs Maekawa distants. Notre propre entrée est notre serveur
+	 * local, appelé sans passer par RMI
+	 */
+	private final IMaekawaAlgorithm[] servers;
+
+	/**
+	 * Un thread d'envoi par site, garantissant l'ordre FIFO des messages
+	 */
+	private final ExecutorService[] outboxes;
+
+	/**
+	 * Les index des sites de notre quorum, nous compris
+	 */
+	private final int[] quorum;
+
+	/**
+	 * Horloge logique de Lamport, utilisée pour ordonner les requêtes
+	 */
+	private long localTimeStamp = 0;
+
+	/**
+	 * Protège tout l'état de l'algorithme
+	 */
+	private final Object lock = new Object();
+
+	// ---- Etat du demandeur ----
+	/**
+	 * Indique si on demande ou occupe la section critique
+	 */
+	private boolean requesting = false;
+
+	/**
+	 * Indique si on occupe la section critique
+	 */
+	private boolean inCS = false;
+
+	/**
+	 * Estampille de notre requête courante
+	 */
+	private long requestTimeStamp;
+
+	/**
+	 * Les votants de notre quorum nous ayant accordé leur vote
+	 */
+	private final Set<Integer> granted = new HashSet<>();
+
+	/**
+	 * Indique si un votant nous a répondu FAILED pour la requête courante
+	 */
+	private boolean failed = false;
+
+	/**
+	 * Les votants nous ayant envoyé un INQUIRE auquel on n'a pas encore
+	 * répondu
+	 */
+	private final Set<Integer> inquiries = new HashSet<>();
+
+	// ---- Etat du votant ----
+	/**
+	 * La requête {estampille, site} pour laquelle on a voté, ou null
+	 */
+	private long[] lockedFor = null;
+
+	/**
+	 * Indique si on a déjà envoyé un INQUIRE pour le vote courant
+	 */
+	private boolean inquired = false;
+
+	/**
+	 * Les requêtes {estampille, site} en attente de notre vote, la plus
+	 * prioritaire en tête
+	 */
+	private final PriorityQueue<long[]> waiting = new PriorityQueue<>(MaekawaManager::compareRequests);
+
+	/**
+	 * La clé demandée par chaque site en attente de notre vote ou l'ayant
+	 * obtenu. Un site n'a qu'une requête en cours à la fois
+	 */
+	private final Map<Integer, String> requestedKeys = new HashMap<>();
+
+	// --------------------- CONSTRUCTEURS ---------------------
+	/**
+	 * Permet d'instancier un serveur Maekawa gérant une variable globale
+	 * commune à tous les serveurs. Les hosts sont de la même forme que pour
+	 * LamportManager.
+	 *
+	 * @param hosts La liste des serveurs disponibles
+	 * @param hostIndex L'index, à partir de 0, de l'hôte courant
+	 */
+	public MaekawaManager(String[][] hosts, int hostIndex) {
+		this(hosts, hostIndex, Transport.Kind.RMI);
+	}
+
+	/**
+	 * Même constructeur, en choisissant le transport utilisé entre les sites
+	 *
+	 * @param hosts La liste des serveurs disponibles
+	 * @param hostIndex L'index, à partir de 0, de l'hôte courant
+	 * @param transportKind le transport à utiliser entre les sites
+	 */
+	public MaekawaManager(String[][] hosts, int hostIndex, Transport.Kind transportKind) {
+		super(hosts, hostIndex, transportKind);
+
+		this.servers = new IMaekawaAlgorithm[nbSites];
+		this.quorum = buildQuorum(nbSites, hostIndex);
+
+		this.outboxes = new ExecutorService[nbSites];
+		for (int i = 0; i < nbSites; i++) {
+			this.outboxes[i] = Executors.newSingleThreadExecutor((r) -> {
+				Thread t = new Thread(r);
+				t.setDaemon(true);
+				return t;
+			});
+		}
+
+		MaekawaServer localServer = new MaekawaServer();
+		servers[hostIndex] = localServer;
+		bindServers(IMaekawaAlgorithm.class, localServer, IMaekawaAlgorithm.RMI_NAME);
+	}
+
+	/**
+	 * Même constructeur, les hôtes étant lus dans le fichier hosts.txt
+	 *
+	 * @param hostIndex le numéro d'hôte courant, à partir de 0
+	 * @throws IOException Si le fichier hosts.txt n'est pas trouvé
+	 */
+	public MaekawaManager(int hostIndex) throws IOException {
+		this(readHostsFile(), hostIndex);
+	}
+
+	/**
+	 * Construit le quorum d'un site. Les N sites sont placés ligne par ligne
+	 * dans une grille de k = ⌈√N⌉ colonnes, la dernière ligne pouvant être
+	 * incomplète. Le quorum d'un site est l'union de sa ligne et de sa colonne.
+	 *
+	 * Deux sites (ra, ca) et (rb, cb) ont en commun la case (ra, cb) ou la case
+	 * (rb, ca). Si (ra, cb) n'existe pas, c'est que ra est la dernière ligne
+	 * et que rb est une ligne complète : (rb, ca) existe alors forcément.
+	 *
+	 * @param nbSites le nombre de sites
+	 * @param site l'index du site
+	 * @return les index des sites du quorum, triés, le site compris
+	 */
+	public static int[] buildQuorum(int nbSites, int site) {
+		int k = (int) Math.ceil(Math.sqrt(nbSites));
+		int row = site / k;
+		int column = site % k;
+
+		TreeSet<Integer> members = new TreeSet<>();
+		for (int c = 0; c < k && row * k + c < nbSites; c++) {
+			members.add(row * k + c);
+		}
+		for (int r = 0; r * k + column < nbSites; r++) {
+			members.add(r * k + column);
+		}
+
+		return members.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * Les votes couvrent toutes les clés : toutes les écritures locales sont
+	 * sérialisées
+	 */
+	@Override
+	protected Object writeLock(String key) {
+		return servers[hostIndex];
+	}
+
+	// --------------- METHODES PUBLIQUES -------------
+	@Override
+	public void connectToRemotes() throws NotBoundException, MalformedURLException, RemoteException, ConnectException {
+		// Les serveurs déjà trouvés lors d'un appel précédent sont conservés
+		List<Integer> missing = new ArrayList<>();
+		for (int i = 0; i < remotes.length; i++) {
+			if (servers[i] == null) {
+				missing.add(i);
+			}
+		}
+		lookupAll(servers, missing, missing.size(), (i) -> transport.lookup(remotes[i][0], Integer.parseInt(remotes[i][1]), IMaekawaAlgorithm.RMI_NAME, IMaekawaAlgorithm.class));
+
+		startReplication();
+
+		System.out.println("Remotes connected !");
+	}
+
+	@Override
+	public void close() {
+		for (ExecutorService outbox : outboxes) {
+			outbox.shutdownNow();
+		}
+		super.close();
+	}
+
+	// -------------------------- SERVEUR RMI --------------------------
+	private class MaekawaServer implements IMaekawaAlgorithm {
+
+		@Override
+		public void request(long timeStamp, int remoteIndex, String key) throws RemoteException {
+			long[] request = {timeStamp, remoteIndex};
+
+			synchronized (lock) {
+				localTimeStamp = Math.max(localTimeStamp, timeStamp) + 1;
+				requestedKeys.put(remoteIndex, key);
+
+				if (lockedFor == null) {
+					vote(request);
+					return;
+				}
+
+				long[] previousFirst = waiting.peek();
+				waiting.add(request);
+
+				if (compareRequests(request, lockedFor) < 0 && waiting.peek() == request) {
+					// La nouvelle requête est la plus prioritaire : on demande au
+					// bénéficiaire de notre vote s'il peut nous le rendre
+					if (!inquired) {
+						inquired = true;
+						final long[] current = lockedFor;
+						send((int) current[1], (s) -> s.inquire(hostIndex, current[0]));
+					}
+					// La requête qui était la plus prioritaire ne l'est plus
+					if (previousFirst != null) {
+						send((int) previousFirst[1], (s) -> s.failed(hostIndex));
+					}
+				} else {
+					send(remoteIndex, (s) -> s.failed(hostIndex));
+				}
+			}
+		}
+
+		@Override
+		public void grant(int voterIndex, String key, int value, long valueVersion) throws RemoteException {
+			applyValue(key, value, valueVersion);
+
+			synchronized (lock) {
+				if (!requesting) {
+					return;
+				}
+				granted.add(voterIndex);
+				if (granted.size() == quorum.length) {
+					inCS = true;
+					lock.notifyAll();
+				}
+			}
+		}
+
+		@Override
+		public void failed(int voterIndex) throws RemoteException {
+			synchronized (lock) {
+				if (!requesting || inCS) {
+					return;
+				}
+				failed = true;
+
+				// On ne pourra pas obtenir tout le quorum : on rend les votes
+				// demandés
+				for (int inquirer : inquiries) {
+					relinquishTo(inquirer);
+				}
+				inquiries.clear();
+			}
+		}
+
+		@Override
+		public void inquire(int voterIndex, long timeStamp) throws RemoteException {
+			synchronized (lock) {
+				// Demande concernant une ancienne requête, ou on est déjà en
+				// section critique : la libération rendra le vote
+				if (!requesting || inCS || timeStamp != requestTimeStamp) {
+					return;
+				}
+
+				if (failed) {
+					relinquishTo(voterIndex);
+				} else {
+					inquiries.add(voterIndex);
+				}
+			}
+		}
+
+		@Override
+		public void relinquish(int remoteIndex) throws RemoteException {
+			synchronized (lock) {
+				if (lockedFor == null || lockedFor[1] != remoteIndex) {
+					return;
+				}
+
+				// On remet la requête en attente et on vote pour la plus
+				// prioritaire
+				waiting.add(lockedFor);
+				vote(waiting.poll());
+			}
+		}
+
+		@Override
+		public void release(int remoteIndex, String key, int value, long valueVersion) throws RemoteException {
+			applyValue(key, value, valueVersion);
+
+			synchronized (lock) {
+				if (lockedFor == null || lockedFor[1] != remoteIndex) {
+					return;
+				}
+
+				lockedFor = null;
+				inquired = false;
+				if (!waiting.isEmpty()) {
+					vote(waiting.poll());
+				}
+			}
+		}
+
+		@Override
+		public void update(String key, int value, long valueVersion) throws RemoteException {
+			applyValue(key, value, valueVersion);
+		}
+	}
+
+	// ------------ METHODES UTILITAIRES PRIVEES ------------
+	/**
+	 * On demande le vote de tous les sites de notre quorum, puis on attend de
+	 * les avoir tous obtenus
+	 */
+	@Override
+	protected void waitForCS(String key) {
+		synchronized (lock) {
+			requestTimeStamp = ++localTimeStamp;
+			requesting = true;
+			inCS = false;
+			failed = false;
+			granted.clear();
+			inquiries.clear();
+
+			final long timeStamp = requestTimeStamp;
+			for (int site : quorum) {
+				send(site, (s) -> s.request(timeStamp, hostIndex, key));
+			}
+
+			try {
+				while (!inCS) {
+					lock.wait();
+				}
+			} catch (InterruptedException ex) {
+				Logger.getLogger(MaekawaManager.class.getName()).log(Level.SEVERE, null, ex);
+			}
+		}
+	}
+
+	/**
+	 * On libère les votes de notre quorum en leur transmettant la nouvelle
+	 * valeur. Les autres sites la recevront du thread de réplication.
+	 */
+	@Override
+	protected void releaseCS(String key) {
+		VersionedValue current = read(key);
+
+		synchronized (lock) {
+			requesting = false;
+			inCS = false;
+			for (int site : quorum) {
+				send(site, (s) -> s.release(hostIndex, key, current.value, current.version));
+			}
+		}
+
+		scheduleReplication(key);
+	}
+
+	@Override
+	protected void pushValue(int site, String key, int value, long valueVersion) throws RemoteException {
+		// Les sites du quorum ont déjà reçu la valeur avec la libération
+		if (!isInQuorum(site)) {
+			updatesSent.incrementAndGet();
+			servers[site].update(key, value, valueVersion);
+		}
+	}
+
+	/**
+	 * Accorde notre vote à une requête. Doit être appelé en possédant le lock.
+	 *
+	 * @param request la requête {estampille, site}
+	 */
+	private void vote(long[] request) {
+		lockedFor = request;
+		inquired = false;
+		final String key = requestedKeys.get((int) request[1]);
+		send((int) request[1], (s) -> {
+			VersionedValue current = read(key);
+			s.grant(hostIndex, key, current.value, current.version);
+		});
+	}
+
+	/**
+	 * Rend le vote d'un site de notre quorum. Doit être appelé en possédant le
+	 * lock.
+	 *
+	 * @param voterIndex le votant
+	 */
+	private void relinquishTo(int voterIndex) {
+		granted.remove(voterIndex);
+		send(voterIndex, (s) -> s.relinquish(hostIndex));
+	}
+
+	/**
+	 * Envoie un message à un site, sans attendre, via le thread dédié à ce
+	 * site
+	 *
+	 * @param site l'index du destinataire
+	 * @param message le message à envoyer
+	 */
+	private void send(int site, Send message) {
+		if (site != hostIndex) {
+			messagesSent.incrementAndGet();
+		}
+		outboxes[site].execute(() -> {
+			try {
+				message.to(servers[site]);
+			} catch (RemoteException ex) {
+				Logger.getLogger(MaekawaManager.class.getName()).log(Level.WARNING,
+						"Could not send message to site " + site, ex);
+			}
+		});
+	}
+
+	/**
+	 * @param site l'index d'un site
+	 * @return vrai si le site fait partie de notre quorum
+	 */
+	private boolean isInQuorum(int site) {
+		for (int member : quorum) {
+			if (member == site) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Compare la priorité de deux requêtes {estampille, site} : la plus petite
+	 * estampille est la plus prioritaire, l'index départageant les égalités
+	 *
+	 * @param a la première requête
+	 * @param b la deuxième requête
+	 * @return négatif si a est plus prioritaire que b
+	 */
+	private static int compareRequests(long[] a, long[] b) {
+		int cmp = Long.compare(a[0], b[0]);
+		return cmp != 0 ? cmp : Long.compare(a[1], b[1]);
+	}
+}
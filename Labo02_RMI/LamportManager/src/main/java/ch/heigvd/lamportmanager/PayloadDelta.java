@@ -0,0 +1,175 @@
+package ch.heigvd.lamportmanager;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Codage des contenus binaires transmis lors des libérations.
+ *
+ * Un delta décrit un nouveau contenu par rapport au précédent :
+ *    varint  longueur du nouveau contenu
+ * puis, pour chaque zone modifiée :
+ *    varint  nombre d'octets inchangés depuis la fin de la zone précédente
+ *    varint  longueur de la zone
+ *    ...     les octets de la zone
+ * Les octets au-delà de l'ancien contenu font toujours partie d'une zone.
+ * Deux zones séparées par moins de MIN_GAP octets inchangés sont fusionnées,
+ * l'en-tête d'une zone coûtant plus que ces quelques octets.
+ *
+ * Une copie complète commence par RAW ou DEFLATED selon qu'elle est
+ * compressée ou non : elle n'est compressée que si cela la raccourcit.
+ *
+ * @author Miguel Pombo Dias
+ * @author Rémi Jacquemard
+ */
+final class PayloadDelta {
+
+	/**
+	 * Nombre d'octets inchangés à partir duquel une zone modifiée se termine
+	 */
+	static final int MIN_GAP = 8;
+
+	private static final byte RAW = 0;
+	private static final byte DEFLATED = 1;
+
+	private PayloadDelta() {
+	}
+
+	/**
+	 * @param base le contenu précédent
+	 * @param next le nouveau contenu
+	 * @return le delta permettant d'obtenir 'next' à partir de 'base'
+	 */
+	static byte[] diff(byte[] base, byte[] next) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeVarint(out, next.length);
+
+		int common = Math.min(base.length, next.length);
+		int position = 0;
+		int i = 0;
+		while (i < next.length) {
+			if (i < common && base[i] == next[i]) {
+				i++;
+				continue;
+			}
+
+			// Début d'une zone modifiée, qui s'étend jusqu'au dernier octet
+			// différent suivi de moins de MIN_GAP octets inchangés
+			int start = i;
+			int end = i;
+			int same = 0;
+			for (; i < next.length && same < MIN_GAP; i++) {
+				if (i < common && base[i] == next[i]) {
+					same++;
+				} else {
+					same = 0;
+					end = i + 1;
+				}
+			}
+
+			writeVarint(out, start - position);
+			writeVarint(out, end - start);
+			out.write(next, start, end - start);
+			position = end;
+			i = end;
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * @param base le contenu à partir duquel 'delta' a été calculé
+	 * @param delta un delta obtenu par diff()
+	 * @return le nouveau contenu
+	 */
+	static byte[] patch(byte[] base, byte[] delta) {
+		ByteBuffer in = ByteBuffer.wrap(delta);
+		byte[] next = Arrays.copyOf(base, readVarint(in));
+		int position = 0;
+		while (in.hasRemaining()) {
+			position += readVarint(in);
+			int length = readVarint(in);
+			in.get(next, position, length);
+			position += length;
+		}
+		return next;
+	}
+
+	/**
+	 * @param value un contenu
+	 * @return une copie complète de ce contenu, compressée si cela la
+	 * raccourcit
+	 */
+	static byte[] snapshot(byte[] value) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(value);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(value.length / 2 + 16);
+			out.write(DEFLATED);
+			byte[] buffer = new byte[4096];
+			while (!deflater.finished() && out.size() <= value.length) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+			if (deflater.finished() && out.size() <= value.length) {
+				return out.toByteArray();
+			}
+		} finally {
+			deflater.end();
+		}
+
+		byte[] raw = new byte[value.length + 1];
+		raw[0] = RAW;
+		System.arraycopy(value, 0, raw, 1, value.length);
+		return raw;
+	}
+
+	/**
+	 * @param snapshot une copie complète obtenue par snapshot()
+	 * @return le contenu copié
+	 * @throws DataFormatException si la copie compressée est invalide
+	 */
+	static byte[] restore(byte[] snapshot) throws DataFormatException {
+		if (snapshot[0] == RAW) {
+			return Arrays.copyOfRange(snapshot, 1, snapshot.length);
+		}
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(snapshot, 1, snapshot.length - 1);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(snapshot.length * 2);
+			byte[] buffer = new byte[4096];
+			while (!inflater.finished()) {
+				int length = inflater.inflate(buffer);
+				if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new DataFormatException("Truncated snapshot");
+				}
+				out.write(buffer, 0, length);
+			}
+			return out.toByteArray();
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int readVarint(ByteBuffer in) {
+		int value = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = in.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+	}
+}
@@ -0,0 +1,717 @@
+package ch.heigvd.lamportmanager;
+
+import ch.heigvd.interfacesrmi.ISequencerAlgorithm;
+import ch.heigvd.lamportmanager.transport.Transport;
+import ch.heigvd.prr.election.ElectionManager;
+import ch.heigvd.prr.election.Site;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.rmi.ConnectException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serveur de variable globale dont les écritures sont ordonnées par un
+ * séquenceur, à la place de l'algorithme de Lamport.
+ *
+ * Le séquenceur est le site élu par l'élection en anneau du laboratoire
+ * précédent (ElectionManager), chaque site écoutant les messages d'élection
+ * sur le port de son registre RMI + ELECTION_PORT_OFFSET. Il tient un verrou
+ * par variable : un site voulant écrire lui demande le droit d'écrire la
+ * variable, et reçoit sa dernière valeur ; il calcule la nouvelle valeur
+ * localement, puis libère ce droit en l'envoyant au séquenceur. Le
+ * séquenceur donne le droit d'écrire une variable à un seul site à la fois,
+ * dans l'ordre des demandes, puis diffuse chaque nouvelle valeur aux autres
+ * sites par le thread de réplication de GlobalVariableManager. Les écritures
+ * d'une même variable sont ainsi ordonnées, pas celles de variables
+ * différentes.
+ *
+ * Une écriture ne coûte ainsi que 2 messages à l'écrivain, contre 3(N-1)
+ * pour Lamport, et le séquenceur n'envoie au plus qu'une mise à jour par
+ * site. En contrepartie, le séquenceur voit passer toutes les écritures, et
+ * les lectures sur les autres sites peuvent être en retard de la diffusion.
+ *
+ * Panne du séquenceur : un site dont la demande ou la libération échoue
+ * lance une nouvelle élection, en espaçant ses tentatives si elle échoue.
+ * L'élection en anneau ignore les sites injoignables, et choisit donc un
+ * séquenceur vivant. Celui-ci choisit un mandat (epoch) plus grand que tous
+ * ceux que connaissent les sites joignables, puis, avant de donner le
+ * moindre droit d'écrire, leur fait adopter ce mandat et récupère leurs
+ * valeurs et les droits qu'ils détiennent (handOver) : une écriture libérée
+ * auprès de l'ancien séquenceur mais pas encore diffusée est ainsi connue au
+ * moins de son écrivain, et n'est pas perdue, et un droit donné par l'ancien
+ * séquenceur reste exclusif. Un site refuse un droit donné sous un mandat
+ * plus ancien que celui qu'il a adopté, et présente son mandat en libérant
+ * son droit. La libération est répétée auprès du séquenceur courant jusqu'à
+ * ce qu'elle aboutisse ; répétée, elle ne fait que réappliquer la valeur.
+ * Un site injoignable pendant la bascule adopte le mandat lorsqu'il présente
+ * l'ancien ; si le nouveau séquenceur a entre-temps donné le même droit, les
+ * deux écritures ont pu se chevaucher.
+ *
+ * Le séquenceur reprend le droit d'un site qui ne le libère pas dans
+ * HOLD_TIMEOUT, s'il ne répond plus ou ne le détient plus.
+ *
+ * @author Miguel Pombo Dias
+ * @author Rémi Jacquemard
+ */
+public class SequencerManager extends GlobalVariableManager {
+
+	/**
+	 * Décalage entre le port du registre RMI d'un site et le port UDP sur
+	 * lequel il reçoit les messages d'élection
+	 */
+	public static final int ELECTION_PORT_OFFSET = 2000;
+
+	/**
+	 * Temps d'attente, en ms, d'un droit d'écrire avant de vérifier que son
+	 * détenteur est toujours joignable
+	 */
+	private static final long HOLD_TIMEOUT = 5000;
+
+	/**
+	 * Délai, en millisecondes, avant de relancer une élection qui n'a pas
+	 * donné de séquenceur joignable. Doublé à chaque échec, jusqu'à
+	 * MAX_ELECTION_BACKOFF_MILLIS
+	 */
+	private static final long MIN_ELECTION_BACKOFF_MILLIS = 20;
+
+	private static final long MAX_ELECTION_BACKOFF_MILLIS = 1_000;
+
+	// --------------- VARIABLES ----------------
+	/**
+	 * Les serveurs distants
+	 */
+	private final ISequencerAlgorithm[] servers;
+
+	/**
+	 * Notre propre serveur, appelé directement sans passer par RMI lorsque
+	 * nous sommes le séquenceur
+	 */
+	private final SequencerServer localServer;
+
+	/**
+	 * L'élection du séquenceur, null si elle n'a pas pu être lancée
+	 */
+	private ElectionManager election;
+
+	/**
+	 * Les adresses d'élection des sites, par index de site
+	 */
+	private final InetSocketAddress[] electionAddresses;
+
+	/**
+	 * L'index du séquenceur, -1 avant la première élection
+	 */
+	private volatile int sequencer = -1;
+
+	/**
+	 * Sur le séquenceur : les droits d'écrire donnés sous notre mandat, null
+	 * tant que les valeurs et les droits des autres sites n'ont pas été
+	 * récupérés depuis notre élection. Modifié sous reconcileLock
+	 */
+	private volatile Term term;
+
+	private final Object reconcileLock = new Object();
+
+	/**
+	 * Le plus grand mandat de séquenceur connu. Protégé par holdLock
+	 */
+	private long knownEpoch = 0;
+
+	/**
+	 * Les variables dont nous détenons le droit d'écrire, avec le mandat
+	 * sous lequel nous le détenons. Protégé par holdLock
+	 */
+	private final Map<String, Long> held = new HashMap<>();
+
+	private final Object holdLock = new Object();
+
+	// --------------------- CONSTRUCTEURS ---------------------
+	/**
+	 * Permet d'instancier un serveur utilisant un séquenceur. Les hosts sont
+	 * de la même forme que pour LamportManager.
+	 *
+	 * @param hosts La liste des serveurs disponibles
+	 * @param hostIndex L'index, à partir de 0, de l'hôte courant
+	 */
+	public SequencerManager(String[][] hosts, int hostIndex) {
+		this(hosts, hostIndex, Transport.Kind.RMI);
+	}
+
+	/**
+	 * Même constructeur, en choisissant le transport utilisé entre les sites
+	 *
+	 * @param hosts La liste des serveurs disponibles
+	 * @param hostIndex L'index, à partir de 0, de l'hôte courant
+	 * @param transportKind le transport à utiliser entre les sites
+	 */
+	public SequencerManager(String[][] hosts, int hostIndex, Transport.Kind transportKind) {
+		super(hosts, hostIndex, transportKind);
+
+		this.servers = new ISequencerAlgorithm[nbSites];
+
+		String[][] electionHosts = new String[nbSites][];
+		this.electionAddresses = new InetSocketAddress[nbSites];
+		for (int i = 0; i < nbSites; i++) {
+			int port = Integer.parseInt(hosts[i][1]) + ELECTION_PORT_OFFSET;
+			electionHosts[i] = new String[]{hosts[i][0], String.valueOf(port)};
+			electionAddresses[i] = new InetSocketAddress(hosts[i][0], port);
+		}
+		try {
+			election = new ElectionManager(electionHosts, hostIndex);
+			// Participe aux élections dès maintenant, même avant la nôtre
+			election.listen();
+		} catch (IOException ex) {
+			Logger.getLogger(SequencerManager.class.getName()).log(Level.SEVERE, null, ex);
+		}
+
+		localServer = new SequencerServer();
+		servers[hostIndex] = localServer;
+		bindServers(ISequencerAlgorithm.class, localServer, ISequencerAlgorithm.RMI_NAME);
+	}
+
+	/**
+	 * Même constructeur, les hôtes étant lus dans le fichier hosts.txt
+	 *
+	 * @param hostIndex le numéro d'hôte courant, à partir de 0
+	 * @throws IOException Si le fichier hosts.txt n'est pas trouvé
+	 */
+	public SequencerManager(int hostIndex) throws IOException {
+		this(readHostsFile(), hostIndex);
+	}
+
+	// --------------- METHODES PUBLIQUES -------------
+	/**
+	 * Se connecte aux autres sites, puis élit le premier séquenceur. Tous les
+	 * sites doivent être lancés, afin que l'élection les prenne en compte.
+	 *
+	 * @throws ConnectException si aucun séquenceur n'a pu être élu
+	 */
+	@Override
+	public void connectToRemotes() throws NotBoundException, MalformedURLException, RemoteException, ConnectException {
+		if (election == null) {
+			throw new ConnectException("Election manager of site " + hostIndex + " not started");
+		}
+
+		// Les serveurs déjà trouvés lors d'un appel précédent sont conservés
+		List<Integer> missing = new ArrayList<>();
+		for (int i = 0; i < remotes.length; i++) {
+			if (servers[i] == null) {
+				missing.add(i);
+			}
+		}
+		lookupAll(servers, missing, missing.size(), (i) -> transport.lookup(remotes[i][0], Integer.parseInt(remotes[i][1]), ISequencerAlgorithm.RMI_NAME, ISequencerAlgorithm.class));
+
+		startReplication();
+		elect(-1);
+		if (sequencer < 0) {
+			throw new ConnectException("Site " + hostIndex + " could not elect a sequencer");
+		}
+
+		System.out.println("Remotes connected, sequencer is site " + sequencer);
+	}
+
+	/**
+	 * @return l'index du séquenceur, -1 avant la première élection
+	 */
+	public int getSequencer() {
+		return sequencer;
+	}
+
+	@Override
+	public void close() {
+		if (election != null) {
+			try {
+				election.close();
+			} catch (IOException ex) {
+				Logger.getLogger(SequencerManager.class.getName()).log(Level.WARNING, null, ex);
+			}
+		}
+		super.close();
+	}
+
+	// -------------------------- SERVEUR RMI --------------------------
+	private class SequencerServer implements ISequencerAlgorithm {
+
+		@Override
+		public long[] acquire(String key, int hostIndex) throws RemoteException {
+			Term current = reconcile();
+
+			Semaphore permit = current.permit(key);
+			try {
+				while (term == current && !permit.tryAcquire(HOLD_TIMEOUT, TimeUnit.MILLISECONDS)) {
+					takeBackFromDeadHolder(current, key, permit);
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new RemoteException("Interrupted while waiting for " + key);
+			}
+			if (term != current) {
+				throw new RemoteException("Epoch " + current.epoch + " of site " + SequencerManager.this.hostIndex + " is over");
+			}
+			current.holders.put(key, hostIndex);
+
+			VersionedValue value = read(key);
+			return new long[]{value.value, value.version, current.epoch};
+		}
+
+		@Override
+		public void release(String key, int value, long version, long epoch, int hostIndex) throws RemoteException {
+			Term current = reconcile();
+			if (epoch != current.epoch) {
+				// Le site n'a pas adopté notre mandat pendant la bascule : il
+				// l'adopte maintenant, et recommencera sous notre mandat
+				adopt(current, hostIndex);
+				throw new RemoteException("Epoch " + epoch + " of site " + hostIndex + " is not the sequencer epoch " + current.epoch);
+			}
+
+			applyValue(key, value, version);
+			scheduleReplication(key);
+			if (current.holders.remove(key, hostIndex)) {
+				current.permit(key).release();
+			}
+		}
+
+		@Override
+		public void update(String key, int value, long version) throws RemoteException {
+			applyValue(key, value, version);
+			if (sequencer == SequencerManager.this.hostIndex) {
+				// Valeur transmise par un site après une élection : les
+				// autres sites doivent aussi la recevoir
+				scheduleReplication(key);
+			}
+		}
+
+		@Override
+		public String[] handOver(long epoch, int remoteIndex) throws RemoteException {
+			String[] keys;
+			synchronized (holdLock) {
+				if (epoch < knownEpoch) {
+					throw new RemoteException("Epoch " + epoch + " of site " + remoteIndex + " is older than " + knownEpoch);
+				}
+				knownEpoch = epoch;
+				held.replaceAll((key, e) -> epoch);
+				keys = held.keySet().toArray(new String[0]);
+			}
+
+			// Sans connexion aux autres sites, nous n'avons rien écrit
+			if (remoteIndex != SequencerManager.this.hostIndex && servers[remoteIndex] != null) {
+				for (Map.Entry<String, VersionedValue> entry : snapshot().entrySet()) {
+					pushValue(remoteIndex, entry.getKey(), entry.getValue().value, entry.getValue().version);
+				}
+			}
+			return keys;
+		}
+
+		@Override
+		public long epoch() throws RemoteException {
+			synchronized (holdLock) {
+				return knownEpoch;
+			}
+		}
+
+		@Override
+		public boolean holds(String key, long epoch) throws RemoteException {
+			synchronized (holdLock) {
+				Long holding = held.get(key);
+				return holding != null && holding == epoch;
+			}
+		}
+	}
+
+	/**
+	 * Les droits d'écrire donnés par le séquenceur sous un mandat
+	 */
+	private static final class Term {
+
+		/**
+		 * Le mandat, unique : son reste modulo le nombre de sites est l'index
+		 * du séquenceur
+		 */
+		final long epoch;
+
+		/**
+		 * Le droit d'écrire chaque variable, donné dans l'ordre des demandes
+		 */
+		final Map<String, Semaphore> permits = new ConcurrentHashMap<>();
+
+		/**
+		 * Le site détenant le droit d'écrire chaque variable
+		 */
+		final Map<String, Integer> holders = new ConcurrentHashMap<>();
+
+		Term(long epoch) {
+			this.epoch = epoch;
+		}
+
+		Semaphore permit(String key) {
+			return permits.computeIfAbsent(key, (k) -> new Semaphore(1, true));
+		}
+
+		/**
+		 * Enregistre les droits qu'un site détenait avant ce mandat
+		 *
+		 * @param site le site
+		 * @param keys les variables dont il détient le droit d'écrire
+		 */
+		void register(int site, String[] keys) {
+			for (String key : keys) {
+				Integer holder = holders.get(key);
+				if (holder != null && holder == site) {
+					continue;
+				}
+				if (permit(key).tryAcquire()) {
+					holders.put(key, site);
+				} else {
+					Logger.getLogger(SequencerManager.class.getName()).log(Level.WARNING,
+							"Sites {0} and {1} both hold {2}", new Object[]{holder, site, key});
+				}
+			}
+		}
+
+		/**
+		 * Termine le mandat : les demandes en attente sont réveillées, et
+		 * échouent
+		 */
+		void close() {
+			for (Semaphore permit : permits.values()) {
+				permit.release(Integer.MAX_VALUE / 2);
+			}
+		}
+	}
+
+	// ------------ METHODES UTILITAIRES PRIVEES ------------
+	/**
+	 * Demande au séquenceur le droit d'écrire la variable, et applique sa
+	 * dernière valeur. Si le séquenceur ne répond pas, si aucun n'est élu ou
+	 * si son mandat est dépassé, on en élit un nouveau et on recommence. Les
+	 * élections qui ne changent pas de séquenceur sont espacées.
+	 */
+	@Override
+	protected void waitForCS(String key) {
+		long backoff = MIN_ELECTION_BACKOFF_MILLIS;
+		while (true) {
+			int current = sequencer;
+			if (current >= 0) {
+				try {
+					long[] granted;
+					if (current == hostIndex) {
+						granted = localServer.acquire(key, hostIndex);
+					} else {
+						messagesSent.incrementAndGet();
+						granted = servers[current].acquire(key, hostIndex);
+					}
+					if (accept(key, granted[2])) {
+						applyValue(key, (int) granted[0], granted[1]);
+						return;
+					}
+					Logger.getLogger(SequencerManager.class.getName()).log(Level.WARNING,
+							"Sequencer {0} granted {1} under the stale epoch {2}", new Object[]{current, key, granted[2]});
+				} catch (RemoteException ex) {
+					Logger.getLogger(SequencerManager.class.getName()).log(Level.WARNING,
+							"Sequencer " + current + " did not grant " + key, ex);
+				}
+			}
+
+			backoff = reelect(current, backoff);
+			if (backoff < 0) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Envoie la nouvelle valeur au séquenceur, qui la diffuse aux autres
+	 * sites, en présentant le mandat sous lequel nous détenons le droit
+	 * d'écrire. Si le séquenceur ne répond pas, on en élit un nouveau, qui
+	 * reprend notre droit sous son mandat, et on recommence auprès de lui.
+	 */
+	@Override
+	protected void releaseCS(String key) {
+		if (heldEpoch(key) < 0) {
+			// Interrompus avant d'obtenir le droit d'écrire
+			return;
+		}
+		VersionedValue written = read(key);
+		long backoff = MIN_ELECTION_BACKOFF_MILLIS;
+		while (true) {
+			int current = sequencer;
+			long epoch = heldEpoch(key);
+			if (current >= 0) {
+				try {
+					if (current == hostIndex) {
+						localServer.release(key, written.value, written.version, epoch, hostIndex);
+					} else {
+						messagesSent.incrementAndGet();
+						servers[current].release(key, written.value, written.version, epoch, hostIndex);
+					}
+					synchronized (holdLock) {
+						held.remove(key);
+					}
+					return;
+				} catch (RemoteException ex) {
+					Logger.getLogger(SequencerManager.class.getName()).log(Level.WARNING,
+							"Sequencer " + current + " did not receive " + key, ex);
+				}
+				if (heldEpoch(key) != epoch) {
+					// Le séquenceur vient de nous faire adopter son mandat
+					continue;
+				}
+			}
+
+			backoff = reelect(current, backoff);
+			if (backoff < 0) {
+				// Le séquenceur reprendra le droit que nous ne détenons plus
+				synchronized (holdLock) {
+					held.remove(key);
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Accepte un droit d'écrire, s'il n'a pas été donné sous un mandat plus
+	 * ancien que le dernier adopté
+	 *
+	 * @param key la variable à écrire
+	 * @param epoch le mandat du séquenceur qui l'a donné
+	 * @return vrai si le droit est accepté
+	 */
+	private boolean accept(String key, long epoch) {
+		synchronized (holdLock) {
+			if (epoch < knownEpoch) {
+				return false;
+			}
+			knownEpoch = epoch;
+			held.put(key, epoch);
+			return true;
+		}
+	}
+
+	/**
+	 * @return le mandat sous lequel nous détenons le droit d'écrire 'key'
+	 */
+	private long heldEpoch(String key) {
+		synchronized (holdLock) {
+			return held.getOrDefault(key, -1L);
+		}
+	}
+
+	/**
+	 * Élit un nouveau séquenceur à la place de 'failed', puis, si l'élection
+	 * l'a reconduit, attend avant une nouvelle tentative
+	 *
+	 * @param failed le séquenceur qui n'a pas répondu
+	 * @param backoff l'attente si le séquenceur est reconduit
+	 * @return l'attente suivante, -1 si le thread a été interrompu
+	 */
+	private long reelect(int failed, long backoff) {
+		elect(failed);
+		if (sequencer != failed) {
+			return backoff;
+		}
+		try {
+			Thread.sleep(backoff);
+		} catch (InterruptedException ex) {
+			Logger.getLogger(SequencerManager.class.getName()).log(Level.SEVERE, null, ex);
+			return -1;
+		}
+		return Math.min(2 * backoff, MAX_ELECTION_BACKOFF_MILLIS);
+	}
+
+	/**
+	 * Élit un nouveau séquenceur, si 'failed' l'est toujours. Les sites
+	 * constatant la même panne en même temps participent à la même élection.
+	 * Le séquenceur reste inchangé si l'élection échoue.
+	 *
+	 * @param failed le séquenceur injoignable, -1 si aucun n'est élu
+	 */
+	private synchronized void elect(int failed) {
+		if (sequencer != failed) {
+			// Un autre thread a déjà élu un nouveau séquenceur
+			return;
+		}
+
+		Site elected;
+		try {
+			election.startElection();
+			elected = election.getElected();
+		} catch (IOException ex) {
+			Logger.getLogger(SequencerManager.class.getName()).log(Level.SEVERE, null, ex);
+			return;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+
+		int index = indexOf(elected);
+		if (index >= 0) {
+			setSequencer(index);
+		}
+	}
+
+	/**
+	 * Adopte le dernier séquenceur élu par l'anneau, sans lancer d'élection
+	 */
+	private synchronized void followElection() {
+		try {
+			int index = indexOf(election.getElected());
+			if (index >= 0 && index != sequencer) {
+				setSequencer(index);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Adopte un nouveau séquenceur. Si nous perdons ce rôle, notre mandat se
+	 * termine. S'il s'agit de nous et qu'un autre séquenceur a pu donner des
+	 * droits d'écrire avant nous, nous devrons récupérer les valeurs et les
+	 * droits des autres sites avant de donner un droit d'écrire
+	 */
+	private void setSequencer(int index) {
+		synchronized (reconcileLock) {
+			if (index != sequencer && term != null) {
+				term.close();
+				term = null;
+			}
+			if (index == hostIndex && sequencer < 0) {
+				// Aucune écriture n'a pu avoir lieu avant le premier séquenceur
+				synchronized (holdLock) {
+					term = new Term(nextEpoch(knownEpoch));
+					knownEpoch = term.epoch;
+				}
+			}
+			sequencer = index;
+		}
+		System.out.println("\t[" + hostIndex + "] Sequencer is site " + index);
+	}
+
+	/**
+	 * Sur le séquenceur nouvellement élu : choisit un mandat plus grand que
+	 * tous ceux connus des sites joignables, puis récupère leurs valeurs et
+	 * les droits d'écrire qu'ils détiennent, afin de ne donner de droit
+	 * d'écrire qu'à partir des valeurs les plus récentes, y compris celles que
+	 * l'ancien séquenceur n'a pas diffusées, et à un seul site à la fois
+	 *
+	 * @return notre mandat
+	 * @throws RemoteException si nous ne sommes pas le séquenceur
+	 */
+	private Term reconcile() throws RemoteException {
+		if (sequencer != hostIndex) {
+			// Une élection à laquelle nous avons participé a pu nous
+			// choisir, sans que nous l'ayons lancée
+			followElection();
+		}
+		synchronized (reconcileLock) {
+			if (sequencer != hostIndex) {
+				throw new RemoteException("Site " + hostIndex + " is not the sequencer");
+			}
+			if (term != null) {
+				return term;
+			}
+
+			long known = localServer.epoch();
+			for (int i = 0; i < nbSites; i++) {
+				if (i == hostIndex) {
+					continue;
+				}
+				try {
+					messagesSent.incrementAndGet();
+					known = Math.max(known, servers[i].epoch());
+				} catch (RemoteException ex) {
+					Logger.getLogger(SequencerManager.class.getName()).log(Level.WARNING,
+							"Could not get the epoch of site " + i, ex);
+				}
+			}
+
+			Term next = new Term(nextEpoch(known));
+			for (int i = 0; i < nbSites; i++) {
+				adopt(next, i);
+			}
+			term = next;
+			return next;
+		}
+	}
+
+	/**
+	 * Fait adopter notre mandat à un site, et récupère ses valeurs et les
+	 * droits d'écrire qu'il détient
+	 */
+	private void adopt(Term current, int site) {
+		try {
+			if (site != hostIndex) {
+				messagesSent.incrementAndGet();
+			}
+			current.register(site, servers[site].handOver(current.epoch, hostIndex));
+		} catch (RemoteException ex) {
+			Logger.getLogger(SequencerManager.class.getName()).log(Level.WARNING,
+					"Could not get the values of site " + site, ex);
+		}
+	}
+
+	/**
+	 * @return notre prochain mandat, plus grand que 'known'
+	 */
+	private long nextEpoch(long known) {
+		return (known / nbSites + 1) * nbSites + hostIndex;
+	}
+
+	/**
+	 * @return l'index du site élu, -1 s'il est inconnu
+	 */
+	private int indexOf(Site elected) {
+		if (elected != null) {
+			for (int i = 0; i < nbSites; i++) {
+				if (electionAddresses[i].equals(elected.getSocketAddress())) {
+					return i;
+				}
+			}
+		}
+		Logger.getLogger(SequencerManager.class.getName()).log(Level.SEVERE,
+				"Elected site {0} is unknown", elected == null ? null : elected.getSocketAddress());
+		return -1;
+	}
+
+	/**
+	 * Appelé sur le séquenceur lorsqu'un droit d'écrire n'a pas été libéré à
+	 * temps : si son détenteur ne répond plus ou ne le détient plus, par
+	 * exemple parce que sa libération a été perdue, le droit est repris
+	 */
+	private void takeBackFromDeadHolder(Term current, String key, Semaphore permit) {
+		Integer holder = current.holders.get(key);
+		if (holder == null) {
+			return;
+		}
+		boolean holding;
+		try {
+			holding = servers[holder].holds(key, current.epoch);
+		} catch (RemoteException ex) {
+			holding = false;
+		}
+		if (!holding && current.holders.remove(key, holder)) {
+			Logger.getLogger(SequencerManager.class.getName()).log(Level.WARNING,
+					"Site {0} no longer holds {1}, taking it back", new Object[]{holder, key});
+			permit.release();
+		}
+	}
+
+	@Override
+	protected void pushValue(int site, String key, int value, long valueVersion) throws RemoteException {
+		updatesSent.incrementAndGet();
+		servers[site].update(key, value, valueVersion);
+	}
+}
@@ -0,0 +1,309 @@
+package ch.heigvd.lamportmanager;
+
+import ch.heigvd.interfacesrmi.ILamportAlgorithm;
+import ch.heigvd.lamportmanager.LamportQueue.MESSAGE_TYPE;
+import ch.heigvd.lamportmanager.sim.SimulatedNetwork;
+import ch.heigvd.lamportmanager.sim.Simulator;
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntConsumer;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Site Lamport simulé, échangeant ses messages via un SimulatedNetwork :
+ * permet de mesurer le passage à l'échelle de l'algorithme sur des centaines
+ * de sites dans une seule JVM, de façon reproductible.
+ *
+ * Le site utilise les mêmes files de Lamport et la même horloge que
+ * LamportManager, et son serveur traite les requêtes et libérations comme
+ * celui de LamportManager. Seule l'attente change : plutôt que de bloquer un
+ * thread sur la section critique, le site vérifie s'il peut y entrer à
+ * chaque message reçu. Il n'y a ni registre RMI, ni thread, ni détecteur de
+ * pannes : aucun site n'est jamais suspecté.
+ *
+ * Les écritures d'une même clé sur un site sont faites l'une après l'autre,
+ * dans leur ordre d'arrivée, comme avec le verrou d'écriture de
+ * GlobalVariableManager.
+ *
+ * @author Miguel Pombo Dias
+ * @author Rémi Jacquemard
+ */
+public class SimulatedLamportSite {
+
+	/**
+	 * Une écriture locale, en attente ou en cours
+	 */
+	private static final class Write {
+
+		private final IntUnaryOperator function;
+		private final IntConsumer done;
+		private long startedAt;
+		private int pendingResponses;
+		private int pendingAcknowledgements;
+		private boolean entered = false;
+
+		private Write(IntUnaryOperator function, IntConsumer done) {
+			this.function = function;
+			this.done = done;
+		}
+	}
+
+	private final Simulator simulator;
+	private final SimulatedNetwork<ILamportAlgorithm> network;
+	private final int nbSites;
+	private final int hostIndex;
+
+	private final LogicalClock clock = new LogicalClock();
+
+	/**
+	 * Aucun site n'est suspecté dans la simulation
+	 */
+	private final AtomicIntegerArray suspected;
+
+	private final Map<String, LamportQueue> queues = new HashMap<>();
+	private final Map<String, VersionedValue> store = new HashMap<>();
+
+	/**
+	 * Les écritures locales de chaque clé, celle en cours en tête
+	 */
+	private final Map<String, ArrayDeque<Write>> writes = new HashMap<>();
+
+	/**
+	 * La durée passée en section critique par chaque écriture
+	 */
+	private long criticalSectionMicros = 0;
+
+	private long writesDone = 0;
+	private long totalLatencyMicros = 0;
+	private long maxLatencyMicros = 0;
+
+	/**
+	 * Crée un site et exporte son serveur sur le réseau simulé
+	 *
+	 * @param simulator l'ordonnanceur de la simulation
+	 * @param network le réseau simulé reliant les sites
+	 * @param nbSites le nombre de sites
+	 * @param hostIndex l'index, à partir de 0, de ce site
+	 */
+	public SimulatedLamportSite(Simulator simulator, SimulatedNetwork<ILamportAlgorithm> network, int nbSites, int hostIndex) {
+		this.simulator = simulator;
+		this.network = network;
+		this.nbSites = nbSites;
+		this.hostIndex = hostIndex;
+		this.suspected = new AtomicIntegerArray(nbSites);
+		network.export(hostIndex, new SimulatedServer());
+	}
+
+	/**
+	 * @param micros la durée passée en section critique par chaque écriture,
+	 * 0 par défaut
+	 */
+	public void setCriticalSectionMicros(long micros) {
+		this.criticalSectionMicros = micros;
+	}
+
+	/**
+	 * Lance une écriture de la variable 'key' en section critique, comme
+	 * GlobalVariableManager. A appeler depuis un événement du Simulator.
+	 *
+	 * @param key la clé de la variable
+	 * @param function calcule la nouvelle valeur à partir de l'ancienne
+	 * @param done appelé avec la nouvelle valeur à la sortie de la section
+	 * critique, ou null
+	 */
+	public void modify(String key, IntUnaryOperator function, IntConsumer done) {
+		ArrayDeque<Write> pending = writes.computeIfAbsent(key, (k) -> new ArrayDeque<>());
+		pending.add(new Write(function, done));
+		if (pending.size() == 1) {
+			start(key, pending.peek());
+		}
+	}
+
+	/**
+	 * @param key la clé de la variable
+	 * @return la valeur locale de la variable
+	 */
+	public int getValue(String key) {
+		return read(key).value;
+	}
+
+	/**
+	 * @return le nombre d'écritures terminées sur ce site
+	 */
+	public long getWritesDone() {
+		return writesDone;
+	}
+
+	/**
+	 * @return la somme des durées des écritures, de leur début à la sortie
+	 * de section critique, en microsecondes de temps virtuel
+	 */
+	public long getTotalLatencyMicros() {
+		return totalLatencyMicros;
+	}
+
+	/**
+	 * @return la durée de l'écriture la plus lente, en microsecondes
+	 */
+	public long getMaxLatencyMicros() {
+		return maxLatencyMicros;
+	}
+
+	// -------------------------- SERVEUR --------------------------
+	private class SimulatedServer implements ILamportAlgorithm {
+
+		@Override
+		public long request(String key, long remoteTimeStamp, int site) throws RemoteException {
+			long response = queue(key).requestReceived(site, remoteTimeStamp);
+			tryEnter(key);
+			return response;
+		}
+
+		@Override
+		public void free(String key, long remoteTimeStamp, int value, long version, int site) throws RemoteException {
+			store.merge(key, new VersionedValue(value, version), VersionedValue::newest);
+			clock.witness(remoteTimeStamp);
+			queue(key).handleMessageReceived(site, MESSAGE_TYPE.LIBERATE, remoteTimeStamp);
+			tryEnter(key);
+		}
+
+		@Override
+		public boolean free(String key, long remoteTimeStamp, int value, long version, byte[] payload, long payloadBase, long payloadVersion, int site) throws RemoteException {
+			throw new RemoteException("Payloads are not simulated");
+		}
+
+		@Override
+		public void heartbeat(int site) throws RemoteException {
+		}
+
+		@Override
+		public long catchUp(int site) throws RemoteException {
+			throw new RemoteException("Catch up is not simulated");
+		}
+
+		@Override
+		public void state(String[] keys, int[] values, long[] versions, int site) throws RemoteException {
+			throw new RemoteException("Catch up is not simulated");
+		}
+
+		@Override
+		public void statePayload(String key, byte[] snapshot, long version, int site) throws RemoteException {
+			throw new RemoteException("Catch up is not simulated");
+		}
+
+		@Override
+		public void admit(int site, String host, String port) throws RemoteException {
+			throw new RemoteException("Membership changes are not simulated");
+		}
+
+		@Override
+		public void membership(String[] members, long version, int site) throws RemoteException {
+			throw new RemoteException("Membership changes are not simulated");
+		}
+	}
+
+	// ------------ METHODES UTILITAIRES PRIVEES ------------
+	/**
+	 * Envoie la requête d'une écriture à tous les autres sites
+	 */
+	private void start(String key, Write write) {
+		LamportQueue queue = queue(key);
+		write.startedAt = simulator.now();
+		write.pendingResponses = nbSites - 1;
+		long localTimeStamp = queue.request();
+
+		for (int i = 0; i < nbSites; i++) {
+			if (i == hostIndex) {
+				continue;
+			}
+			final int site = i;
+			network.call(site, (server) -> server.request(key, localTimeStamp, hostIndex), (remoteTime) -> {
+				queue.handleMessageReceived(site, MESSAGE_TYPE.RESPONSE, remoteTime);
+				write.pendingResponses--;
+				tryEnter(key);
+			});
+		}
+		tryEnter(key);
+	}
+
+	/**
+	 * Entre en section critique si l'écriture en cours a reçu toutes ses
+	 * quittances et qu'aucun site ne la précède plus
+	 */
+	private void tryEnter(String key) {
+		ArrayDeque<Write> pending = writes.get(key);
+		Write write = pending == null ? null : pending.peek();
+		if (write == null || write.entered || write.pendingResponses > 0 || !queue(key).canEnterCS()) {
+			return;
+		}
+		write.entered = true;
+
+		VersionedValue old = read(key);
+		int value = write.function.applyAsInt(old.value);
+		if (value != old.value) {
+			store.put(key, new VersionedValue(value, old.version + 1));
+		}
+		simulator.schedule(criticalSectionMicros, () -> release(key, write));
+	}
+
+	/**
+	 * Sort de la section critique en envoyant la libération et la nouvelle
+	 * valeur à tous les autres sites. Comme les appels RMI de LamportManager,
+	 * la libération n'est terminée qu'une fois acquittée par tous les sites :
+	 * elle ne peut ainsi pas arriver après notre requête suivante, et
+	 * l'effacer
+	 */
+	private void release(String key, Write write) {
+		long localTimeStamp = queue(key).liberate();
+		VersionedValue written = read(key);
+		write.pendingAcknowledgements = nbSites - 1;
+		for (int i = 0; i < nbSites; i++) {
+			if (i != hostIndex) {
+				network.send(i, (server) -> {
+					server.free(key, localTimeStamp, written.value, written.version, hostIndex);
+					return null;
+				}, () -> {
+					if (--write.pendingAcknowledgements == 0) {
+						next(key, write, written.value);
+					}
+				});
+			}
+		}
+
+		long latency = simulator.now() - write.startedAt;
+		writesDone++;
+		totalLatencyMicros += latency;
+		maxLatencyMicros = Math.max(maxLatencyMicros, latency);
+		if (nbSites == 1) {
+			next(key, write, written.value);
+		}
+	}
+
+	/**
+	 * Termine une écriture dont la libération a été acquittée, et lance
+	 * l'écriture suivante
+	 */
+	private void next(String key, Write write, int value) {
+		// L'écriture suivante est lancée avant de prévenir l'appelant, qui
+		// peut en ajouter une nouvelle
+		ArrayDeque<Write> pending = writes.get(key);
+		pending.poll();
+		if (!pending.isEmpty()) {
+			start(key, pending.peek());
+		}
+		if (write.done != null) {
+			write.done.accept(value);
+		}
+	}
+
+	private LamportQueue queue(String key) {
+		return queues.computeIfAbsent(key, (k) -> new LamportQueue(nbSites, hostIndex, clock, suspected));
+	}
+
+	private VersionedValue read(String key) {
+		return store.getOrDefault(key, VersionedValue.INITIAL);
+	}
+}
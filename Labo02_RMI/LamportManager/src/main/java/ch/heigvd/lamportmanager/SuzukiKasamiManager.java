@@ -0,0 +1,592 @@
+package ch.heigvd.lamportmanager;
+
+import ch.heigvd.interfacesrmi.ISuzukiKasamiAlgorithm;
+import ch.heigvd.lamportmanager.transport.Transport;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.rmi.ConnectException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serveur de variable globale utilisant l'algorithme à jeton de Suzuki-Kasami
+ * à la place de celui de Lamport.
+ *
+ * Un unique jeton circule entre les sites. Le site qui le possède peut entrer
+ * en section critique sans envoyer aucun message : un site écrivant plusieurs
+ * fois de suite ne paie donc la diffusion des requêtes qu'une seule fois. Si
+ * le jeton est ailleurs, on diffuse une requête numérotée (tableau RN) et on
+ * attend que son détenteur nous le transmette. Le jeton contient le numéro de
+ * la dernière requête satisfaite de chaque site (tableau LN) ainsi que la file
+ * des sites en attente.
+ *
+ * Un seul jeton protège toutes les variables partagées, qu'il transporte
+ * avec leur dernière valeur. Les autres
+ * sites sont mis à jour de manière asynchrone par le thread de réplication de
+ * GlobalVariableManager, qui n'envoie que la valeur la plus récente : une
+ * rafale d'écritures ne coûte ainsi que quelques messages de mise à jour.
+ *
+ * Perte du jeton : un site qui attend le jeton plus de TOKEN_TIMEOUT
+ * interroge tous les sites (probe). Si aucun site joignable ne possède ni ne
+ * transmet le jeton, il a peut-être été perdu, avec son détenteur ou en
+ * chemin. Le site fait alors passer tous les sites joignables à une nouvelle
+ * génération (fence). Un site possédant ou transmettant le jeton garde sa
+ * génération, et la régénération est abandonnée. Les autres refusent dès
+ * lors les jetons des générations précédentes : l'expéditeur d'un jeton
+ * refusé le reprend sous la nouvelle génération, puis le retransmet. Si
+ * aucun site ne possède ni ne transmet le jeton, il est perdu : le site le
+ * recrée, avec les valeurs que tous lui ont transmises.
+ *
+ * Chaque site ne crée que des générations qui lui sont propres (congrues à
+ * son index modulo le nombre de sites) : deux régénérations simultanées ne
+ * peuvent ainsi pas aboutir toutes les deux.
+ *
+ * Au démarrage, le jeton est possédé par le site 0.
+ *
+ * @author Miguel Pombo Dias
+ * @author Rémi Jacquemard
+ */
+public class SuzukiKasamiManager extends GlobalVariableManager {
+
+	/**
+	 * Temps d'attente maximal du jeton, en ms, avant de soupçonner la panne de
+	 * son détenteur
+	 */
+	private static final long TOKEN_TIMEOUT = 5000;
+
+	// --------------- VARIABLES ----------------
+	/**
+	 * Les serveurs Suzuki-Kasami distants
+	 */
+	private final ISuzukiKasamiAlgorithm[] servers;
+
+	/**
+	 * Notre propre serveur, appelé directement sans passer par RMI
+	 */
+	private SuzukiKasamiServer localServer;
+
+	/**
+	 * Numéro de la plus grande requête reçue de chaque site (tableau RN)
+	 */
+	private final long[] requestNumbers;
+
+	/**
+	 * Indique si on possède actuellement le jeton
+	 */
+	private boolean hasToken;
+
+	/**
+	 * Numéro de la dernière requête satisfaite de chaque site (tableau LN du
+	 * jeton). N'a de sens que si on possède le jeton
+	 */
+	private long[] lastRequests;
+
+	/**
+	 * File des sites en attente du jeton. N'a de sens que si on possède le
+	 * jeton
+	 */
+	private final ArrayDeque<Integer> queue = new ArrayDeque<>();
+
+	/**
+	 * Indique si on demande ou occupe la section critique
+	 */
+	private boolean requesting = false;
+
+	/**
+	 * Indique si on est en train de transmettre le jeton : il n'est alors
+	 * possédé par personne, sans être perdu
+	 */
+	private boolean sendingToken = false;
+
+	/**
+	 * Génération courante du jeton
+	 */
+	private long epoch = 0;
+
+	/**
+	 * Protège l'état de l'algorithme. On y attend aussi la réception du jeton
+	 */
+	private final Object lock = new Object();
+
+	// --------------------- CONSTRUCTEURS ---------------------
+	/**
+	 * Permet d'instancier un serveur Suzuki-Kasami gérant une variable globale
+	 * commune à tous les serveurs. Les hosts sont de la même forme que pour
+	 * LamportManager.
+	 *
+	 * @param hosts La liste des serveurs disponibles
+	 * @param hostIndex L'index, à partir de 0, de l'hôte courant
+	 */
+	public SuzukiKasamiManager(String[][] hosts, int hostIndex) {
+		this(hosts, hostIndex, Transport.Kind.RMI);
+	}
+
+	/**
+	 * Même constructeur, en choisissant le transport utilisé entre les sites
+	 *
+	 * @param hosts La liste des serveurs disponibles
+	 * @param hostIndex L'index, à partir de 0, de l'hôte courant
+	 * @param transportKind le transport à utiliser entre les sites
+	 */
+	public SuzukiKasamiManager(String[][] hosts, int hostIndex, Transport.Kind transportKind) {
+		super(hosts, hostIndex, transportKind);
+
+		this.servers = new ISuzukiKasamiAlgorithm[nbSites];
+		this.requestNumbers = new long[nbSites];
+
+		// Le site 0 possède le jeton initial
+		this.hasToken = hostIndex == 0;
+		this.lastRequests = new long[nbSites];
+
+		localServer = new SuzukiKasamiServer();
+		bindServers(ISuzukiKasamiAlgorithm.class, localServer, ISuzukiKasamiAlgorithm.RMI_NAME);
+	}
+
+	/**
+	 * Même constructeur, les hôtes étant lus dans le fichier hosts.txt
+	 *
+	 * @param hostIndex le numéro d'hôte courant, à partir de 0
+	 * @throws IOException Si le fichier hosts.txt n'est pas trouvé
+	 */
+	public SuzukiKasamiManager(int hostIndex) throws IOException {
+		this(readHostsFile(), hostIndex);
+	}
+
+	/**
+	 * Un seul jeton pour toutes les clés : toutes les écritures locales sont
+	 * sérialisées
+	 */
+	@Override
+	protected Object writeLock(String key) {
+		return localServer;
+	}
+
+	// --------------- METHODES PUBLIQUES -------------
+	@Override
+	public void connectToRemotes() throws NotBoundException, MalformedURLException, RemoteException, ConnectException {
+		// Les serveurs déjà trouvés lors d'un appel précédent sont conservés
+		List<Integer> missing = new ArrayList<>();
+		for (int i = 0; i < remotes.length; i++) {
+			if (servers[i] == null) {
+				missing.add(i);
+			}
+		}
+		lookupAll(servers, missing, missing.size(), (i) -> transport.lookup(remotes[i][0], Integer.parseInt(remotes[i][1]), ISuzukiKasamiAlgorithm.RMI_NAME, ISuzukiKasamiAlgorithm.class));
+
+		startReplication();
+
+		System.out.println("Remotes connected !");
+	}
+
+	// -------------------------- SERVEUR RMI --------------------------
+	private class SuzukiKasamiServer implements ISuzukiKasamiAlgorithm {
+
+		@Override
+		public void request(int remoteIndex, long requestNumber) throws RemoteException {
+			synchronized (lock) {
+				requestNumbers[remoteIndex] = Math.max(requestNumbers[remoteIndex], requestNumber);
+			}
+
+			// Si on possède le jeton sans l'utiliser, on le transmet
+			passTokenIfRequested();
+		}
+
+		@Override
+		public long token(long tokenEpoch, long[] tokenLastRequests, int[] tokenQueue, String[] keys, int[] values, long[] versions) throws RemoteException {
+			synchronized (lock) {
+				if (tokenEpoch < epoch) {
+					// Jeton d'une génération dépassée : son expéditeur le reprend
+					System.err.println("\t[" + hostIndex + "] Refusing token of epoch " + tokenEpoch);
+					return epoch;
+				}
+
+				// Sous le verrou : un fence() ne peut pas nous trouver entre
+				// l'acceptation du jeton et sa possession
+				for (int i = 0; i < keys.length; i++) {
+					applyValue(keys[i], values[i], versions[i]);
+				}
+
+				epoch = tokenEpoch;
+				hasToken = true;
+				lastRequests = tokenLastRequests;
+				queue.clear();
+				for (int site : tokenQueue) {
+					queue.add(site);
+				}
+
+				if (requesting) {
+					// On attendait le jeton, on peut entrer en section critique
+					lock.notifyAll();
+					return tokenEpoch;
+				}
+
+				// On n'a rien demandé (jeton régénéré) : notre éventuelle ancienne
+				// requête est considérée comme satisfaite
+				lastRequests[hostIndex] = requestNumbers[hostIndex];
+			}
+
+			passTokenIfRequested();
+			return tokenEpoch;
+		}
+
+		@Override
+		public void update(String key, int value, long valueVersion) throws RemoteException {
+			applyValue(key, value, valueVersion);
+		}
+
+		@Override
+		public long[] probe() throws RemoteException {
+			synchronized (lock) {
+				return new long[]{epoch, hasToken || sendingToken ? 1 : 0};
+			}
+		}
+
+		@Override
+		public boolean fence(long newEpoch, int remoteIndex) throws RemoteException {
+			synchronized (lock) {
+				if (newEpoch <= epoch) {
+					// Une régénération au moins aussi récente est en cours
+					return true;
+				}
+				if (hasToken || sendingToken) {
+					// Le jeton n'est pas perdu. On garde sa génération : un
+					// jeton en transit doit rester acceptable jusqu'à ce que son
+					// destinataire le refuse
+					return true;
+				}
+				epoch = newEpoch;
+			}
+			if (remoteIndex == hostIndex) {
+				return false;
+			}
+
+			// Le jeton pourra être recréé par l'appelant : il doit partir de nos
+			// valeurs, dont celles d'un jeton que l'on vient de transmettre et
+			// qui sera ignoré à son arrivée
+			Map<String, VersionedValue> values = snapshot();
+			for (Map.Entry<String, VersionedValue> entry : values.entrySet()) {
+				pushValue(remoteIndex, entry.getKey(), entry.getValue().value, entry.getValue().version);
+			}
+			return false;
+		}
+	}
+
+	// ------------ METHODES UTILITAIRES PRIVEES ------------
+	/**
+	 * Attente du jeton. Si on le possède déjà, on entre directement en section
+	 * critique sans envoyer de message.
+	 */
+	@Override
+	protected void waitForCS(String key) {
+		long requestNumber;
+		synchronized (lock) {
+			requesting = true;
+			if (hasToken) {
+				return;
+			}
+			requestNumber = ++requestNumbers[hostIndex];
+		}
+
+		broadcastRequest(requestNumber);
+
+		try {
+			while (true) {
+				synchronized (lock) {
+					long deadline = System.currentTimeMillis() + TOKEN_TIMEOUT;
+					long remaining;
+					while (!hasToken && (remaining = deadline - System.currentTimeMillis()) > 0) {
+						lock.wait(remaining);
+					}
+
+					if (hasToken) {
+						return;
+					}
+				}
+
+				// Le jeton n'est pas arrivé à temps
+				recoverToken(requestNumber);
+			}
+		} catch (InterruptedException ex) {
+			Logger.getLogger(SuzukiKasamiManager.class.getName()).log(Level.SEVERE, null, ex);
+		}
+	}
+
+	/**
+	 * Libération de la section critique : notre requête est satisfaite, on
+	 * ajoute à la file les sites en attente et on transmet le jeton au premier
+	 * d'entre eux. Si personne n'attend, on garde le jeton.
+	 */
+	@Override
+	protected void releaseCS(String key) {
+		synchronized (lock) {
+			requesting = false;
+			lastRequests[hostIndex] = requestNumbers[hostIndex];
+		}
+
+		passTokenIfRequested();
+
+		// Propagation asynchrone de la nouvelle valeur
+		scheduleReplication(key);
+	}
+
+	/**
+	 * Si on possède le jeton sans être en section critique, on met à jour la
+	 * file des sites en attente et on transmet le jeton au premier d'entre
+	 * eux.
+	 */
+	private void passTokenIfRequested() {
+		int next;
+		long tokenEpoch;
+		long[] tokenLastRequests;
+		int[] tokenQueue;
+
+		synchronized (lock) {
+			if (!hasToken || requesting) {
+				return;
+			}
+
+			// On parcourt les sites à partir du suivant, pour l'équité
+			for (int k = 1; k < nbSites; k++) {
+				int j = (hostIndex + k) % nbSites;
+				if (requestNumbers[j] == lastRequests[j] + 1 && !queue.contains(j)) {
+					queue.add(j);
+				}
+			}
+
+			if (queue.isEmpty()) {
+				return;
+			}
+
+			next = queue.poll();
+			hasToken = false;
+			sendingToken = true;
+			tokenEpoch = epoch;
+			tokenLastRequests = lastRequests.clone();
+			tokenQueue = queue.stream().mapToInt(Integer::intValue).toArray();
+			queue.clear();
+		}
+
+		// Le jeton transporte toutes les variables. Aucune écriture n'est en
+		// cours, le jeton ayant été rendu
+		Map<String, VersionedValue> values = snapshot();
+		String[] keys = values.keySet().toArray(new String[0]);
+		int[] tokenValues = new int[keys.length];
+		long[] tokenVersions = new long[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			tokenValues[i] = values.get(keys[i]).value;
+			tokenVersions[i] = values.get(keys[i]).version;
+		}
+
+		try {
+			messagesSent.incrementAndGet();
+			long receiverEpoch = servers[next].token(tokenEpoch, tokenLastRequests, tokenQueue, keys, tokenValues, tokenVersions);
+			if (receiverEpoch == tokenEpoch) {
+				synchronized (lock) {
+					sendingToken = false;
+				}
+				return;
+			}
+
+			// Refusé : le destinataire est passé à une génération plus
+			// récente, sans que le jeton soit régénéré puisqu'on le
+			// transmettait. On le reprend sous cette génération, puis on le
+			// retransmet : la requête du destinataire est toujours en attente
+			System.out.println("\t[" + hostIndex + "] Token refused by site " + next + ", epoch " + receiverEpoch);
+			synchronized (lock) {
+				sendingToken = false;
+				epoch = Math.max(epoch, receiverEpoch);
+				hasToken = true;
+				lastRequests = tokenLastRequests;
+				queue.add(next);
+				for (int site : tokenQueue) {
+					queue.add(site);
+				}
+				if (requesting) {
+					lock.notifyAll();
+					return;
+				}
+			}
+			passTokenIfRequested();
+		} catch (RemoteException ex) {
+			Logger.getLogger(SuzukiKasamiManager.class.getName()).log(Level.WARNING,
+					"Site " + next + " unreachable, keeping the token", ex);
+
+			// Le site est injoignable : on reprend le jeton et on considère sa
+			// requête comme satisfaite afin de ne pas la lui renvoyer en boucle.
+			// Notre génération n'a pas changé pendant l'envoi (voir fence()),
+			// sauf si un jeton plus récent nous est parvenu : le nôtre est
+			// alors dépassé
+			synchronized (lock) {
+				sendingToken = false;
+				if (tokenEpoch == epoch) {
+					hasToken = true;
+					lastRequests = tokenLastRequests;
+					lastRequests[next] = requestNumbers[next];
+					for (int site : tokenQueue) {
+						queue.add(site);
+					}
+					if (requesting) {
+						lock.notifyAll();
+						return;
+					}
+				}
+			}
+			passTokenIfRequested();
+		}
+	}
+
+	/**
+	 * Diffuse notre requête à tous les autres sites. Comme pour Lamport, un
+	 * thread est créé par envoi afin de ne pas attendre un site lent.
+	 *
+	 * @param requestNumber le numéro de notre requête
+	 */
+	private void broadcastRequest(final long requestNumber) {
+		for (int i = 0; i < nbSites; i++) {
+			if (i == hostIndex) {
+				continue;
+			}
+
+			final int index = i;
+			new Thread(() -> {
+				try {
+					messagesSent.incrementAndGet();
+					servers[index].request(hostIndex, requestNumber);
+				} catch (RemoteException ex) {
+					Logger.getLogger(SuzukiKasamiManager.class.getName()).log(Level.WARNING,
+							"Could not send request to site " + index, ex);
+				}
+			}).start();
+		}
+	}
+
+	/**
+	 * Appelé lorsque le jeton n'est pas arrivé dans les temps. On interroge
+	 * tous les sites : si l'un d'eux possède ou transmet le jeton, on lui
+	 * renvoie notre requête. Sinon, le jeton a peut-être été perdu, avec un
+	 * site injoignable ou en chemin : on fait passer tous les sites joignables
+	 * à une nouvelle génération, puis on recrée le jeton si aucun d'eux ne le
+	 * possède ni ne le transmet.
+	 *
+	 * @param requestNumber le numéro de notre requête en attente
+	 */
+	private void recoverToken(long requestNumber) {
+		System.out.println("\t[" + hostIndex + "] Token timeout, probing sites");
+
+		boolean[] alive = new boolean[nbSites];
+		alive[hostIndex] = true;
+		boolean holderAlive = false;
+
+		long maxEpoch;
+		synchronized (lock) {
+			maxEpoch = epoch;
+		}
+
+		for (int i = 0; i < nbSites; i++) {
+			if (i == hostIndex) {
+				continue;
+			}
+			try {
+				messagesSent.incrementAndGet();
+				long[] state = servers[i].probe();
+				alive[i] = true;
+				maxEpoch = Math.max(maxEpoch, state[0]);
+				holderAlive |= state[1] == 1;
+			} catch (RemoteException ex) {
+				// Considéré en panne, avec le jeton qu'il possède peut-être
+			}
+		}
+
+		if (holderAlive) {
+			// Le détenteur est vivant, notre requête s'est peut-être perdue
+			broadcastRequest(requestNumber);
+			return;
+		}
+
+		// Plus petite génération propre à ce site et plus récente que toutes
+		// celles connues
+		long newEpoch = (maxEpoch / nbSites + 1) * nbSites + hostIndex;
+
+		// Une fois tous les sites joignables passés à la nouvelle génération,
+		// un jeton en transit ne peut plus être accepté : s'il n'est pas déjà
+		// arrivé chez l'un d'eux, ni en train d'être transmis par l'un d'eux,
+		// il est perdu. Même si tous répondent : le jeton a pu se perdre avec un
+		// site redémarré depuis
+		boolean aborted = false;
+		for (int i = 0; i < nbSites; i++) {
+			if (!alive[i]) {
+				continue;
+			}
+			try {
+				if (i == hostIndex) {
+					aborted |= localServer.fence(newEpoch, hostIndex);
+				} else {
+					messagesSent.incrementAndGet();
+					aborted |= servers[i].fence(newEpoch, hostIndex);
+				}
+			} catch (RemoteException ex) {
+				// Injoignable depuis la sonde : on le considère en panne, avec
+				// le jeton qu'il possède peut-être
+				Logger.getLogger(SuzukiKasamiManager.class.getName()).log(Level.WARNING, null, ex);
+			}
+		}
+
+		if (aborted) {
+			// Le jeton est encore possédé ou transmis par un site, ou un autre
+			// site le régénère : notre requête doit leur parvenir
+			System.out.println("\t[" + hostIndex + "] Token still held or being regenerated, epoch " + newEpoch);
+			broadcastRequest(requestNumber);
+			return;
+		}
+
+		regenerate(newEpoch);
+	}
+
+	/**
+	 * Recrée le jeton perdu, sous la génération 'newEpoch' à laquelle tous les
+	 * sites joignables sont passés sans le posséder. Rien n'est fait si une
+	 * génération plus récente a été adoptée depuis.
+	 *
+	 * @param newEpoch la génération du nouveau jeton
+	 */
+	private void regenerate(long newEpoch) {
+		synchronized (lock) {
+			if (epoch != newEpoch || hasToken) {
+				return;
+			}
+
+			System.out.println("\t[" + hostIndex + "] Regenerating token, epoch " + epoch);
+
+			// On ne connait pas l'état du jeton perdu : toute dernière requête
+			// connue est considérée en attente. Un site n'attendant plus le
+			// jeton le transmettra simplement au suivant
+			hasToken = true;
+			queue.clear();
+			lastRequests = new long[nbSites];
+			for (int i = 0; i < nbSites; i++) {
+				lastRequests[i] = Math.max(0, requestNumbers[i] - 1);
+			}
+			lastRequests[hostIndex] = requestNumbers[hostIndex];
+
+			if (requesting) {
+				lock.notifyAll();
+				return;
+			}
+		}
+
+		passTokenIfRequested();
+	}
+
+	@Override
+	protected void pushValue(int site, String key, int value, long valueVersion) throws RemoteException {
+		updatesSent.incrementAndGet();
+		servers[site].update(key, value, valueVersion);
+	}
+}
@@ -0,0 +1,36 @@
+package ch.heigvd.lamportmanager;
+
+/**
+ * Contenu binaire d'une variable partagée (tableau d'octets, enregistrement
+ * sérialisé...) accompagné de sa version, comme VersionedValue pour les
+ * entiers.
+ *
+ * Les instances sont immuables : le tableau n'est jamais modifié une fois
+ * stocké, et une écriture remplace l'instance stockée.
+ *
+ * @author Miguel Pombo Dias
+ * @author Rémi Jacquemard
+ */
+final class VersionedPayload {
+
+	/**
+	 * Contenu d'une variable jamais écrite
+	 */
+	static final VersionedPayload INITIAL = new VersionedPayload(new byte[0], 0);
+
+	final byte[] value;
+	final long version;
+
+	VersionedPayload(byte[] value, long version) {
+		this.value = value;
+		this.version = version;
+	}
+
+	/**
+	 * @param other un autre contenu de la même variable
+	 * @return le plus récent des deux contenus
+	 */
+	VersionedPayload newest(VersionedPayload other) {
+		return other.version > version ? other : this;
+	}
+}
@@ -0,0 +1,35 @@
+package ch.heigvd.lamportmanager;
+
+/**
+ * Valeur d'une variable partagée accompagnée de sa version. La version est
+ * incrémentée à chaque écriture de la variable, ce qui permet de savoir
+ * laquelle de deux valeurs reçues est la plus récente.
+ *
+ * Les instances sont immuables : une écriture remplace l'instance stockée.
+ *
+ * @author Miguel Pombo Dias
+ * @author Rémi Jacquemard
+ */
+final class VersionedValue {
+
+	/**
+	 * Valeur d'une variable jamais écrite
+	 */
+	static final VersionedValue INITIAL = new VersionedValue(0, 0);
+
+	final int value;
+	final long version;
+
+	VersionedValue(int value, long version) {
+		this.value = value;
+		this.version = version;
+	}
+
+	/**
+	 * @param other une autre valeur de la même variable
+	 * @return la plus récente des deux valeurs
+	 */
+	VersionedValue newest(VersionedValue other) {
+		return other.version > version ? other : this;
+	}
+}
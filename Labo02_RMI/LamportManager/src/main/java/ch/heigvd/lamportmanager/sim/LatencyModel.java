@@ -0,0 +1,59 @@
+package ch.heigvd.lamportmanager.sim;
+
+import java.util.Random;
+
+/**
+ * Distribution de la latence d'un message du réseau simulé
+ *
+ * @author Miguel Pombo Dias
+ * @author Rémi Jacquemard
+ */
+@FunctionalInterface
+public interface LatencyModel {
+
+	/**
+	 * Tire la latence d'un message
+	 *
+	 * @param random la source de hasard de la simulation
+	 * @return la latence en microsecondes, positive ou nulle
+	 */
+	public long sample(Random random);
+
+	/**
+	 * @param micros la latence de chaque message
+	 * @return une latence constante
+	 */
+	public static LatencyModel constant(long micros) {
+		return (random) -> micros;
+	}
+
+	/**
+	 * @param minMicros la latence minimale
+	 * @param maxMicros la latence maximale
+	 * @return une latence uniformément répartie entre les deux bornes
+	 */
+	public static LatencyModel uniform(long minMicros, long maxMicros) {
+		return (random) -> minMicros + (long) (random.nextDouble() * (maxMicros - minMicros));
+	}
+
+	/**
+	 * @param minMicros la latence minimale, celle de la propagation
+	 * @param meanExtraMicros la moyenne de l'attente ajoutée, par exemple dans
+	 * les files des routeurs
+	 * @return une latence minimale suivie d'une attente exponentielle
+	 */
+	public static LatencyModel exponential(long minMicros, long meanExtraMicros) {
+		return (random) -> minMicros + (long) (-Math.log(1 - random.nextDouble()) * meanExtraMicros);
+	}
+
+	/**
+	 * @param medianMicros la latence médiane
+	 * @param sigma l'écart type du logarithme de la latence : 0.5 donne
+	 * environ un message sur cent 3 fois plus lent que la médiane
+	 * @return une latence log-normale, à longue traîne comme celle des
+	 * réseaux réels
+	 */
+	public static LatencyModel logNormal(long medianMicros, double sigma) {
+		return (random) -> (long) (medianMicros * Math.exp(sigma * random.nextGaussian()));
+	}
+}
@@ -0,0 +1,202 @@
+package ch.heigvd.lamportmanager.sim;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Réseau simulé entre les sites d'une même JVM, à la place d'un Transport :
+ * chaque site exporte son serveur d'algorithme (ILamportAlgorithm, ...) sous
+ * son index, et un appel est livré au serveur destinataire par le
+ * Simulator, après une latence tirée du LatencyModel. La valeur retournée
+ * revient à l'appelant de la même façon, par un second message. Les
+ * latences étant tirées indépendamment, les messages ne sont pas livrés
+ * dans l'ordre d'envoi, comme avec RMI. Un appel sans valeur retournée
+ * peut être acquitté, comme le retour d'un appel RMI : l'acquittement est
+ * transmis de la même façon, mais n'est pas compté comme un message.
+ *
+ * Pertes : chaque transmission est perdue avec une probabilité donnée, puis
+ * retransmise après un délai, comme le ferait TCP sous RMI. Une perte
+ * retarde ainsi le message sans le supprimer.
+ *
+ * Aucun thread n'est créé : les appels sont exécutés par le thread du
+ * Simulator, un message à la fois.
+ *
+ * @param <T> l'interface distante des serveurs
+ *
+ * @author Miguel Pombo Dias
+ * @author Rémi Jacquemard
+ */
+public class SimulatedNetwork<T extends Remote> {
+
+	/**
+	 * Un appel d'une méthode du serveur distant
+	 *
+	 * @param <T> l'interface distante des serveurs
+	 * @param <R> le type retourné par la méthode
+	 */
+	@FunctionalInterface
+	public interface Call<T, R> {
+
+		R invoke(T server) throws RemoteException;
+	}
+
+	/**
+	 * Le délai de retransmission d'un message perdu par défaut, en
+	 * microsecondes : le délai minimal de retransmission de TCP
+	 */
+	public static final long DEFAULT_RETRANSMIT_MICROS = 200_000;
+
+	private final Simulator simulator;
+
+	/**
+	 * Les serveurs exportés, par index de site
+	 */
+	private final Remote[] servers;
+
+	private LatencyModel latency = LatencyModel.constant(0);
+
+	private double lossRate = 0;
+
+	private long retransmitMicros = DEFAULT_RETRANSMIT_MICROS;
+
+	private long messagesSent = 0;
+
+	private long messagesLost = 0;
+
+	private long acknowledgements = 0;
+
+	/**
+	 * @param simulator l'ordonnanceur livrant les messages
+	 * @param nbSites le nombre de sites du réseau
+	 */
+	public SimulatedNetwork(Simulator simulator, int nbSites) {
+		this.simulator = simulator;
+		this.servers = new Remote[nbSites];
+	}
+
+	/**
+	 * @param latency la distribution de la latence des messages
+	 */
+	public void setLatency(LatencyModel latency) {
+		this.latency = latency;
+	}
+
+	/**
+	 * @param lossRate la probabilité de perte de chaque transmission
+	 * @param retransmitMicros le délai avant la retransmission d'un message
+	 * perdu
+	 */
+	public void setLoss(double lossRate, long retransmitMicros) {
+		this.lossRate = lossRate;
+		this.retransmitMicros = retransmitMicros;
+	}
+
+	/**
+	 * Rend le serveur d'un site accessible aux autres
+	 *
+	 * @param site l'index du site
+	 * @param server son serveur d'algorithme
+	 */
+	public void export(int site, T server) {
+		servers[site] = server;
+	}
+
+	/**
+	 * Appelle une méthode du serveur d'un site, et transmet sa valeur
+	 * retournée à 'reply'. Une méthode levant une exception ne répond pas.
+	 *
+	 * @param <R> le type retourné par la méthode
+	 * @param site l'index du site appelé
+	 * @param call l'appel à exécuter sur son serveur
+	 * @param reply appelé avec la valeur retournée, à son arrivée chez
+	 * l'appelant
+	 */
+	public <R> void call(int site, Call<T, R> call, Consumer<R> reply) {
+		invoke(site, call, (result) -> transmit(() -> reply.accept(result), true));
+	}
+
+	/**
+	 * Appelle une méthode du serveur d'un site sans attendre de réponse
+	 *
+	 * @param site l'index du site appelé
+	 * @param call l'appel à exécuter sur son serveur
+	 */
+	public void send(int site, Call<T, ?> call) {
+		invoke(site, call, (result) -> {
+		});
+	}
+
+	/**
+	 * Appelle une méthode du serveur d'un site, et prévient l'appelant une
+	 * fois l'appel exécuté, par un acquittement
+	 *
+	 * @param site l'index du site appelé
+	 * @param call l'appel à exécuter sur son serveur
+	 * @param acknowledged appelé à l'arrivée de l'acquittement chez
+	 * l'appelant
+	 */
+	public void send(int site, Call<T, ?> call, Runnable acknowledged) {
+		invoke(site, call, (result) -> transmit(acknowledged, false));
+	}
+
+	/**
+	 * @return le nombre de messages envoyés, réponses comprises et
+	 * retransmissions non comprises
+	 */
+	public long getMessagesSent() {
+		return messagesSent;
+	}
+
+	/**
+	 * @return le nombre de transmissions perdues puis retransmises
+	 */
+	public long getMessagesLost() {
+		return messagesLost;
+	}
+
+	/**
+	 * @return le nombre d'acquittements d'appels sans valeur retournée
+	 */
+	public long getAcknowledgements() {
+		return acknowledgements;
+	}
+
+	/**
+	 * Transmet un appel, puis passe sa valeur retournée à 'done' sur le
+	 * site appelé
+	 */
+	@SuppressWarnings("unchecked")
+	private <R> void invoke(int site, Call<T, R> call, Consumer<R> done) {
+		transmit(() -> {
+			R result;
+			try {
+				result = call.invoke((T) servers[site]);
+			} catch (RemoteException ex) {
+				Logger.getLogger(SimulatedNetwork.class.getName()).log(Level.WARNING, "Call to site " + site + " failed", ex);
+				return;
+			}
+			done.accept(result);
+		}, true);
+	}
+
+	/**
+	 * Planifie l'arrivée d'un message ou d'un acquittement, après ses
+	 * éventuelles pertes
+	 */
+	private void transmit(Runnable delivery, boolean message) {
+		if (message) {
+			messagesSent++;
+		} else {
+			acknowledgements++;
+		}
+		long delay = 0;
+		while (lossRate > 0 && simulator.random().nextDouble() < lossRate) {
+			messagesLost++;
+			delay += retransmitMicros;
+		}
+		simulator.schedule(delay + Math.max(0, latency.sample(simulator.random())), delivery);
+	}
+}
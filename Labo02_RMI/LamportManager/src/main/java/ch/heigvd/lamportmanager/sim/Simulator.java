@@ -0,0 +1,125 @@
+package ch.heigvd.lamportmanager.sim;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Ordonnanceur à événements discrets : les événements sont exécutés un par
+ * un, sur le thread appelant run(), dans l'ordre de leur date virtuelle en
+ * microsecondes. Le temps virtuel saute directement d'un événement au
+ * suivant : une simulation de plusieurs minutes de temps virtuel ne dure que
+ * le temps de traiter ses événements.
+ *
+ * Deux événements de même date sont exécutés dans l'ordre où ils ont été
+ * planifiés, et tout le hasard de la simulation provient de random() : une
+ * simulation lancée avec la même graine se déroule toujours de la même
+ * façon.
+ *
+ * @author Miguel Pombo Dias
+ * @author Rémi Jacquemard
+ */
+public class Simulator {
+
+	private static final class Event implements Comparable<Event> {
+
+		private final long time;
+		private final long sequence;
+		private final Runnable action;
+
+		private Event(long time, long sequence, Runnable action) {
+			this.time = time;
+			this.sequence = sequence;
+			this.action = action;
+		}
+
+		@Override
+		public int compareTo(Event other) {
+			int byTime = Long.compare(time, other.time);
+			return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+		}
+	}
+
+	private final PriorityQueue<Event> events = new PriorityQueue<>();
+
+	private final Random random;
+
+	/**
+	 * Le temps virtuel courant, en microsecondes
+	 */
+	private long now = 0;
+
+	/**
+	 * Le nombre d'événements planifiés, qui départage ceux de même date
+	 */
+	private long sequence = 0;
+
+	private long processed = 0;
+
+	/**
+	 * @param seed la graine de tout le hasard de la simulation
+	 */
+	public Simulator(long seed) {
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * @return le temps virtuel courant, en microsecondes
+	 */
+	public long now() {
+		return now;
+	}
+
+	/**
+	 * @return la source de hasard de la simulation, à utiliser uniquement
+	 * depuis les événements
+	 */
+	public Random random() {
+		return random;
+	}
+
+	/**
+	 * Planifie un événement
+	 *
+	 * @param delayMicros le délai avant son exécution, en microsecondes de
+	 * temps virtuel
+	 * @param action l'événement
+	 */
+	public void schedule(long delayMicros, Runnable action) {
+		if (delayMicros < 0) {
+			throw new IllegalArgumentException("Negative delay " + delayMicros);
+		}
+		events.add(new Event(now + delayMicros, sequence++, action));
+	}
+
+	/**
+	 * Exécute les événements jusqu'à ce qu'il n'y en ait plus
+	 *
+	 * @return le temps virtuel à la fin de la simulation
+	 */
+	public long run() {
+		return runUntil(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Exécute les événements dont la date ne dépasse pas 'time'
+	 *
+	 * @param time la date virtuelle de fin, en microsecondes
+	 * @return le temps virtuel atteint
+	 */
+	public long runUntil(long time) {
+		while (!events.isEmpty() && events.peek().time <= time) {
+			Event event = events.poll();
+			now = event.time;
+			processed++;
+			event.action.run();
+		}
+		return now;
+	}
+
+	/**
+	 * @return le nombre d'événements exécutés depuis le début
+	 */
+	public long getEventsProcessed() {
+		return processed;
+	}
+}
@@ -0,0 +1,155 @@
+package ch.heigvd.lamportmanager.stats;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Mesures de l'exclusion mutuelle d'un site Lamport, afin de savoir si une
+ * écriture lente attend les quittances, la file, ou la diffusion des
+ * libérations. L'enregistrement d'une mesure ne coûte que quelques opérations
+ * atomiques, sans verrou ni allocation.
+ *
+ * Les mesures sont publiées via JMX une fois register() appelé.
+ *
+ * @author Miguel Pombo Dias
+ * @author Rémi Jacquemard
+ */
+public class LamportStats implements LamportStatsMXBean {
+
+	private final LatencyHistogram requestRoundTrip = new LatencyHistogram();
+	private final LatencyHistogram queueWait = new LatencyHistogram();
+	private final LatencyHistogram criticalSection = new LatencyHistogram();
+	private final LatencyHistogram freeFanOut = new LatencyHistogram();
+
+	/**
+	 * Par site, le nombre de requêtes dont il a envoyé la dernière quittance
+	 */
+	private final AtomicLongArray slowestResponder;
+
+	/**
+	 * Le nom sous lequel les mesures sont publiées, null si elles ne le sont
+	 * pas
+	 */
+	private ObjectName name;
+
+	/**
+	 * @param nbSites le nombre de site total
+	 */
+	public LamportStats(int nbSites) {
+		this.slowestResponder = new AtomicLongArray(nbSites);
+	}
+
+	// ------------ ENREGISTREMENT ------------
+	/**
+	 * Enregistre la réception de la dernière quittance d'une requête
+	 *
+	 * @param site le site ayant quittancé en dernier
+	 * @param nanos la durée depuis l'envoi des requêtes
+	 */
+	public void requestAcknowledged(int site, long nanos) {
+		requestRoundTrip.record(nanos);
+		slowestResponder.incrementAndGet(site);
+	}
+
+	/**
+	 * @param nanos la durée d'attente de la section critique, une fois les
+	 * quittances reçues
+	 */
+	public void queueWaited(long nanos) {
+		queueWait.record(nanos);
+	}
+
+	/**
+	 * @param nanos la durée passée en section critique
+	 */
+	public void criticalSectionLeft(long nanos) {
+		criticalSection.record(nanos);
+	}
+
+	/**
+	 * @param nanos la durée d'envoi des libérations à tous les sites
+	 */
+	public void freeSent(long nanos) {
+		freeFanOut.record(nanos);
+	}
+
+	// ------------ JMX ------------
+	@Override
+	public LamportStatsSnapshot getSnapshot() {
+		long[] slowest = new long[slowestResponder.length()];
+		for (int i = 0; i < slowest.length; i++) {
+			slowest[i] = slowestResponder.get(i);
+		}
+		return new LamportStatsSnapshot(requestRoundTrip.summary(), queueWait.summary(),
+				criticalSection.summary(), freeFanOut.summary(), slowest);
+	}
+
+	@Override
+	public void reset() {
+		requestRoundTrip.reset();
+		queueWait.reset();
+		criticalSection.reset();
+		freeFanOut.reset();
+		for (int i = 0; i < slowestResponder.length(); i++) {
+			slowestResponder.set(i, 0);
+		}
+	}
+
+	@Override
+	public LamportStatsSnapshot snapshotAndReset() {
+		LamportStatsSnapshot snapshot = getSnapshot();
+		reset();
+		return snapshot;
+	}
+
+	/**
+	 * Publie les mesures sur le serveur JMX de la plateforme. Le port
+	 * distingue les sites lancés dans une même JVM
+	 *
+	 * @param hostIndex l'index du site
+	 * @param port le port du site
+	 */
+	public synchronized void register(int hostIndex, String port) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			name = objectName(hostIndex, port);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(this, name);
+		} catch (JMException ex) {
+			name = null;
+			Logger.getLogger(LamportStats.class.getName()).log(Level.WARNING, null, ex);
+		}
+	}
+
+	/**
+	 * Retire les mesures du serveur JMX, si elles y ont été publiées
+	 */
+	public synchronized void unregister() {
+		if (name == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException ex) {
+			Logger.getLogger(LamportStats.class.getName()).log(Level.WARNING, null, ex);
+		}
+		name = null;
+	}
+
+	/**
+	 * @param hostIndex l'index du site
+	 * @param port le port du site
+	 * @return le nom JMX des mesures de ce site
+	 * @throws JMException si le nom est mal formé
+	 */
+	public static ObjectName objectName(int hostIndex, String port) throws JMException {
+		return new ObjectName("ch.heigvd.lamportmanager:type=LamportManager,site=" + hostIndex + ",port=" + port);
+	}
+}
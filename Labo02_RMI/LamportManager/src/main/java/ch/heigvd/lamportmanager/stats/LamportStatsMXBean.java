@@ -0,0 +1,30 @@
+package ch.heigvd.lamportmanager.stats;
+
+/**
+ * Interface JMX des mesures de l'exclusion mutuelle d'un site Lamport, sous
+ * le nom ch.heigvd.lamportmanager:type=LamportManager,site=i,port=p.
+ *
+ * @author Miguel Pombo Dias
+ * @author Rémi Jacquemard
+ */
+public interface LamportStatsMXBean {
+
+	/**
+	 * @return un instantané de toutes les mesures depuis la dernière remise à
+	 * zéro
+	 */
+	public LamportStatsSnapshot getSnapshot();
+
+	/**
+	 * Remet toutes les mesures à zéro
+	 */
+	public void reset();
+
+	/**
+	 * Prend un instantané puis remet les mesures à zéro, afin de mesurer des
+	 * intervalles successifs
+	 *
+	 * @return l'instantané
+	 */
+	public LamportStatsSnapshot snapshotAndReset();
+}
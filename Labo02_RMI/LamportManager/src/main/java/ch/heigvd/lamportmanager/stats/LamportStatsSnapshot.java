@@ -0,0 +1,66 @@
+package ch.heigvd.lamportmanager.stats;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Instantané des mesures d'un site Lamport. Les durées d'une écriture se
+ * décomposent en :
+ *
+ * - requestRoundTrip : de l'envoi des requêtes à la dernière quittance
+ * - queueWait : l'attente de la section critique, une fois les quittances
+ *   reçues, tant qu'un site nous précède dans la file
+ * - criticalSection : l'écriture elle-même
+ * - freeFanOut : l'envoi des libérations à tous les sites
+ *
+ * slowestResponder[i] compte les requêtes dont le site i a envoyé la
+ * dernière quittance.
+ *
+ * @author Miguel Pombo Dias
+ * @author Rémi Jacquemard
+ */
+public class LamportStatsSnapshot {
+
+	private final LatencySummary requestRoundTrip;
+	private final LatencySummary queueWait;
+	private final LatencySummary criticalSection;
+	private final LatencySummary freeFanOut;
+	private final long[] slowestResponder;
+
+	/**
+	 * @param requestRoundTrip de l'envoi des requêtes à la dernière quittance
+	 * @param queueWait l'attente de la section critique
+	 * @param criticalSection la durée passée en section critique
+	 * @param freeFanOut l'envoi des libérations
+	 * @param slowestResponder par site, le nombre de fois qu'il a quittancé
+	 * en dernier
+	 */
+	@ConstructorProperties({"requestRoundTrip", "queueWait", "criticalSection", "freeFanOut", "slowestResponder"})
+	public LamportStatsSnapshot(LatencySummary requestRoundTrip, LatencySummary queueWait, LatencySummary criticalSection,
+			LatencySummary freeFanOut, long[] slowestResponder) {
+		this.requestRoundTrip = requestRoundTrip;
+		this.queueWait = queueWait;
+		this.criticalSection = criticalSection;
+		this.freeFanOut = freeFanOut;
+		this.slowestResponder = slowestResponder;
+	}
+
+	public LatencySummary getRequestRoundTrip() {
+		return requestRoundTrip;
+	}
+
+	public LatencySummary getQueueWait() {
+		return queueWait;
+	}
+
+	public LatencySummary getCriticalSection() {
+		return criticalSection;
+	}
+
+	public LatencySummary getFreeFanOut() {
+		return freeFanOut;
+	}
+
+	public long[] getSlowestResponder() {
+		return slowestResponder.clone();
+	}
+}
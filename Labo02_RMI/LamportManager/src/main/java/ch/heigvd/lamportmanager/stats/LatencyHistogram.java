@@ -0,0 +1,115 @@
+package ch.heigvd.lamportmanager.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogramme de durées, en nanosecondes, sans verrou ni allocation à
+ * l'enregistrement. Les durées sont rangées dans des cases logarithmiques :
+ * 8 cases par puissance de 2, soit une erreur d'au plus 12.5% sur les
+ * percentiles, pour une taille fixe de quelques kilo-octets.
+ *
+ * @author Miguel Pombo Dias
+ * @author Rémi Jacquemard
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Nombre de bits de la mantisse : 2^SUB_BITS cases par puissance de 2
+	 */
+	private static final int SUB_BITS = 3;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+
+	/**
+	 * Nombre de cases, suffisant pour toute durée positive d'un long
+	 */
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Enregistre une durée
+	 *
+	 * @param nanos la durée en nanosecondes. Une durée négative compte pour 0
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		buckets.incrementAndGet(indexOf(value));
+		sum.addAndGet(value);
+		max.accumulateAndGet(value, Math::max);
+	}
+
+	/**
+	 * Calcule le résumé des durées enregistrées. Les enregistrements
+	 * concurrents peuvent ne pas y figurer
+	 *
+	 * @return le résumé, en microsecondes
+	 */
+	public LatencySummary summary() {
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		long maximum = max.get();
+
+		return new LatencySummary(total,
+				total == 0 ? 0 : sum.get() / 1e3 / total,
+				percentile(counts, total, 0.50, maximum) / 1e3,
+				percentile(counts, total, 0.99, maximum) / 1e3,
+				percentile(counts, total, 0.999, maximum) / 1e3,
+				maximum / 1e3);
+	}
+
+	/**
+	 * Remet l'histogramme à zéro
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets.set(i, 0);
+		}
+		sum.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * @return la borne supérieure de la case contenant le percentile p, sans
+	 * dépasser la plus grande durée enregistrée
+	 */
+	private static long percentile(long[] counts, long total, double p, long maximum) {
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(p * total));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(upperBound(i), maximum);
+			}
+		}
+		return maximum;
+	}
+
+	// ------------ CODAGE DES CASES ------------
+	static int indexOf(long value) {
+		if (value < SUB_COUNT) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BITS;
+		return (shift + 1) * SUB_COUNT + (int) ((value >>> shift) & (SUB_COUNT - 1));
+	}
+
+	static long upperBound(int index) {
+		if (index < SUB_COUNT) {
+			return index;
+		}
+		int shift = index / SUB_COUNT - 1;
+		long lower = (long) (SUB_COUNT + index % SUB_COUNT) << shift;
+		return lower + (1L << shift) - 1;
+	}
+}
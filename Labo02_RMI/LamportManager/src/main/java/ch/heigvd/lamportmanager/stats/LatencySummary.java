@@ -0,0 +1,68 @@
+package ch.heigvd.lamportmanager.stats;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Résumé d'un histogramme de durées à un instant donné. Les durées sont en
+ * microsecondes. Exposé via JMX comme donnée composite.
+ *
+ * @author Miguel Pombo Dias
+ * @author Rémi Jacquemard
+ */
+public class LatencySummary {
+
+	private final long count;
+	private final double meanMicros;
+	private final double p50Micros;
+	private final double p99Micros;
+	private final double p999Micros;
+	private final double maxMicros;
+
+	/**
+	 * @param count le nombre de durées enregistrées
+	 * @param meanMicros la durée moyenne
+	 * @param p50Micros la médiane
+	 * @param p99Micros le 99ème percentile
+	 * @param p999Micros le 99.9ème percentile
+	 * @param maxMicros la plus grande durée
+	 */
+	@ConstructorProperties({"count", "meanMicros", "p50Micros", "p99Micros", "p999Micros", "maxMicros"})
+	public LatencySummary(long count, double meanMicros, double p50Micros, double p99Micros, double p999Micros, double maxMicros) {
+		this.count = count;
+		this.meanMicros = meanMicros;
+		this.p50Micros = p50Micros;
+		this.p99Micros = p99Micros;
+		this.p999Micros = p999Micros;
+		this.maxMicros = maxMicros;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMeanMicros() {
+		return meanMicros;
+	}
+
+	public double getP50Micros() {
+		return p50Micros;
+	}
+
+	public double getP99Micros() {
+		return p99Micros;
+	}
+
+	public double getP999Micros() {
+		return p999Micros;
+	}
+
+	public double getMaxMicros() {
+		return maxMicros;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("n=%d mean=%.1fus p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+				count, meanMicros, p50Micros, p99Micros, p999Micros, maxMicros);
+	}
+}
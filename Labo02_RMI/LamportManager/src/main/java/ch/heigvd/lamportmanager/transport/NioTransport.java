@@ -0,0 +1,778 @@
+package ch.heigvd.lamportmanager.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.rmi.ConnectException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Transport utilisant un protocole binaire compact sur des connexions TCP
+ * persistantes et non bloquantes, à la place de RMI.
+ *
+ * Chaque site écoute sur le port de son registre RMI + PORT_OFFSET. Une seule
+ * connexion est ouverte vers chaque site distant, et tous les appels vers ce
+ * site y sont multiplexés : chaque appel porte un identifiant de corrélation
+ * repris par sa réponse, plusieurs appels pouvant être en cours en même temps.
+ *
+ * Format d'une trame (big-endian) :
+ *    int    longueur de la suite de la trame
+ *    long   identifiant de corrélation
+ *    byte   type : CALL, REPLY ou ERROR
+ * suivi pour un CALL de :
+ *    int    identifiant de l'objet (hashCode de son nom)
+ *    short  index de la méthode dans l'interface
+ *    ...    les arguments
+ * pour un REPLY de la valeur retournée, et pour un ERROR du message d'erreur.
+ *
+ * Les valeurs sont codées selon le type déclaré dans l'interface, sans
+ * étiquette : int, long et boolean directement, String et tableaux précédés
+ * de leur longueur (-1 pour null). Seuls ces types sont supportés, ce qui
+ * suffit aux interfaces des algorithmes.
+ *
+ * Une trame plus longue que MAX_FRAME_LENGTH, d'un type inconnu ou dont une
+ * longueur dépasse la trame est invalide : seule la connexion qui l'a envoyée
+ * est fermée.
+ *
+ * Un unique thread gère toutes les connexions via un Selector, y compris
+ * l'établissement des connexions sortantes, qui ne bloque donc pas les
+ * appels vers les autres sites. Les appels reçus sont exécutés par un pool de
+ * threads, afin qu'un serveur lent ne bloque pas les autres connexions.
+ *
+ * @author Miguel Pombo Dias
+ * @author Rémi Jacquemard
+ */
+public class NioTransport implements Transport {
+
+	/**
+	 * Décalage entre le port du registre RMI d'un site et le port de son
+	 * transport NIO
+	 */
+	public static final int PORT_OFFSET = 1000;
+
+	/**
+	 * La longueur maximale d'une trame, en octets
+	 */
+	public static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+	/**
+	 * La longueur minimale d'une trame : identifiant de corrélation et type
+	 */
+	private static final int MIN_FRAME_LENGTH = 9;
+
+	private static final byte CALL = 0;
+	private static final byte REPLY = 1;
+	private static final byte ERROR = 2;
+
+	/**
+	 * Les méthodes de chaque interface distante, dans un ordre connu des deux
+	 * côtés de la connexion
+	 */
+	private static final Map<Class<?>, Method[]> METHODS = new ConcurrentHashMap<>();
+
+	/**
+	 * Un objet exporté et son interface
+	 */
+	private static class Service {
+
+		private final Object handler;
+		private final Method[] methods;
+
+		Service(Class<?> type, Object handler) {
+			this.handler = handler;
+			this.methods = methods(type);
+		}
+	}
+
+	// --------------- VARIABLES ----------------
+	private final Selector selector;
+	private final ServerSocketChannel serverChannel;
+	private final Thread selectorThread;
+
+	/**
+	 * Exécute les appels reçus
+	 */
+	private final ExecutorService workers;
+
+	/**
+	 * Les objets exportés, par identifiant
+	 */
+	private final Map<Integer, Service> services = new ConcurrentHashMap<>();
+
+	/**
+	 * Les connexions sortantes, une par site distant, établies ou en cours
+	 * d'établissement. Protégé par son propre moniteur, tenu seulement le
+	 * temps d'y chercher ou d'y ajouter une connexion
+	 */
+	private final Map<InetSocketAddress, Connection> connections = new HashMap<>();
+
+	/**
+	 * Les tâches à exécuter par le thread du Selector (enregistrement des
+	 * canaux, changement des opérations attendues)
+	 */
+	private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+
+	private final AtomicLong nextCorrelationId = new AtomicLong();
+
+	private volatile boolean closed = false;
+
+	/**
+	 * Le délai maximal d'attente d'une réponse, 0 pour attendre indéfiniment
+	 */
+	private volatile long callTimeoutMillis = 0;
+
+	// --------------------- CONSTRUCTEURS ---------------------
+	/**
+	 * Ouvre le port d'écoute et lance le thread du Selector
+	 *
+	 * @param port le port sur lequel écouter
+	 * @throws IOException si le port n'a pas pu être ouvert
+	 */
+	public NioTransport(int port) throws IOException {
+		this.selector = Selector.open();
+		this.serverChannel = ServerSocketChannel.open();
+		this.serverChannel.bind(new InetSocketAddress(port));
+		this.serverChannel.configureBlocking(false);
+		this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+		this.workers = Executors.newCachedThreadPool((r) -> {
+			Thread t = new Thread(r);
+			t.setDaemon(true);
+			return t;
+		});
+
+		this.selectorThread = new Thread(this::selectLoop, "NioTransport-" + port);
+		this.selectorThread.setDaemon(true);
+		this.selectorThread.start();
+	}
+
+	// --------------- METHODES PUBLIQUES -------------
+	@Override
+	public <T extends Remote> void export(String name, Class<T> type, T handler) {
+		services.put(name.hashCode(), new Service(type, handler));
+	}
+
+	@Override
+	public <T extends Remote> T lookup(String host, int port, String name, Class<T> type) throws RemoteException {
+		InetSocketAddress address = new InetSocketAddress(host, port + PORT_OFFSET);
+		// On vérifie dès maintenant que le site est joignable
+		connection(address, callTimeoutMillis);
+
+		int serviceId = name.hashCode();
+		Method[] methods = methods(type);
+
+		Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (p, method, args) -> {
+			if (method.getDeclaringClass() == Object.class) {
+				switch (method.getName()) {
+					case "equals":
+						return p == args[0];
+					case "hashCode":
+						return System.identityHashCode(p);
+					default:
+						return "NioTransport proxy to " + name + "@" + address;
+				}
+			}
+			return call(address, serviceId, methods, method, args);
+		});
+		return type.cast(proxy);
+	}
+
+	@Override
+	public void setCallTimeout(long millis) {
+		this.callTimeoutMillis = millis;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		selector.wakeup();
+		workers.shutdownNow();
+		try {
+			selectorThread.join(1000);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// ------------ APPELS SORTANTS ------------
+	/**
+	 * Envoie un appel et attend sa réponse
+	 */
+	private Object call(InetSocketAddress address, int serviceId, Method[] methods, Method method, Object[] args) throws RemoteException {
+		// Le délai couvre l'établissement de la connexion et l'attente de la
+		// réponse
+		long timeout = callTimeoutMillis;
+		long start = System.nanoTime();
+		Connection connection = connection(address, timeout);
+		long correlationId = nextCorrelationId.incrementAndGet();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(0); // longueur, écrite plus bas
+			out.writeLong(correlationId);
+			out.writeByte(CALL);
+			out.writeInt(serviceId);
+			out.writeShort(Arrays.asList(methods).indexOf(method));
+			Class<?>[] types = method.getParameterTypes();
+			for (int i = 0; i < types.length; i++) {
+				writeValue(out, types[i], args[i]);
+			}
+		} catch (IOException ex) {
+			throw new RemoteException("Could not encode call to " + method.getName(), ex);
+		}
+
+		CompletableFuture<ByteBuffer> reply = new CompletableFuture<>();
+		connection.pending.put(correlationId, reply);
+		// Une connexion fermée depuis connection() ne compléterait jamais
+		// cet appel, enregistré après que close() a vidé les appels en attente
+		if (!connection.channel.isOpen()) {
+			connection.pending.remove(correlationId);
+			throw new ConnectException("Connection to " + address + " closed");
+		}
+		connection.send(frame(bytes));
+
+		ByteBuffer in;
+		try {
+			if (timeout > 0) {
+				long remaining = timeout - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+				in = reply.get(Math.max(remaining, 1), TimeUnit.MILLISECONDS);
+			} else {
+				in = reply.get();
+			}
+		} catch (InterruptedException ex) {
+			connection.pending.remove(correlationId);
+			Thread.currentThread().interrupt();
+			throw new RemoteException("Interrupted while waiting for " + method.getName(), ex);
+		} catch (ExecutionException ex) {
+			throw new RemoteException("Call to " + method.getName() + " failed", ex.getCause());
+		} catch (TimeoutException ex) {
+			connection.pending.remove(correlationId);
+			throw new RemoteException("No reply to " + method.getName() + " from " + address, ex);
+		}
+
+		try {
+			if (in.get() == ERROR) {
+				throw new RemoteException(readString(in));
+			}
+			return readValue(in, method.getReturnType());
+		} catch (BufferUnderflowException ex) {
+			throw new RemoteException("Invalid reply to " + method.getName() + " from " + address, ex);
+		}
+	}
+
+	/**
+	 * Retourne la connexion vers un site, en l'ouvrant si nécessaire, et
+	 * attend qu'elle soit établie. Une connexion fermée est rouverte au
+	 * prochain appel.
+	 *
+	 * Le verrou de la table des connexions n'est tenu que pour y chercher ou
+	 * y ajouter la connexion : l'établissement, non bloquant, est terminé par
+	 * le thread du Selector, et les appels concurrents vers le même site
+	 * attendent la même connexion.
+	 *
+	 * @param timeout le délai maximal d'établissement, 0 pour attendre
+	 * indéfiniment
+	 */
+	private Connection connection(InetSocketAddress address, long timeout) throws RemoteException {
+		Connection connection;
+		try {
+			boolean opened = false;
+			synchronized (connections) {
+				connection = connections.get(address);
+				if (connection == null || !connection.channel.isOpen()) {
+					connection = new Connection(SocketChannel.open());
+					connections.put(address, connection);
+					opened = true;
+				}
+			}
+			if (opened) {
+				connect(connection, address);
+			}
+		} catch (IOException ex) {
+			throw new ConnectException("Could not connect to " + address, ex);
+		}
+
+		try {
+			if (timeout > 0) {
+				connection.connected.get(timeout, TimeUnit.MILLISECONDS);
+			} else {
+				connection.connected.get();
+			}
+			return connection;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new ConnectException("Interrupted while connecting to " + address, ex);
+		} catch (ExecutionException ex) {
+			throw new ConnectException("Could not connect to " + address, (Exception) ex.getCause());
+		} catch (TimeoutException ex) {
+			// Le prochain appel ouvrira une nouvelle connexion
+			connection.close(ex);
+			throw new ConnectException("Timed out connecting to " + address, ex);
+		}
+	}
+
+	// ------------ SELECTOR ------------
+	/**
+	 * Commence l'établissement non bloquant d'une connexion sortante, que le
+	 * thread du Selector termine
+	 */
+	private void connect(Connection connection, InetSocketAddress address) throws IOException {
+		SocketChannel channel = connection.channel;
+		boolean done;
+		try {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			done = channel.connect(address);
+		} catch (IOException ex) {
+			connection.close(ex);
+			throw ex;
+		}
+		runInSelector(() -> {
+			try {
+				connection.key = channel.register(selector, done ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, connection);
+				if (done) {
+					connection.connected.complete(null);
+				}
+			} catch (ClosedChannelException ex) {
+				connection.close(ex);
+			}
+		});
+	}
+
+	private void runInSelector(Runnable task) {
+		selectorTasks.add(task);
+		selector.wakeup();
+	}
+
+	private void selectLoop() {
+		try {
+			while (!closed) {
+				selector.select();
+
+				Runnable task;
+				while ((task = selectorTasks.poll()) != null) {
+					task.run();
+				}
+
+				for (SelectionKey key : selector.selectedKeys()) {
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						SocketChannel channel = serverChannel.accept();
+						if (channel != null) {
+							channel.configureBlocking(false);
+							channel.socket().setTcpNoDelay(true);
+							Connection connection = new Connection(channel);
+							connection.connected.complete(null);
+							connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+						}
+						continue;
+					}
+
+					Connection connection = (Connection) key.attachment();
+					try {
+						if (key.isConnectable()) {
+							connection.finishConnect();
+							continue;
+						}
+						if (key.isReadable()) {
+							connection.read();
+						}
+						if (key.isValid() && key.isWritable()) {
+							connection.flush();
+						}
+					} catch (IOException | RuntimeException ex) {
+						// Une trame invalide ne ferme que sa connexion
+						connection.close(ex);
+					}
+				}
+				selector.selectedKeys().clear();
+			}
+		} catch (IOException ex) {
+			Logger.getLogger(NioTransport.class.getName()).log(Level.SEVERE, null, ex);
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				if (key.attachment() instanceof Connection) {
+					((Connection) key.attachment()).close(new ClosedChannelException());
+				}
+			}
+			try {
+				serverChannel.close();
+				selector.close();
+			} catch (IOException ex) {
+				Logger.getLogger(NioTransport.class.getName()).log(Level.WARNING, null, ex);
+			}
+		}
+	}
+
+	// ------------ APPELS ENTRANTS ------------
+	/**
+	 * Exécute un appel reçu et envoie sa réponse
+	 */
+	private void dispatch(Connection connection, long correlationId, ByteBuffer in) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(0);
+			out.writeLong(correlationId);
+			try {
+				Service service = services.get(in.getInt());
+				if (service == null) {
+					throw new IllegalStateException("No such object");
+				}
+				Method method = service.methods[in.getShort()];
+				Class<?>[] types = method.getParameterTypes();
+				Object[] args = new Object[types.length];
+				for (int i = 0; i < types.length; i++) {
+					args[i] = readValue(in, types[i]);
+				}
+
+				Object result = method.invoke(service.handler, args);
+
+				ByteArrayOutputStream value = new ByteArrayOutputStream(16);
+				try (DataOutputStream valueOut = new DataOutputStream(value)) {
+					writeValue(valueOut, method.getReturnType(), result);
+				}
+				out.writeByte(REPLY);
+				value.writeTo(out);
+			} catch (InvocationTargetException ex) {
+				out.writeByte(ERROR);
+				writeString(out, String.valueOf(ex.getCause()));
+			} catch (ReflectiveOperationException | RemoteException | RuntimeException ex) {
+				out.writeByte(ERROR);
+				writeString(out, String.valueOf(ex));
+			}
+		} catch (IOException ex) {
+			Logger.getLogger(NioTransport.class.getName()).log(Level.SEVERE, null, ex);
+			return;
+		}
+		connection.send(frame(bytes));
+	}
+
+	// ------------ CONNEXION ------------
+	/**
+	 * Une connexion TCP, entrante ou sortante. Les trames à envoyer sont
+	 * écrites directement si possible, sinon mises en file et écrites par le
+	 * thread du Selector.
+	 */
+	private class Connection {
+
+		private final SocketChannel channel;
+		private SelectionKey key;
+		private ByteBuffer in = ByteBuffer.allocate(8192);
+		private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+
+		/**
+		 * Les appels envoyés sur cette connexion en attente de leur réponse
+		 */
+		private final Map<Long, CompletableFuture<ByteBuffer>> pending = new ConcurrentHashMap<>();
+
+		/**
+		 * Complété une fois la connexion établie, ou en erreur si elle n'a pas
+		 * pu l'être
+		 */
+		private final CompletableFuture<Void> connected = new CompletableFuture<>();
+
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		/**
+		 * Termine l'établissement de la connexion. Appelé par le thread du
+		 * Selector
+		 */
+		void finishConnect() throws IOException {
+			if (channel.finishConnect()) {
+				key.interestOps(SelectionKey.OP_READ);
+				connected.complete(null);
+			}
+		}
+
+		void send(ByteBuffer frame) {
+			synchronized (out) {
+				try {
+					if (out.isEmpty()) {
+						channel.write(frame);
+						if (!frame.hasRemaining()) {
+							return;
+						}
+					}
+					out.add(frame);
+				} catch (IOException ex) {
+					close(ex);
+					return;
+				}
+			}
+			runInSelector(() -> {
+				if (key.isValid()) {
+					key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				}
+			});
+		}
+
+		/**
+		 * Ecrit les trames en attente. Appelé par le thread du Selector
+		 */
+		void flush() throws IOException {
+			synchronized (out) {
+				while (!out.isEmpty()) {
+					ByteBuffer frame = out.peek();
+					channel.write(frame);
+					if (frame.hasRemaining()) {
+						return;
+					}
+					out.poll();
+				}
+				key.interestOps(SelectionKey.OP_READ);
+			}
+		}
+
+		/**
+		 * Lit les données disponibles et traite les trames complètes. Appelé
+		 * par le thread du Selector
+		 */
+		void read() throws IOException {
+			if (channel.read(in) < 0) {
+				throw new ClosedChannelException();
+			}
+			in.flip();
+			while (in.remaining() >= 4) {
+				int length = in.getInt(in.position());
+				if (length < MIN_FRAME_LENGTH || length > MAX_FRAME_LENGTH) {
+					throw new ProtocolException("Invalid frame length " + length);
+				}
+				if (in.remaining() < 4 + length) {
+					break;
+				}
+				in.getInt();
+				ByteBuffer frame = in.slice();
+				frame.limit(length);
+				in.position(in.position() + length);
+				handle(ByteBuffer.wrap(Arrays.copyOfRange(frame.array(), frame.arrayOffset(), frame.arrayOffset() + length)));
+			}
+			in.compact();
+
+			// Une trame plus grande que le tampon : on l'agrandit
+			if (!in.hasRemaining()) {
+				ByteBuffer bigger = ByteBuffer.allocate(in.capacity() * 2);
+				in.flip();
+				bigger.put(in);
+				in = bigger;
+			}
+		}
+
+		private void handle(ByteBuffer frame) throws ProtocolException {
+			long correlationId = frame.getLong();
+			byte type = frame.get(frame.position());
+			if (type != CALL && type != REPLY && type != ERROR) {
+				throw new ProtocolException("Invalid frame type " + type);
+			}
+			if (type == CALL) {
+				frame.get();
+				workers.execute(() -> dispatch(this, correlationId, frame));
+			} else {
+				CompletableFuture<ByteBuffer> reply = pending.remove(correlationId);
+				if (reply != null) {
+					reply.complete(frame);
+				}
+			}
+		}
+
+		void close(Exception cause) {
+			connected.completeExceptionally(cause);
+			try {
+				channel.close();
+			} catch (IOException ex) {
+				Logger.getLogger(NioTransport.class.getName()).log(Level.WARNING, null, ex);
+			}
+			// Les appels sont retirés un à un : un appel enregistré pendant la
+			// boucle est soit complété ici, soit vu fermé par call()
+			for (Long correlationId : pending.keySet()) {
+				CompletableFuture<ByteBuffer> reply = pending.remove(correlationId);
+				if (reply != null) {
+					reply.completeExceptionally(cause);
+				}
+			}
+		}
+	}
+
+	// ------------ CODAGE ------------
+	/**
+	 * Les méthodes d'une interface distante, triées par nom puis par types
+	 * des paramètres
+	 */
+	private static Method[] methods(Class<?> type) {
+		return METHODS.computeIfAbsent(type, (t) -> Arrays.stream(t.getMethods())
+				.sorted(Comparator.comparing((Method m) -> m.getName() + Arrays.toString(m.getParameterTypes())))
+				.toArray(Method[]::new));
+	}
+
+	/**
+	 * Transforme une trame écrite dans 'bytes' en ByteBuffer, en écrivant sa
+	 * longueur dans les 4 premiers octets
+	 */
+	private static ByteBuffer frame(ByteArrayOutputStream bytes) {
+		ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+		frame.putInt(0, frame.capacity() - 4);
+		return frame;
+	}
+
+	private static void writeValue(DataOutputStream out, Class<?> type, Object value) throws IOException {
+		if (type == void.class) {
+			return;
+		} else if (type == int.class) {
+			out.writeInt((Integer) value);
+		} else if (type == long.class) {
+			out.writeLong((Long) value);
+		} else if (type == boolean.class) {
+			out.writeBoolean((Boolean) value);
+		} else if (type == String.class) {
+			writeString(out, (String) value);
+		} else if (type == byte[].class) {
+			byte[] array = (byte[]) value;
+			out.writeInt(array == null ? -1 : array.length);
+			if (array != null) {
+				out.write(array);
+			}
+		} else if (type == int[].class) {
+			int[] array = (int[]) value;
+			out.writeInt(array == null ? -1 : array.length);
+			for (int i = 0; array != null && i < array.length; i++) {
+				out.writeInt(array[i]);
+			}
+		} else if (type == long[].class) {
+			long[] array = (long[]) value;
+			out.writeInt(array == null ? -1 : array.length);
+			for (int i = 0; array != null && i < array.length; i++) {
+				out.writeLong(array[i]);
+			}
+		} else if (type == String[].class) {
+			String[] array = (String[]) value;
+			out.writeInt(array == null ? -1 : array.length);
+			for (int i = 0; array != null && i < array.length; i++) {
+				writeString(out, array[i]);
+			}
+		} else {
+			throw new IOException("Unsupported type " + type);
+		}
+	}
+
+	private static Object readValue(ByteBuffer in, Class<?> type) throws RemoteException {
+		if (type == void.class) {
+			return null;
+		} else if (type == int.class) {
+			return in.getInt();
+		} else if (type == long.class) {
+			return in.getLong();
+		} else if (type == boolean.class) {
+			return in.get() != 0;
+		} else if (type == String.class) {
+			return readString(in);
+		} else if (type == byte[].class) {
+			int length = readLength(in, 1);
+			if (length < 0) {
+				return null;
+			}
+			byte[] array = new byte[length];
+			in.get(array);
+			return array;
+		} else if (type == int[].class) {
+			int length = readLength(in, 4);
+			if (length < 0) {
+				return null;
+			}
+			int[] array = new int[length];
+			for (int i = 0; i < length; i++) {
+				array[i] = in.getInt();
+			}
+			return array;
+		} else if (type == long[].class) {
+			int length = readLength(in, 8);
+			if (length < 0) {
+				return null;
+			}
+			long[] array = new long[length];
+			for (int i = 0; i < length; i++) {
+				array[i] = in.getLong();
+			}
+			return array;
+		} else if (type == String[].class) {
+			// Chaque chaîne commence par sa longueur
+			int length = readLength(in, 4);
+			if (length < 0) {
+				return null;
+			}
+			String[] array = new String[length];
+			for (int i = 0; i < length; i++) {
+				array[i] = readString(in);
+			}
+			return array;
+		}
+		throw new RemoteException("Unsupported type " + type);
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer in) throws RemoteException {
+		int length = readLength(in, 1);
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Lit la longueur d'une chaîne ou d'un tableau, -1 pour null, en vérifiant
+	 * que ses éléments tiennent dans la suite de la trame
+	 *
+	 * @param elementSize la taille minimale d'un élément, en octets
+	 */
+	private static int readLength(ByteBuffer in, int elementSize) throws RemoteException {
+		int length = in.getInt();
+		if (length < -1 || length > in.remaining() / elementSize) {
+			throw new RemoteException("Invalid length " + length);
+		}
+		return length;
+	}
+}
@@ -0,0 +1,66 @@
+package ch.heigvd.lamportmanager.transport;
+
+import java.net.MalformedURLException;
+import java.rmi.Naming;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Transport utilisant Java RMI : les objets sont exportés puis liés au
+ * registre RMI du site, et les sites distants sont trouvés via
+ * Naming.lookup().
+ *
+ * @author Miguel Pombo Dias
+ * @author Rémi Jacquemard
+ */
+public class RmiTransport implements Transport {
+
+	/**
+	 * Le registre RMI du site
+	 */
+	private final Registry registry;
+
+	/**
+	 * Les objets exportés, désexportés par close()
+	 */
+	private final List<Remote> exported = new ArrayList<>();
+
+	/**
+	 * @param registry le registre RMI du site, dans lequel lier les objets
+	 */
+	public RmiTransport(Registry registry) {
+		this.registry = registry;
+	}
+
+	@Override
+	public synchronized <T extends Remote> void export(String name, Class<T> type, T handler) throws RemoteException {
+		Remote stub = handler instanceof UnicastRemoteObject ? handler : UnicastRemoteObject.exportObject(handler, 0);
+		registry.rebind(name, stub);
+		exported.add(handler);
+	}
+
+	@Override
+	public <T extends Remote> T lookup(String host, int port, String name, Class<T> type) throws RemoteException, NotBoundException, MalformedURLException {
+		return type.cast(Naming.lookup("//" + host + ":" + port + "/" + name));
+	}
+
+	@Override
+	public synchronized void close() {
+		for (Remote remote : exported) {
+			try {
+				UnicastRemoteObject.unexportObject(remote, true);
+			} catch (NoSuchObjectException ex) {
+				Logger.getLogger(RmiTransport.class.getName()).log(Level.WARNING, null, ex);
+			}
+		}
+		exported.clear();
+	}
+}
@@ -0,0 +1,92 @@
+package ch.heigvd.lamportmanager.transport;
+
+import java.net.MalformedURLException;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Transport utilisé par les algorithmes d'exclusion mutuelle pour
+ * communiquer entre sites. Un site exporte son serveur d'algorithme
+ * (ILamportAlgorithm, ...) sous un nom, puis les autres sites obtiennent un
+ * proxy implémentant la même interface.
+ *
+ * Deux implémentations sont disponibles : RmiTransport, qui utilise le
+ * registre RMI du site, et NioTransport, un protocole binaire sur des
+ * connexions TCP persistantes. Le serveur de variable globale utilisé par les
+ * clients reste toujours exposé en RMI.
+ *
+ * @author Miguel Pombo Dias
+ * @author Rémi Jacquemard
+ */
+public interface Transport {
+
+	/**
+	 * Les transports disponibles
+	 */
+	public static enum Kind {
+		/**
+		 * Java RMI, via le registre du site
+		 */
+		RMI,
+		/**
+		 * Protocole binaire sur des connexions TCP non bloquantes
+		 */
+		NIO;
+
+		/**
+		 * Lit le transport entre les sites passé en 3ème argument de
+		 * LamportManager.main(). Les clients passent toujours par RMI
+		 *
+		 * @param name "rmi" ou "nio", en majuscules ou minuscules
+		 * @return le transport correspondant
+		 * @throws IllegalArgumentException si aucun transport n'a ce nom
+		 */
+		public static Kind parse(String name) {
+			return Kind.valueOf(name.trim().toUpperCase());
+		}
+	}
+
+	/**
+	 * Rend un objet accessible aux autres sites
+	 *
+	 * @param <T> l'interface distante de l'objet
+	 * @param name le nom sous lequel exporter l'objet
+	 * @param type l'interface distante de l'objet
+	 * @param handler l'objet appelé lors de la réception d'un message
+	 * @throws RemoteException si l'objet n'a pas pu être exporté
+	 */
+	public <T extends Remote> void export(String name, Class<T> type, T handler) throws RemoteException;
+
+	/**
+	 * Obtient un proxy vers un objet exporté par un site distant
+	 *
+	 * @param <T> l'interface distante de l'objet
+	 * @param host l'adresse du site distant
+	 * @param port le port du site distant, tel qu'indiqué dans le fichier
+	 * hosts.txt
+	 * @param name le nom de l'objet
+	 * @param type l'interface distante de l'objet
+	 * @return le proxy
+	 * @throws RemoteException si le site distant est injoignable
+	 * @throws NotBoundException si aucun objet n'est exporté sous ce nom
+	 * @throws MalformedURLException si l'adresse est mal formée
+	 */
+	public <T extends Remote> T lookup(String host, int port, String name, Class<T> type) throws RemoteException, NotBoundException, MalformedURLException;
+
+	/**
+	 * Fixe le délai maximal d'attente de la réponse d'un appel sortant. Un
+	 * appel dépassant ce délai lève une RemoteException. Sans effet par
+	 * défaut : les appels RMI ne peuvent pas être interrompus, l'appelant
+	 * doit alors borner lui-même son attente
+	 *
+	 * @param millis le délai en millisecondes, 0 pour attendre indéfiniment
+	 */
+	public default void setCallTimeout(long millis) {
+	}
+
+	/**
+	 * Libère les objets exportés et les connexions ouvertes
+	 */
+	public void close();
+}
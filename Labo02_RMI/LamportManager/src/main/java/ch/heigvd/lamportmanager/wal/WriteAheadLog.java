@@ -0,0 +1,429 @@
+package ch.heigvd.lamportmanager.wal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Journal des écritures des variables partagées, afin qu'un site relancé
+ * reparte de la dernière valeur connue plutôt que de 0.
+ *
+ * Le journal est un fichier projeté en mémoire, dans lequel on ajoute un
+ * enregistrement (clé, version, valeur) par écriture. Chaque enregistrement
+ * est de la forme :
+ *    [longueur du contenu : int][CRC32 du contenu : int]
+ *    [version : long][valeur : int][longueur de la clé : short][clé : UTF-8]
+ * Un enregistrement incomplet ou corrompu, par exemple écrit au moment d'un
+ * arrêt brutal, marque la fin du journal.
+ *
+ * Le journal garde en mémoire la dernière valeur de chaque clé. Lorsque le
+ * fichier est plein aux trois quarts, il est compacté : ces dernières valeurs
+ * sont écrites dans un nouveau fichier qui remplace atomiquement l'ancien. Le
+ * fichier ne contient donc jamais beaucoup plus d'un enregistrement par clé,
+ * et la relecture au démarrage reste rapide quel que soit le nombre
+ * d'écritures effectuées.
+ *
+ * @author Miguel Pombo Dias
+ * @author Rémi Jacquemard
+ */
+public class WriteAheadLog implements Closeable {
+
+	/**
+	 * Les politiques d'écriture sur disque (fsync) du journal
+	 */
+	public static enum Sync {
+		/**
+		 * Chaque ajout est écrit sur disque avant de rendre la main. Le plus
+		 * sûr et le plus lent
+		 */
+		ALWAYS,
+		/**
+		 * Les ajouts attendent d'être sur disque, mais les ajouts concurrents
+		 * sont écrits ensemble : pendant une écriture sur disque, les ajouts
+		 * suivants s'accumulent et sont écrits par la suivante
+		 */
+		GROUP,
+		/**
+		 * Le journal est écrit sur disque périodiquement, sans que les ajouts
+		 * ne l'attendent. Un arrêt du système peut perdre les dernières
+		 * écritures, un arrêt du seul processus non
+		 */
+		ASYNC;
+
+		/**
+		 * Lit la politique d'écriture sur disque du journal passée en 4ème
+		 * argument de LamportManager.main()
+		 *
+		 * @param name "always", "group" ou "async", en majuscules ou minuscules
+		 * @return la politique correspondante
+		 * @throws IllegalArgumentException si aucune politique n'a ce nom
+		 */
+		public static Sync parse(String name) {
+			return Sync.valueOf(name.trim().toUpperCase());
+		}
+	}
+
+	/**
+	 * Reçoit les valeurs relues du journal
+	 */
+	public interface Visitor {
+
+		/**
+		 * @param key la clé de la variable
+		 * @param value sa dernière valeur journalisée
+		 * @param version la version de cette valeur
+		 */
+		void apply(String key, int value, long version);
+	}
+
+	/**
+	 * Taille minimale du fichier projeté
+	 */
+	static final int INITIAL_CAPACITY = 1 << 20;
+
+	/**
+	 * Intervalle entre deux écritures sur disque en mode ASYNC
+	 */
+	static final long ASYNC_INTERVAL_MILLIS = 100;
+
+	/**
+	 * Taille de l'en-tête d'un enregistrement : longueur et CRC
+	 */
+	private static final int HEADER = 8;
+
+	/**
+	 * Taille du contenu d'un enregistrement, hors clé
+	 */
+	private static final int FIXED_PAYLOAD = 8 + 4 + 2;
+
+	private static final class Entry {
+
+		final int value;
+		final long version;
+
+		Entry(int value, long version) {
+			this.value = value;
+			this.version = version;
+		}
+	}
+
+	private final Path file;
+	private final Sync sync;
+
+	/**
+	 * La dernière valeur journalisée de chaque clé, écrite lors d'un compactage
+	 */
+	private final Map<String, Entry> latest = new HashMap<>();
+
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+
+	/**
+	 * Le nombre d'octets ajoutés depuis l'ouverture, compactages compris. Sert
+	 * à savoir si un ajout a été écrit sur disque, sa position dans le fichier
+	 * changeant à chaque compactage. Modifié sous le verrou du journal
+	 */
+	private volatile long appended;
+
+	/**
+	 * La valeur de 'appended' couverte par la dernière écriture sur disque.
+	 * Modifié sous 'flushLock'
+	 */
+	private volatile long durable;
+
+	private volatile boolean closed;
+	private final Object flushLock = new Object();
+	private final CRC32 crc = new CRC32();
+
+	/**
+	 * Le thread d'écriture sur disque des modes GROUP et ASYNC
+	 */
+	private final Thread flusher;
+
+	/**
+	 * Ouvre le journal, en le créant s'il n'existe pas, et relit son contenu
+	 *
+	 * @param file le fichier du journal
+	 * @param sync la politique d'écriture sur disque
+	 * @throws IOException si le fichier ne peut pas être ouvert
+	 */
+	public WriteAheadLog(Path file, Sync sync) throws IOException {
+		this.file = file;
+		this.sync = sync;
+
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(INITIAL_CAPACITY, channel.size()));
+		recover();
+
+		if (sync == Sync.ALWAYS) {
+			flusher = null;
+		} else {
+			flusher = new Thread(this::flushLoop, "wal-" + file.getFileName());
+			flusher.setDaemon(true);
+			flusher.start();
+		}
+	}
+
+	/**
+	 * Transmet la dernière valeur journalisée de chaque clé
+	 *
+	 * @param visitor reçoit les valeurs
+	 */
+	public synchronized void replay(Visitor visitor) {
+		for (Map.Entry<String, Entry> e : latest.entrySet()) {
+			visitor.apply(e.getKey(), e.getValue().value, e.getValue().version);
+		}
+	}
+
+	/**
+	 * Journalise une nouvelle valeur. Selon la politique, rend la main une
+	 * fois la valeur écrite sur disque (ALWAYS, GROUP) ou immédiatement
+	 * (ASYNC). Une valeur plus ancienne que la dernière journalisée est
+	 * ignorée.
+	 *
+	 * @param key la clé de la variable
+	 * @param value la nouvelle valeur
+	 * @param version la version de cette valeur
+	 * @throws IOException si le journal ne peut pas être écrit
+	 */
+	public void append(String key, int value, long version) throws IOException {
+		long position;
+		synchronized (this) {
+			if (closed) {
+				throw new IOException("Write-ahead log closed");
+			}
+			Entry previous = latest.get(key);
+			if (previous != null && previous.version >= version) {
+				return;
+			}
+			byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+			if (buffer.position() + HEADER + FIXED_PAYLOAD + keyBytes.length > buffer.capacity() / 4 * 3) {
+				compact(HEADER + FIXED_PAYLOAD + keyBytes.length);
+			}
+			latest.put(key, new Entry(value, version));
+			write(buffer, keyBytes, value, version);
+			position = appended;
+
+			if (sync == Sync.ALWAYS) {
+				buffer.force();
+				return;
+			}
+		}
+
+		if (sync == Sync.GROUP) {
+			synchronized (flushLock) {
+				flushLock.notifyAll();
+				try {
+					while (durable < position && !closed) {
+						flushLock.wait();
+					}
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Ecrit le journal sur disque et le ferme
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			buffer.force();
+			try {
+				channel.close();
+			} catch (IOException ex) {
+				Logger.getLogger(WriteAheadLog.class.getName()).log(Level.WARNING, null, ex);
+			}
+		}
+		synchronized (flushLock) {
+			durable = appended;
+			flushLock.notifyAll();
+		}
+		if (flusher != null) {
+			flusher.interrupt();
+		}
+	}
+
+	/**
+	 * @return la taille en octets des enregistrements dans le fichier
+	 */
+	public synchronized int size() {
+		return buffer.position();
+	}
+
+	/**
+	 * Relit les enregistrements du fichier jusqu'au premier incomplet ou
+	 * corrompu, puis efface la suite afin qu'un ancien enregistrement ne soit
+	 * jamais pris pour un nouveau
+	 */
+	private void recover() {
+		int records = 0;
+		while (buffer.remaining() >= HEADER) {
+			int start = buffer.position();
+			int length = buffer.getInt();
+			int checksum = buffer.getInt();
+			if (length < FIXED_PAYLOAD || length > buffer.remaining()) {
+				buffer.position(start);
+				break;
+			}
+			crc.reset();
+			ByteBuffer payload = buffer.slice();
+			payload.limit(length);
+			crc.update(payload);
+			if ((int) crc.getValue() != checksum) {
+				buffer.position(start);
+				break;
+			}
+
+			long version = buffer.getLong();
+			int value = buffer.getInt();
+			byte[] keyBytes = new byte[buffer.getShort()];
+			buffer.get(keyBytes);
+			String key = new String(keyBytes, StandardCharsets.UTF_8);
+
+			Entry previous = latest.get(key);
+			if (previous == null || previous.version < version) {
+				latest.put(key, new Entry(value, version));
+			}
+			records++;
+		}
+
+		int end = buffer.position();
+		while (buffer.hasRemaining()) {
+			buffer.put((byte) 0);
+		}
+		buffer.position(end);
+		appended = durable = end;
+
+		Logger.getLogger(WriteAheadLog.class.getName()).log(Level.INFO, "Replayed {0} records of {1} for {2} keys",
+				new Object[]{records, file, latest.size()});
+	}
+
+	/**
+	 * Réécrit le journal avec la dernière valeur de chaque clé, dans un
+	 * fichier temporaire qui remplace ensuite l'ancien. Le nouveau fichier est
+	 * écrit sur disque avant le remplacement : tous les ajouts précédents sont
+	 * alors durables.
+	 *
+	 * @param reserve la place à garantir après le compactage
+	 */
+	private void compact(int reserve) throws IOException {
+		int size = 0;
+		for (String key : latest.keySet()) {
+			size += HEADER + FIXED_PAYLOAD + key.getBytes(StandardCharsets.UTF_8).length;
+		}
+		// Au plus un quart de fichier occupé après le compactage, afin de ne
+		// pas compacter à nouveau trop tôt
+		int capacity = INITIAL_CAPACITY;
+		while ((size + reserve) * 4L > capacity) {
+			capacity *= 2;
+		}
+
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		FileChannel compacted = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		MappedByteBuffer next = compacted.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		for (Map.Entry<String, Entry> e : latest.entrySet()) {
+			write(next, e.getKey().getBytes(StandardCharsets.UTF_8), e.getValue().value, e.getValue().version);
+		}
+		next.force();
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		channel.close();
+		channel = compacted;
+		buffer = next;
+		synchronized (flushLock) {
+			durable = appended;
+			flushLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Ajoute un enregistrement à la position courante du tampon
+	 */
+	private void write(ByteBuffer to, byte[] keyBytes, int value, long version) {
+		int length = FIXED_PAYLOAD + keyBytes.length;
+		int start = to.position();
+		to.position(start + HEADER);
+		to.putLong(version);
+		to.putInt(value);
+		to.putShort((short) keyBytes.length);
+		to.put(keyBytes);
+
+		ByteBuffer payload = to.duplicate();
+		payload.position(start + HEADER);
+		payload.limit(start + HEADER + length);
+		crc.reset();
+		crc.update(payload);
+		// La longueur en dernier : un enregistrement interrompu avant est
+		// ignoré à la relecture
+		to.putInt(start + 4, (int) crc.getValue());
+		to.putInt(start, length);
+		appended += HEADER + length;
+	}
+
+	/**
+	 * Boucle du thread d'écriture sur disque : en mode GROUP, dès qu'un ajout
+	 * attend, écrit sur disque tous les ajouts faits jusque là ; en mode ASYNC,
+	 * écrit périodiquement.
+	 */
+	private void flushLoop() {
+		try {
+			while (true) {
+				if (sync == Sync.ASYNC) {
+					Thread.sleep(ASYNC_INTERVAL_MILLIS);
+				} else {
+					synchronized (flushLock) {
+						while (!closed && durable >= appended) {
+							flushLock.wait();
+						}
+					}
+				}
+				if (closed) {
+					return;
+				}
+				if (durable >= appended) {
+					continue;
+				}
+
+				MappedByteBuffer toForce;
+				long target;
+				synchronized (this) {
+					if (closed) {
+						return;
+					}
+					toForce = buffer;
+					target = appended;
+				}
+				// Si un compactage remplace le tampon entre temps, il a lui-même
+				// écrit sur disque tous les ajouts jusqu'à 'target'
+				toForce.force();
+
+				synchronized (flushLock) {
+					durable = Math.max(durable, target);
+					flushLock.notifyAll();
+				}
+			}
+		} catch (InterruptedException ex) {
+			// Arrêt demandé par close()
+		}
+	}
+}
@@ -0,0 +1,246 @@
+package ch.heigvd.test;
+
+import ch.heigvd.globalvariableclient.Client;
+import ch.heigvd.lamportmanager.GlobalVariableManager;
+import ch.heigvd.lamportmanager.GlobalVariableManager.Algorithm;
+import ch.heigvd.lamportmanager.transport.Transport;
+import java.net.MalformedURLException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Grappe de sites lancés dans la JVM des tests, sur localhost, puis arrêtés
+ * par close(), par exemple avec un try-with-resources.
+ *
+ * Chaque classe de test prend ses ports dans sa propre plage, à partir de son
+ * premier port. Chaque grappe utilise les ports suivant ceux de la grappe
+ * précédente de la même plage, même d'une méthode de test à l'autre : JUnit
+ * crée une nouvelle instance de la classe pour chacune.
+ *
+ * @param <M> le type des sites
+ */
+final class Cluster<M extends GlobalVariableManager> implements AutoCloseable {
+
+   /**
+    * Crée le site 'index' d'une grappe
+    *
+    * @param <M> le type des sites
+    */
+   @FunctionalInterface
+   interface Factory<M extends GlobalVariableManager> {
+
+      M create(String[][] hosts, int index) throws Exception;
+   }
+
+   /**
+    * Le travail d'un client, voir inParallel()
+    */
+   @FunctionalInterface
+   interface ClientTask {
+
+      void run(int client) throws RemoteException;
+   }
+
+   /**
+    * Le prochain port libre de chaque plage, par premier port de la plage
+    */
+   private static final Map<Integer, Integer> NEXT_PORTS = new HashMap<>();
+
+   /**
+    * Les adresses des sites, de la forme attendue par GlobalVariableManager
+    */
+   final String[][] hosts;
+
+   private final List<M> sites;
+
+   private Cluster(String[][] hosts, List<M> sites) {
+      this.hosts = hosts;
+      this.sites = sites;
+   }
+
+   /**
+    * Réserve les ports de n sites dans la plage commençant à 'firstPort'
+    *
+    * @param firstPort le premier port de la plage
+    * @param n le nombre de sites
+    * @return les adresses des sites
+    */
+   static synchronized String[][] hosts(int firstPort, int n) {
+      int port = NEXT_PORTS.getOrDefault(firstPort, firstPort);
+      NEXT_PORTS.put(firstPort, port + n);
+
+      String[][] hosts = new String[n][];
+      for (int i = 0; i < n; i++) {
+         hosts[i] = new String[]{"localhost", String.valueOf(port + i)};
+      }
+      return hosts;
+   }
+
+   /**
+    * Lance et connecte une grappe de n sites de l'algorithme donné
+    *
+    * @param firstPort le premier port de la plage de la classe de test
+    * @param n le nombre de sites
+    * @param algorithm l'algorithme d'exclusion mutuelle
+    * @return la grappe connectée
+    * @throws Exception si un site n'a pas pu être lancé ou connecté
+    */
+   static Cluster<GlobalVariableManager> start(int firstPort, int n, Algorithm algorithm) throws Exception {
+      return start(firstPort, n, algorithm, Transport.Kind.RMI);
+   }
+
+   /**
+    * Lance et connecte une grappe de n sites de l'algorithme donné, dont les
+    * messages passent par le transport donné
+    *
+    * @param firstPort le premier port de la plage de la classe de test
+    * @param n le nombre de sites
+    * @param algorithm l'algorithme d'exclusion mutuelle
+    * @param kind le transport entre les sites
+    * @return la grappe connectée
+    * @throws Exception si un site n'a pas pu être lancé ou connecté
+    */
+   static Cluster<GlobalVariableManager> start(int firstPort, int n, Algorithm algorithm, Transport.Kind kind)
+         throws Exception {
+      return start(firstPort, n, (hosts, i) -> GlobalVariableManager.create(algorithm, kind, hosts, i));
+   }
+
+   /**
+    * Lance et connecte une grappe de n sites créés par 'factory'
+    *
+    * @param <M> le type des sites
+    * @param firstPort le premier port de la plage de la classe de test
+    * @param n le nombre de sites
+    * @param factory crée chaque site
+    * @return la grappe connectée
+    * @throws Exception si un site n'a pas pu être lancé ou connecté
+    */
+   static <M extends GlobalVariableManager> Cluster<M> start(int firstPort, int n, Factory<M> factory) throws Exception {
+      Cluster<M> cluster = new Cluster<>(hosts(firstPort, n), new ArrayList<>());
+      try {
+         for (int i = 0; i < n; i++) {
+            cluster.sites.add(factory.create(cluster.hosts, i));
+         }
+         for (M site : cluster.sites) {
+            site.connectToRemotes();
+         }
+      } catch (Exception ex) {
+         cluster.close();
+         throw ex;
+      }
+      return cluster;
+   }
+
+   /**
+    * @param index l'index du site
+    * @return le site, null s'il a été arrêté
+    */
+   M site(int index) {
+      return sites.get(index);
+   }
+
+   /**
+    * @return le nombre de sites
+    */
+   int size() {
+      return hosts.length;
+   }
+
+   /**
+    * @param index l'index du site
+    * @return un nouveau client connecté à ce site
+    * @throws MalformedURLException si l'adresse du site est invalide
+    * @throws RemoteException si le site n'est pas joignable
+    * @throws NotBoundException si le site n'est pas lancé
+    */
+   Client client(int index) throws MalformedURLException, RemoteException, NotBoundException {
+      return new Client("localhost:" + hosts[index][1]);
+   }
+
+   /**
+    * @return le nombre de messages envoyés par les sites encore lancés
+    */
+   long messagesSent() {
+      long messages = 0;
+      for (M site : sites) {
+         if (site != null) {
+            messages += site.getMessagesSent();
+         }
+      }
+      return messages;
+   }
+
+   /**
+    * @return le nombre de mises à jour envoyées par les sites encore lancés
+    */
+   long updatesSent() {
+      long updates = 0;
+      for (M site : sites) {
+         if (site != null) {
+            updates += site.getUpdatesSent();
+         }
+      }
+      return updates;
+   }
+
+   /**
+    * Arrête un site, par exemple pour simuler sa panne
+    *
+    * @param index l'index du site
+    */
+   void stop(int index) {
+      M site = sites.set(index, null);
+      if (site != null) {
+         site.close();
+      }
+   }
+
+   /**
+    * Arrête tous les sites encore lancés
+    */
+   @Override
+   public void close() {
+      for (int i = 0; i < sites.size(); i++) {
+         stop(i);
+      }
+   }
+
+   /**
+    * Lance 'clients' threads, le thread c exécutant task.run(c), et attend
+    * leur fin. Les erreurs des clients sont journalisées.
+    *
+    * @param clients le nombre de clients
+    * @param task le travail de chaque client
+    * @return la durée, en secondes, entre le lancement des threads et la fin
+    * du dernier
+    * @throws InterruptedException si l'attente est interrompue
+    */
+   static double inParallel(int clients, ClientTask task) throws InterruptedException {
+      List<Thread> threads = new ArrayList<>();
+      for (int c = 0; c < clients; c++) {
+         final int client = c;
+         threads.add(new Thread(() -> {
+            try {
+               task.run(client);
+            } catch (RemoteException ex) {
+               Logger.getLogger(Cluster.class.getName()).log(Level.SEVERE, null, ex);
+            }
+         }));
+      }
+
+      long start = System.nanoTime();
+      for (Thread t : threads) {
+         t.start();
+      }
+      for (Thread t : threads) {
+         t.join();
+      }
+      return (System.nanoTime() - start) / 1e9;
+   }
+}
@@ -0,0 +1,177 @@
+package ch.heigvd.test;
+
+import ch.heigvd.prr.election.ElectionManager;
+import ch.heigvd.prr.election.ElectionManager.Algorithm;
+import ch.heigvd.prr.election.Site;
+import java.net.InetSocketAddress;
+
+/**
+ * Mesure le temps d'élection de l'anneau et de Bully : une grappe de sites
+ * est lancée dans la JVM, dont les plus aptes sont en panne (jamais
+ * lancés), puis le moins apte lance une élection. On mesure le temps
+ * jusqu'à ce que tous les sites vivants connaissent l'élu, le plus apte des
+ * sites vivants, ainsi que le nombre de timeouts de quittance payés par les
+ * sites.
+ *
+ * Les sites étant tous sur localhost, le plus apte est celui dont le port
+ * est le plus grand, c'est-à-dire le dernier.
+ *
+ * Une seconde élection sur la même grappe mesure l'effet des sites déjà
+ * connus : vivants, ou suspectés en panne par l'anneau.
+ *
+ * En standalone, depuis le dossier Test :
+ *    mvn test-compile exec:exec -Dexec.executable=java -Dexec.classpathScope=test
+ *        -Dexec.args="-classpath %classpath ch.heigvd.test.ElectionBenchmark"
+ */
+public class ElectionBenchmark {
+
+   private static final long DEADLINE_MILLIS = 60_000;
+
+   /**
+    * Le résultat d'une élection
+    */
+   public static class Election {
+
+      /**
+       * Le temps jusqu'à ce que tous les sites vivants connaissent l'élu, ou
+       * jusqu'à l'échéance, en millisecondes
+       */
+      final long millis;
+
+      /**
+       * Le nombre de timeouts de quittance payés par tous les sites vivants
+       * pendant l'élection
+       */
+      final int timeouts;
+
+      /**
+       * L'adresse du plus apte des sites vivants
+       */
+      final InetSocketAddress expected;
+
+      /**
+       * L'adresse de l'élu connu par chaque site vivant, null s'il n'en
+       * connaît aucun
+       */
+      final InetSocketAddress[] elected;
+
+      Election(long millis, int timeouts, InetSocketAddress expected, InetSocketAddress[] elected) {
+         this.millis = millis;
+         this.timeouts = timeouts;
+         this.expected = expected;
+         this.elected = elected;
+      }
+   }
+
+   private int nextPort;
+
+   /**
+    * @param firstPort le premier port utilisé, chaque mesure utilisant les
+    * suivants
+    */
+   public ElectionBenchmark(int firstPort) {
+      this.nextPort = firstPort;
+   }
+
+   /**
+    * Lance une élection et attend que tous les sites vivants connaissent le
+    * plus apte des sites vivants, au plus une minute. Les traces des
+    * ElectionManager ne sont pas affichées.
+    *
+    * @param algorithm l'algorithme d'élection
+    * @param sites le nombre de sites
+    * @param failed le nombre de sites en panne, les plus aptes
+    * @return le résultat de l'élection
+    * @throws Exception si la grappe n'a pas pu être lancée
+    */
+   public Election elect(Algorithm algorithm, int sites, int failed) throws Exception {
+      return elect(algorithm, sites, failed, 1);
+   }
+
+   /**
+    * Lance plusieurs élections l'une après l'autre sur la même grappe, comme
+    * elect(), et donne le résultat de la dernière
+    *
+    * @param algorithm l'algorithme d'élection
+    * @param sites le nombre de sites
+    * @param failed le nombre de sites en panne, les plus aptes
+    * @param elections le nombre d'élections
+    * @return le résultat de la dernière élection
+    * @throws Exception si la grappe n'a pas pu être lancée
+    */
+   public Election elect(Algorithm algorithm, int sites, int failed, int elections) throws Exception {
+      Site[] hosts = new Site[sites];
+      for (int i = 0; i < sites; i++) {
+         hosts[i] = new Site("localhost", nextPort + i);
+      }
+      nextPort += sites;
+      int live = sites - failed;
+      InetSocketAddress expected = hosts[live - 1].getSocketAddress();
+
+      ElectionManager[] managers = new ElectionManager[live];
+      try {
+         for (int i = 0; i < live; i++) {
+            managers[i] = new ElectionManager(hosts, i, algorithm, false);
+            managers[i].listen();
+         }
+
+         Election election = null;
+         for (int e = 0; e < elections; e++) {
+            if (e > 0) {
+               // Les résultats de l'élection précédente finissent leur tour :
+               // sinon, l'initiateur ne relancerait pas d'élection
+               Thread.sleep(200);
+            }
+            int timeouts = timeouts(managers);
+            long start = System.nanoTime();
+            // getElected() attend la fin de l'élection sur l'initiateur, les
+            // autres sites connaissant déjà l'élu des élections précédentes
+            managers[0].startElection();
+            InetSocketAddress[] elected = new InetSocketAddress[live];
+            for (int i = 0; i < live; i++) {
+               while ((elected[i] = addressOf(managers[i].getElected())) == null || !elected[i].equals(expected)) {
+                  if (System.nanoTime() - start > DEADLINE_MILLIS * 1_000_000) {
+                     break;
+                  }
+                  Thread.sleep(1);
+               }
+            }
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            election = new Election(millis, timeouts(managers) - timeouts, expected, elected);
+         }
+         return election;
+      } finally {
+         for (ElectionManager manager : managers) {
+            if (manager != null) {
+               manager.close();
+            }
+         }
+      }
+   }
+
+   private static int timeouts(ElectionManager[] managers) {
+      int timeouts = 0;
+      for (ElectionManager manager : managers) {
+         timeouts += manager.getTimeouts();
+      }
+      return timeouts;
+   }
+
+   private static InetSocketAddress addressOf(Site site) {
+      return site == null ? null : site.getSocketAddress();
+   }
+
+   public static void main(String... args) throws Exception {
+      ElectionBenchmark benchmark = new ElectionBenchmark(7200);
+      System.out.println("sites  failed  ring (ms)  ring, 2nd (ms)  bully (ms)  ring timeouts  bully timeouts");
+      for (int sites : new int[]{4, 8, 16, 32, 64}) {
+         for (int failed = 0; failed <= 3; failed++) {
+            Election ring = benchmark.elect(Algorithm.RING, sites, failed);
+            Election ringAgain = benchmark.elect(Algorithm.RING, sites, failed, 2);
+            Election bully = benchmark.elect(Algorithm.BULLY, sites, failed);
+            System.out.println(String.format("%5d  %6d  %9d  %14d  %10d  %13d  %14d", sites, failed,
+                  ring.millis, ringAgain.millis, bully.millis, ring.timeouts, bully.timeouts));
+         }
+      }
+   }
+}
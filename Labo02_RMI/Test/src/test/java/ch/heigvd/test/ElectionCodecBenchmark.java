@@ -0,0 +1,87 @@
+package ch.heigvd.test;
+
+import ch.heigvd.prr.election.Message;
+import ch.heigvd.prr.election.Message.AnnounceMessage;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Micro-benchmarks JMH du codage des messages d'élection, sur une annonce
+ * portant l'aptitude de tous les sites, le plus grand message : codage
+ * dans un nouveau tableau ou dans un tampon réutilisé, comme le fait
+ * ElectionManager, et décodage depuis l'un ou l'autre.
+ *
+ * Depuis le dossier Test :
+ *    mvn test-compile exec:exec -Dexec.executable=java -Dexec.classpathScope=test
+ *        -Dexec.args="-classpath %classpath ch.heigvd.test.ElectionCodecBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ElectionCodecBenchmark {
+
+   @Param({"255", "10000"})
+   private int sites;
+
+   private AnnounceMessage announce;
+   private byte[] encoded;
+   private ByteBuffer buffer;
+
+   @Setup
+   public void setUp() {
+      announce = new AnnounceMessage();
+      for (int i = 0; i < sites; i++) {
+         announce.setAptitude(i, 1_000_000 + i);
+      }
+      encoded = announce.toByteArray();
+      buffer = ByteBuffer.allocate(Message.getMaxMessageSize(sites));
+   }
+
+   @Benchmark
+   public byte[] encodeToByteArray() {
+      return announce.toByteArray();
+   }
+
+   @Benchmark
+   public ByteBuffer encodeIntoBuffer() {
+      buffer.clear();
+      announce.writeTo(buffer);
+      return buffer;
+   }
+
+   @Benchmark
+   public Message decodeFromByteArray() {
+      return Message.parse(encoded, encoded.length);
+   }
+
+   @Benchmark
+   public Message decodeFromBuffer() {
+      buffer.clear();
+      buffer.put(encoded).flip();
+      return Message.parse(buffer);
+   }
+
+   public static void main(String... args) throws Exception {
+      Options options = new OptionsBuilder()
+            .include(ElectionCodecBenchmark.class.getSimpleName())
+            .build();
+      new Runner(options).run();
+   }
+}
@@ -0,0 +1,154 @@
+package ch.heigvd.test;
+
+import ch.heigvd.globalvariableclient.Client;
+import ch.heigvd.lamportmanager.GlobalVariableManager;
+import ch.heigvd.lamportmanager.GlobalVariableManager.Algorithm;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.rmi.RemoteException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Micro-benchmarks JMH des opérations du client sur une grappe lancée dans la
+ * JVM du benchmark. Le mode SampleTime donne la distribution des latences, et
+ * donc les percentiles p50, p99 et p99.9, ainsi que le débit.
+ *
+ * Chaque thread JMH est un client, réparti sur les sites à tour de rôle.
+ * Le groupe "mix" fait tourner en parallèle des écrivains et des lecteurs.
+ *
+ * Depuis le dossier Test :
+ *    mvn test-compile exec:exec -Dexec.executable=java -Dexec.classpathScope=test
+ *        -Dexec.args="-classpath %classpath ch.heigvd.test.LamportBenchmark"
+ *
+ * Les résultats sont écrits en JSON dans target/benchmark/jmh.json, ou dans le
+ * fichier passé en argument.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class LamportBenchmark {
+
+   @Param({"LAMPORT", "TOKEN", "MAEKAWA"})
+   public Algorithm algorithm;
+
+   @Param({"3", "5"})
+   public int sites;
+
+   // Chaque essai lance sa grappe dans un nouveau fork, les ports peuvent
+   // donc être réutilisés
+   private static final int FIRST_PORT = 6500;
+
+   String[][] hosts;
+   private GlobalVariableManager[] managers;
+   private final AtomicInteger nextClient = new AtomicInteger();
+
+   @Setup(Level.Trial)
+   public void startCluster() throws Exception {
+      hosts = new String[sites][];
+      for (int i = 0; i < sites; i++) {
+         hosts[i] = new String[]{"localhost", String.valueOf(FIRST_PORT + i)};
+      }
+
+      managers = new GlobalVariableManager[sites];
+      for (int i = 0; i < sites; i++) {
+         managers[i] = GlobalVariableManager.create(algorithm, hosts, i);
+      }
+      for (GlobalVariableManager manager : managers) {
+         manager.connectToRemotes();
+      }
+   }
+
+   @TearDown(Level.Trial)
+   public void stopCluster() {
+      for (GlobalVariableManager manager : managers) {
+         manager.close();
+      }
+   }
+
+   /**
+    * Le client d'un thread du benchmark, connecté à l'un des sites
+    */
+   @State(Scope.Thread)
+   public static class ClientState {
+
+      Client client;
+      int value;
+
+      @Setup(Level.Trial)
+      public void connect(LamportBenchmark cluster) throws Exception {
+         int index = cluster.nextClient.getAndIncrement();
+         client = new Client("localhost:" + cluster.hosts[index % cluster.sites][1]);
+      }
+   }
+
+   @Benchmark
+   @Threads(4)
+   public void write(ClientState state) throws RemoteException {
+      state.client.setGlobalValue(state.value++);
+   }
+
+   @Benchmark
+   @Threads(4)
+   public int read(ClientState state) throws RemoteException {
+      return state.client.getGlobalVariable();
+   }
+
+   @Benchmark
+   @Group("mix")
+   @GroupThreads(2)
+   public void mixWrite(ClientState state) throws RemoteException {
+      state.client.setGlobalValue(state.value++);
+   }
+
+   @Benchmark
+   @Group("mix")
+   @GroupThreads(2)
+   public int mixRead(ClientState state) throws RemoteException {
+      return state.client.getGlobalVariable();
+   }
+
+   /**
+    * Lance tous les benchmarks et écrit les résultats en JSON
+    *
+    * @param args le fichier de résultats, target/benchmark/jmh.json par défaut
+    * @throws Exception si le benchmark n'a pas pu être lancé
+    */
+   public static void main(String... args) throws Exception {
+      Path file = Paths.get(args.length > 0 ? args[0] : "target/benchmark/jmh.json");
+      if (file.getParent() != null) {
+         Files.createDirectories(file.getParent());
+      }
+
+      Options options = new OptionsBuilder()
+            .include(LamportBenchmark.class.getSimpleName())
+            .resultFormat(ResultFormatType.JSON)
+            .result(file.toString())
+            .build();
+      new Runner(options).run();
+   }
+}
@@ -0,0 +1,371 @@
+package ch.heigvd.test;
+
+import ch.heigvd.globalvariableclient.AsyncClient;
+import ch.heigvd.globalvariableclient.Client;
+import ch.heigvd.lamportmanager.GlobalVariableManager;
+import ch.heigvd.lamportmanager.GlobalVariableManager.Algorithm;
+import ch.heigvd.lamportmanager.transport.Transport;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Générateur de charge : lance une grappe de sites dans la JVM, puis fait
+ * lire et écrire la variable globale par des clients concurrents. Chaque
+ * mesure donne le nombre d'acquisitions de la section critique par seconde,
+ * les percentiles de latence de setVariable, le nombre de messages envoyés
+ * entre sites par section critique et le nombre de mises à jour envoyées par
+ * la réplication asynchrone par section critique.
+ *
+ * Les résultats sont ajoutés à un fichier CSV, une ligne par mesure,
+ * étiquetée (par exemple par le commit mesuré) afin de comparer les
+ * changements entre eux.
+ *
+ * En standalone, depuis le dossier Test :
+ *    mvn test-compile exec:exec -Dexec.executable=java -Dexec.classpathScope=test
+ *        -Dexec.args="-classpath %classpath ch.heigvd.test.LoadGenerator results.csv mylabel"
+ */
+public class LoadGenerator {
+
+   /**
+    * En-tête du fichier de résultats
+    */
+   public static final String CSV_HEADER = "label,algorithm,sites,clients,writeRatio,writes,reads,"
+         + "csPerSecond,p50Micros,p99Micros,p999Micros,messagesPerCs,updatesPerCs,keys,window,coalesce,transport";
+
+   /**
+    * Une configuration à mesurer
+    */
+   public static class Config {
+
+      final Algorithm algorithm;
+      final Transport.Kind transport;
+      final int sites;
+      final int clients;
+      final double writeRatio;
+      final int opsPerClient;
+      final int keys;
+      final int window;
+      final boolean coalesce;
+
+      /**
+       * @param algorithm l'algorithme d'exclusion mutuelle
+       * @param sites le nombre de sites
+       * @param clients le nombre de clients, répartis sur les sites
+       * @param writeRatio la proportion d'écritures, entre 0 et 1
+       * @param opsPerClient le nombre d'opérations de chaque client
+       */
+      public Config(Algorithm algorithm, int sites, int clients, double writeRatio, int opsPerClient) {
+         this(algorithm, sites, clients, writeRatio, opsPerClient, 1);
+      }
+
+      /**
+       * @param algorithm l'algorithme d'exclusion mutuelle
+       * @param sites le nombre de sites
+       * @param clients le nombre de clients, répartis sur les sites
+       * @param writeRatio la proportion d'écritures, entre 0 et 1
+       * @param opsPerClient le nombre d'opérations de chaque client
+       * @param keys le nombre de variables partagées, le client c utilisant
+       * la clé c % keys
+       */
+      public Config(Algorithm algorithm, int sites, int clients, double writeRatio, int opsPerClient, int keys) {
+         this(algorithm, sites, clients, writeRatio, opsPerClient, keys, 0, false);
+      }
+
+      /**
+       * @param algorithm l'algorithme d'exclusion mutuelle
+       * @param sites le nombre de sites
+       * @param clients le nombre de clients, répartis sur les sites
+       * @param writeRatio la proportion d'écritures, entre 0 et 1
+       * @param opsPerClient le nombre d'opérations de chaque client
+       * @param keys le nombre de variables partagées
+       * @param window 0 pour le client bloquant, sinon le nombre maximal
+       * d'opérations en vol de chaque AsyncClient, qui utilise alors les clés
+       * à tour de rôle
+       * @param coalesce si AsyncClient regroupe les écritures sur une même clé
+       */
+      public Config(Algorithm algorithm, int sites, int clients, double writeRatio, int opsPerClient, int keys,
+            int window, boolean coalesce) {
+         this(algorithm, Transport.Kind.RMI, sites, clients, writeRatio, opsPerClient, keys, window, coalesce);
+      }
+
+      /**
+       * @param algorithm l'algorithme d'exclusion mutuelle
+       * @param transport le transport des messages entre les sites
+       * @param sites le nombre de sites
+       * @param clients le nombre de clients, répartis sur les sites
+       * @param writeRatio la proportion d'écritures, entre 0 et 1
+       * @param opsPerClient le nombre d'opérations de chaque client
+       * @param keys le nombre de variables partagées
+       * @param window 0 pour le client bloquant, sinon le nombre maximal
+       * d'opérations en vol de chaque AsyncClient
+       * @param coalesce si AsyncClient regroupe les écritures sur une même clé
+       */
+      public Config(Algorithm algorithm, Transport.Kind transport, int sites, int clients, double writeRatio,
+            int opsPerClient, int keys, int window, boolean coalesce) {
+         this.algorithm = algorithm;
+         this.transport = transport;
+         this.sites = sites;
+         this.clients = clients;
+         this.writeRatio = writeRatio;
+         this.opsPerClient = opsPerClient;
+         this.keys = keys;
+         this.window = window;
+         this.coalesce = coalesce;
+      }
+   }
+
+   /**
+    * Le résultat d'une mesure
+    */
+   public static class Result {
+
+      final Config config;
+      final int writes;
+      final int reads;
+      final double csPerSecond;
+      final double p50Micros;
+      final double p99Micros;
+      final double p999Micros;
+      final double messagesPerCs;
+      final double updatesPerCs;
+
+      Result(Config config, int writes, int reads, double csPerSecond, long[] sortedLatencies,
+            double messagesPerCs, double updatesPerCs) {
+         this.config = config;
+         this.writes = writes;
+         this.reads = reads;
+         this.csPerSecond = csPerSecond;
+         this.p50Micros = percentile(sortedLatencies, 0.50) / 1e3;
+         this.p99Micros = percentile(sortedLatencies, 0.99) / 1e3;
+         this.p999Micros = percentile(sortedLatencies, 0.999) / 1e3;
+         this.messagesPerCs = messagesPerCs;
+         this.updatesPerCs = updatesPerCs;
+      }
+
+      /**
+       * @param label l'étiquette de la mesure
+       * @return la ligne CSV de ce résultat
+       */
+      public String toCsv(String label) {
+         return String.format(java.util.Locale.ROOT, "%s,%s,%d,%d,%.2f,%d,%d,%.1f,%.1f,%.1f,%.1f,%.3f,%.3f,%d,%d,%b,%s",
+               label, config.algorithm, config.sites, config.clients, config.writeRatio, writes, reads,
+               csPerSecond, p50Micros, p99Micros, p999Micros, messagesPerCs, updatesPerCs, config.keys,
+               config.window, config.coalesce, config.transport);
+      }
+   }
+
+   /**
+    * Le premier port de la plage des grappes lancées
+    */
+   private final int firstPort;
+
+   /**
+    * @param firstPort le premier port utilisé par les grappes lancées
+    */
+   public LoadGenerator(int firstPort) {
+      this.firstPort = firstPort;
+   }
+
+   /**
+    * Lance une grappe, effectue la mesure puis arrête la grappe
+    *
+    * @param config la configuration à mesurer
+    * @return le résultat de la mesure
+    * @throws Exception si la grappe n'a pas pu être lancée
+    */
+   public Result run(Config config) throws Exception {
+      try (Cluster<GlobalVariableManager> cluster = Cluster.start(firstPort, config.sites, config.algorithm,
+            config.transport)) {
+         Client[] clients = new Client[config.clients];
+         for (int c = 0; c < config.clients; c++) {
+            clients[c] = cluster.client(c % config.sites);
+         }
+
+         // Les latences d'écriture de chaque client, en nanosecondes
+         final long[][] latencies = new long[config.clients][];
+         final int[] reads = new int[config.clients];
+
+         double seconds = Cluster.inParallel(config.clients, c -> {
+            if (config.window > 0) {
+               pipelined(config, cluster, c, latencies, reads);
+               return;
+            }
+            Random random = new Random(c);
+            String key = config.keys > 1 ? "key" + (c % config.keys) : null;
+            long[] own = new long[config.opsPerClient];
+            int writes = 0;
+            try {
+               for (int x = 0; x < config.opsPerClient; x++) {
+                  if (random.nextDouble() < config.writeRatio) {
+                     long start = System.nanoTime();
+                     if (key == null) {
+                        clients[c].setGlobalValue(c * config.opsPerClient + x);
+                     } else {
+                        clients[c].setGlobalValue(key, c * config.opsPerClient + x);
+                     }
+                     own[writes++] = System.nanoTime() - start;
+                  } else {
+                     if (key == null) {
+                        clients[c].getGlobalVariable();
+                     } else {
+                        clients[c].getGlobalVariable(key);
+                     }
+                     reads[c]++;
+                  }
+               }
+            } finally {
+               latencies[c] = Arrays.copyOf(own, writes);
+            }
+         });
+
+         long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+         int totalReads = Arrays.stream(reads).sum();
+         return new Result(config, all.length, totalReads, all.length / seconds, all,
+               all.length == 0 ? 0 : (double) cluster.messagesSent() / all.length,
+               all.length == 0 ? 0 : (double) cluster.updatesSent() / all.length);
+      }
+   }
+
+   /**
+    * Fait effectuer les opérations du client c par un AsyncClient
+    */
+   private static void pipelined(Config config, Cluster<?> cluster, int c, long[][] latencies, int[] reads)
+         throws RemoteException {
+      Random random = new Random(c);
+      long[] own = new long[config.opsPerClient];
+      int writes = 0;
+      List<CompletableFuture<?>> futures = new ArrayList<>();
+      try (AsyncClient client = new AsyncClient("localhost:" + cluster.hosts[c % config.sites][1],
+            config.window, Runnable::run, config.coalesce)) {
+         for (int x = 0; x < config.opsPerClient; x++) {
+            String key = "key" + (x % config.keys);
+            if (random.nextDouble() < config.writeRatio) {
+               final int slot = writes++;
+               final long start = System.nanoTime();
+               futures.add(client.setGlobalValue(key, c * config.opsPerClient + x)
+                     .thenRun(() -> own[slot] = System.nanoTime() - start));
+            } else {
+               futures.add(client.getGlobalVariable(key));
+               reads[c]++;
+            }
+         }
+         CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+      } catch (MalformedURLException | NotBoundException ex) {
+         throw new RemoteException("Site " + (c % config.sites) + " is unreachable", ex);
+      } catch (InterruptedException ex) {
+         Thread.currentThread().interrupt();
+      } finally {
+         latencies[c] = Arrays.copyOf(own, writes);
+      }
+   }
+
+   /**
+    * Ajoute des résultats à un fichier CSV, en écrivant l'en-tête si le
+    * fichier n'existe pas encore
+    *
+    * @param file le fichier de résultats
+    * @param label l'étiquette des mesures
+    * @param results les résultats à ajouter
+    * @throws IOException si le fichier ne peut pas être écrit
+    */
+   public static void append(Path file, String label, List<Result> results) throws IOException {
+      List<String> lines = new ArrayList<>();
+      if (!Files.exists(file)) {
+         if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+         }
+         lines.add(CSV_HEADER);
+      }
+      for (Result result : results) {
+         lines.add(result.toCsv(label));
+      }
+      Files.write(file, lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+   }
+
+   private static double percentile(long[] sorted, double p) {
+      if (sorted.length == 0) {
+         return 0;
+      }
+      int index = (int) Math.ceil(p * sorted.length) - 1;
+      return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+   }
+
+   /**
+    * Mesure toutes les combinaisons d'algorithme, de nombre de sites, de
+    * nombre de clients et de proportion d'écritures, puis chaque algorithme
+    * sur des grappes de 16 à 49 sites, Lamport sur plusieurs clés et enfin
+    * un seul client asynchrone avec plusieurs fenêtres et Lamport sur chaque
+    * transport entre les sites
+    *
+    * @param args le fichier de résultats (benchmark-results.csv par défaut)
+    * puis l'étiquette des mesures
+    * @throws Exception si une grappe n'a pas pu être lancée
+    */
+   public static void main(String... args) throws Exception {
+      Path file = Paths.get(args.length > 0 ? args[0] : "benchmark-results.csv");
+      String label = args.length > 1 ? args[1] : String.valueOf(System.currentTimeMillis());
+
+      LoadGenerator generator = new LoadGenerator(6100);
+      List<Result> results = new ArrayList<>();
+      System.out.println(CSV_HEADER);
+      for (Algorithm algorithm : Algorithm.values()) {
+         for (int sites : new int[]{3, 5, 9}) {
+            for (int clients : new int[]{sites, 3 * sites}) {
+               for (double writeRatio : new double[]{1.0, 0.5, 0.1}) {
+                  Result result = generator.run(new Config(algorithm, sites, clients, writeRatio, 50));
+                  System.out.println(result.toCsv(label));
+                  results.add(result);
+               }
+            }
+         }
+      }
+
+      // Passage à l'échelle des algorithmes à quorum ou à séquenceur :
+      // quelques clients qui écrivent sur des grappes plus grandes
+      for (Algorithm algorithm : Algorithm.values()) {
+         for (int sites : new int[]{16, 25, 36, 49}) {
+            Result result = generator.run(new Config(algorithm, sites, 4, 1.0, 25));
+            System.out.println(result.toCsv(label));
+            results.add(result);
+         }
+      }
+
+      // Lamport avec une file par clé : les clients se répartissent les clés
+      for (int keys : new int[]{2, 4, 8}) {
+         Result result = generator.run(new Config(Algorithm.LAMPORT, 3, 8, 1.0, 50, keys));
+         System.out.println(result.toCsv(label));
+         results.add(result);
+      }
+
+      // Un seul thread applicatif, qui pipeline ses écritures sur 4 clés
+      for (int window : new int[]{1, 16}) {
+         for (boolean coalesce : new boolean[]{false, true}) {
+            Result result = generator.run(new Config(Algorithm.LAMPORT, 3, 1, 1.0, 200, 4, window, coalesce));
+            System.out.println(result.toCsv(label));
+            results.add(result);
+         }
+      }
+
+      // Seuls les messages de l'algorithme changent de transport
+      for (Transport.Kind transport : Transport.Kind.values()) {
+         Result result = generator.run(new Config(Algorithm.LAMPORT, transport, 3, 6, 1.0, 50, 1, 0, false));
+         System.out.println(result.toCsv(label));
+         results.add(result);
+      }
+
+      append(file, label, results);
+      System.exit(0);
+   }
+}
@@ -0,0 +1,133 @@
+package ch.heigvd.test;
+
+import ch.heigvd.interfacesrmi.ILamportAlgorithm;
+import ch.heigvd.lamportmanager.SimulatedLamportSite;
+import ch.heigvd.lamportmanager.sim.LatencyModel;
+import ch.heigvd.lamportmanager.sim.SimulatedNetwork;
+import ch.heigvd.lamportmanager.sim.Simulator;
+
+/**
+ * Mesure le passage à l'échelle de Lamport jusqu'à 1000 sites, sur le réseau
+ * simulé : des écritures arrivent au hasard sur les sites pendant une
+ * seconde de temps virtuel, et chacune incrémente la même variable.
+ *
+ * main() affiche, par nombre de sites, le nombre de messages par écriture, la
+ * latence moyenne et maximale d'une écriture en temps virtuel, et la durée
+ * réelle de la simulation, puis l'effet d'1% de messages perdus.
+ *
+ * En standalone, depuis le dossier Test :
+ *    mvn test-compile exec:exec -Dexec.executable=java -Dexec.classpathScope=test
+ *        -Dexec.args="-classpath %classpath ch.heigvd.test.SimulatedScalingBenchmark"
+ */
+public class SimulatedScalingBenchmark {
+
+   static final int WRITES = 200;
+   static final long SEED = 2017;
+
+   private static final long ARRIVAL_WINDOW_MICROS = 1_000_000;
+   private static final String KEY = "counter";
+
+   final Simulator simulator;
+   final SimulatedNetwork<ILamportAlgorithm> network;
+   private final SimulatedLamportSite[] sites;
+
+   /**
+    * Crée une grappe simulée et planifie ses WRITES écritures
+    *
+    * @param nbSites le nombre de sites
+    * @param seed la graine du simulateur
+    * @param lossRate la proportion de messages perdus, puis retransmis
+    */
+   public SimulatedScalingBenchmark(int nbSites, long seed, double lossRate) {
+      simulator = new Simulator(seed);
+      network = new SimulatedNetwork<>(simulator, nbSites);
+      // Quelques centaines de microsecondes, comme dans un centre de
+      // données, avec une longue traîne
+      network.setLatency(LatencyModel.logNormal(300, 0.5));
+      network.setLoss(lossRate, SimulatedNetwork.DEFAULT_RETRANSMIT_MICROS);
+
+      sites = new SimulatedLamportSite[nbSites];
+      for (int i = 0; i < nbSites; i++) {
+         sites[i] = new SimulatedLamportSite(simulator, network, nbSites, i);
+         sites[i].setCriticalSectionMicros(50);
+      }
+      for (int w = 0; w < WRITES; w++) {
+         SimulatedLamportSite site = sites[simulator.random().nextInt(nbSites)];
+         long arrival = (long) (simulator.random().nextDouble() * ARRIVAL_WINDOW_MICROS);
+         simulator.schedule(arrival, () -> site.modify(KEY, (old) -> old + 1, null));
+      }
+   }
+
+   /**
+    * @return le temps virtuel à la fin de la simulation, en microsecondes
+    */
+   public long run() {
+      return simulator.run();
+   }
+
+   /**
+    * @return vrai si aucune incrémentation n'est perdue et que tous les sites
+    * ont la dernière valeur
+    */
+   public boolean isConsistent() {
+      long done = 0;
+      for (SimulatedLamportSite site : sites) {
+         if (site.getValue(KEY) != WRITES) {
+            return false;
+         }
+         done += site.getWritesDone();
+      }
+      return done == WRITES;
+   }
+
+   /**
+    * @return le nombre de messages envoyés par écriture
+    */
+   public double messagesPerWrite() {
+      return (double) network.getMessagesSent() / WRITES;
+   }
+
+   /**
+    * @return la latence moyenne d'une écriture, en millisecondes de temps
+    * virtuel
+    */
+   public double meanLatencyMillis() {
+      long total = 0;
+      for (SimulatedLamportSite site : sites) {
+         total += site.getTotalLatencyMicros();
+      }
+      return total / 1000.0 / WRITES;
+   }
+
+   /**
+    * @return la latence maximale d'une écriture, en millisecondes de temps
+    * virtuel
+    */
+   public double maxLatencyMillis() {
+      long max = 0;
+      for (SimulatedLamportSite site : sites) {
+         max = Math.max(max, site.getMaxLatencyMicros());
+      }
+      return max / 1000.0;
+   }
+
+   public static void main(String... args) {
+      System.out.println("sites  messages/write  latency (ms)  max (ms)  events   wall (ms)");
+      for (int sites : new int[]{10, 100, 1000}) {
+         long start = System.nanoTime();
+         SimulatedScalingBenchmark simulation = new SimulatedScalingBenchmark(sites, SEED, 0);
+         simulation.run();
+         long wall = (System.nanoTime() - start) / 1_000_000;
+         System.out.println(String.format("%5d  %14.0f  %12.2f  %8.2f  %7d  %9d",
+               sites, simulation.messagesPerWrite(), simulation.meanLatencyMillis(), simulation.maxLatencyMillis(),
+               simulation.simulator.getEventsProcessed(), wall));
+      }
+
+      SimulatedScalingBenchmark reliable = new SimulatedScalingBenchmark(100, SEED, 0);
+      SimulatedScalingBenchmark lossy = new SimulatedScalingBenchmark(100, SEED, 0.01);
+      reliable.run();
+      lossy.run();
+      System.out.println(String.format("100 sites, 1%% loss: %d lost, latency %.2f ms instead of %.2f ms",
+            lossy.network.getMessagesLost(), lossy.meanLatencyMillis(), reliable.meanLatencyMillis()));
+   }
+}
@@ -0,0 +1,291 @@
+package ch.heigvd.test;
+
+import ch.heigvd.globalvariableclient.Client;
+import ch.heigvd.lamportmanager.LamportManager;
+import ch.heigvd.lamportmanager.stats.LamportStatsSnapshot;
+import ch.heigvd.lamportmanager.transport.Transport;
+import ch.heigvd.lamportmanager.wal.WriteAheadLog;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Mesure les fonctionnalités d'un site Lamport autres que le débit de
+ * l'exclusion mutuelle, mesuré par LoadGenerator : chaque mesure lance ses
+ * sites dans la JVM, sur localhost, puis les arrête.
+ *
+ * Les tests vérifient le comportement de ces fonctionnalités, les valeurs
+ * mesurées sont affichées par main().
+ *
+ * En standalone, depuis le dossier Test :
+ *    mvn test-compile exec:exec -Dexec.executable=java -Dexec.classpathScope=test
+ *        -Dexec.args="-classpath %classpath ch.heigvd.test.SiteBenchmark"
+ */
+public class SiteBenchmark {
+
+   private static final int SITES = 3;
+   private static final long FAILURE_TIMEOUT_MILLIS = 500;
+
+   /**
+    * Le premier port de la plage des sites lancés
+    */
+   private final int firstPort;
+
+   /**
+    * @param firstPort le premier port utilisé, chaque mesure utilisant les
+    * suivants
+    */
+   public SiteBenchmark(int firstPort) {
+      this.firstPort = firstPort;
+   }
+
+   /**
+    * Fait écrire un client sur le site 0 d'une grappe de SITES sites, puis
+    * lit les mesures publiées par ce site
+    *
+    * @param writes le nombre d'écritures
+    * @return la décomposition du temps des écritures
+    * @throws Exception si la grappe n'a pas pu être lancée
+    */
+   public LamportStatsSnapshot stages(int writes) throws Exception {
+      try (Cluster<LamportManager> cluster = Cluster.start(firstPort, SITES, LamportManager::new)) {
+         Client client = cluster.client(0);
+         for (int x = 1; x <= writes; x++) {
+            client.setGlobalValue(x);
+         }
+         return cluster.site(0).getStats().getSnapshot();
+      }
+   }
+
+   /**
+    * Arrête le site 2 d'une grappe de SITES sites détectant les pannes, puis
+    * fait écrire un client sur le site 0
+    *
+    * @param writes le nombre d'écritures
+    * @return la durée des écritures, en secondes, détection de la panne
+    * comprise
+    * @throws Exception si la grappe n'a pas pu être lancée
+    */
+   public double deadSiteWrites(int writes) throws Exception {
+      try (Cluster<LamportManager> cluster = Cluster.start(firstPort, SITES, SiteBenchmark::detecting)) {
+         Client client = cluster.client(0);
+         client.setGlobalValue(0);
+         cluster.stop(2);
+
+         long start = System.nanoTime();
+         for (int x = 1; x <= writes; x++) {
+            client.setGlobalValue(x);
+         }
+         return (System.nanoTime() - start) / 1e9;
+      }
+   }
+
+   /**
+    * Lance les sites 0 et 1 d'une grappe de SITES sites, y écrit deux
+    * variables, puis lance le site 2 et mesure son rattrapage
+    *
+    * @param writes le nombre d'écritures sur chaque variable avant le
+    * lancement du site 2
+    * @return la durée de join() du site 2, en millisecondes
+    * @throws Exception si un site n'a pas pu être lancé
+    */
+   public double lateJoin(int writes) throws Exception {
+      String[][] hosts = Cluster.hosts(firstPort, SITES);
+      LamportManager[] managers = new LamportManager[SITES];
+      try {
+         managers[0] = detecting(hosts, 0);
+         managers[1] = detecting(hosts, 1);
+         managers[0].join();
+         managers[1].join();
+
+         Client client = new Client("localhost:" + hosts[0][1]);
+         for (int x = 1; x <= writes; x++) {
+            client.setGlobalValue("a", x);
+            client.setGlobalValue("b", -x);
+         }
+
+         long start = System.nanoTime();
+         managers[2] = detecting(hosts, 2);
+         managers[2].join();
+         return (System.nanoTime() - start) / 1e6;
+      } finally {
+         for (LamportManager manager : managers) {
+            if (manager != null) {
+               manager.close();
+            }
+         }
+      }
+   }
+
+   /**
+    * Fait lire un client connaissant tous les sites d'une grappe de SITES
+    * sites
+    *
+    * @param reads le nombre de lectures
+    * @return le nombre de lectures servies par chaque site
+    * @throws Exception si la grappe n'a pas pu être lancée
+    */
+   public long[] readsPerSite(int reads) throws Exception {
+      try (Cluster<LamportManager> cluster = Cluster.start(firstPort, SITES, SiteBenchmark::detecting)) {
+         String[] sites = new String[SITES];
+         for (int i = 0; i < SITES; i++) {
+            sites[i] = "localhost:" + cluster.hosts[i][1];
+         }
+         try (Client client = new Client(sites)) {
+            client.setGlobalValue(7);
+            for (int i = 0; i < reads; i++) {
+               client.getGlobalVariable();
+            }
+            return client.getReadsPerSite();
+         }
+      }
+   }
+
+   /**
+    * Lance le site 0 d'une grappe de 'sites' sites, qui rejoint la grappe dès
+    * que 2 sites sont joignables, puis les autres sites un à un
+    *
+    * @param sites le nombre de sites
+    * @param staggerMillis le délai entre deux lancements
+    * @return la durée, en millisecondes, entre le début des lancements et la
+    * fin de join() du site 0
+    * @throws Exception si un site n'a pas pu être lancé ou rejoindre la
+    * grappe
+    */
+   public double staggeredJoin(int sites, long staggerMillis) throws Exception {
+      String[][] hosts = Cluster.hosts(firstPort, sites);
+      LamportManager[] managers = new LamportManager[sites];
+      try {
+         managers[0] = detecting(hosts, 0);
+         managers[0].setReadySites(2);
+         CompletableFuture<Void> joined = CompletableFuture.runAsync(() -> {
+            try {
+               managers[0].join();
+            } catch (Exception ex) {
+               throw new CompletionException(ex);
+            }
+         });
+
+         long start = System.nanoTime();
+         for (int i = 1; i < sites; i++) {
+            Thread.sleep(staggerMillis);
+            managers[i] = detecting(hosts, i);
+         }
+         joined.join();
+         return (System.nanoTime() - start) / 1e6;
+      } finally {
+         for (LamportManager manager : managers) {
+            if (manager != null) {
+               manager.close();
+            }
+         }
+      }
+   }
+
+   /**
+    * Ecrit un contenu binaire aléatoire depuis le site 0 d'une grappe de
+    * SITES sites utilisant le transport NIO, puis le réécrit en ne modifiant
+    * à chaque fois que quelques octets consécutifs
+    *
+    * @param size la taille du contenu, en octets
+    * @param writes le nombre de réécritures
+    * @param changedBytes le nombre d'octets modifiés par chaque réécriture
+    * @return le nombre d'octets envoyés par réécriture, et le nombre
+    * d'octets qu'aurait envoyé le contenu complet
+    * @throws Exception si la grappe n'a pas pu être lancée
+    */
+   public double[] payloadBytesPerWrite(int size, int writes, int changedBytes) throws Exception {
+      try (Cluster<LamportManager> cluster = Cluster.start(firstPort, SITES,
+            (hosts, i) -> new LamportManager(hosts, i, Transport.Kind.NIO))) {
+         Random random = new Random(42);
+         byte[] record = new byte[size];
+         random.nextBytes(record);
+         Client client = cluster.client(0);
+         client.setGlobalPayload("record", record);
+
+         LamportManager site = cluster.site(0);
+         long sent = site.getPayloadBytesSent();
+         long full = site.getPayloadBytesFull();
+         for (int w = 0; w < writes; w++) {
+            int offset = random.nextInt(size - changedBytes);
+            for (int b = 0; b < changedBytes; b++) {
+               record[offset + b]++;
+            }
+            client.setGlobalPayload("record", record);
+         }
+         return new double[]{
+            (double) (site.getPayloadBytesSent() - sent) / writes,
+            (double) (site.getPayloadBytesFull() - full) / writes};
+      }
+   }
+
+   /**
+    * Ecrit dans un journal temporaire, le ferme, puis le relit
+    *
+    * @param writes le nombre d'écritures, sur 4 clés
+    * @return la taille du journal avant sa fermeture, en octets, et la durée
+    * de la relecture, en microsecondes
+    * @throws Exception si le journal n'a pas pu être écrit ou relu
+    */
+   public static long[] logSizeAndReplay(int writes) throws Exception {
+      Path file = Files.createTempFile("benchmark", ".wal");
+      try {
+         WriteAheadLog log = new WriteAheadLog(file, WriteAheadLog.Sync.ASYNC);
+         for (int i = 1; i <= writes; i++) {
+            log.append("key" + (i % 4), i, i);
+         }
+         int size = log.size();
+         log.close();
+
+         long start = System.nanoTime();
+         WriteAheadLog reopened = new WriteAheadLog(file, WriteAheadLog.Sync.ASYNC);
+         reopened.replay((key, value, version) -> {
+         });
+         long micros = (System.nanoTime() - start) / 1000;
+         reopened.close();
+         return new long[]{size, micros};
+      } finally {
+         Files.delete(file);
+      }
+   }
+
+   /**
+    * Crée un site Lamport détectant les pannes après FAILURE_TIMEOUT_MILLIS
+    */
+   private static LamportManager detecting(String[][] hosts, int index) {
+      return new LamportManager(hosts, index, Transport.Kind.RMI, 0, FAILURE_TIMEOUT_MILLIS);
+   }
+
+   public static void main(String... args) throws Exception {
+      SiteBenchmark benchmark = new SiteBenchmark(6600);
+
+      LamportStatsSnapshot stages = benchmark.stages(200);
+      System.out.println("round trip  " + stages.getRequestRoundTrip());
+      System.out.println("queue wait  " + stages.getQueueWait());
+      System.out.println("critical    " + stages.getCriticalSection());
+      System.out.println("free        " + stages.getFreeFanOut());
+      System.out.println("slowest     " + Arrays.toString(stages.getSlowestResponder()));
+
+      System.out.println(String.format("19 writes with a dead site: %.2f s", benchmark.deadSiteWrites(19)));
+
+      System.out.println(String.format("late join: %.1f ms", benchmark.lateJoin(10)));
+
+      System.out.println("reads per site: " + Arrays.toString(benchmark.readsPerSite(3000)));
+
+      System.out.println(String.format("joined after %.1f ms, 4 sites started 300 ms apart",
+            benchmark.staggeredJoin(4, 300)));
+
+      double[] payload = benchmark.payloadBytesPerWrite(64 * 1024, 20, 16);
+      System.out.println(String.format("payload 65536 bytes: %.1f bytes/write sent instead of %.1f",
+            payload[0], payload[1]));
+
+      long[] log = logSizeAndReplay(1_000_000);
+      System.out.println(String.format("log size after 1000000 writes: %d bytes, replay: %.1f ms",
+            log[0], log[1] / 1e3));
+
+      System.exit(0);
+   }
+}
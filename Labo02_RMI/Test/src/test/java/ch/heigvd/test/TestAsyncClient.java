@@ -0,0 +1,116 @@
+package ch.heigvd.test;
+
+import ch.heigvd.globalvariableclient.AsyncClient;
+import ch.heigvd.lamportmanager.GlobalVariableManager;
+import ch.heigvd.lamportmanager.GlobalVariableManager.Algorithm;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Un seul thread applicatif écrit sur plusieurs variables à travers le client
+ * asynchrone, avec une fenêtre d'une seule opération (cas équivalent au
+ * client bloquant), une fenêtre plus large, puis avec le regroupement des
+ * écritures, et vérifie la valeur finale de chaque variable. Le débit de
+ * chaque configuration est mesuré par LoadGenerator. Vérifie que le
+ * regroupement ne fait pas passer une écriture avant une lecture demandée
+ * avant elle. Vérifie aussi que la
+ * fermeture du client complète les futurs des opérations abandonnées.
+ */
+public class TestAsyncClient {
+
+   private static final int SITES = 3;
+   private static final int KEYS = 4;
+   private static final int WRITES = 200;
+
+   @Test
+   public void pipelinedWrites() throws Exception {
+      run(1, false);
+      run(16, false);
+      run(16, true);
+   }
+
+   @Test
+   public void coalescingKeepsReadsAfterWrites() throws Exception {
+      ExecutorService callbacks = Executors.newSingleThreadExecutor();
+      try (Cluster<GlobalVariableManager> cluster = Cluster.start(5600, SITES, Algorithm.LAMPORT);
+            AsyncClient client = new AsyncClient("localhost:" + cluster.hosts[0][1], 16, callbacks, true)) {
+         for (int x = 0; x < 20; x++) {
+            // L'incrément retarde les opérations suivantes, qui restent en file
+            client.addAndGet("key", 1);
+            client.setGlobalValue("key", 2 * x);
+            CompletableFuture<Integer> read = client.getGlobalVariable("key");
+            client.setGlobalValue("key", 2 * x + 1);
+            assertEquals(2 * x, (int) read.get(10, TimeUnit.SECONDS));
+         }
+      } finally {
+         callbacks.shutdown();
+      }
+   }
+
+   @Test
+   public void closeCompletesAbandonedOperations() throws Exception {
+      ExecutorService callbacks = Executors.newSingleThreadExecutor();
+      try (Cluster<GlobalVariableManager> cluster = Cluster.start(5600, SITES, Algorithm.LAMPORT)) {
+         List<CompletableFuture<Void>> futures = new ArrayList<>();
+         AsyncClient client = new AsyncClient("localhost:" + cluster.hosts[0][1], 2, callbacks, false);
+         // Sur une même variable, les écritures attendent chacune la précédente
+         for (int x = 0; x < 50; x++) {
+            futures.add(client.setGlobalValue("key", x));
+         }
+         client.close();
+
+         // Chaque futur est complété, normalement ou par la fermeture
+         int abandoned = 0;
+         for (CompletableFuture<Void> future : futures) {
+            try {
+               future.get(10, TimeUnit.SECONDS);
+            } catch (ExecutionException ex) {
+               assertTrue(ex.getCause() instanceof IllegalStateException);
+               abandoned++;
+            }
+         }
+         assertTrue(abandoned > 0);
+
+         try {
+            client.setGlobalValue("key", 0).get(10, TimeUnit.SECONDS);
+            fail("An operation submitted after close should fail");
+         } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+         }
+      } finally {
+         callbacks.shutdown();
+      }
+   }
+
+   private void run(int window, boolean coalesce) throws Exception {
+      ExecutorService callbacks = Executors.newSingleThreadExecutor();
+      try (Cluster<GlobalVariableManager> cluster = Cluster.start(5600, SITES, Algorithm.LAMPORT)) {
+         List<CompletableFuture<Void>> futures = new ArrayList<>();
+         try (AsyncClient client = new AsyncClient("localhost:" + cluster.hosts[0][1], window, callbacks, coalesce)) {
+            for (int x = 0; x < WRITES; x++) {
+               futures.add(client.setGlobalValue("key" + (x % KEYS), x));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+         }
+
+         // Chaque variable contient la dernière valeur qui lui a été écrite
+         for (int key = 0; key < KEYS; key++) {
+            int expected = WRITES - KEYS + key;
+            for (int i = 0; i < SITES; i++) {
+               assertEquals(expected, cluster.client(i).getGlobalVariable("key" + key));
+            }
+         }
+      } finally {
+         callbacks.shutdown();
+      }
+   }
+}
@@ -0,0 +1,51 @@
+package ch.heigvd.test;
+
+import ch.heigvd.globalvariableclient.Client;
+import ch.heigvd.lamportmanager.GlobalVariableManager;
+import ch.heigvd.lamportmanager.GlobalVariableManager.Algorithm;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Vérifie que addAndGet et compareAndSet ne perdent aucune mise à jour lorsque
+ * plusieurs clients incrémentent la même variable depuis différents sites,
+ * pour chaque algorithme d'exclusion mutuelle.
+ */
+public class TestAtomicOperations {
+
+   private static final int SITES = 3;
+   private static final int CLIENTS = 6;
+   private static final int INCREMENTS_PER_CLIENT = 30;
+
+   @Test
+   public void noLostIncrements() throws Exception {
+      for (Algorithm algorithm : Algorithm.values()) {
+         run(algorithm);
+      }
+   }
+
+   private void run(Algorithm algorithm) throws Exception {
+      try (Cluster<GlobalVariableManager> cluster = Cluster.start(5500, SITES, algorithm)) {
+         Client[] clients = new Client[CLIENTS];
+         for (int c = 0; c < CLIENTS; c++) {
+            clients[c] = cluster.client(c % SITES);
+         }
+
+         Cluster.inParallel(CLIENTS, c -> {
+            for (int x = 0; x < INCREMENTS_PER_CLIENT; x++) {
+               clients[c].addAndGet(1);
+            }
+         });
+
+         int expected = CLIENTS * INCREMENTS_PER_CLIENT;
+         Client client = cluster.client(0);
+         assertEquals(algorithm + " lost increments", expected, client.addAndGet(0));
+
+         assertFalse(client.compareAndSet(expected + 1, -1));
+         assertTrue(client.compareAndSet(expected, -1));
+         assertEquals(-1, client.addAndGet(0));
+      }
+   }
+}
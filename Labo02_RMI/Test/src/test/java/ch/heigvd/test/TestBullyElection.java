@@ -0,0 +1,48 @@
+package ch.heigvd.test;
+
+import ch.heigvd.prr.election.ElectionManager.Algorithm;
+import java.net.InetSocketAddress;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Vérifie que Bully élit le plus apte des sites vivants, et le compare à
+ * l'anneau lorsque les plus aptes sont en panne : grâce au sondage de
+ * plusieurs successeurs à la fois, chacun paie un seul timeout de quittance
+ * en tout.
+ */
+public class TestBullyElection {
+
+   private static final int SITES = 5;
+
+   @Test
+   public void bullyElectsTheMostSuitableLiveSite() throws Exception {
+      ElectionBenchmark benchmark = new ElectionBenchmark(7100);
+      // Sans panne, le plus apte ne reçoit que des ELECTION et s'élit sans
+      // attendre de timeout
+      ElectionBenchmark.Election noFailure = benchmark.elect(Algorithm.BULLY, SITES, 0);
+      assertElected(noFailure);
+      assertEquals(0, noFailure.timeouts);
+   }
+
+   @Test
+   public void ringAndBullyPayOneTimeoutWhenTheMostSuitableFail() throws Exception {
+      ElectionBenchmark benchmark = new ElectionBenchmark(7120);
+      ElectionBenchmark.Election ring = benchmark.elect(Algorithm.RING, SITES, 2);
+      ElectionBenchmark.Election bully = benchmark.elect(Algorithm.BULLY, SITES, 2);
+
+      assertElected(ring);
+      assertEquals(1, ring.timeouts);
+      assertElected(bully);
+      assertEquals(1, bully.timeouts);
+   }
+
+   /**
+    * Vérifie que tous les sites vivants connaissent le plus apte d'entre eux
+    */
+   static void assertElected(ElectionBenchmark.Election election) {
+      for (InetSocketAddress elected : election.elected) {
+         assertEquals(election.expected, elected);
+      }
+   }
+}
@@ -0,0 +1,123 @@
+package ch.heigvd.test;
+
+import ch.heigvd.globalvariableclient.Client;
+import ch.heigvd.lamportmanager.LamportManager;
+import ch.heigvd.lamportmanager.transport.Transport;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Vérifie le rattrapage d'un site Lamport lancé en retard : il reprend les
+ * dernières valeurs avant toute écriture, en un temps borné, et sans manquer
+ * les écritures faites pendant qu'il rejoint la grappe. La durée du
+ * rattrapage est affichée par SiteBenchmark.
+ */
+public class TestCatchUp {
+
+   private static final int SITES = 3;
+   private static final long FAILURE_TIMEOUT_MILLIS = 500;
+
+   @Test
+   public void lateSiteCatchesUp() throws Exception {
+      String[][] hosts = hosts(6030);
+      LamportManager[] managers = new LamportManager[SITES];
+
+      // Le site 2 n'est pas lancé : les deux autres écrivent sans lui
+      managers[0] = start(hosts, 0);
+      managers[1] = start(hosts, 1);
+      managers[0].join();
+      managers[1].join();
+      assertTrue(managers[0].isSuspected(2));
+
+      Client client = new Client("localhost:" + hosts[0][1]);
+      for (int x = 1; x <= 10; x++) {
+         client.setGlobalValue("a", x);
+         client.setGlobalValue("b", -x);
+      }
+
+      long start = System.nanoTime();
+      managers[2] = start(hosts, 2);
+      managers[2].join();
+      double millis = (System.nanoTime() - start) / 1e6;
+      assertTrue(millis < 2 * FAILURE_TIMEOUT_MILLIS);
+
+      // Réintégré partout, avec les dernières valeurs
+      assertFalse(managers[0].isSuspected(2));
+      assertFalse(managers[1].isSuspected(2));
+      Client late = new Client("localhost:" + hosts[2][1]);
+      assertEquals(10, late.getGlobalVariable("a"));
+      assertEquals(-10, late.getGlobalVariable("b"));
+
+      // Ses écritures sont plus récentes que celles reçues
+      late.setGlobalValue("a", 11);
+      assertEquals(11, client.getGlobalVariable("a"));
+      assertEquals(11, new Client("localhost:" + hosts[1][1]).getGlobalVariable("a"));
+
+      for (LamportManager manager : managers) {
+         manager.close();
+      }
+   }
+
+   @Test
+   public void writesContinueWhileJoining() throws Exception {
+      final int increments = 400;
+      String[][] hosts = hosts(6040);
+      LamportManager[] managers = new LamportManager[SITES];
+      managers[0] = start(hosts, 0);
+      managers[1] = start(hosts, 1);
+      managers[0].join();
+      managers[1].join();
+
+      // Un client incrémente depuis le site 0 pendant que le site 2 rejoint
+      Client client = new Client("localhost:" + hosts[0][1]);
+      AtomicInteger done = new AtomicInteger();
+      Thread writer = new Thread(() -> {
+         try {
+            for (int i = 0; i < increments; i++) {
+               client.addAndGet(1);
+               done.incrementAndGet();
+            }
+         } catch (Exception ex) {
+            throw new RuntimeException(ex);
+         }
+      });
+      writer.start();
+      while (done.get() < increments / 4) {
+         Thread.sleep(1);
+      }
+
+      managers[2] = start(hosts, 2);
+      managers[2].join();
+
+      // Puis le site 2 incrémente à son tour, en concurrence
+      Client late = new Client("localhost:" + hosts[2][1]);
+      for (int i = 0; i < increments / 4; i++) {
+         late.addAndGet(1);
+      }
+      writer.join();
+
+      int expected = increments + increments / 4;
+      for (int i = 0; i < SITES; i++) {
+         assertEquals(expected, new Client("localhost:" + hosts[i][1]).getGlobalVariable());
+      }
+
+      for (LamportManager manager : managers) {
+         manager.close();
+      }
+   }
+
+   private static String[][] hosts(int firstPort) {
+      String[][] hosts = new String[SITES][];
+      for (int i = 0; i < SITES; i++) {
+         hosts[i] = new String[]{"localhost", String.valueOf(firstPort + i)};
+      }
+      return hosts;
+   }
+
+   private static LamportManager start(String[][] hosts, int index) {
+      return new LamportManager(hosts, index, Transport.Kind.RMI, 0, FAILURE_TIMEOUT_MILLIS);
+   }
+}
@@ -0,0 +1,126 @@
+package ch.heigvd.test;
+
+import ch.heigvd.globalvariableclient.Client;
+import ch.heigvd.lamportmanager.GlobalVariableManager;
+import ch.heigvd.lamportmanager.LamportManager;
+import ch.heigvd.lamportmanager.transport.Transport;
+import java.rmi.ConnectException;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Vérifie la connexion aux autres sites lors d'un lancement échelonné : un
+ * site attend les sites pas encore lancés sans les solliciter en continu, et
+ * sert dès que le nombre de sites demandé est joignable. La durée de
+ * connexion lors d'un lancement échelonné est affichée par SiteBenchmark.
+ */
+public class TestConnectBackoff {
+
+   private static final int SITES = 4;
+   private static final long STAGGER_MILLIS = 300;
+
+   @Test
+   public void joinWaitsForReadySites() throws Exception {
+      String[][] hosts = hosts(6070);
+      LamportManager[] managers = new LamportManager[SITES];
+      managers[0] = start(hosts, 0);
+      managers[0].setReadySites(2);
+
+      // Le site 0 rejoint pendant que les autres sont lancés un à un
+      AtomicReference<Exception> error = new AtomicReference<>();
+      Thread joining = new Thread(() -> {
+         try {
+            managers[0].join();
+         } catch (Exception ex) {
+            error.set(ex);
+         }
+      });
+      joining.start();
+
+      long start = System.nanoTime();
+      for (int i = 1; i < SITES; i++) {
+         Thread.sleep(STAGGER_MILLIS);
+         managers[i] = start(hosts, i);
+      }
+      joining.join();
+      double millis = (System.nanoTime() - start) / 1e6;
+      assertNull(error.get());
+
+      // Le site 0 a servi dès le 2ème site lancé, sans attendre le dernier
+      assertTrue(millis < 2 * STAGGER_MILLIS + 1000);
+
+      for (int i = 1; i < SITES; i++) {
+         managers[i].join();
+      }
+      for (int i = 0; i < SITES; i++) {
+         assertFalse(managers[0].isSuspected(i));
+      }
+      new Client("localhost:" + hosts[3][1]).setGlobalValue(5);
+      assertEquals(5, new Client("localhost:" + hosts[0][1]).getGlobalVariable());
+
+      for (LamportManager manager : managers) {
+         manager.close();
+      }
+   }
+
+   @Test
+   public void connectRetriesUntilAllSitesStarted() throws Exception {
+      String[][] hosts = hosts(6080);
+      GlobalVariableManager[] managers = new GlobalVariableManager[SITES];
+      for (int i = 0; i < SITES - 1; i++) {
+         managers[i] = GlobalVariableManager.create(GlobalVariableManager.Algorithm.MAEKAWA, hosts, i);
+      }
+
+      // Le dernier site est lancé plus tard : la connexion échoue d'abord
+      // après le délai fixé, puis réussit dès qu'il est lancé
+      managers[0].setConnectTimeout(STAGGER_MILLIS);
+      long start = System.nanoTime();
+      try {
+         managers[0].connectToRemotes();
+         fail("Site " + (SITES - 1) + " is not started");
+      } catch (ConnectException expected) {
+      }
+      double millis = (System.nanoTime() - start) / 1e6;
+      assertTrue(millis >= STAGGER_MILLIS && millis < STAGGER_MILLIS + 1000);
+
+      managers[0].setConnectTimeout(GlobalVariableManager.DEFAULT_CONNECT_TIMEOUT_MILLIS);
+      Thread late = new Thread(() -> {
+         try {
+            Thread.sleep(STAGGER_MILLIS);
+         } catch (InterruptedException ex) {
+            return;
+         }
+         managers[SITES - 1] = GlobalVariableManager.create(GlobalVariableManager.Algorithm.MAEKAWA, hosts, SITES - 1);
+      });
+      late.start();
+      managers[0].connectToRemotes();
+      late.join();
+      for (int i = 1; i < SITES; i++) {
+         managers[i].connectToRemotes();
+      }
+
+      new Client("localhost:" + hosts[0][1]).setGlobalValue(3);
+      assertEquals(3, new Client("localhost:" + hosts[0][1]).getGlobalVariable());
+
+      for (GlobalVariableManager manager : managers) {
+         manager.close();
+      }
+   }
+
+   private static String[][] hosts(int firstPort) {
+      String[][] hosts = new String[SITES][];
+      for (int i = 0; i < SITES; i++) {
+         hosts[i] = new String[]{"localhost", String.valueOf(firstPort + i)};
+      }
+      return hosts;
+   }
+
+   private static LamportManager start(String[][] hosts, int index) {
+      return new LamportManager(hosts, index, Transport.Kind.RMI, 0, 500);
+   }
+}
@@ -0,0 +1,59 @@
+package ch.heigvd.test;
+
+import ch.heigvd.prr.election.Message;
+import ch.heigvd.prr.election.Message.AnnounceMessage;
+import ch.heigvd.prr.election.Message.ResultsMessage;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Vérifie le codage des messages d'élection pour un anneau de 10'000 sites :
+ * l'annonce complète tient dans un datagramme, et les résultats ne coûtent
+ * qu'un bit par site.
+ */
+public class TestElectionMessages {
+
+   private static final int SITES = 10_000;
+
+   @Test
+   public void announceOfTenThousandSitesFitsInADatagram() {
+      AnnounceMessage announce = new AnnounceMessage();
+      // Dans l'ordre de l'anneau, à partir d'un site du milieu
+      for (int i = 0; i < SITES; i++) {
+         announce.setAptitude((5000 + i) % SITES, 1_000_000 + i);
+      }
+      byte[] data = announce.toByteArray();
+      assertEquals(announce.getSize(), data.length);
+      assertTrue(data.length <= Message.getMaxMessageSize(SITES));
+      assertTrue(Message.getMaxMessageSize(SITES) <= Message.MAX_DATAGRAM_SIZE);
+
+      AnnounceMessage parsed = (AnnounceMessage) Message.parse(data, data.length);
+      assertEquals(SITES, parsed.getCount());
+      for (int i = 0; i < SITES; i++) {
+         assertEquals((5000 + i) % SITES, parsed.getSiteAt(i));
+         assertEquals(1_000_000 + i, parsed.getAptitudeAt(i));
+      }
+      assertTrue(parsed.hasAptitude(9999));
+      assertEquals(Integer.valueOf(1_000_000 + 4999), parsed.getAptitude(9999));
+   }
+
+   @Test
+   public void resultsUseOneBitPerSite() {
+      ResultsMessage results = new ResultsMessage(9876);
+      for (int i = 0; i < SITES; i += 2) {
+         results.addSeenSite(i);
+      }
+      byte[] data = results.toByteArray();
+      // type, élu sur 2 octets, puis 10'000 bits
+      assertEquals(1 + 2 + SITES / 8, data.length);
+
+      ResultsMessage parsed = (ResultsMessage) Message.parse(data, data.length);
+      assertEquals(9876, parsed.getElectedIndex());
+      assertTrue(parsed.hasSeen(0));
+      assertTrue(parsed.hasSeen(9998));
+      assertFalse(parsed.hasSeen(9999));
+      assertFalse(parsed.hasSeen(SITES + 1));
+   }
+}
@@ -0,0 +1,77 @@
+package ch.heigvd.test;
+
+import ch.heigvd.globalvariableclient.Client;
+import ch.heigvd.lamportmanager.LamportManager;
+import ch.heigvd.lamportmanager.transport.Transport;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Vérifie qu'un site Lamport en panne ne bloque pas les écritures des autres
+ * sites, puis qu'il est réintégré une fois relancé. La durée des écritures
+ * avec un site en panne est affichée par SiteBenchmark.
+ */
+public class TestFailureDetection {
+
+   private static final int SITES = 3;
+   private static final long FAILURE_TIMEOUT_MILLIS = 500;
+
+   @Test
+   public void deadSiteDoesNotStallWrites() throws Exception {
+      String[][] hosts = new String[SITES][];
+      for (int i = 0; i < SITES; i++) {
+         hosts[i] = new String[]{"localhost", String.valueOf(6010 + i)};
+      }
+      LamportManager[] managers = new LamportManager[SITES];
+      for (int i = 0; i < SITES; i++) {
+         managers[i] = start(hosts, i);
+      }
+      for (LamportManager manager : managers) {
+         manager.connectToRemotes();
+      }
+
+      Client client = new Client("localhost:" + hosts[0][1]);
+      client.setGlobalValue(1);
+
+      // Panne du site 2 : les écritures continuent, au plus ralenties par
+      // le délai de détection
+      managers[2].close();
+      long start = System.nanoTime();
+      for (int x = 2; x <= 20; x++) {
+         client.setGlobalValue(x);
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+
+      assertTrue(seconds < 5 * FAILURE_TIMEOUT_MILLIS / 1e3);
+      assertTrue(managers[0].isSuspected(2));
+      assertEquals(20, new Client("localhost:" + hosts[1][1]).getGlobalVariable());
+
+      // Le site 1 suspecte aussi le site 2, au plus tard après le délai
+      Thread.sleep(2 * FAILURE_TIMEOUT_MILLIS);
+      assertTrue(managers[1].isSuspected(2));
+
+      // Relance du site 2 : il est réintégré, rattrape la dernière valeur et
+      // peut à nouveau écrire
+      managers[2] = start(hosts, 2);
+      managers[2].join();
+      assertFalse(managers[0].isSuspected(2));
+      assertFalse(managers[1].isSuspected(2));
+
+      Client restarted = new Client("localhost:" + hosts[2][1]);
+      assertEquals(20, restarted.getGlobalVariable());
+      client.setGlobalValue(21);
+      assertEquals(21, restarted.getGlobalVariable());
+      restarted.setGlobalValue(22);
+      assertEquals(22, client.getGlobalVariable());
+
+      for (LamportManager manager : managers) {
+         manager.close();
+      }
+   }
+
+   private static LamportManager start(String[][] hosts, int index) {
+      return new LamportManager(hosts, index, Transport.Kind.RMI, 0, FAILURE_TIMEOUT_MILLIS);
+   }
+}
@@ -0,0 +1,79 @@
+package ch.heigvd.test;
+
+import ch.heigvd.globalvariableclient.Client;
+import ch.heigvd.lamportmanager.LamportManager;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Vérifie l'horloge hybride : une lecture d'ancienneté bornée est servie
+ * localement tant que le site sait n'avoir manqué aucune écriture plus
+ * ancienne que la borne, et passe par la section critique sinon.
+ */
+public class TestHybridClock {
+
+   private static final int SITES = 3;
+
+   @Test
+   public void boundedReadsAreServedLocallyWhenFresh() throws Exception {
+      // Une horloge commune, comme des horloges synchronisées par PTP
+      AtomicLong now = new AtomicLong(1_000_000);
+
+      String[][] hosts = new String[SITES][];
+      for (int i = 0; i < SITES; i++) {
+         hosts[i] = new String[]{"localhost", String.valueOf(6090 + i)};
+      }
+      LamportManager[] managers = new LamportManager[SITES];
+      for (int i = 0; i < SITES; i++) {
+         managers[i] = new LamportManager(hosts, i);
+         managers[i].setPhysicalClock(now::get);
+      }
+      for (LamportManager manager : managers) {
+         manager.connectToRemotes();
+      }
+
+      Client writer = new Client("localhost:" + hosts[0][1]);
+      Client reader = new Client("localhost:" + hosts[1][1]);
+      writer.setGlobalValue("x", 1);
+
+      // Le site 1 n'a encore rien reçu du site 2 pour cette clé : la
+      // lecture bornée passe par la section critique
+      long sent = managers[1].getMessagesSent();
+      assertEquals(1, reader.getGlobalVariable("x", 500));
+      assertTrue(managers[1].getMessagesSent() > sent);
+
+      // Les quittances reçues l'ont renseigné : servie localement
+      now.addAndGet(100);
+      sent = managers[1].getMessagesSent();
+      assertEquals(1, reader.getGlobalVariable("x", 500));
+      assertEquals(sent, managers[1].getMessagesSent());
+
+      // Une écriture plus récente, dont la valeur est reçue, reste locale
+      writer.setGlobalValue("x", 2);
+      assertEquals(2, reader.getGlobalVariable("x", 500));
+      assertEquals(sent, managers[1].getMessagesSent());
+
+      // Sans nouvelle du site 2 depuis plus que la borne, il faut repasser
+      // par la section critique
+      now.addAndGet(1000);
+      assertEquals(2, reader.getGlobalVariable("x", 500));
+      assertTrue(managers[1].getMessagesSent() > sent);
+
+      // Les versions datées restent plus récentes que les précédentes,
+      // même si l'horloge physique recule
+      now.addAndGet(-10_000);
+      writer.setGlobalValue("x", 3);
+      assertEquals(3, new Client("localhost:" + hosts[2][1]).getGlobalVariable("x"));
+
+      for (LamportManager manager : managers) {
+         manager.close();
+      }
+   }
+
+   @Test(expected = ClassNotFoundException.class)
+   public void ptpClockNeedsTheSlaveOnTheClasspath() throws Exception {
+      LamportManager.ptpClock();
+   }
+}
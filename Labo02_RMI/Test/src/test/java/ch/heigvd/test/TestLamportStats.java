@@ -0,0 +1,70 @@
+package ch.heigvd.test;
+
+import ch.heigvd.globalvariableclient.Client;
+import ch.heigvd.lamportmanager.GlobalVariableManager;
+import ch.heigvd.lamportmanager.LamportManager;
+import ch.heigvd.lamportmanager.stats.LamportStats;
+import ch.heigvd.lamportmanager.stats.LamportStatsMXBean;
+import ch.heigvd.lamportmanager.stats.LamportStatsSnapshot;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Vérifie les mesures de Lamport publiées via JMX : chaque écriture est
+ * comptée une fois dans chaque étape, et la remise à zéro les efface. Les
+ * durées de chaque étape sont affichées par SiteBenchmark.
+ */
+public class TestLamportStats {
+
+   private static final int SITES = 3;
+
+   @Test
+   public void jmxSnapshotAndReset() throws Exception {
+      final int writes = 20;
+
+      String[][] hosts = new String[SITES][];
+      for (int i = 0; i < SITES; i++) {
+         hosts[i] = new String[]{"localhost", String.valueOf(6000 + i)};
+      }
+      GlobalVariableManager[] managers = new GlobalVariableManager[SITES];
+      for (int i = 0; i < SITES; i++) {
+         managers[i] = new LamportManager(hosts, i);
+      }
+      for (GlobalVariableManager manager : managers) {
+         manager.connectToRemotes();
+      }
+
+      Client client = new Client("localhost:" + hosts[0][1]);
+      for (int x = 1; x <= writes; x++) {
+         client.setGlobalValue(x);
+      }
+
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      LamportStatsMXBean stats = JMX.newMXBeanProxy(server, LamportStats.objectName(0, hosts[0][1]), LamportStatsMXBean.class);
+
+      LamportStatsSnapshot snapshot = stats.getSnapshot();
+      assertEquals(writes, snapshot.getRequestRoundTrip().getCount());
+      assertEquals(writes, snapshot.getQueueWait().getCount());
+      assertEquals(writes, snapshot.getCriticalSection().getCount());
+      assertEquals(writes, snapshot.getFreeFanOut().getCount());
+      assertEquals(writes, Arrays.stream(snapshot.getSlowestResponder()).sum());
+      assertEquals(0, snapshot.getSlowestResponder()[0]);
+
+      assertTrue(snapshot.getRequestRoundTrip().getP50Micros() <= snapshot.getRequestRoundTrip().getP99Micros());
+      assertTrue(snapshot.getRequestRoundTrip().getP99Micros() <= snapshot.getRequestRoundTrip().getMaxMicros());
+
+      stats.reset();
+      assertEquals(0, stats.getSnapshot().getRequestRoundTrip().getCount());
+
+      for (GlobalVariableManager manager : managers) {
+         manager.close();
+      }
+      assertFalse(server.isRegistered(LamportStats.objectName(0, hosts[0][1])));
+   }
+}
@@ -0,0 +1,73 @@
+package ch.heigvd.test;
+
+import ch.heigvd.globalvariableclient.Client;
+import ch.heigvd.lamportmanager.LamportManager;
+import ch.heigvd.lamportmanager.transport.Transport;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Vérifie le mode bail de Lamport : un site écrivant en rafale garde la
+ * section critique et n'envoie presque plus de messages, et le bail est
+ * relâché dès qu'un autre site demande la section critique.
+ */
+public class TestLeaseMode {
+
+   private static final int SITES = 3;
+   private static final long LEASE_MILLIS = 200;
+
+   @Test
+   public void burstWriter() throws Exception {
+      final int writes = 300;
+
+      double[] messagesPerWrite = new double[2];
+      long[] leases = {0, LEASE_MILLIS};
+      for (int l = 0; l < leases.length; l++) {
+         try (Cluster<LamportManager> cluster = start(leases[l])) {
+            Client client = cluster.client(0);
+            for (int x = 1; x <= writes; x++) {
+               client.setGlobalValue(x);
+            }
+
+            // La fin du bail transmet la dernière valeur à tous les sites
+            Thread.sleep(LEASE_MILLIS + 200);
+            for (int i = 0; i < SITES; i++) {
+               assertEquals(writes, cluster.client(i).getGlobalVariable());
+            }
+
+            messagesPerWrite[l] = (double) cluster.messagesSent() / writes;
+         }
+      }
+
+      assertTrue(messagesPerWrite[1] * 10 < messagesPerWrite[0]);
+   }
+
+   @Test
+   public void contention() throws Exception {
+      final int clients = 6;
+      final int increments = 30;
+
+      try (Cluster<LamportManager> cluster = start(LEASE_MILLIS)) {
+         Client[] sites = new Client[clients];
+         for (int c = 0; c < clients; c++) {
+            sites[c] = cluster.client(c % SITES);
+         }
+
+         Cluster.inParallel(clients, c -> {
+            for (int x = 0; x < increments; x++) {
+               sites[c].addAndGet(1);
+            }
+         });
+
+         Thread.sleep(LEASE_MILLIS + 200);
+         for (int i = 0; i < SITES; i++) {
+            assertEquals(clients * increments, cluster.client(i).getGlobalVariable());
+         }
+      }
+   }
+
+   private Cluster<LamportManager> start(long leaseMillis) throws Exception {
+      return Cluster.start(5800, SITES, (hosts, i) -> new LamportManager(hosts, i, Transport.Kind.RMI, leaseMillis));
+   }
+}
@@ -0,0 +1,44 @@
+package ch.heigvd.test;
+
+import ch.heigvd.lamportmanager.GlobalVariableManager.Algorithm;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Lance une petite matrice du générateur de charge et vérifie la cohérence
+ * des mesures. Les résultats sont ajoutés à target/benchmark/loadgen.csv.
+ */
+public class TestLoadGenerator {
+
+   private static final int SITES = 3;
+
+   @Test
+   public void smallMatrix() throws Exception {
+      LoadGenerator generator = new LoadGenerator(5900);
+      List<LoadGenerator.Result> results = new ArrayList<>();
+      for (double writeRatio : new double[]{1.0, 0.5}) {
+         results.add(generator.run(new LoadGenerator.Config(Algorithm.LAMPORT, SITES, 3, writeRatio, 30)));
+      }
+
+      for (LoadGenerator.Result result : results) {
+         assertTrue(result.writes > 0);
+         assertTrue(result.p50Micros <= result.p99Micros);
+         assertTrue(result.p99Micros <= result.p999Micros);
+
+         // Lamport : N - 1 requêtes, dont la quittance est la réponse, puis
+         // une libération à chacun des N sites, le nôtre compris
+         assertEquals(2 * SITES - 1, result.messagesPerCs, 1e-9);
+      }
+      assertEquals(90, results.get(0).writes);
+
+      Path file = Paths.get("target", "benchmark", "loadgen.csv");
+      LoadGenerator.append(file, "test", results);
+      assertTrue(Files.size(file) > 0);
+   }
+}
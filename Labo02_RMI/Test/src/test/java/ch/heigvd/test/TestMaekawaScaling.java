@@ -0,0 +1,88 @@
+package ch.heigvd.test;
+
+import ch.heigvd.globalvariableclient.Client;
+import ch.heigvd.lamportmanager.GlobalVariableManager;
+import ch.heigvd.lamportmanager.GlobalVariableManager.Algorithm;
+import ch.heigvd.lamportmanager.MaekawaManager;
+import java.util.HashSet;
+import java.util.Set;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Compare le coût de Lamport et de Maekawa lorsque le nombre de sites
+ * augmente, avec tous les sites lancés dans la même JVM.
+ *
+ * Pour chaque nombre de sites, quelques clients écrivent en parallèle sur des
+ * sites différents, puis on vérifie que Maekawa envoie moins de messages
+ * d'exclusion mutuelle par section critique que Lamport. Les débits et le
+ * coût de la réplication sont mesurés par LoadGenerator.
+ */
+public class TestMaekawaScaling {
+
+   private static final int[] SITES = {4, 9, 16, 25, 36, 49};
+   private static final int CLIENTS = 4;
+   private static final int WRITES_PER_CLIENT = 25;
+
+   @Test
+   public void quorumsIntersect() {
+      for (int n = 1; n <= 49; n++) {
+         for (int a = 0; a < n; a++) {
+            Set<Integer> quorumA = new HashSet<>();
+            for (int site : MaekawaManager.buildQuorum(n, a)) {
+               quorumA.add(site);
+            }
+            for (int b = 0; b < n; b++) {
+               boolean intersect = false;
+               for (int site : MaekawaManager.buildQuorum(n, b)) {
+                  intersect |= quorumA.contains(site);
+               }
+               assertTrue("Quorums of " + a + " and " + b + " for " + n + " sites", intersect);
+            }
+         }
+      }
+   }
+
+   @Test
+   public void scaling() throws Exception {
+      for (int n : SITES) {
+         double lamport = run(Algorithm.LAMPORT, n);
+         double maekawa = run(Algorithm.MAEKAWA, n);
+
+         if (n >= 16) {
+            assertTrue("Maekawa should send fewer messages than Lamport", maekawa < lamport);
+         }
+      }
+   }
+
+   /**
+    * Lance une grappe de n sites, y fait écrire les clients, puis la ferme
+    *
+    * @return le nombre moyen de messages par section critique
+    */
+   private double run(Algorithm algorithm, int n) throws Exception {
+      try (Cluster<GlobalVariableManager> cluster = Cluster.start(5100, n, algorithm)) {
+         Client[] clients = new Client[CLIENTS];
+         for (int c = 0; c < CLIENTS; c++) {
+            clients[c] = cluster.client(c * n / CLIENTS);
+         }
+
+         Cluster.inParallel(CLIENTS, c -> {
+            for (int x = 0; x < WRITES_PER_CLIENT; x++) {
+               clients[c].setGlobalValue(c * WRITES_PER_CLIENT + x);
+            }
+         });
+
+         // On laisse le temps à la réplication asynchrone de se terminer
+         Thread.sleep(500);
+
+         int expected = cluster.client(0).getGlobalVariable();
+         for (int i = 0; i < n; i++) {
+            assertEquals(expected, cluster.client(i).getGlobalVariable());
+         }
+
+         return (double) cluster.messagesSent() / (CLIENTS * WRITES_PER_CLIENT);
+      }
+   }
+}
@@ -0,0 +1,102 @@
+package ch.heigvd.test;
+
+import ch.heigvd.globalvariableclient.Client;
+import ch.heigvd.lamportmanager.LamportManager;
+import ch.heigvd.lamportmanager.transport.Transport;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Vérifie l'ajout et le retrait de sites Lamport sans relancer la grappe :
+ * les écritures continuent pendant les modifications, aucune n'est perdue,
+ * et les messages ne sont envoyés qu'aux membres.
+ */
+public class TestMembership {
+
+   private static final int CAPACITY = 4;
+   private static final long FAILURE_TIMEOUT_MILLIS = 500;
+
+   @Test
+   public void addAndRemoveSitesWhileWriting() throws Exception {
+      String[][] all = new String[CAPACITY][];
+      for (int i = 0; i < CAPACITY; i++) {
+         all[i] = new String[]{"localhost", String.valueOf(6050 + i)};
+      }
+      // Les 3 premiers sites ne connaissent pas encore le 4ème emplacement
+      String[][] initial = {all[0], all[1], all[2]};
+
+      LamportManager[] managers = new LamportManager[CAPACITY];
+      for (int i = 0; i < 3; i++) {
+         managers[i] = start(initial, i);
+      }
+      for (int i = 0; i < 3; i++) {
+         managers[i].join();
+      }
+      assertFalse(managers[0].isMember(3));
+
+      // Un client écrit en continu pendant les modifications
+      Client client = new Client("localhost:" + all[0][1]);
+      AtomicBoolean stop = new AtomicBoolean();
+      AtomicInteger done = new AtomicInteger();
+      Thread writer = new Thread(() -> {
+         try {
+            while (!stop.get()) {
+               client.addAndGet("x", 1);
+               done.incrementAndGet();
+            }
+         } catch (Exception ex) {
+            throw new RuntimeException(ex);
+         }
+      });
+      writer.start();
+      while (done.get() < 20) {
+         Thread.sleep(1);
+      }
+
+      // Ajout du site 3, lancé avec la liste complète
+      managers[3] = start(all, 3);
+      managers[3].join();
+      for (int i = 0; i < CAPACITY; i++) {
+         assertTrue(managers[i].isMember(3));
+         assertFalse(managers[i].isSuspected(3));
+      }
+      Client added = new Client("localhost:" + all[3][1]);
+      for (int i = 0; i < 20; i++) {
+         added.addAndGet("x", 1);
+      }
+
+      // Retrait du site 1
+      managers[1].leave();
+      for (int i : new int[]{0, 2, 3}) {
+         assertFalse(managers[i].isMember(1));
+      }
+      int before = done.get();
+      while (done.get() < before + 20) {
+         Thread.sleep(1);
+      }
+      stop.set(true);
+      writer.join();
+
+      int expected = done.get() + 20;
+      for (int i : new int[]{0, 2, 3}) {
+         assertEquals(expected, new Client("localhost:" + all[i][1]).getGlobalVariable("x"));
+      }
+
+      // Une écriture ne coûte plus que 2N-1 messages entre les 3 membres
+      long sent = managers[0].getMessagesSent();
+      client.setGlobalValue("x", 0);
+      assertEquals(2 * 3 - 1, managers[0].getMessagesSent() - sent);
+
+      for (int i : new int[]{0, 2, 3}) {
+         managers[i].close();
+      }
+   }
+
+   private static LamportManager start(String[][] hosts, int index) {
+      return new LamportManager(hosts, index, Transport.Kind.RMI, 0, FAILURE_TIMEOUT_MILLIS, CAPACITY);
+   }
+}
@@ -0,0 +1,55 @@
+package ch.heigvd.test;
+
+import ch.heigvd.globalvariableclient.Client;
+import ch.heigvd.lamportmanager.GlobalVariableManager;
+import ch.heigvd.lamportmanager.GlobalVariableManager.Algorithm;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Fait écrire des clients concurrents sur un nombre croissant de variables
+ * partagées avec Lamport, chaque clé ayant sa propre file, et vérifie que
+ * chaque clé a la même valeur sur tous les sites. Le débit selon le nombre de
+ * clés est mesuré par LoadGenerator.
+ */
+public class TestMultiKeyThroughput {
+
+   private static final int SITES = 3;
+   private static final int CLIENTS = 8;
+   private static final int WRITES_PER_CLIENT = 20;
+   private static final int[] KEYS = {1, 2, 4, 8};
+
+   @Test
+   public void keysStayConsistent() throws Exception {
+      for (int k : KEYS) {
+         run(k);
+      }
+   }
+
+   /**
+    * Lance une grappe de SITES sites Lamport, puis fait écrire les clients,
+    * le client c écrivant la clé c % nbKeys
+    */
+   private void run(int nbKeys) throws Exception {
+      try (Cluster<GlobalVariableManager> cluster = Cluster.start(5400, SITES, Algorithm.LAMPORT)) {
+         Client[] clients = new Client[CLIENTS];
+         for (int c = 0; c < CLIENTS; c++) {
+            clients[c] = cluster.client(c % SITES);
+         }
+
+         Cluster.inParallel(CLIENTS, c -> {
+            for (int x = 0; x < WRITES_PER_CLIENT; x++) {
+               clients[c].setGlobalValue("key" + (c % nbKeys), c * WRITES_PER_CLIENT + x);
+            }
+         });
+
+         // Les libérations de Lamport transmettent la valeur à tous les sites
+         for (int key = 0; key < nbKeys; key++) {
+            int expected = cluster.client(0).getGlobalVariable("key" + key);
+            for (int i = 1; i < SITES; i++) {
+               assertEquals(expected, cluster.client(i).getGlobalVariable("key" + key));
+            }
+         }
+      }
+   }
+}
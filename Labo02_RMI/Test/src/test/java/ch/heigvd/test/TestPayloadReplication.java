@@ -0,0 +1,120 @@
+package ch.heigvd.test;
+
+import ch.heigvd.globalvariableclient.Client;
+import ch.heigvd.lamportmanager.LamportManager;
+import ch.heigvd.lamportmanager.transport.Transport;
+import java.util.Arrays;
+import java.util.Random;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Vérifie la réplication des contenus binaires : les libérations ne
+ * transmettent que les octets modifiés, et un site qui rejoint la grappe
+ * reçoit une copie complète lors de son rattrapage. Le nombre d'octets
+ * envoyés par écriture, comparé au contenu complet, est affiché par
+ * SiteBenchmark.
+ */
+public class TestPayloadReplication {
+
+   private static final int SITES = 3;
+   private static final int SIZE = 64 * 1024;
+   private static final int WRITES = 20;
+   private static final int CHANGED_BYTES = 16;
+
+   @Test
+   public void onlyChangedBytesAreSent() throws Exception {
+      String[][] hosts = hosts(6300);
+      LamportManager[] managers = new LamportManager[SITES];
+      for (int i = 0; i < SITES; i++) {
+         managers[i] = new LamportManager(hosts, i, Transport.Kind.NIO);
+      }
+      for (LamportManager manager : managers) {
+         manager.connectToRemotes();
+      }
+
+      // Un enregistrement peu compressible, dont chaque écriture ne modifie
+      // que quelques octets
+      Random random = new Random(42);
+      byte[] record = new byte[SIZE];
+      random.nextBytes(record);
+      Client client = new Client("localhost:" + hosts[0][1]);
+      client.setGlobalPayload("record", record);
+
+      long sent = managers[0].getPayloadBytesSent();
+      long full = managers[0].getPayloadBytesFull();
+      for (int w = 0; w < WRITES; w++) {
+         int offset = random.nextInt(SIZE - CHANGED_BYTES);
+         for (int b = 0; b < CHANGED_BYTES; b++) {
+            record[offset + b]++;
+         }
+         client.setGlobalPayload("record", record);
+      }
+      sent = managers[0].getPayloadBytesSent() - sent;
+      full = managers[0].getPayloadBytesFull() - full;
+      assertTrue(sent * 100 < full);
+
+      for (int i = 0; i < SITES; i++) {
+         assertArrayEquals(record, new Client("localhost:" + hosts[i][1]).getGlobalPayload("record"));
+      }
+
+      for (LamportManager manager : managers) {
+         manager.close();
+      }
+   }
+
+   @Test
+   public void lateSiteReceivesFullSnapshot() throws Exception {
+      String[][] hosts = hosts(6310);
+      LamportManager[] managers = new LamportManager[SITES];
+      managers[0] = start(hosts, 0);
+      managers[1] = start(hosts, 1);
+      managers[0].join();
+      managers[1].join();
+
+      // Un contenu compressible, écrit sans le site 2
+      byte[] text = new byte[SIZE];
+      for (int i = 0; i < SIZE; i++) {
+         text[i] = (byte) ('a' + i % 26);
+      }
+      Client client = new Client("localhost:" + hosts[0][1]);
+      client.setGlobalPayload("text", text);
+
+      // Le site 2 en reçoit une copie complète lors de son rattrapage
+      managers[2] = start(hosts, 2);
+      managers[2].join();
+      Client late = new Client("localhost:" + hosts[2][1]);
+      assertArrayEquals(text, late.getGlobalPayload("text"));
+
+      // Il peut ensuite appliquer les deltas
+      text[0] = 'z';
+      long sent = managers[0].getPayloadBytesSent();
+      client.setGlobalPayload("text", text);
+      sent = managers[0].getPayloadBytesSent() - sent;
+      assertArrayEquals(text, late.getGlobalPayload("text"));
+      assertTrue(sent < SIZE / 10);
+
+      // Ses écritures partent ensuite du contenu reçu
+      text = Arrays.copyOf(text, SIZE + 10);
+      late.setGlobalPayload("text", text);
+      assertArrayEquals(text, client.getGlobalPayload("text"));
+      assertArrayEquals(text, new Client("localhost:" + hosts[1][1]).getGlobalPayload("text"));
+
+      for (LamportManager manager : managers) {
+         manager.close();
+      }
+   }
+
+   private static String[][] hosts(int firstPort) {
+      String[][] hosts = new String[SITES][];
+      for (int i = 0; i < SITES; i++) {
+         hosts[i] = new String[]{"localhost", String.valueOf(firstPort + i)};
+      }
+      return hosts;
+   }
+
+   private static LamportManager start(String[][] hosts, int index) {
+      return new LamportManager(hosts, index, Transport.Kind.RMI, 0, 500);
+   }
+}
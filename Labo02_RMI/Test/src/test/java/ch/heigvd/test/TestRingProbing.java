@@ -0,0 +1,29 @@
+package ch.heigvd.test;
+
+import ch.heigvd.prr.election.ElectionManager.Algorithm;
+import static ch.heigvd.test.TestBullyElection.assertElected;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Vérifie le sondage des successeurs de l'anneau : trois sites consécutifs
+ * en panne ne coûtent qu'un timeout de quittance (au lieu de trois), puis
+ * plus aucun à l'élection suivante, tant qu'ils restent suspectés.
+ */
+public class TestRingProbing {
+
+   private static final int SITES = 8;
+   private static final int FAILED = 3;
+
+   @Test
+   public void consecutiveFailedSitesCostOneTimeout() throws Exception {
+      ElectionBenchmark benchmark = new ElectionBenchmark(7140);
+      ElectionBenchmark.Election first = benchmark.elect(Algorithm.RING, SITES, FAILED);
+      ElectionBenchmark.Election second = benchmark.elect(Algorithm.RING, SITES, FAILED, 2);
+
+      assertElected(first);
+      assertEquals(1, first.timeouts);
+      assertElected(second);
+      assertEquals(0, second.timeouts);
+   }
+}
@@ -0,0 +1,97 @@
+package ch.heigvd.test;
+
+import ch.heigvd.globalvariableclient.Client;
+import ch.heigvd.lamportmanager.GlobalVariableManager;
+import ch.heigvd.lamportmanager.GlobalVariableManager.Algorithm;
+import ch.heigvd.lamportmanager.SequencerManager;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Compare le séquenceur élu à Lamport, et vérifie qu'un nouveau séquenceur
+ * est élu lorsque l'ancien tombe en panne, sans perdre les écritures qu'il
+ * n'a pas diffusées.
+ *
+ * Pour la comparaison, quelques clients incrémentent en parallèle sur des
+ * sites différents, puis on compare le nombre moyen de messages envoyés par
+ * écriture. La latence et les mises à jour diffusées sont mesurées par
+ * LoadGenerator.
+ */
+public class TestSequencer {
+
+   private static final int SITES = 5;
+   private static final int CLIENTS = 4;
+   private static final int WRITES_PER_CLIENT = 25;
+
+   @Test
+   public void comparedWithLamport() throws Exception {
+      double lamport = run(Algorithm.LAMPORT);
+      double sequencer = run(Algorithm.SEQUENCER);
+
+      assertTrue("The sequencer should send fewer messages than Lamport", sequencer < lamport);
+      assertTrue(sequencer <= 2);
+   }
+
+   @Test
+   public void newSequencerIsElectedAfterFailure() throws Exception {
+      try (Cluster<SequencerManager> cluster = Cluster.start(6200, 3, SequencerManager::new)) {
+         int sequencer = cluster.site(0).getSequencer();
+         for (int i = 0; i < cluster.size(); i++) {
+            assertEquals(sequencer, cluster.site(i).getSequencer());
+         }
+
+         int writer = (sequencer + 1) % cluster.size();
+         int other = (sequencer + 2) % cluster.size();
+         Client client = cluster.client(writer);
+         for (int i = 0; i < 10; i++) {
+            client.addAndGet(1);
+         }
+
+         // Le séquenceur tombe, sans avoir forcément diffusé la dernière
+         // écriture : l'écriture suivante, depuis l'autre site, fait élire un
+         // autre séquenceur, qui récupère cette écriture auprès de l'écrivain
+         cluster.stop(sequencer);
+         Client otherClient = cluster.client(other);
+         assertEquals(11, otherClient.addAndGet(1));
+         assertNotEquals(sequencer, cluster.site(other).getSequencer());
+
+         // Les écritures depuis l'écrivain passent par le même séquenceur
+         assertEquals(12, client.addAndGet(1));
+         assertEquals(cluster.site(writer).getSequencer(), cluster.site(other).getSequencer());
+         Thread.sleep(200);
+         assertEquals(12, otherClient.getGlobalVariable());
+      }
+   }
+
+   /**
+    * Lance une grappe, y fait écrire les clients, puis la ferme
+    *
+    * @return le nombre moyen de messages envoyés par écriture
+    */
+   private double run(Algorithm algorithm) throws Exception {
+      try (Cluster<GlobalVariableManager> cluster = Cluster.start(6200, SITES, algorithm)) {
+         Client[] clients = new Client[CLIENTS];
+         for (int c = 0; c < CLIENTS; c++) {
+            clients[c] = cluster.client(c * SITES / CLIENTS);
+         }
+
+         Cluster.inParallel(CLIENTS, c -> {
+            for (int x = 0; x < WRITES_PER_CLIENT; x++) {
+               clients[c].addAndGet(1);
+            }
+         });
+
+         // On laisse le temps à la diffusion de se terminer
+         Thread.sleep(500);
+
+         int writes = CLIENTS * WRITES_PER_CLIENT;
+         long messages = cluster.messagesSent();
+         for (int i = 0; i < SITES; i++) {
+            assertEquals(writes, cluster.client(i).getGlobalVariable());
+         }
+         return (double) messages / writes;
+      }
+   }
+}
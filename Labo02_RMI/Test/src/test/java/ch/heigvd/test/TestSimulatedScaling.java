@@ -0,0 +1,47 @@
+package ch.heigvd.test;
+
+import static ch.heigvd.test.SimulatedScalingBenchmark.SEED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Vérifie Lamport sur le réseau simulé jusqu'à 1000 sites : aucune écriture
+ * n'est perdue, chacune coûte 3 (N - 1) messages, une même graine redonne la
+ * même exécution et les messages perdus sont retransmis. Les mesures sont
+ * affichées par SimulatedScalingBenchmark.
+ */
+public class TestSimulatedScaling {
+
+   @Test
+   public void lamportScalesToAThousandSites() {
+      for (int sites : new int[]{10, 100, 1000}) {
+         SimulatedScalingBenchmark simulation = new SimulatedScalingBenchmark(sites, SEED, 0);
+         simulation.run();
+
+         assertTrue(simulation.isConsistent());
+         assertEquals(3 * (sites - 1), simulation.messagesPerWrite(), 0);
+      }
+   }
+
+   @Test
+   public void sameSeedGivesSameRun() {
+      SimulatedScalingBenchmark first = new SimulatedScalingBenchmark(100, SEED, 0);
+      SimulatedScalingBenchmark second = new SimulatedScalingBenchmark(100, SEED, 0);
+      assertEquals(first.run(), second.run());
+      assertEquals(first.meanLatencyMillis(), second.meanLatencyMillis(), 0);
+      assertEquals(first.simulator.getEventsProcessed(), second.simulator.getEventsProcessed());
+   }
+
+   @Test
+   public void lostMessagesAreRetransmitted() {
+      SimulatedScalingBenchmark reliable = new SimulatedScalingBenchmark(100, SEED, 0);
+      SimulatedScalingBenchmark lossy = new SimulatedScalingBenchmark(100, SEED, 0.01);
+      reliable.run();
+      lossy.run();
+
+      assertTrue(lossy.isConsistent());
+      assertTrue(lossy.network.getMessagesLost() > 0);
+      assertTrue(lossy.meanLatencyMillis() > reliable.meanLatencyMillis());
+   }
+}
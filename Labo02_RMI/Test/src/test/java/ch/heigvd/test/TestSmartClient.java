@@ -0,0 +1,69 @@
+package ch.heigvd.test;
+
+import ch.heigvd.globalvariableclient.Client;
+import ch.heigvd.lamportmanager.LamportManager;
+import ch.heigvd.lamportmanager.transport.Transport;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Vérifie le client connaissant plusieurs sites : ses lectures sont réparties
+ * sur toute la grappe, et il bascule sur un autre site quand le sien tombe.
+ * La répartition des lectures est affichée par SiteBenchmark.
+ */
+public class TestSmartClient {
+
+   private static final int SITES = 3;
+   private static final long FAILURE_TIMEOUT_MILLIS = 500;
+
+   @Test
+   public void readsAreSpreadAndWritesFailOver() throws Exception {
+      String[] sites = new String[SITES];
+      String[][] hosts = new String[SITES][];
+      for (int i = 0; i < SITES; i++) {
+         hosts[i] = new String[]{"localhost", String.valueOf(6060 + i)};
+         sites[i] = "localhost:" + hosts[i][1];
+      }
+      LamportManager[] managers = new LamportManager[SITES];
+      for (int i = 0; i < SITES; i++) {
+         managers[i] = new LamportManager(hosts, i, Transport.Kind.RMI, 0, FAILURE_TIMEOUT_MILLIS);
+      }
+      for (LamportManager manager : managers) {
+         manager.join();
+      }
+
+      try (Client client = new Client(sites)) {
+         client.setGlobalValue(7);
+         for (int i = 0; i < 3000; i++) {
+            assertEquals(7, client.getGlobalVariable());
+         }
+
+         // Chaque site a servi une part des lectures
+         long[] reads = client.getReadsPerSite();
+         for (int i = 0; i < SITES; i++) {
+            assertTrue(reads[i] > 3000 / (SITES * 4));
+         }
+
+         // Le site principal tombe : les écritures et lectures continuent
+         String primary = client.getPrimarySite();
+         assertEquals(sites[0], primary);
+         managers[0].close();
+
+         client.setGlobalValue(8);
+         assertEquals(9, client.addAndGet(1));
+         assertNotEquals(primary, client.getPrimarySite());
+         for (int i = 0; i < 100; i++) {
+            assertEquals(9, client.getGlobalVariable());
+         }
+         assertEquals(0, client.getReadsPerSite()[0] - reads[0]);
+
+         assertEquals(9, new Client(sites[1]).getGlobalVariable());
+         assertEquals(9, new Client(sites[2]).getGlobalVariable());
+      }
+
+      managers[1].close();
+      managers[2].close();
+   }
+}
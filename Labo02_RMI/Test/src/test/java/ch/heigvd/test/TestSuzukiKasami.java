@@ -0,0 +1,47 @@
+package ch.heigvd.test;
+
+import ch.heigvd.interfacesrmi.ISuzukiKasamiAlgorithm;
+import ch.heigvd.lamportmanager.GlobalVariableManager;
+import ch.heigvd.lamportmanager.GlobalVariableManager.Algorithm;
+import java.rmi.Naming;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Vérifie qu'une régénération abandonnée ne perd pas le jeton : le détenteur
+ * garde sa génération, et le jeton qu'il transmet ensuite à un site passé à
+ * la nouvelle génération est refusé, repris sous cette génération, puis
+ * retransmis.
+ */
+public class TestSuzukiKasami {
+
+   @Test(timeout = 20_000)
+   public void refusedTokenIsRestampedAndResent() throws Exception {
+      try (Cluster<GlobalVariableManager> cluster = Cluster.start(6400, 3, Algorithm.TOKEN)) {
+         assertEquals(1, cluster.client(0).addAndGet(1));
+
+         // Le site 2 commence une régénération, avec une génération qui lui
+         // est propre : le site 1 l'adopte, le site 0, détenteur, l'abandonne
+         long newEpoch = 3 + 2;
+         assertFalse(server(cluster, 1).fence(newEpoch, 2));
+         assertTrue(server(cluster, 0).fence(newEpoch, 2));
+         assertArrayEquals(new long[]{0, 1}, server(cluster, 0).probe());
+
+         // Le jeton de génération 0 est refusé par le site 1, puis lui est
+         // retransmis sous la génération 5
+         assertEquals(2, cluster.client(1).addAndGet(1));
+         assertEquals(newEpoch, server(cluster, 1).probe()[0]);
+
+         assertEquals(3, cluster.client(2).addAndGet(1));
+         assertEquals(3, cluster.client(0).addAndGet(0));
+      }
+   }
+
+   private static ISuzukiKasamiAlgorithm server(Cluster<?> cluster, int index) throws Exception {
+      return (ISuzukiKasamiAlgorithm) Naming.lookup("//localhost:" + cluster.hosts[index][1] + "/"
+            + ISuzukiKasamiAlgorithm.RMI_NAME);
+   }
+}
@@ -0,0 +1,90 @@
+package ch.heigvd.test;
+
+import ch.heigvd.globalvariableclient.Client;
+import ch.heigvd.lamportmanager.GlobalVariableManager;
+import ch.heigvd.lamportmanager.GlobalVariableManager.Algorithm;
+import ch.heigvd.lamportmanager.transport.NioTransport;
+import ch.heigvd.lamportmanager.transport.Transport;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Fait incrémenter la même variable par des clients concurrents avec Lamport,
+ * pour chaque transport entre les sites : RMI, ou le protocole binaire sur des
+ * connexions TCP persistantes, et vérifie qu'aucun incrément n'est perdu. Les
+ * clients passent toujours par RMI, seuls les messages de l'algorithme
+ * changent de transport. Le débit de chaque transport est mesuré par
+ * LoadGenerator. Vérifie aussi qu'une trame invalide ne ferme que la
+ * connexion qui l'a envoyée.
+ */
+public class TestTransportThroughput {
+
+   private static final int SITES = 3;
+   private static final int CLIENTS = 6;
+   private static final int INCREMENTS_PER_CLIENT = 30;
+
+   @Test
+   public void noLostIncrements() throws Exception {
+      for (Transport.Kind kind : Transport.Kind.values()) {
+         run(kind);
+      }
+   }
+
+   @Test
+   public void invalidFrameClosesOnlyItsConnection() throws Exception {
+      try (Cluster<GlobalVariableManager> cluster = Cluster.start(5700, SITES, Algorithm.LAMPORT, Transport.Kind.NIO)) {
+         int port = Integer.parseInt(cluster.hosts[0][1]) + NioTransport.PORT_OFFSET;
+         // Une longueur trop grande, puis un type de trame inconnu
+         assertClosedAfter(port, ByteBuffer.allocate(4).putInt(Integer.MAX_VALUE).array());
+         assertClosedAfter(port, ByteBuffer.allocate(13).putInt(9).putLong(0).put((byte) 42).array());
+
+         // Les connexions entre les sites ne sont pas touchées
+         Client client = cluster.client(1);
+         for (int x = 0; x < INCREMENTS_PER_CLIENT; x++) {
+            client.addAndGet(1);
+         }
+         for (int i = 0; i < SITES; i++) {
+            assertEquals(INCREMENTS_PER_CLIENT, cluster.client(i).getGlobalVariable());
+         }
+      }
+   }
+
+   /**
+    * Envoie une trame au transport NIO écoutant sur 'port' et vérifie qu'il
+    * ferme la connexion
+    */
+   private static void assertClosedAfter(int port, byte[] frame) throws Exception {
+      try (Socket socket = new Socket("localhost", port)) {
+         socket.setSoTimeout(5000);
+         socket.getOutputStream().write(frame);
+         assertEquals(-1, socket.getInputStream().read());
+      }
+   }
+
+   /**
+    * Lance une grappe de SITES sites Lamport utilisant le transport donné,
+    * puis fait incrémenter la même variable par tous les clients
+    */
+   private void run(Transport.Kind kind) throws Exception {
+      try (Cluster<GlobalVariableManager> cluster = Cluster.start(5700, SITES, Algorithm.LAMPORT, kind)) {
+         Client[] clients = new Client[CLIENTS];
+         for (int c = 0; c < CLIENTS; c++) {
+            clients[c] = cluster.client(c % SITES);
+         }
+
+         Cluster.inParallel(CLIENTS, c -> {
+            for (int x = 0; x < INCREMENTS_PER_CLIENT; x++) {
+               clients[c].addAndGet(1);
+            }
+         });
+
+         // Aucun incrément ne doit être perdu, quel que soit le transport
+         for (int i = 0; i < SITES; i++) {
+            assertEquals(kind + " lost increments", CLIENTS * INCREMENTS_PER_CLIENT,
+                  cluster.client(i).getGlobalVariable());
+         }
+      }
+   }
+}
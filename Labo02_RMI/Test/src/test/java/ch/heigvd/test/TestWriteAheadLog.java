@@ -0,0 +1,130 @@
+package ch.heigvd.test;
+
+import ch.heigvd.globalvariableclient.Client;
+import ch.heigvd.lamportmanager.LamportManager;
+import ch.heigvd.lamportmanager.wal.WriteAheadLog;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Vérifie le journal des écritures : la relecture retrouve la dernière valeur
+ * de chaque clé, même après un million d'écritures ou un enregistrement
+ * tronqué, et un site relancé reprend les valeurs journalisées. La taille du
+ * journal et la durée de sa relecture sont affichées par SiteBenchmark.
+ */
+public class TestWriteAheadLog {
+
+   private static final int SITES = 3;
+
+   @Rule
+   public TemporaryFolder folder = new TemporaryFolder();
+
+   @Test
+   public void replayAfterMillionsOfWrites() throws Exception {
+      final int writes = 1_000_000;
+      Path file = folder.getRoot().toPath().resolve("million.wal");
+
+      WriteAheadLog log = new WriteAheadLog(file, WriteAheadLog.Sync.ASYNC);
+      for (int i = 1; i <= writes; i++) {
+         log.append("key" + (i % 4), i, i);
+      }
+      int size = log.size();
+      log.close();
+
+      // Le compactage garde le fichier petit
+      assertTrue(size < 1 << 20);
+
+      WriteAheadLog reopened = new WriteAheadLog(file, WriteAheadLog.Sync.ASYNC);
+      Map<String, Integer> values = new HashMap<>();
+      reopened.replay((key, value, version) -> values.put(key, value));
+      reopened.close();
+
+      assertEquals(4, values.size());
+      for (int k = 0; k < 4; k++) {
+         assertEquals(writes - (writes - k) % 4, (int) values.get("key" + k));
+      }
+   }
+
+   @Test
+   public void truncatedRecordIsIgnored() throws Exception {
+      Path file = folder.getRoot().toPath().resolve("torn.wal");
+
+      WriteAheadLog log = new WriteAheadLog(file, WriteAheadLog.Sync.ALWAYS);
+      log.append("x", 1, 1);
+      log.append("x", 2, 2);
+      int end = log.size();
+      log.close();
+
+      // Enregistrement dont seule la longueur a été écrite
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+         ByteBuffer torn = ByteBuffer.allocate(8);
+         torn.putInt(40).putInt(12345).flip();
+         channel.write(torn, end);
+      }
+
+      WriteAheadLog reopened = new WriteAheadLog(file, WriteAheadLog.Sync.GROUP);
+      Map<String, Integer> values = new HashMap<>();
+      reopened.replay((key, value, version) -> values.put(key, value));
+      assertEquals(2, (int) values.get("x"));
+      assertEquals(end, reopened.size());
+
+      // Les ajouts suivants remplacent l'enregistrement tronqué
+      reopened.append("x", 3, 3);
+      reopened.close();
+      WriteAheadLog again = new WriteAheadLog(file, WriteAheadLog.Sync.GROUP);
+      again.replay((key, value, version) -> values.put(key, value));
+      again.close();
+      assertEquals(3, (int) values.get("x"));
+   }
+
+   @Test
+   public void restartedSiteServesLoggedValue() throws Exception {
+      String[][] hosts = new String[SITES][];
+      for (int i = 0; i < SITES; i++) {
+         hosts[i] = new String[]{"localhost", String.valueOf(6020 + i)};
+      }
+      LamportManager[] managers = start(hosts);
+
+      new Client("localhost:" + hosts[0][1]).setGlobalValue(42);
+      for (LamportManager manager : managers) {
+         manager.close();
+      }
+
+      // Tous les sites relancés reprennent la valeur, sans nouvelle écriture
+      managers = start(hosts);
+      for (int i = 0; i < SITES; i++) {
+         assertEquals(42, new Client("localhost:" + hosts[i][1]).getGlobalVariable());
+      }
+
+      // Et les versions aussi : une nouvelle écriture depuis un autre site
+      // est bien plus récente
+      new Client("localhost:" + hosts[2][1]).setGlobalValue(43);
+      assertEquals(43, new Client("localhost:" + hosts[0][1]).getGlobalVariable());
+
+      for (LamportManager manager : managers) {
+         manager.close();
+      }
+   }
+
+   private LamportManager[] start(String[][] hosts) throws Exception {
+      LamportManager[] managers = new LamportManager[SITES];
+      for (int i = 0; i < SITES; i++) {
+         managers[i] = new LamportManager(hosts, i);
+         managers[i].openLog(new File(folder.getRoot(), "site-" + i + ".wal").toPath(), WriteAheadLog.Sync.GROUP);
+      }
+      for (LamportManager manager : managers) {
+         manager.connectToRemotes();
+      }
+      return managers;
+   }
+}
@@ -45,18 +45,31 @@ public class App {
 	private final Thread sendEchosThread;
 
 	/**
-	 * Permet d'instancier une nouvelle application
+	 * Permet d'instancier une nouvelle application, utilisant l'élection en
+	 * anneau
 	 *
 	 * @param hostIndex l'index du site courant
 	 * @throws IOException si il y a eu une erreur lors de l'echo autre que le
 	 * fait que le site distant a mis trop de temps à répondre
 	 */
 	public App(byte hostIndex) throws IOException {
+		this(hostIndex, ElectionManager.Algorithm.RING);
+	}
+
+	/**
+	 * Permet d'instancier une nouvelle application
+	 *
+	 * @param hostIndex l'index du site courant
+	 * @param algorithm l'algorithme d'élection
+	 * @throws IOException si il y a eu une erreur lors de l'echo autre que le
+	 * fait que le site distant a mis trop de temps à répondre
+	 */
+	public App(int hostIndex, ElectionManager.Algorithm algorithm) throws IOException {
 		this.socket = new DatagramSocket();
 		socket.setSoTimeout(ECHO_TIMEOUT);
 		log("Creating electionManager");
 
-		electionManager = new ElectionManager(hostIndex);
+		electionManager = new ElectionManager(hostIndex, algorithm);
 		log("ElectionManager created");
 
 		// On lance une élection
@@ -133,7 +146,8 @@ public class App {
 
 	/**
 	 * Un fichier host doit être disponible
-	 * @param args args[0] doit être le numéro de site
+	 * @param args args[0] doit être le numéro de site, args[1] l'algorithme
+	 * d'élection, "ring" (par défaut) ou "bully"
 	 * 
 	 * @throws IOException 
 	 */
@@ -142,7 +156,10 @@ public class App {
 		if (args.length < 1) {
 			System.err.println("Il manque le numero de site en argument");
 		} else {
-			new App(Byte.valueOf(args[0])).start();
+			ElectionManager.Algorithm algorithm = args.length > 1
+				? ElectionManager.Algorithm.parse(args[1])
+				: ElectionManager.Algorithm.RING;
+			new App(Integer.parseInt(args[0]), algorithm).start();
 		}
 	}
 }
@@ -1,6 +1,9 @@
 package ch.heigvd.prr.election;
 
 import ch.heigvd.prr.election.Message.AnnounceMessage;
+import ch.heigvd.prr.election.Message.CoordinatorMessage;
+import ch.heigvd.prr.election.Message.EchoMessage;
+import ch.heigvd.prr.election.Message.ElectionMessage;
 import ch.heigvd.prr.election.Message.MessageType;
 import ch.heigvd.prr.election.Message.QuittanceMessage;
 import ch.heigvd.prr.election.Message.ResultsMessage;
@@ -11,11 +14,17 @@ import java.net.DatagramSocket;
 import java.net.SocketAddress;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -41,6 +50,20 @@ import java.util.logging.Logger;
  * qu'une autre est déjà en cours, sauf dans le cas où on est lancé pour
  * la première fois (le nouveau site peut avoir une aptitude plus élevée)
  * 
+ * Deux algorithmes sont disponibles, choisis à la construction :
+ *    - RING, par défaut : l'annonce fait le tour de l'anneau, puis les
+ *    résultats. L'élu n'est connu qu'après un tour et demi en moyenne. Les
+ *    sites en panne sont recherchés en sondant plusieurs successeurs à la
+ *    fois (voir sendQuittancedMessageToNext()) : une suite de sites en
+ *    panne coûte un seul timeout de quittance, puis aucun tant qu'ils
+ *    restent suspectés
+ *    - BULLY : l'aptitude de chaque site est connue d'avance (calculée
+ *    depuis son adresse). Le site lançant l'élection la demande à tous les
+ *    sites plus aptes en même temps ; s'il n'a aucune quittance avant le
+ *    timeout, il est élu et l'annonce à tous. Sinon, les plus aptes
+ *    continuent l'élection. L'élu est connu après au plus un timeout, quel
+ *    que soit le nombre de sites en panne
+ * 
  * @author Rémi Jacquemard
  * @author Miguel Pombo Dias
  */
@@ -48,19 +71,76 @@ public class ElectionManager implements Closeable {
 
    private static final int QUITTANCE_TIMEOUT = 1000;
    private static final double ELECTION_TIMEOUT_FACTOR = 1.5;
+   // Bully : le site plus apte ayant quittancé lance sa propre élection, qui
+   // dure au plus un timeout de quittance, puis annonce l'élu
+   private static final int BULLY_TIMEOUT_FACTOR = 3;
+
+   // Anneau : le nombre de successeurs sondés à la fois lorsque le voisin
+   // n'est pas connu comme vivant
+   private static final int PROBE_WIDTH = 4;
+   // Durée pendant laquelle un site ayant quittancé est considéré vivant, et
+   // reçoit les messages sans être sondé
+   private static final long ALIVE_TTL = 5 * QUITTANCE_TIMEOUT;
+   // Durée pendant laquelle un site n'ayant pas quittancé est sauté, avant
+   // d'être sondé de nouveau
+   private static final long SUSPECT_TTL = 10 * QUITTANCE_TIMEOUT;
    private final int electionTimeout;
 
+   /**
+    * Les algorithmes d'élection disponibles, voir la description de la classe
+    */
+   public static enum Algorithm {
+      RING, BULLY;
+
+      /**
+       * Lit l'algorithme d'élection passé en 2ème argument de App.main()
+       *
+       * @param name "ring" ou "bully", en majuscules ou minuscules
+       * @return l'algorithme correspondant
+       * @throws IllegalArgumentException si aucun algorithme n'a ce nom
+       */
+      public static Algorithm parse(String name) {
+         return Algorithm.valueOf(name.trim().toUpperCase());
+      }
+   }
+
+   private final Algorithm algorithm;
+
+   // Faux pour ne pas afficher les traces de log() en console
+   private final boolean verbose;
+
+   // Le nombre d'attentes de quittance arrivées au timeout, voir getTimeouts()
+   private final AtomicInteger timeouts = new AtomicInteger();
+
+   // Bully : vrai pendant qu'on attend les quittances des sites plus aptes,
+   // afin de ne pas lancer deux fois la même élection
+   private final AtomicBoolean bullyRunning = new AtomicBoolean(false);
+
    private Site[] hosts;
    private final Site localSite;
 
-   // hostIndex en byte, vu qu'il n'y en a maximum que 4
-   private final byte localHostIndex;
+   private final int localHostIndex;
    private Site neighbor;
    private Site elected = null;
 
+   // Anneau : la dernière quittance reçue de chaque site, et depuis quand il
+   // est suspecté en panne (0 s'il ne l'est pas), en millisecondes
+   private final AtomicLongArray lastAlive;
+   private final AtomicLongArray suspectedSince;
+
    private DatagramSocket serverSocket;
    private DatagramSocket timedoutSocket;
 
+   // Tampons réutilisés pour chaque envoi et réception, plutôt que d'allouer
+   // un tableau et un paquet par message. Un message fait au plus
+   // Message.getMaxMessageSize(hosts.length) bytes
+   private final ByteBuffer sendBuffer;
+   private final DatagramPacket sendPacket;
+   private final ByteBuffer serverBuffer;
+   private final DatagramPacket serverPacket;
+   private final ByteBuffer timeoutBuffer;
+   private final DatagramPacket timeoutPacket;
+
    private final Object locker = new Object();
 
    private enum Phase {
@@ -77,6 +157,9 @@ public class ElectionManager implements Closeable {
     * @param s le message à afficher
     */
    private void log(String s) {
+      if (!verbose) {
+         return;
+      }
 
       SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss.SSS");
 
@@ -97,16 +180,47 @@ public class ElectionManager implements Closeable {
     *
     * @param hosts            Un tableau des sites
     * @param hostIndex
+    * @param algorithm        l'algorithme d'élection
+    * @param verbose          faux pour ne pas afficher les traces en console,
+    *                         par exemple dans un benchmark
     * @throws SocketException
+    * @throws IllegalArgumentException si une annonce de tous les sites ne
+    * tient pas dans un datagramme (un peu plus de 10'000 sites)
     */
-   public ElectionManager(Site[] hosts, byte hostIndex) throws SocketException, IOException {
+   public ElectionManager(Site[] hosts, int hostIndex, Algorithm algorithm, boolean verbose)
+         throws SocketException, IOException {
+      this.verbose = verbose;
       this.hosts = hosts;
       this.localSite = hosts[hostIndex];
       this.localHostIndex = hostIndex;
+      this.algorithm = algorithm;
+      this.lastAlive = new AtomicLongArray(hosts.length);
+      this.suspectedSince = new AtomicLongArray(hosts.length);
+
+      int maxSize = Message.getMaxMessageSize(hosts.length);
+      if (maxSize > Message.MAX_DATAGRAM_SIZE) {
+         throw new IllegalArgumentException("An announce for " + hosts.length
+            + " sites would not fit in a datagram (" + maxSize + " bytes)");
+      }
+      sendBuffer = ByteBuffer.allocate(maxSize);
+      sendPacket = new DatagramPacket(sendBuffer.array(), maxSize);
+      serverBuffer = ByteBuffer.allocate(maxSize);
+      serverPacket = new DatagramPacket(serverBuffer.array(), maxSize);
+      timeoutBuffer = ByteBuffer.allocate(maxSize);
+      timeoutPacket = new DatagramPacket(timeoutBuffer.array(), maxSize);
 
       // On calcule un temps de timeout pour l'obtention d'une élection proportionnel
       // au nombre de sites et au temps de timeout de chacun
-      electionTimeout = (int) (ELECTION_TIMEOUT_FACTOR * hosts.length * QUITTANCE_TIMEOUT);
+      if (algorithm == Algorithm.BULLY) {
+         electionTimeout = BULLY_TIMEOUT_FACTOR * QUITTANCE_TIMEOUT;
+
+         // Les aptitudes sont connues d'avance, et ne changent pas
+         for (Site host : hosts) {
+            host.setApptitude(aptitudeOf(host));
+         }
+      } else {
+         electionTimeout = (int) (ELECTION_TIMEOUT_FACTOR * hosts.length * QUITTANCE_TIMEOUT);
+      }
 
       log("Starting Election Manager");
 
@@ -131,7 +245,7 @@ public class ElectionManager implements Closeable {
                      AnnounceMessage announceMessage = (AnnounceMessage) message;
 
                      // On vérifie l'annonce
-                     if (announceMessage.getAptitude(localHostIndex) != null) {
+                     if (announceMessage.hasAptitude(localHostIndex)) {
                         /*
                            Ici, on a déjà écrit notre aptitude dans ce message, donc
                            on détermine qui est l'élu et on envoie les résultats
@@ -141,12 +255,14 @@ public class ElectionManager implements Closeable {
 
                         currentPhase = Phase.RESULT;
 
-                        announceMessage.getAptitudes().entrySet().forEach((entry) -> {
-                           Byte index = entry.getKey();
-                           Integer apptitude = entry.getValue();
-
-                           hosts[index].setApptitude(apptitude);
-                        });
+                        // Un site absent de l'annonce n'a pas répondu : son
+                        // aptitude d'une élection précédente ne compte plus
+                        for (Site host : hosts) {
+                           host.setApptitude(0);
+                        }
+                        for (int i = 0; i < announceMessage.getCount(); i++) {
+                           hosts[announceMessage.getSiteAt(i)].setApptitude(announceMessage.getAptitudeAt(i));
+                        }
 
                         // On utilise la comparaison native des sites
                         elected = Arrays.stream(hosts)
@@ -195,9 +311,9 @@ public class ElectionManager implements Closeable {
                      log("RESULTS received");
                      ResultsMessage resultsMessage = (ResultsMessage) message;
 
-                     log("Result : " + resultsMessage.getSeenSites().toString());
+                     log("Result : " + resultsMessage.toString());
 
-                     if (resultsMessage.getSeenSites().contains(localHostIndex)) {
+                     if (resultsMessage.hasSeen(localHostIndex)) {
                         /*
                            Si le résultat est déjà connu, alors on ne fait
                            qu'arrêter la propagation, rien d'autre
@@ -241,16 +357,69 @@ public class ElectionManager implements Closeable {
                      log("ECHO RECEIVED");
                      // On ne fait rien, la quittance a déjà été envoyée
                      break;
+                  // Bully : un site moins apte lance une élection
+                  case ELECTION:
+                     log("ELECTION received");
+                     // Notre quittance lui répond déjà que nous sommes
+                     // vivant
+                     synchronized (locker) {
+                        if (elected == localSite && currentPhase == null) {
+                           // On est déjà l'élu : un site plus apte qui
+                           // revient lance lui-même une élection, il suffit
+                           // donc de le rappeler à l'émetteur
+                           Site sender = hosts[((ElectionMessage) message).getSenderIndex()];
+                           sendMessage(new CoordinatorMessage(localHostIndex), sender);
+                        } else {
+                           // On continue l'élection à sa place, sauf si la
+                           // nôtre est déjà en cours
+                           startBullyElection();
+                        }
+                     }
+                     break;
+                  // Bully : l'élu s'annonce
+                  case COORDINATOR:
+                     Site coordinator = hosts[((CoordinatorMessage) message).getElectedIndex()];
+                     log("COORDINATOR received : " + ((CoordinatorMessage) message).getElectedIndex());
+
+                     if (coordinator.compareTo(localSite) > 0) {
+                        // Un site moins apte que nous s'est élu, par exemple
+                        // pendant que nous étions injoignable : on le détrône
+                        synchronized (locker) {
+                           startBullyElection();
+                        }
+                     } else {
+                        synchronized (locker) {
+                           elected = coordinator;
+                           currentPhase = null;
+                           locker.notifyAll();
+                        }
+                     }
+                     break;
                }
 
             }
          } catch (IOException e) {
-            throw new RuntimeException(e);
+            // close() ferme le socket serveur pour arrêter ce thread
+            if (!serverSocket.isClosed()) {
+               throw new RuntimeException(e);
+            }
          }
 
       });
    }
 
+   /**
+    * Même constructeur, en affichant les traces en console
+    * @param hosts            Un tableau des sites
+    * @param hostIndex        l'indice de l'hôte courant
+    * @param algorithm        l'algorithme d'élection
+    * @throws SocketException
+    * @throws IOException 
+    */
+   public ElectionManager(Site[] hosts, int hostIndex, Algorithm algorithm) throws SocketException, IOException {
+      this(hosts, hostIndex, algorithm, true);
+   }
+
    /**
     * Constructeur avec un tableau de tableaux de strings
     * On convertit le tableau de tableau en un tableau de sites avant de le transmettre
@@ -259,10 +428,33 @@ public class ElectionManager implements Closeable {
     * @throws SocketException
     * @throws IOException 
     */
-   public ElectionManager(String[][] hosts, byte hostIndex) throws SocketException, IOException {
+   public ElectionManager(String[][] hosts, int hostIndex) throws SocketException, IOException {
+      this(hosts, hostIndex, Algorithm.RING);
+   }
+
+   /**
+    * Même constructeur, en choisissant l'algorithme d'élection
+    * @param hosts            le tableau des hôtes en String
+    * @param hostIndex        l'indice de l'hôte courant
+    * @param algorithm        l'algorithme d'élection
+    * @throws SocketException
+    * @throws IOException 
+    */
+   public ElectionManager(String[][] hosts, int hostIndex, Algorithm algorithm) throws SocketException, IOException {
       this(Arrays.stream(hosts)
          .map((s) -> new Site(s[0], Integer.parseInt(s[1])))
-         .toArray(Site[]::new), hostIndex);
+         .toArray(Site[]::new), hostIndex, algorithm);
+   }
+
+   /**
+    * Constructeur avec l'algorithme de l'anneau
+    * @param hosts            Un tableau des sites
+    * @param hostIndex        l'indice de l'hôte courant
+    * @throws SocketException
+    * @throws IOException 
+    */
+   public ElectionManager(Site[] hosts, int hostIndex) throws SocketException, IOException {
+      this(hosts, hostIndex, Algorithm.RING);
    }
 
    /**
@@ -271,11 +463,21 @@ public class ElectionManager implements Closeable {
     * @param hostIndex
     * @throws IOException 
     */
-   public ElectionManager(byte hostIndex) throws IOException {
+   public ElectionManager(int hostIndex) throws IOException {
+      this(hostIndex, Algorithm.RING);
+   }
+
+   /**
+    * Même constructeur, en choisissant l'algorithme d'élection
+    * @param hostIndex
+    * @param algorithm        l'algorithme d'élection
+    * @throws IOException 
+    */
+   public ElectionManager(int hostIndex, Algorithm algorithm) throws IOException {
       // Retreiving the other hosts from the hosts.txt file;
       this(Files.readAllLines(Paths.get("hosts.txt")).stream()
          .map((s) -> s.split(" "))
-         .toArray(String[][]::new), hostIndex);
+         .toArray(String[][]::new), hostIndex, algorithm);
    }
 
    /**
@@ -283,10 +485,10 @@ public class ElectionManager implements Closeable {
     * @param site le site dont on veut obtenir l'identifiant
     * @return l'identifiant du site
     */
-   private byte getSiteIndex(Site site) {
+   private int getSiteIndex(Site site) {
       for (int i = 0; i < hosts.length; i++) {
          if (hosts[i] == site) {
-            return (byte) i;
+            return i;
          }
       }
 
@@ -307,6 +509,17 @@ public class ElectionManager implements Closeable {
       return serverSocket.getLocalAddress().getAddress()[3] + serverSocket.getLocalPort();
    }
 
+   /**
+    * Bully : calcule l'aptitude d'un site comme computeLocalAptitude() la
+    * calculerait sur ce site, depuis son adresse
+    * 
+    * @param site le site
+    * @return son aptitude
+    */
+   private static int aptitudeOf(Site site) {
+      return site.getSocketAddress().getAddress().getAddress()[3] + site.getSocketAddress().getPort();
+   }
+
    /**
     * Cette méthode permet du côté applicatif de lancer une élection
     * On prépare l'electionListener pour gérer les messages entrants une seule fois
@@ -338,10 +551,29 @@ public class ElectionManager implements Closeable {
       }
    }
 
+   /**
+    * Permet de lancer la réception des messages sans lancer d'élection : le
+    * site participe alors aux élections lancées par les autres sites. A
+    * appeler sur tous les sites avant la première élection, sinon les sites
+    * qui n'écoutent pas encore sont considérés comme injoignables
+    */
+   public void listen() {
+      synchronized (locker) {
+         if (!electionListener.isAlive()) {
+            electionListener.start();
+         }
+      }
+   }
+
    /**
     * On commence ici le processus de l'élection en commencant pas une annonce
     */
    private void startElectionLocal() {
+      if (algorithm == Algorithm.BULLY) {
+         startBullyElection();
+         return;
+      }
+
       try {
          log("############# Starting an election ############");
          
@@ -362,6 +594,90 @@ public class ElectionManager implements Closeable {
       log("Announced message sent");
    }
 
+   /**
+    * Bully : lance, dans un nouveau thread, une élection auprès des sites
+    * plus aptes, sauf si une est déjà en attente de leurs quittances. A
+    * appeler en possédant le locker.
+    * 
+    * La phase ne change que si l'élection est lancée : une élection en cours
+    * peut avoir déjà reçu l'élu, qui ne sera pas renvoyé
+    */
+   private void startBullyElection() {
+      if (!bullyRunning.compareAndSet(false, true)) {
+         return;
+      }
+      currentPhase = Phase.ANNOUNCE;
+      new Thread(() -> {
+         try {
+            runBullyElection();
+         } catch (IOException ex) {
+            Logger.getLogger(ElectionManager.class.getName()).log(Level.SEVERE, null, ex);
+         } finally {
+            bullyRunning.set(false);
+         }
+      }).start();
+   }
+
+   /**
+    * Bully : envoie ELECTION à tous les sites plus aptes en même temps, puis
+    * attend la première quittance. Sans quittance avant le timeout, aucun
+    * site plus apte n'est vivant : on est élu, et on l'annonce à tous. Sinon,
+    * l'élu s'annoncera, et getElected() relance l'élection s'il ne le fait
+    * pas à temps.
+    * 
+    * Un socket est ouvert pour chaque élection : une quittance en retard
+    * d'une élection précédente ne peut ainsi pas être prise pour une réponse
+    * @throws IOException 
+    */
+   private void runBullyElection() throws IOException {
+      log("############# Starting a bully election ############");
+      boolean answered = false;
+
+      try (DatagramSocket socket = new DatagramSocket()) {
+         socket.setSoTimeout(QUITTANCE_TIMEOUT);
+
+         int higher = 0;
+         for (Site host : hosts) {
+            if (host.compareTo(localSite) < 0) {
+               sendMessage(new ElectionMessage(localHostIndex), host.getSocketAddress(), socket);
+               higher++;
+            }
+         }
+
+         if (higher > 0) {
+            ByteBuffer buffer = ByteBuffer.allocate(Message.getMaxMessageSize(1));
+            DatagramPacket packet = new DatagramPacket(buffer.array(), buffer.capacity());
+            try {
+               answered = receive(socket, packet, buffer).getMessageType() == MessageType.QUITTANCE;
+            } catch (SocketTimeoutException e) {
+               // Aucun site plus apte n'est joignable
+               timeouts.incrementAndGet();
+            }
+         }
+
+         if (answered) {
+            log("A more suitable site answered, waiting for the coordinator");
+            return;
+         }
+
+         log("No more suitable site answered : I am the coordinator");
+         synchronized (locker) {
+            elected = localSite;
+            currentPhase = null;
+            // Une ELECTION reçue dès maintenant, même pendant l'annonce
+            // ci-dessous, reçoit sa propre réponse
+            bullyRunning.set(false);
+            locker.notifyAll();
+         }
+         CoordinatorMessage coordinator = new CoordinatorMessage(localHostIndex);
+         for (Site host : hosts) {
+            if (host != localSite) {
+               sendMessage(coordinator, host.getSocketAddress(), socket);
+            }
+         }
+      }
+   }
+
    /**
     * Lors de la fermeture de l'ElectionManager, on interromp le thread de réception
     * et on ferme le socket serveur
@@ -371,6 +687,7 @@ public class ElectionManager implements Closeable {
    public void close() throws IOException {
       log("Closing connection");
       serverSocket.close();
+      timedoutSocket.close();
 
       electionListener.interrupt();
 
@@ -403,11 +720,24 @@ public class ElectionManager implements Closeable {
       return elected;
    }
 
+   /**
+    * @return le nombre de fois où ce site a attendu une quittance jusqu'au
+    * timeout, toutes élections confondues : à chaque sondage sans réponse du
+    * premier successeur, à chaque message sans quittance, et à chaque
+    * élection Bully sans réponse des sites plus aptes
+    */
+   public int getTimeouts() {
+      return timeouts.get();
+   }
+
    /**
     * permet d'envoyer un message à un site et demande une quittance
     * Si le site n'est pas atteignable, on envoie au site suivant jusqu'à
     * ce qu'un des sites réponde
     * 
+    * Le voisin est choisi par chooseNeighbor(), qui saute les sites
+    * suspectés en panne, et sonde plusieurs successeurs à la fois si besoin
+    * 
     * Dans le pire des cas, le site émetteur répond à son propre message
     * @param message
     * @throws IOException 
@@ -415,23 +745,144 @@ public class ElectionManager implements Closeable {
    private void sendQuittancedMessageToNext(Message message) throws IOException {
       log("Sending message " + message.getMessageType());
       boolean unreachable;
-      // on récupère le site suivant à contacter
-      neighbor = hosts[(localHostIndex + 1) % hosts.length];
       
       do {
          unreachable = false;
+         // on récupère le site suivant à contacter
+         int next = chooseNeighbor();
+         neighbor = hosts[next];
          try {
             sendQuittancedMessage(message, neighbor);
+            markAlive(next);
          } catch (UnreachableRemoteException ex) {
             log("Neigbor unreachable, trying next");
             unreachable = true;
-            // si le site n'est pas atteignable, on contacte le site suivant
-            neighbor = hosts[(1 + getSiteIndex(neighbor)) % hosts.length];
+            // si le site n'est pas atteignable, on le saute pendant un temps
+            suspectedSince.set(next, System.currentTimeMillis());
          }
       } while (unreachable);
 
    }
 
+   /**
+    * Choisit le voisin auquel envoyer le prochain message de l'anneau : le
+    * premier successeur qui n'est pas suspecté en panne.
+    * 
+    * S'il a quittancé récemment, il est choisi sans autre message. Sinon, on
+    * sonde par un ECHO les PROBE_WIDTH premiers successeurs non suspectés en
+    * même temps : le premier est choisi dès sa quittance. Au timeout, ceux
+    * n'ayant pas quittancé sont suspectés, et le premier ayant quittancé est
+    * choisi. Des successeurs consécutifs en panne ne coûtent ainsi qu'un
+    * timeout, au lieu d'un chacun.
+    * 
+    * @return l'index du voisin, le nôtre si tous les autres sont en panne
+    * @throws IOException 
+    */
+   private int chooseNeighbor() throws IOException {
+      while (true) {
+         long now = System.currentTimeMillis();
+         List<Integer> candidates = new ArrayList<>();
+         for (int i = 1; i < hosts.length && candidates.size() < PROBE_WIDTH; i++) {
+            int site = (localHostIndex + i) % hosts.length;
+            long suspected = suspectedSince.get(site);
+            if (suspected == 0 || now - suspected > SUSPECT_TTL) {
+               candidates.add(site);
+            }
+         }
+         if (candidates.isEmpty()) {
+            return localHostIndex;
+         }
+         if (now - lastAlive.get(candidates.get(0)) <= ALIVE_TTL) {
+            return candidates.get(0);
+         }
+
+         boolean[] answered = probe(candidates);
+         for (int i = 0; i < candidates.size(); i++) {
+            if (answered[i]) {
+               return candidates.get(i);
+            }
+         }
+         // Aucun n'a répondu, tous sont maintenant suspectés : on continue
+         // avec les suivants
+      }
+   }
+
+   /**
+    * Sonde des sites en leur envoyant un ECHO depuis un socket ouvert pour
+    * l'occasion, puis attend leurs quittances jusqu'à ce que le premier ait
+    * répondu, ou jusqu'au timeout. Les quittances étant envoyées depuis le
+    * socket serveur, leur source identifie le site.
+    * 
+    * @param candidates les index des sites à sonder, dans l'ordre de l'anneau
+    * @return pour chaque site, vrai s'il a quittancé
+    * @throws IOException 
+    */
+   private boolean[] probe(List<Integer> candidates) throws IOException {
+      log("Probing " + candidates);
+      boolean[] answered = new boolean[candidates.size()];
+
+      try (DatagramSocket socket = new DatagramSocket()) {
+         for (int site : candidates) {
+            sendMessage(new EchoMessage(), hosts[site].getSocketAddress(), socket);
+         }
+
+         ByteBuffer buffer = ByteBuffer.allocate(Message.getMaxMessageSize(1));
+         DatagramPacket packet = new DatagramPacket(buffer.array(), buffer.capacity());
+         long deadline = System.currentTimeMillis() + QUITTANCE_TIMEOUT;
+         long remaining;
+         while (!answered[0] && (remaining = deadline - System.currentTimeMillis()) > 0) {
+            socket.setSoTimeout((int) remaining);
+            try {
+               if (receive(socket, packet, buffer).getMessageType() != MessageType.QUITTANCE) {
+                  continue;
+               }
+            } catch (SocketTimeoutException e) {
+               break;
+            }
+            int i = candidates.indexOf(indexOf(packet.getSocketAddress()));
+            if (i >= 0) {
+               answered[i] = true;
+               markAlive(candidates.get(i));
+            }
+         }
+      }
+
+      // Le premier est choisi dès sa quittance : les autres ne sont
+      // suspectés que si on a attendu jusqu'au timeout
+      if (!answered[0]) {
+         timeouts.incrementAndGet();
+         long now = System.currentTimeMillis();
+         for (int i = 0; i < answered.length; i++) {
+            if (!answered[i]) {
+               suspectedSince.set(candidates.get(i), now);
+            }
+         }
+      }
+      return answered;
+   }
+
+   /**
+    * Note qu'un site vient de quittancer
+    * @param site l'index du site
+    */
+   private void markAlive(int site) {
+      lastAlive.set(site, System.currentTimeMillis());
+      suspectedSince.set(site, 0);
+   }
+
+   /**
+    * @param address l'adresse d'un socket serveur
+    * @return l'index du site à cette adresse, ou -1
+    */
+   private int indexOf(SocketAddress address) {
+      for (int i = 0; i < hosts.length; i++) {
+         if (hosts[i].getSocketAddress().equals(address)) {
+            return i;
+         }
+      }
+      return -1;
+   }
+
    /**
     * Envoie un message à une certaine addresse
     * @param message le message à envoyer
@@ -439,8 +890,27 @@ public class ElectionManager implements Closeable {
     * @throws IOException 
     */
    private void sendMessage(Message message, SocketAddress socketAddress) throws IOException {
-      DatagramPacket packet = new DatagramPacket(message.toByteArray(), message.toByteArray().length, socketAddress);
-      timedoutSocket.send(packet);
+      sendMessage(message, socketAddress, timedoutSocket);
+   }
+
+   /**
+    * Envoie un message à une certaine addresse, depuis un socket donné : les
+    * quittances reviendront à ce socket
+    * @param message le message à envoyer
+    * @param socketAddress l'addresse pour l'envoi du message
+    * @param socket le socket d'envoi
+    * @throws IOException 
+    */
+   private void sendMessage(Message message, SocketAddress socketAddress, DatagramSocket socket) throws IOException {
+      // Le message est codé une seule fois, directement dans le tampon du
+      // paquet, partagé entre les threads d'envoi
+      synchronized (sendBuffer) {
+         sendBuffer.clear();
+         message.writeTo(sendBuffer);
+         sendPacket.setLength(sendBuffer.position());
+         sendPacket.setSocketAddress(socketAddress);
+         socket.send(sendPacket);
+      }
    }
 
    /**
@@ -461,20 +931,26 @@ public class ElectionManager implements Closeable {
     * @throws ch.heigvd.prr.election.ElectionManager.UnreachableRemoteException Si le site n'est pas atteignable
     */
    private void sendQuittancedMessage(Message message, Site site) throws IOException, UnreachableRemoteException {
-      sendMessage(message, site);
+      // L'envoi et l'attente de la quittance se font d'un bloc : un autre
+      // thread envoyant par le même socket (les résultats, par exemple) ne
+      // peut ainsi pas recevoir notre quittance à notre place
+      synchronized (timeoutBuffer) {
+         sendMessage(message, site);
 
-      // on a un timeout pour l'envoi de message
-      try {
-         Message m = receiveTimeoutMessage();
-         if (m.getMessageType() == Message.MessageType.QUITTANCE) {
-            // Le message reçu via ce socket ne peut être que la réponse du message
-            // envoyé juste au dessus
-         } else {
-            throw new UnreachableRemoteException();
+         // on a un timeout pour l'envoi de message
+         try {
+            Message m = receiveTimeoutMessage();
+            if (m.getMessageType() == Message.MessageType.QUITTANCE) {
+               // Le message reçu via ce socket ne peut être que la réponse du message
+               // envoyé juste au dessus
+            } else {
+               throw new UnreachableRemoteException();
+            }
+         } catch (SocketTimeoutException e) {
+            // Si on atteint pas le site
+            timeouts.incrementAndGet();
+            throw new UnreachableRemoteException(e);
          }
-      } catch (SocketTimeoutException e) {
-         // Si on atteint pas le site
-         throw new UnreachableRemoteException(e);
       }
 
    }
@@ -485,15 +961,16 @@ public class ElectionManager implements Closeable {
     * @throws IOException
     */
    private Message receiveAndQuittanceMessage() throws IOException {
-      int maxSize = Message.getMaxMessageSize(hosts.length);
-      DatagramPacket packet = new DatagramPacket(new byte[maxSize], maxSize);
-      serverSocket.receive(packet);
-      
-      // On transmet la quittance
-      QuittanceMessage quittanceMessage = new QuittanceMessage();
-      sendMessage(quittanceMessage, packet.getSocketAddress());
+      synchronized (serverBuffer) {
+         Message message = receive(serverSocket, serverPacket, serverBuffer);
 
-      return Message.parse(packet.getData(), packet.getLength());
+         // On transmet la quittance, depuis le socket serveur : sa source
+         // identifie ainsi notre site (voir probe())
+         QuittanceMessage quittanceMessage = new QuittanceMessage();
+         sendMessage(quittanceMessage, serverPacket.getSocketAddress(), serverSocket);
+
+         return message;
+      }
    }
 
    /**
@@ -502,11 +979,9 @@ public class ElectionManager implements Closeable {
     * @throws IOException 
     */
    private Message receiveMessage() throws IOException {
-      int maxSize = Message.getMaxMessageSize(hosts.length);
-      DatagramPacket packet = new DatagramPacket(new byte[maxSize], maxSize);
-      serverSocket.receive(packet);
-
-      return Message.parse(packet.getData(), packet.getLength());
+      synchronized (serverBuffer) {
+         return receive(serverSocket, serverPacket, serverBuffer);
+      }
    }
 
   /**
@@ -516,12 +991,33 @@ public class ElectionManager implements Closeable {
    * @throws SocketTimeoutException 
    */
    private Message receiveTimeoutMessage() throws IOException, SocketTimeoutException {
-      int maxSize = Message.getMaxMessageSize(hosts.length);
-      DatagramPacket packet = new DatagramPacket(new byte[maxSize], maxSize);
-      timedoutSocket.receive(packet);
+      synchronized (timeoutBuffer) {
+         return receive(timedoutSocket, timeoutPacket, timeoutBuffer);
+      }
+   }
 
-      return Message.parse(packet.getData(), packet.getLength());
+   /**
+    * Reçoit un paquet dans un tampon réutilisé, puis décode le message
+    * qu'il contient. Le message décodé ne dépend plus du tampon
+    * @param socket le socket de réception
+    * @param packet le paquet associé au tampon
+    * @param buffer le tampon
+    * @return le message reçu
+    * @throws IOException 
+    */
+   private static Message receive(DatagramSocket socket, DatagramPacket packet, ByteBuffer buffer) throws IOException {
+      // La longueur du paquet est celle du paquet précédent : on la remet
+      // à la capacité du tampon avant chaque réception
+      packet.setLength(buffer.capacity());
+      socket.receive(packet);
+      // Fermé par close() pendant la réception, le socket peut rendre un
+      // paquet vide au lieu de lever une exception
+      if (socket.isClosed()) {
+         throw new SocketException("Socket closed");
+      }
 
+      buffer.clear().limit(packet.getLength());
+      return Message.parse(buffer);
    }
 
    /**
@@ -1,11 +1,8 @@
 package ch.heigvd.prr.election;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
-import util.ByteIntConverter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
 
 /**
  * Cette classe représente un message envoyé sur le réseau Cette classe est
@@ -14,12 +11,22 @@ import util.ByteIntConverter;
  *
  * Plus de détail dans chacune des sous-classe
  *
+ * Un message est codé directement dans un ByteBuffer par writeTo(), et
+ * décodé depuis un ByteBuffer par parse(), sans passer par des listes
+ * d'octets : le même tampon peut servir à tous les envois. Les index de
+ * sites sont des int, codés en varint : un octet jusqu'à 127, deux jusqu'à
+ * 16383. Une annonce de 10'000 sites tient ainsi dans un datagramme UDP.
  *
  * @author Miguel Pombo Dias
  * @author Rémi Jacquemard
  */
 public abstract class Message {
 
+	/**
+	 * La taille maximale des données d'un datagramme UDP sur IPv4
+	 */
+	public static final int MAX_DATAGRAM_SIZE = 65507;
+
 	/**
 	 * Permet de récupérer la taille maximal possible d'un message à partir du
 	 * nombre de site. C'est enfaite la taille maximal que peut avoir un message
@@ -30,7 +37,7 @@ public abstract class Message {
 	 * byte
 	 */
 	public static int getMaxMessageSize(int numberOfHost) {
-		return numberOfHost * (Integer.BYTES + MessageType.BYTES) + MessageType.BYTES;
+		return numberOfHost * (varintSize(numberOfHost - 1) + Integer.BYTES) + MessageType.BYTES;
 	}
 
 	/**
@@ -47,8 +54,8 @@ public abstract class Message {
 		 * puis le transfère lui aussi à son voisin.
 		 *
 		 * Un message de type annonce est formé de d'abord le type de message,
-		 * puis des aptitudes (int) de chacun :
-		 * |TYPE|index1|apt|apt|apt|apt|index2|apt|apt|apt|apt|...
+		 * puis de l'index (varint) et de l'aptitude (int) de chacun :
+		 * |TYPE|index1...|apt|apt|apt|apt|index2...|apt|apt|apt|apt|...
 		 */
 		ANNOUNCE,
 		/**
@@ -71,8 +78,9 @@ public abstract class Message {
 		 * donc stopper la propagation de ce message, et obtenir l'élu
 		 *
 		 * Un message de type results est formé de d'abord le type de message,
-		 * puis de l'index de l'hôte élu (byte), puis des sites participant
-		 * |type|electedHostIndex|index3|index4|...
+		 * puis de l'index de l'hôte élu (varint), puis des sites participant,
+		 * un bit par site (le bit 0 du premier octet pour le site 0, ...)
+		 * |type|electedHostIndex...|sites0-7|sites8-15|...
 		 */
 		RESULTS,
 		/**
@@ -94,7 +102,20 @@ public abstract class Message {
 		 * est up. Dans le cas contraire, on essaie en envoyant au voisin de notre
 		 * voisin, etc.
 		 */
-		QUITTANCE;
+		QUITTANCE,
+		/**
+		 * Algorithme Bully : envoyé par un site lançant une élection à tous les
+		 * sites plus aptes que lui. Leur quittance lui indique qu'un site plus
+		 * apte est vivant, et celui-ci lance à son tour une élection.
+		 * Il est formé de la sorte: |type|senderHostIndex...|
+		 */
+		ELECTION,
+		/**
+		 * Algorithme Bully : envoyé à tous les sites par le site élu, lorsque
+		 * aucun site plus apte ne lui a répondu.
+		 * |type|electedHostIndex...|
+		 */
+		COORDINATOR;
 
 		/**
 		 * Permet de récupérer le numéro de type en byte de ce message. Utilisé
@@ -139,28 +160,32 @@ public abstract class Message {
 	 * @return le tableau de byte
 	 */
 	public final byte[] toByteArray() {
-		List<Byte> bytes = this.toByteList();
-		Iterator<Byte> it = bytes.iterator();
-		byte[] data = new byte[bytes.size()];
-		for (int i = 0; i < data.length; i++) {
-			data[i] = it.next();
-		}
+		ByteBuffer buffer = ByteBuffer.allocate(getSize());
+		writeTo(buffer);
+		return buffer.array();
+	}
 
-		return data;
+	/**
+	 * Permet de connaître la taille de ce message une fois codé. Cette méthode
+	 * doit être redéfinie par les sous classes qui ajoutent des informations
+	 * au message.
+	 *
+	 * @return la taille du message en byte
+	 */
+	public int getSize() {
+		return MessageType.BYTES;
 	}
 
 	/**
-	 * Permet de récupérer une liste des bytes formant ce message Cette méthode
-	 * doit idéalement être redéfinie par les sous classe si celle-ci y ajoute
-	 * des informations. Par exemple, une annonce doit y ajouter les bytes
-	 * formant la liste des sites avec aptitudes.
+	 * Code ce message à la position courante du tampon, qui avance d'autant.
+	 * Cette méthode doit être redéfinie par les sous classes qui ajoutent des
+	 * informations au message, à la suite du type écrit par celle-ci. Par
+	 * exemple, une annonce doit y ajouter la liste des sites avec aptitudes.
 	 *
-	 * @return la liste de byte associée.
+	 * @param buffer le tampon, d'au moins getSize() bytes restants
 	 */
-	public List<Byte> toByteList() {
-		LinkedList<Byte> bytes = new LinkedList<>();
-		bytes.add(getMessageType().getByte());
-		return bytes;
+	public void writeTo(ByteBuffer buffer) {
+		buffer.put(getMessageType().getByte());
 	}
 
 	/**
@@ -182,22 +207,84 @@ public abstract class Message {
 	 * @return Le message parsé
 	 */
 	public static Message parse(byte[] data, int size) {
-		MessageType type = MessageType.getMessageType(data[0]);
+		return parse(ByteBuffer.wrap(data, 0, size));
+	}
+
+	/**
+	 * Permet de décoder un message depuis un tampon, de sa position courante
+	 * jusqu'à sa limite. Le tampon n'est pas conservé par le message : il peut
+	 * être réutilisé pour la réception suivante.
+	 *
+	 * @param buffer le tampon contenant exactement un message
+	 * @return Le message décodé
+	 */
+	public static Message parse(ByteBuffer buffer) {
+		MessageType type = MessageType.getMessageType(buffer.get());
 
 		switch (type) {
 			case ANNOUNCE:
-				return new AnnounceMessage(data, size);
+				return new AnnounceMessage(buffer);
 			case ECHO:
 				return new EchoMessage();
 			case QUITTANCE:
 				return new QuittanceMessage();
 			case RESULTS:
-				return new ResultsMessage(data, size);
+				return new ResultsMessage(buffer);
+			case ELECTION:
+				return new ElectionMessage(buffer);
+			case COORDINATOR:
+				return new CoordinatorMessage(buffer);
 			default:
 				return null;
 		}
 	}
 
+	/**
+	 * Code un entier positif en varint : 7 bits par octet, du poids faible au
+	 * poids fort, le bit de poids fort indiquant qu'un octet suit
+	 *
+	 * @param buffer le tampon où écrire
+	 * @param value l'entier, positif ou nul
+	 */
+	static void putVarint(ByteBuffer buffer, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * Décode un entier codé par putVarint()
+	 *
+	 * @param buffer le tampon où lire
+	 * @return l'entier
+	 */
+	static int getVarint(ByteBuffer buffer) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	/**
+	 * @param value un entier positif ou nul
+	 * @return le nombre d'octets de son codage varint
+	 */
+	static int varintSize(int value) {
+		int size = 1;
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
 	// ------------- SUBCLASSES ---------------- //
 	/**
 	 * Une annonce est utilisée lorsqu'on souhaite annoncer son aptitude aux
@@ -209,65 +296,45 @@ public abstract class Message {
 	 * le transfère lui aussi à son voisin.
 	 *
 	 * Un message de type annonce est formé de d'abord le type de message, puis
-	 * des aptitudes (int) de chacun :
-	 * |TYPE|index1|apt|apt|apt|apt|index2|apt|apt|apt|apt|...
+	 * de l'index (varint) et de l'aptitude (int) de chacun :
+	 * |TYPE|index1...|apt|apt|apt|apt|index2...|apt|apt|apt|apt|...
 	 */
 	public static class AnnounceMessage extends Message {
 
-		// Map contenant, pour chaque site (clé), son aptitude (valeur)
-		private Map<Byte, Integer> aptitudes;
+		// Les sites ayant annoncé leur aptitude, dans l'ordre de leur annonce,
+		// et leurs aptitudes aux mêmes positions
+		private int[] sites;
+		private int[] aptitudes;
+		private int count = 0;
 
-		/**
-		 * Permet de créer un nouveau message à partir d'une map La clé de la map
-		 * correspond à l'indice du site, la valeur à son aptitude
-		 *
-		 * @param aptitudes les aptitudes de chacun des sites
-		 */
-		public AnnounceMessage(Map<Byte, Integer> aptitudes) {
-			this.aptitudes = aptitudes;
-		}
+		// Les mêmes sites, pour savoir en O(1) si un site a déjà annoncé
+		private final BitSet announced = new BitSet();
 
 		/**
 		 * Permet de créer un nouveau message de type annonce vide
 		 */
 		public AnnounceMessage() {
-			this.aptitudes = new HashMap<>();
+			this.sites = new int[8];
+			this.aptitudes = new int[8];
 		}
 
 		/**
-		 * Permet de créer un message de type annonce à partir d'un tableau de
-		 * byte. Dans notre application, ce tableau est reçu depuis le réseau.
-		 * Cette méthode se charge de parser le tableau data et d'en faire un
-		 * message de type annonce
+		 * Permet de créer un message de type annonce à partir d'un tampon, dont
+		 * le type a déjà été lu. Dans notre application, ce tampon est reçu
+		 * depuis le réseau.
 		 *
-		 * On doit aussi passer la taille du message car le tableau passer en
-		 * paramètre peut être plus grand que le message réel (data[] est enfaite
-		 * un buffer souvant non remplis complètement)
-		 *
-		 * @param data le tableau de byte contenant un AnnounceMessage sérialisé
-		 * @param size la taille effective du tableau
+		 * @param buffer le tampon contenant les aptitudes, jusqu'à sa limite
 		 */
-		public AnnounceMessage(byte[] data, int size) {
-			this();
-
-			// On cherche le nombre de site
-			int rowSize = MessageType.BYTES + Integer.BYTES;
-			int nbSite = (size - MessageType.BYTES) / rowSize;
-
-			for (int i = 0; i < nbSite; i++) { // Pour chaque site
-				// On récupère l'index du site à l'endroit courant de la liste
-				byte hostIndex = data[MessageType.BYTES + i * rowSize];
-
-				// On récupère les bytes contenant l'aptitude du dit site
-				byte[] aptBytes = new byte[Integer.BYTES];
-				for (int j = 0; j < aptBytes.length; j++) {
-					aptBytes[j] = data[MessageType.BYTES + i * rowSize + 1 + j];
-				}
-
-				// On convertit ces bytes en integer et on l'ajoute à la liste
-				// courante des aptitudes
-				int curApptitude = ByteIntConverter.bytesToInt(aptBytes);
-				aptitudes.put(hostIndex, curApptitude);
+		private AnnounceMessage(ByteBuffer buffer) {
+			// Au moins 5 bytes par site : de quoi tous les contenir
+			int capacity = Math.max(buffer.remaining() / (Byte.BYTES + Integer.BYTES), 1);
+			this.sites = new int[capacity];
+			this.aptitudes = new int[capacity];
+			while (buffer.hasRemaining()) { // Pour chaque site
+				int site = getVarint(buffer);
+				sites[count] = site;
+				aptitudes[count++] = buffer.getInt();
+				announced.set(site);
 			}
 		}
 
@@ -278,8 +345,29 @@ public abstract class Message {
 		 * @param hostIndex l'index du site
 		 * @param aptitude l'aptitude associée
 		 */
-		public void setAptitude(byte hostIndex, int aptitude) {
-			this.aptitudes.put(hostIndex, aptitude);
+		public void setAptitude(int hostIndex, int aptitude) {
+			int i = indexOf(hostIndex);
+			if (i < 0) {
+				if (count == sites.length) {
+					sites = Arrays.copyOf(sites, count * 2);
+					aptitudes = Arrays.copyOf(aptitudes, count * 2);
+				}
+				i = count++;
+				sites[i] = hostIndex;
+				announced.set(hostIndex);
+			}
+			aptitudes[i] = aptitude;
+		}
+
+		/**
+		 * Permet de savoir si un site a déjà annoncé son aptitude dans ce
+		 * message
+		 *
+		 * @param hostIndex le numéro du site
+		 * @return vrai si le message contient l'aptitude de ce site
+		 */
+		public boolean hasAptitude(int hostIndex) {
+			return announced.get(hostIndex);
 		}
 
 		/**
@@ -291,19 +379,32 @@ public abstract class Message {
 		 * @return l'aptitude associée, ou null si l'aptitude pour le site demandé
 		 * est introuvable dans ce message
 		 */
-		public Integer getAptitude(byte hostIndex) {
-			return this.aptitudes.get(hostIndex);
+		public Integer getAptitude(int hostIndex) {
+			int i = indexOf(hostIndex);
+			return i < 0 ? null : aptitudes[i];
 		}
 
 		/**
-		 * Permet de récupérer la map de toutes les aptitudes stockées dans ce
-		 * message. Map contenant, pour chaque index de site (clé), son aptitude
-		 * (valeur)
-		 *
-		 * @return la map des aptitudes.
+		 * @return le nombre de sites ayant annoncé leur aptitude
+		 */
+		public int getCount() {
+			return count;
+		}
+
+		/**
+		 * @param i la position d'une annonce, de 0 à getCount() exclu
+		 * @return l'index du site ayant fait cette annonce
 		 */
-		public Map<Byte, Integer> getAptitudes() {
-			return aptitudes;
+		public int getSiteAt(int i) {
+			return sites[i];
+		}
+
+		/**
+		 * @param i la position d'une annonce, de 0 à getCount() exclu
+		 * @return l'aptitude annoncée
+		 */
+		public int getAptitudeAt(int i) {
+			return aptitudes[i];
 		}
 
 		/**
@@ -316,36 +417,39 @@ public abstract class Message {
 			return MessageType.ANNOUNCE;
 		}
 
+		@Override
+		public int getSize() {
+			int size = super.getSize() + count * Integer.BYTES;
+			for (int i = 0; i < count; i++) {
+				size += varintSize(sites[i]);
+			}
+			return size;
+		}
+
 		/**
-		 * Permet de récupérer la liste de tous les bytes formant ce message
-		 * (sérialisation)
+		 * Code le type, puis pour chaque site son index et son aptitude
 		 *
-		 * @return la liste de tous les bytes
+		 * @param buffer le tampon, d'au moins getSize() bytes restants
 		 */
 		@Override
-		public List<Byte> toByteList() {
-			// On appelle la méthode toByteList parente. Celle-ci nous retourne
-			// une liste dont le premier byte est dors-et-déjà le type du message
-			List<Byte> bytes = super.toByteList();
-
-			// Pour chaque aptitudes de ce message (siteIndex:aptitude)
-			aptitudes.entrySet().stream().map((entry) -> {
-				// On ajoute l'index de l'hôte à la liste des bytes
-				Byte hostIndex = entry.getKey();
-				bytes.add(hostIndex);
-				// On transmet l'aptitude plus loin
-				Integer aptitude = entry.getValue();
-				return aptitude;
-				// On convertit l'aptitude en tableau de byte
-			}).map((aptitude) -> ByteIntConverter.intToByte(aptitude))
-				// On ajoute chacun des bytes à la liste
-				.forEachOrdered((app) -> {
-					for (byte b : app) {
-						bytes.add(b);
-					}
-				});
-
-			return bytes;
+		public void writeTo(ByteBuffer buffer) {
+			super.writeTo(buffer);
+			for (int i = 0; i < count; i++) {
+				putVarint(buffer, sites[i]);
+				buffer.putInt(aptitudes[i]);
+			}
+		}
+
+		private int indexOf(int hostIndex) {
+			if (!announced.get(hostIndex)) {
+				return -1;
+			}
+			for (int i = 0; i < count; i++) {
+				if (sites[i] == hostIndex) {
+					return i;
+				}
+			}
+			return -1;
 		}
 
 	}
@@ -369,16 +473,21 @@ public abstract class Message {
 	 * propagation de ce message, et obtenir l'élu
 	 *
 	 * Un message de type results est formé de d'abord le type de message, puis
-	 * de l'index de l'hôte élu (byte), puis des sites participant
-	 * |type|electedHostIndex|index3|index4|...
+	 * de l'index de l'hôte élu (varint), puis des sites participant, un bit par
+	 * site (le bit 0 du premier octet pour le site 0, ...) :
+	 * |type|electedHostIndex...|sites0-7|sites8-15|...
+	 *
+	 * Le message ne grandit ainsi que d'un octet tous les 8 sites, et savoir si
+	 * un site l'a vu se fait en O(1).
 	 */
 	public static class ResultsMessage extends Message {
 
 		// Le numéro de site de l'élu
-		private final byte electedIndex;
+		private final int electedIndex;
 
-		// La liste des sites ayant vu ce message. Utile lors d'élection multiple
-		private final LinkedList<Byte> seenSites;
+		// Les sites ayant vu ce message, un bit par site. Utile lors
+		// d'élection multiple
+		private final BitSet seenSites;
 
 		/**
 		 * Permet d'instancier un nouveau message de type RESULTS, où l'élu est
@@ -386,34 +495,25 @@ public abstract class Message {
 		 *
 		 * @param electedIndex le numéro de site de l'élu
 		 */
-		public ResultsMessage(byte electedIndex) {
+		public ResultsMessage(int electedIndex) {
 			this.electedIndex = electedIndex;
-			this.seenSites = new LinkedList<>();
+			this.seenSites = new BitSet();
 		}
 
 		/**
 		 * Permet d'instancier un nouveau message de type RESULTS à partir d'un
-		 * tableau de byte. Dans notre application, ce tableau est reçu depuis le
-		 * réseau. Cette méthode se charge de parser le tableau data et d'en faire
-		 * un message de type RESULTS
-		 *
-		 * On doit aussi passer la taille du message car le tableau passer en
-		 * paramètre peut être plus grand que le message réel (data[] est enfaite
-		 * un buffer souvant non remplis complètement)
+		 * tampon dont le type a déjà été lu. Dans notre application, ce tampon
+		 * est reçu depuis le réseau.
 		 *
-		 * @param data
-		 * @param size
-		 */
-		public ResultsMessage(byte[] data, int size) {
-			// Le numéro de l'élu est au 2ème byte, le premier étant le type du
-			// message
-			this.electedIndex = data[1];
-
-			// Liste des sites ayant vu ce message
-			this.seenSites = new LinkedList<>();
-			for (int i = 2; i < size; i++) {
-				seenSites.add(data[i]);
-			}
+		 * @param buffer le tampon contenant l'élu puis les sites l'ayant vu,
+		 * jusqu'à sa limite
+		 */
+		private ResultsMessage(ByteBuffer buffer) {
+			// Le numéro de l'élu suit le type du message
+			this.electedIndex = getVarint(buffer);
+
+			// Sites ayant vu ce message, jusqu'à la fin du tampon
+			this.seenSites = BitSet.valueOf(buffer);
 		}
 
 		/**
@@ -423,8 +523,16 @@ public abstract class Message {
 		 *
 		 * @param hostIndex
 		 */
-		public void addSeenSite(byte hostIndex) {
-			this.seenSites.add(hostIndex);
+		public void addSeenSite(int hostIndex) {
+			seenSites.set(hostIndex);
+		}
+
+		/**
+		 * @param hostIndex le numéro d'un site
+		 * @return vrai si ce site a déjà vu ce message
+		 */
+		public boolean hasSeen(int hostIndex) {
+			return seenSites.get(hostIndex);
 		}
 
 		/**
@@ -437,40 +545,38 @@ public abstract class Message {
 			return MessageType.RESULTS;
 		}
 
+		@Override
+		public int getSize() {
+			// BitSet.toByteArray() omet les octets nuls de la fin
+			return super.getSize() + varintSize(electedIndex) + (seenSites.length() + 7) / 8;
+		}
+
 		/**
-		 * Permet de récupérer la liste de tous les bytes formant ce message
-		 * (sérialisation)
+		 * Code le type, puis l'élu, puis les sites ayant vu ce message
 		 *
-		 * @return la liste de tous les bytes
+		 * @param buffer le tampon, d'au moins getSize() bytes restants
 		 */
 		@Override
-		public List<Byte> toByteList() {
-			// On appelle la méthode toByteList parente. Celle-ci nous retourne
-			// une liste dont le premier byte est dors-et-déjà le type du message
-			List<Byte> bytes = super.toByteList();
-			
-			// On y ajoute l'élu
-			bytes.add(electedIndex);
-			
-			// On y ajoute les sites vu
-			seenSites.forEach((s) -> bytes.add(s));
-			
-			return bytes;
+		public void writeTo(ByteBuffer buffer) {
+			super.writeTo(buffer);
+			putVarint(buffer, electedIndex);
+			buffer.put(seenSites.toByteArray());
 		}
 
 		/**
 		 * @return le numéro de site élu
 		 */
-		public byte getElectedIndex() {
+		public int getElectedIndex() {
 			return electedIndex;
 		}
 
 		/**
-		 * La liste des sites (byte) ayant reçu et vu ce message
-		 * @return la liste des sites
+		 * La liste des sites ayant reçu et vu ce message, pour l'affichage
+		 * @return la liste des sites, telle que "{0, 1, 2}"
 		 */
-		public LinkedList<Byte> getSeenSites() {
-			return seenSites;
+		@Override
+		public String toString() {
+			return seenSites.toString();
 		}
 
 	}
@@ -525,4 +631,107 @@ public abstract class Message {
 		}
 	}
 
+	/**
+	 * Algorithme Bully : demande aux sites plus aptes que l'émetteur s'ils
+	 * sont vivants. Leur quittance sert de réponse. L'index de l'émetteur
+	 * permet à l'élu déjà connu de lui répondre directement.
+	 *
+	 * Ce message est formé de la sorte: |type|senderHostIndex...|
+	 */
+	public static class ElectionMessage extends Message {
+
+		// Le numéro de site de l'émetteur
+		private final int senderIndex;
+
+		/**
+		 * @param senderIndex le numéro de site de l'émetteur
+		 */
+		public ElectionMessage(int senderIndex) {
+			this.senderIndex = senderIndex;
+		}
+
+		private ElectionMessage(ByteBuffer buffer) {
+			this.senderIndex = getVarint(buffer);
+		}
+
+		/**
+		 * Permet de connaitre le type du message courant
+		 *
+		 * @return un type de message ELECTION
+		 */
+		@Override
+		protected MessageType getMessageType() {
+			return MessageType.ELECTION;
+		}
+
+		@Override
+		public int getSize() {
+			return super.getSize() + varintSize(senderIndex);
+		}
+
+		@Override
+		public void writeTo(ByteBuffer buffer) {
+			super.writeTo(buffer);
+			putVarint(buffer, senderIndex);
+		}
+
+		/**
+		 * @return le numéro de site de l'émetteur
+		 */
+		public int getSenderIndex() {
+			return senderIndex;
+		}
+	}
+
+	/**
+	 * Algorithme Bully : annonce l'élu à tous les sites. Il est envoyé par
+	 * l'élu lui-même, le plus apte des sites vivants.
+	 *
+	 * Ce message est formé de la sorte: |type|electedHostIndex...|
+	 */
+	public static class CoordinatorMessage extends Message {
+
+		// Le numéro de site de l'élu
+		private final int electedIndex;
+
+		/**
+		 * @param electedIndex le numéro de site de l'élu
+		 */
+		public CoordinatorMessage(int electedIndex) {
+			this.electedIndex = electedIndex;
+		}
+
+		private CoordinatorMessage(ByteBuffer buffer) {
+			this.electedIndex = getVarint(buffer);
+		}
+
+		/**
+		 * Permet de connaitre le type du message courant
+		 *
+		 * @return un type de message COORDINATOR
+		 */
+		@Override
+		protected MessageType getMessageType() {
+			return MessageType.COORDINATOR;
+		}
+
+		@Override
+		public int getSize() {
+			return super.getSize() + varintSize(electedIndex);
+		}
+
+		@Override
+		public void writeTo(ByteBuffer buffer) {
+			super.writeTo(buffer);
+			putVarint(buffer, electedIndex);
+		}
+
+		/**
+		 * @return le numéro de site élu
+		 */
+		public int getElectedIndex() {
+			return electedIndex;
+		}
+	}
+
 }